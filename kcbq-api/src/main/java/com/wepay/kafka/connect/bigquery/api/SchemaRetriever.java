@@ -23,6 +23,8 @@
 
 package com.wepay.kafka.connect.bigquery.api;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import org.apache.kafka.connect.data.Schema;
 import org.apache.kafka.connect.sink.SinkRecord;
@@ -55,4 +57,34 @@ public interface SchemaRetriever {
    * @return The value Schema for the given record.
    */
   Schema retrieveValueSchema(SinkRecord record);
+
+  /**
+   * Retrieve the most current key schemas for a batch of sink records. Implementations that look
+   * schemas up remotely can override this to resolve each distinct schema in the batch only once.
+   *
+   * @param records The records to retrieve key schemas for.
+   * @return The key Schemas for the given records, in the same order as the records.
+   */
+  default List<Schema> retrieveKeySchemas(List<SinkRecord> records) {
+    List<Schema> result = new ArrayList<>(records.size());
+    for (SinkRecord record : records) {
+      result.add(retrieveKeySchema(record));
+    }
+    return result;
+  }
+
+  /**
+   * Retrieve the most current value schemas for a batch of sink records. Implementations that look
+   * schemas up remotely can override this to resolve each distinct schema in the batch only once.
+   *
+   * @param records The records to retrieve value schemas for.
+   * @return The value Schemas for the given records, in the same order as the records.
+   */
+  default List<Schema> retrieveValueSchemas(List<SinkRecord> records) {
+    List<Schema> result = new ArrayList<>(records.size());
+    for (SinkRecord record : records) {
+      result.add(retrieveValueSchema(record));
+    }
+    return result;
+  }
 }
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery;
+
+import com.wepay.kafka.connect.bigquery.config.BigQuerySinkConfig;
+import com.wepay.kafka.connect.bigquery.config.BigQuerySinkTaskConfig;
+import io.debezium.time.Date;
+import io.debezium.time.MicroTimestamp;
+import io.debezium.time.Timestamp;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.connect.data.Decimal;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+/**
+ * Realistic record fixtures shared by the benchmarks. Every fixture is generated from a fixed seed so
+ * that numbers are comparable between runs.
+ */
+public final class RecordFixtures {
+
+  public static final String TOPIC = "kcbq-benchmark";
+
+  /**
+   * The shapes of record that the connector commonly sees.
+   */
+  public enum Kind {
+    /**
+     * A Debezium change event for a wide (200 column) table.
+     */
+    DEBEZIUM,
+    /**
+     * A record deserialized by the Avro converter, with nested structs, arrays, maps and logical types,
+     * and field names that need to be sanitized.
+     */
+    AVRO_STRUCT,
+    /**
+     * A schemaless record, as produced by the JSON converter with schemas disabled.
+     */
+    SCHEMALESS
+  }
+
+  private static final int DEBEZIUM_COLUMNS = 200;
+  private static final long BASE_TIMESTAMP = 1700000000000L;
+
+  private RecordFixtures() {
+  }
+
+  /**
+   * @param kind  The shape of the records to generate
+   * @param count The number of records to generate
+   * @return records of the given shape, all sharing the same schema instances
+   */
+  public static List<SinkRecord> records(Kind kind, int count) {
+    Random random = new Random(42);
+    List<SinkRecord> result = new ArrayList<>(count);
+    switch (kind) {
+      case DEBEZIUM:
+        Schema rowSchema = debeziumRowSchema();
+        Schema envelopeSchema = debeziumEnvelopeSchema(rowSchema);
+        for (int i = 0; i < count; i++) {
+          result.add(record(KEY_SCHEMA, key(i), envelopeSchema, debeziumEnvelope(envelopeSchema, rowSchema, random, i), i));
+        }
+        break;
+      case AVRO_STRUCT:
+        Schema avroSchema = avroSchema();
+        for (int i = 0; i < count; i++) {
+          result.add(record(KEY_SCHEMA, key(i), avroSchema, avroValue(avroSchema, random, i), i));
+        }
+        break;
+      case SCHEMALESS:
+        for (int i = 0; i < count; i++) {
+          result.add(record(null, (long) i, null, schemalessValue(random, i), i));
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown fixture kind " + kind);
+    }
+    return result;
+  }
+
+  /**
+   * @return task configuration for a sink writing to the given tables
+   */
+  public static BigQuerySinkTaskConfig taskConfig(boolean useStorageWriteApi, boolean upsertEnabled) {
+    Map<String, String> properties = new HashMap<>();
+    properties.put(BigQuerySinkConfig.TOPICS_CONFIG, TOPIC);
+    properties.put(BigQuerySinkConfig.PROJECT_CONFIG, "benchmark-project");
+    properties.put(BigQuerySinkConfig.DEFAULT_DATASET_CONFIG, "benchmark_dataset");
+    properties.put(BigQuerySinkConfig.KEYFILE_CONFIG, "key.json");
+    properties.put(BigQuerySinkConfig.TABLE_CREATE_CONFIG, "false");
+    properties.put(BigQuerySinkConfig.SANITIZE_FIELD_NAME_CONFIG, "true");
+    properties.put(BigQuerySinkConfig.KAFKA_KEY_FIELD_NAME_CONFIG, "kafka_key");
+    properties.put(BigQuerySinkConfig.KAFKA_DATA_FIELD_NAME_CONFIG, "kafka_data");
+    properties.put(BigQuerySinkConfig.USE_STORAGE_WRITE_API_CONFIG, Boolean.toString(useStorageWriteApi));
+    properties.put(BigQuerySinkConfig.UPSERT_ENABLED_CONFIG, Boolean.toString(upsertEnabled));
+    properties.put(BigQuerySinkTaskConfig.TASK_ID_CONFIG, "0");
+    return new BigQuerySinkTaskConfig(properties);
+  }
+
+  private static final Schema KEY_SCHEMA = SchemaBuilder.struct()
+      .name("com.wepay.kcbq.benchmark.Key")
+      .field("id", Schema.INT64_SCHEMA)
+      .build();
+
+  private static Struct key(long id) {
+    return new Struct(KEY_SCHEMA).put("id", id);
+  }
+
+  private static SinkRecord record(Schema keySchema, Object key, Schema valueSchema, Object value, long offset) {
+    return new SinkRecord(
+        TOPIC, 0, keySchema, key, valueSchema, value, offset, BASE_TIMESTAMP + offset, TimestampType.CREATE_TIME);
+  }
+
+  private static Schema debeziumRowSchema() {
+    SchemaBuilder builder = SchemaBuilder.struct().name("dbserver.inventory.orders.Value").optional();
+    for (int i = 0; i < DEBEZIUM_COLUMNS; i++) {
+      builder.field("column_" + i, debeziumColumnSchema(i));
+    }
+    return builder.build();
+  }
+
+  private static Schema debeziumColumnSchema(int column) {
+    switch (column % 8) {
+      case 0:
+        return column == 0 ? Schema.INT64_SCHEMA : Schema.OPTIONAL_INT64_SCHEMA;
+      case 1:
+        return Schema.OPTIONAL_STRING_SCHEMA;
+      case 2:
+        return Timestamp.builder().optional().build();
+      case 3:
+        return MicroTimestamp.builder().optional().build();
+      case 4:
+        return Date.builder().optional().build();
+      case 5:
+        return Decimal.builder(2).optional().build();
+      case 6:
+        return Schema.OPTIONAL_BOOLEAN_SCHEMA;
+      default:
+        return Schema.OPTIONAL_FLOAT64_SCHEMA;
+    }
+  }
+
+  private static Object debeziumColumnValue(int column, Random random, long id) {
+    // Leave roughly one in ten optional columns empty, as wide tables usually have sparse columns
+    if (column != 0 && random.nextInt(10) == 0) {
+      return null;
+    }
+    switch (column % 8) {
+      case 0:
+        return column == 0 ? id : random.nextLong();
+      case 1:
+        return "value-" + random.nextInt(100000);
+      case 2:
+        return BASE_TIMESTAMP + random.nextInt(1000000);
+      case 3:
+        return (BASE_TIMESTAMP + random.nextInt(1000000)) * 1000L;
+      case 4:
+        return 19000 + random.nextInt(1000);
+      case 5:
+        return BigDecimal.valueOf(random.nextInt(1000000), 2);
+      case 6:
+        return random.nextBoolean();
+      default:
+        return random.nextDouble();
+    }
+  }
+
+  private static Schema debeziumEnvelopeSchema(Schema rowSchema) {
+    Schema sourceSchema = SchemaBuilder.struct().name("io.debezium.connector.mysql.Source")
+        .field("version", Schema.OPTIONAL_STRING_SCHEMA)
+        .field("name", Schema.STRING_SCHEMA)
+        .field("server_id", Schema.INT64_SCHEMA)
+        .field("ts_sec", Schema.INT64_SCHEMA)
+        .field("file", Schema.STRING_SCHEMA)
+        .field("pos", Schema.INT64_SCHEMA)
+        .field("row", Schema.INT32_SCHEMA)
+        .field("snapshot", Schema.OPTIONAL_BOOLEAN_SCHEMA)
+        .field("db", Schema.OPTIONAL_STRING_SCHEMA)
+        .field("table", Schema.OPTIONAL_STRING_SCHEMA)
+        .build();
+    return SchemaBuilder.struct().name("dbserver.inventory.orders.Envelope")
+        .field("before", rowSchema)
+        .field("after", rowSchema)
+        .field("source", sourceSchema)
+        .field("op", Schema.STRING_SCHEMA)
+        .field("ts_ms", Schema.OPTIONAL_INT64_SCHEMA)
+        .build();
+  }
+
+  private static Struct debeziumEnvelope(Schema envelopeSchema, Schema rowSchema, Random random, long id) {
+    Struct after = new Struct(rowSchema);
+    for (int i = 0; i < DEBEZIUM_COLUMNS; i++) {
+      after.put("column_" + i, debeziumColumnValue(i, random, id));
+    }
+    Struct source = new Struct(envelopeSchema.field("source").schema())
+        .put("version", "0.6.2")
+        .put("name", "dbserver")
+        .put("server_id", 223344L)
+        .put("ts_sec", BASE_TIMESTAMP / 1000)
+        .put("file", "mysql-bin.000003")
+        .put("pos", 154L + id)
+        .put("row", 0)
+        .put("snapshot", false)
+        .put("db", "inventory")
+        .put("table", "orders");
+    return new Struct(envelopeSchema)
+        .put("after", after)
+        .put("source", source)
+        .put("op", "c")
+        .put("ts_ms", BASE_TIMESTAMP + id);
+  }
+
+  private static Schema avroSchema() {
+    Schema addressSchema = SchemaBuilder.struct().name("com.example.Address").optional()
+        .field("street-name", Schema.STRING_SCHEMA)
+        .field("city", Schema.STRING_SCHEMA)
+        .field("zip.code", Schema.OPTIONAL_STRING_SCHEMA)
+        .build();
+    return SchemaBuilder.struct().name("com.example.Customer")
+        .field("customer-id", Schema.INT64_SCHEMA)
+        .field("name", Schema.STRING_SCHEMA)
+        .field("email", Schema.OPTIONAL_STRING_SCHEMA)
+        .field("age", Schema.OPTIONAL_INT32_SCHEMA)
+        .field("score", Schema.FLOAT32_SCHEMA)
+        .field("balance", Decimal.builder(4).build())
+        .field("created_at", org.apache.kafka.connect.data.Timestamp.builder().build())
+        .field("birth_date", org.apache.kafka.connect.data.Date.builder().optional().build())
+        .field("avatar", Schema.OPTIONAL_BYTES_SCHEMA)
+        .field("home address", addressSchema)
+        .field("previous_addresses", SchemaBuilder.array(addressSchema).build())
+        .field("tags", SchemaBuilder.array(Schema.STRING_SCHEMA).build())
+        .field("attributes", SchemaBuilder.map(Schema.STRING_SCHEMA, Schema.INT32_SCHEMA).build())
+        .build();
+  }
+
+  private static Struct avroValue(Schema schema, Random random, long id) {
+    Schema addressSchema = schema.field("home address").schema();
+    List<Struct> previousAddresses = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      previousAddresses.add(address(addressSchema, random));
+    }
+    Map<String, Integer> attributes = new LinkedHashMap<>();
+    for (int i = 0; i < 5; i++) {
+      attributes.put("attribute-" + i, random.nextInt(100));
+    }
+    byte[] avatar = new byte[64];
+    random.nextBytes(avatar);
+    return new Struct(schema)
+        .put("customer-id", id)
+        .put("name", "customer-" + id)
+        .put("email", "customer-" + id + "@example.com")
+        .put("age", 18 + random.nextInt(60))
+        .put("score", random.nextFloat())
+        .put("balance", BigDecimal.valueOf(random.nextInt(100000000), 4))
+        .put("created_at", new java.util.Date(BASE_TIMESTAMP + id))
+        .put("birth_date", new java.util.Date(86400000L * (3000 + random.nextInt(10000))))
+        .put("avatar", avatar)
+        .put("home address", address(addressSchema, random))
+        .put("previous_addresses", previousAddresses)
+        .put("tags", Arrays.asList("tag-" + random.nextInt(10), "tag-" + random.nextInt(10)))
+        .put("attributes", attributes);
+  }
+
+  private static Struct address(Schema addressSchema, Random random) {
+    return new Struct(addressSchema)
+        .put("street-name", random.nextInt(1000) + " Main Street")
+        .put("city", "City " + random.nextInt(100))
+        .put("zip.code", String.format("%05d", random.nextInt(100000)));
+  }
+
+  private static Map<String, Object> schemalessValue(Random random, long id) {
+    Map<String, Object> address = new HashMap<>();
+    address.put("street-name", random.nextInt(1000) + " Main Street");
+    address.put("city", "City " + random.nextInt(100));
+    address.put("zip.code", String.format("%05d", random.nextInt(100000)));
+
+    Map<String, Object> value = new HashMap<>();
+    value.put("customer-id", id);
+    value.put("name", "customer-" + id);
+    value.put("email", "customer-" + id + "@example.com");
+    value.put("age", 18 + random.nextInt(60));
+    value.put("score", random.nextDouble());
+    value.put("active", random.nextBoolean());
+    value.put("home address", address);
+    value.put("tags", Arrays.asList("tag-" + random.nextInt(10), "tag-" + random.nextInt(10)));
+    value.put("events", Arrays.asList(address, new HashMap<>(address)));
+    return value;
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.TableId;
+import com.wepay.kafka.connect.bigquery.convert.BigQuerySchemaConverter;
+import com.wepay.kafka.connect.bigquery.retrieve.IdentitySchemaRetriever;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the cost of computing the proposed table schema for a batch of records when schema
+ * unionization is enabled, which converts the schema of every record in the batch. The schema
+ * manager memoizes the schemas it has converted and unionized, so the cost is measured both for
+ * a batch of schemas it has seen before and for one it has not.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SchemaManagerBenchmark {
+
+  private static final TableId TABLE = TableId.of("benchmark_dataset", "benchmark_table");
+
+  @Param({"DEBEZIUM", "AVRO_STRUCT"})
+  public RecordFixtures.Kind kind;
+
+  @Param({"100"})
+  public int batchSize;
+
+  private SchemaManager schemaManager;
+  private List<SinkRecord> records;
+
+  @Setup
+  public void setup() {
+    schemaManager = newSchemaManager();
+    records = RecordFixtures.records(kind, batchSize);
+  }
+
+  /**
+   * A schema manager that has not converted or unionized any schemas yet.
+   */
+  @State(Scope.Thread)
+  public static class ColdSchemaManager {
+    private SchemaManager schemaManager;
+
+    @Setup(Level.Invocation)
+    public void setup() {
+      schemaManager = newSchemaManager();
+    }
+  }
+
+  /**
+   * Every invocation after the first is answered from the schema manager's memo.
+   */
+  @Benchmark
+  public void getAndValidateProposedSchema(Blackhole blackhole) {
+    blackhole.consume(schemaManager.getAndValidateProposedSchema(TABLE, records));
+  }
+
+  /**
+   * Every invocation converts and unionizes the schemas of the batch, as the first batch with a new
+   * schema does.
+   */
+  @Benchmark
+  public void getAndValidateProposedSchemaCold(ColdSchemaManager cold, Blackhole blackhole) {
+    blackhole.consume(cold.schemaManager.getAndValidateProposedSchema(TABLE, records));
+  }
+
+  private static SchemaManager newSchemaManager() {
+    return new SchemaManager(
+        new IdentitySchemaRetriever(),
+        new BigQuerySchemaConverter(false, true),
+        tableLessBigQuery(),
+        true,
+        true,
+        true,
+        true,
+        Optional.of("kafka_key"),
+        Optional.of("kafka_data"),
+        Optional.empty(),
+        Optional.empty(),
+        Optional.empty(),
+        Optional.empty()
+    );
+  }
+
+  /**
+   * @return a BigQuery client for which no tables exist, so that only the schemas of the records
+   *     themselves are unionized
+   */
+  private static BigQuery tableLessBigQuery() {
+    return (BigQuery) Proxy.newProxyInstance(
+        BigQuery.class.getClassLoader(),
+        new Class<?>[] {BigQuery.class},
+        (proxy, method, args) -> {
+          if (method.getName().equals("getTable")) {
+            return null;
+          }
+          throw new UnsupportedOperationException(method.getName());
+        }
+    );
+  }
+}
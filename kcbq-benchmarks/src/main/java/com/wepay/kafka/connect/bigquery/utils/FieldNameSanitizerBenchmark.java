@@ -0,0 +1,102 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.utils;
+
+import com.wepay.kafka.connect.bigquery.RecordFixtures;
+import com.wepay.kafka.connect.bigquery.convert.BigQueryRecordConverter;
+import com.wepay.kafka.connect.bigquery.api.KafkaSchemaRecordType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the cost of sanitizing field names, either by rewriting the keys of already converted
+ * rows or by having the record converter write sanitized field names in the first place.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FieldNameSanitizerBenchmark {
+
+  @Param({"DEBEZIUM", "AVRO_STRUCT", "SCHEMALESS"})
+  public RecordFixtures.Kind kind;
+
+  @Param({"100"})
+  public int batchSize;
+
+  private List<SinkRecord> records;
+  private List<Map<String, Object>> rows;
+  private BigQueryRecordConverter converter;
+  private BigQueryRecordConverter sanitizingConverter;
+
+  @Setup
+  public void setup() {
+    converter = new BigQueryRecordConverter(false, false, false);
+    sanitizingConverter = new BigQueryRecordConverter(false, false, false, true);
+    records = RecordFixtures.records(kind, batchSize);
+    rows = new ArrayList<>();
+    for (SinkRecord record : records) {
+      rows.add(converter.convertRecord(record, KafkaSchemaRecordType.VALUE));
+    }
+  }
+
+  @Benchmark
+  public void replaceInvalidKeys(Blackhole blackhole) {
+    for (Map<String, Object> row : rows) {
+      blackhole.consume(FieldNameSanitizer.replaceInvalidKeys(row));
+    }
+  }
+
+  @Benchmark
+  public void convertThenReplaceInvalidKeys(Blackhole blackhole) {
+    for (SinkRecord record : records) {
+      blackhole.consume(FieldNameSanitizer.replaceInvalidKeys(
+          converter.convertRecord(record, KafkaSchemaRecordType.VALUE)));
+    }
+  }
+
+  @Benchmark
+  public void convertWithSanitizedFieldNames(Blackhole blackhole) {
+    for (SinkRecord record : records) {
+      blackhole.consume(sanitizingConverter.convertRecord(record, KafkaSchemaRecordType.VALUE));
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.row;
+
+import com.google.cloud.bigquery.InsertAllRequest.RowToInsert;
+import com.google.cloud.bigquery.TableId;
+import com.wepay.kafka.connect.bigquery.RecordFixtures;
+import com.wepay.kafka.connect.bigquery.utils.SinkRecordConverter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the cost of serializing a batch of rows into the newline delimited JSON that is uploaded
+ * to GCS by the batch loading path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class GcsToBqWriterBenchmark {
+
+  private static final TableId TABLE = TableId.of("benchmark_dataset", "benchmark_table");
+
+  @Param({"DEBEZIUM", "AVRO_STRUCT", "SCHEMALESS"})
+  public RecordFixtures.Kind kind;
+
+  @Param({"100"})
+  public int batchSize;
+
+  private List<RowToInsert> rows;
+
+  @Setup
+  public void setup() {
+    SinkRecordConverter converter = new SinkRecordConverter(RecordFixtures.taskConfig(false, false), null, null);
+    rows = new ArrayList<>();
+    for (SinkRecord record : RecordFixtures.records(kind, batchSize)) {
+      rows.add(converter.getRecordRow(record, TABLE));
+    }
+  }
+
+  @Benchmark
+  public void toJson(Blackhole blackhole) {
+    blackhole.consume(GcsToBqWriter.toJson(rows));
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.storage;
+
+import com.wepay.kafka.connect.bigquery.RecordFixtures;
+import com.wepay.kafka.connect.bigquery.utils.SinkRecordConverter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the cost of preparing Storage Write API rows, from a converted row to the JSON object that
+ * is handed to the JSON stream writer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ConvertedRecordBenchmark {
+
+  @Param({"DEBEZIUM", "AVRO_STRUCT", "SCHEMALESS"})
+  public RecordFixtures.Kind kind;
+
+  @Param({"100"})
+  public int batchSize;
+
+  private SinkRecordConverter converter;
+  private List<SinkRecord> records;
+
+  @Setup
+  public void setup() {
+    converter = new SinkRecordConverter(RecordFixtures.taskConfig(true, false), null, null);
+    records = RecordFixtures.records(kind, batchSize);
+  }
+
+  @Benchmark
+  public void convertToJson(Blackhole blackhole) {
+    for (SinkRecord record : records) {
+      blackhole.consume(new ConvertedRecord(record, converter.getRegularRow(record)).converted());
+    }
+  }
+}
@@ -46,18 +46,28 @@ import com.wepay.kafka.connect.bigquery.exception.BigQueryConnectException;
 import com.wepay.kafka.connect.bigquery.exception.BigQueryErrorResponses;
 import com.wepay.kafka.connect.bigquery.exception.BigQueryStorageWriteApiConnectException;
 import com.wepay.kafka.connect.bigquery.exception.ConversionConnectException;
+import com.wepay.kafka.connect.bigquery.utils.MdcContextThreadFactory;
 import com.wepay.kafka.connect.bigquery.utils.PartitionedTableId;
 import com.wepay.kafka.connect.bigquery.utils.SinkRecordConverter;
 import com.wepay.kafka.connect.bigquery.utils.TableNameUtils;
 import com.wepay.kafka.connect.bigquery.utils.Time;
+import com.wepay.kafka.connect.bigquery.utils.TopicRouter;
 import com.wepay.kafka.connect.bigquery.utils.Version;
+import com.wepay.kafka.connect.bigquery.utils.VirtualThreads;
+import com.wepay.kafka.connect.bigquery.write.AdaptiveBatchSizer;
+import com.wepay.kafka.connect.bigquery.write.batch.BatchTrace;
+import com.wepay.kafka.connect.bigquery.write.batch.DeferredConversionBuilder;
 import com.wepay.kafka.connect.bigquery.write.batch.GcsBatchTableWriter;
 import com.wepay.kafka.connect.bigquery.write.batch.KcbqThreadPoolExecutor;
 import com.wepay.kafka.connect.bigquery.write.batch.MergeBatches;
+import com.wepay.kafka.connect.bigquery.write.batch.OffsetTracker;
 import com.wepay.kafka.connect.bigquery.write.batch.TableWriter;
+import com.wepay.kafka.connect.bigquery.write.batch.TableWriterBuffer;
 import com.wepay.kafka.connect.bigquery.write.batch.TableWriterBuilder;
+import com.wepay.kafka.connect.bigquery.write.batch.WriteMemoryAccountant;
 import com.wepay.kafka.connect.bigquery.write.row.AdaptiveBigQueryWriter;
 import com.wepay.kafka.connect.bigquery.write.row.BigQueryWriter;
+import com.wepay.kafka.connect.bigquery.write.row.GcsBlobFormat;
 import com.wepay.kafka.connect.bigquery.write.row.GcsToBqWriter;
 import com.wepay.kafka.connect.bigquery.write.row.SimpleBigQueryWriter;
 import com.wepay.kafka.connect.bigquery.write.row.UpsertDeleteBigQueryWriter;
@@ -67,10 +77,12 @@ import com.wepay.kafka.connect.bigquery.write.storage.StorageWriteApiBatchApplic
 import com.wepay.kafka.connect.bigquery.write.storage.StorageWriteApiDefaultStream;
 import com.wepay.kafka.connect.bigquery.write.storage.StorageWriteApiWriter;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -85,6 +97,11 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.metrics.Gauge;
+import org.apache.kafka.common.metrics.JmxReporter;
+import org.apache.kafka.common.metrics.KafkaMetricsContext;
+import org.apache.kafka.common.metrics.MetricConfig;
+import org.apache.kafka.common.metrics.Metrics;
 import org.apache.kafka.common.record.TimestampType;
 import org.apache.kafka.connect.errors.ConnectException;
 import org.apache.kafka.connect.errors.RetriableException;
@@ -93,7 +110,6 @@ import org.apache.kafka.connect.sink.SinkRecord;
 import org.apache.kafka.connect.sink.SinkTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.slf4j.MDC;
 
 /**
  * A {@link SinkTask} used to translate Kafka Connect {@link SinkRecord SinkRecords} into BigQuery
@@ -102,6 +118,8 @@ import org.slf4j.MDC;
 public class BigQuerySinkTask extends SinkTask {
   private static final Logger logger = LoggerFactory.getLogger(BigQuerySinkTask.class);
   private static final int EXECUTOR_SHUTDOWN_TIMEOUT_SEC = 30;
+  private static final String METRICS_NAMESPACE = "kafka.connect.bigquery";
+  private static final String TASK_METRICS_GROUP = "bigquery-sink-task-metrics";
   private final BigQuery testBigQuery;
   private final Storage testGcs;
   private final SchemaManager testSchemaManager;
@@ -111,6 +129,11 @@ public class BigQuerySinkTask extends SinkTask {
   private final Time time;
   @VisibleForTesting
   ScheduledExecutorService loadExecutor;
+  private ExecutorService loadJobCheckExecutor;
+  private AdaptiveBatchSizer<TableId> batchSizer;
+  private WriteMemoryAccountant memoryAccountant;
+  private Metrics metrics;
+  private WriteMetrics writeMetrics;
   private AtomicReference<BigQuery> bigQuery;
   private AtomicReference<SchemaManager> schemaManager;
   private SchemaRetriever schemaRetriever;
@@ -126,18 +149,28 @@ public class BigQuerySinkTask extends SinkTask {
   private volatile boolean stopped;
   private TopicPartitionManager topicPartitionManager;
   private KcbqThreadPoolExecutor executor;
-  private Map<TableId, Table> cache;
+  private TableWriterBuffer<PartitionedTableId> tableWriterBuffer;
+  private OffsetTracker offsetTracker;
+  private final Map<TableId, Table> testCache;
+  private TableMetadataCache tableCache;
+  private ExecutorService tableRefreshExecutor;
   private int remainingRetries;
   private boolean enableRetries;
   private ErrantRecordHandler errantRecordHandler;
   private boolean useStorageApi;
   private boolean useStorageApiBatchMode;
+  private boolean orderedTableWrites;
+  private int maxConcurrentWritesPerTable;
+  private boolean parallelConversion;
+  private boolean estimateRowBytes;
+  // the factory for the task's threads, before the MDC context is added; null for platform threads
+  private ThreadFactory baseThreadFactory;
   private StorageWriteApiBase storageApiWriter;
   private StorageApiBatchModeHandler batchHandler;
   private boolean autoCreateTables;
   private int retry;
   private long retryWait;
-  private Map<String, PartitionedTableId> topicToPartitionTableId;
+  private TopicRouter topicRouter;
 
   private boolean allowNewBigQueryFields;
   private boolean allowRequiredFieldRelaxation;
@@ -152,6 +185,7 @@ public class BigQuerySinkTask extends SinkTask {
     testSchemaManager = null;
     testStorageWriteApi = null;
     testStorageApiBatchHandler = null;
+    testCache = null;
     time = Time.SYSTEM;
   }
 
@@ -162,6 +196,7 @@ public class BigQuerySinkTask extends SinkTask {
    * @param schemaRetriever   {@link SchemaRetriever} to use for testing (likely a mock)
    * @param testGcs           {@link Storage} to use for testing (likely a mock)
    * @param testSchemaManager {@link SchemaManager} to use for testing (likely a mock)
+   * @param testCache         table metadata to populate the table cache with; may be null
    * @param time              {@link Time} used to wait during backoff periods; should be mocked for testing
    * @see BigQuerySinkTask#BigQuerySinkTask()
    */
@@ -173,7 +208,7 @@ public class BigQuerySinkTask extends SinkTask {
     this.schemaRetriever = schemaRetriever;
     this.testGcs = testGcs;
     this.testSchemaManager = testSchemaManager;
-    this.cache = testCache;
+    this.testCache = testCache;
     this.testStorageWriteApi = testStorageWriteApi;
     this.testStorageApiBatchHandler = testStorageApiBatchHandler;
     this.time = time;
@@ -194,11 +229,20 @@ public class BigQuerySinkTask extends SinkTask {
       // Still have to check for errors in order to prevent offsets being committed for records that
       // we've failed to write
       executor.maybeThrowEncounteredError();
+      if (useStorageApi) {
+        storageApiWriter.maybeThrowEncounteredError();
+      }
       return;
     }
 
+    // Lingering batches hold records whose offsets are about to be committed
+    tableWriterBuffer.drainAll().forEach(this::submit);
+
     try {
       executor.awaitCurrentTasks();
+      if (useStorageApi) {
+        storageApiWriter.awaitPendingAppends();
+      }
     } catch (InterruptedException err) {
       throw new ConnectException("Interrupted while waiting for write tasks to complete.", err);
     }
@@ -208,6 +252,10 @@ public class BigQuerySinkTask extends SinkTask {
 
   @Override
   public Map<TopicPartition, OffsetAndMetadata> preCommit(Map<TopicPartition, OffsetAndMetadata> offsets) {
+    if (!stopped) {
+      // Write any lingering batches now, rather than holding back their offsets until the next commit
+      tableWriterBuffer.drainAll().forEach(this::submit);
+    }
     if (upsertDelete) {
       Map<TopicPartition, OffsetAndMetadata> result = mergeBatches.latestOffsets();
       checkQueueSize();
@@ -218,21 +266,33 @@ public class BigQuerySinkTask extends SinkTask {
       return result;
     }
 
-    flush(offsets);
-    return offsets;
+    // Check for errors in order to prevent offsets being committed for records that we've failed to
+    // write; batches that are still queued, being written, or have appends in flight only hold back
+    // their own offsets
+    maybeThrowErrors();
+    Map<TopicPartition, OffsetAndMetadata> result = offsetTracker.committableOffsets(offsets);
+    if (stopped) {
+      return result;
+    }
+    checkQueueSize();
+    return result;
   }
 
-  private PartitionedTableId getStorageApiRecordTable(String topic) {
-    return topicToPartitionTableId.computeIfAbsent(topic, topicName -> {
-      String project = config.getString(BigQuerySinkConfig.PROJECT_CONFIG);
-      String[] datasetAndtableName = TableNameUtils.getDataSetAndTableName(config, topicName);
-      return new PartitionedTableId.Builder(TableId.of(project, datasetAndtableName[0], datasetAndtableName[1])).build();
-    });
+  @Override
+  public void close(Collection<TopicPartition> partitions) {
+    if (offsetTracker != null) {
+      offsetTracker.forget(partitions);
+    }
+  }
 
+  private TableId storageApiTableFor(String topic) {
+    String project = config.getString(BigQuerySinkConfig.PROJECT_CONFIG);
+    String[] datasetAndtableName = TableNameUtils.getDataSetAndTableName(config, topic);
+    return TableId.of(project, datasetAndtableName[0], datasetAndtableName[1]);
   }
 
-  private PartitionedTableId getRecordTable(SinkRecord record) {
-    String[] datasetAndtableName = TableNameUtils.getDataSetAndTableName(config, record.topic());
+  private TableId tableFor(String topic) {
+    String[] datasetAndtableName = TableNameUtils.getDataSetAndTableName(config, topic);
     String dataset = datasetAndtableName[0];
     String tableName = datasetAndtableName[1];
     // TODO: Order of execution of topic/table name modifications =>
@@ -243,37 +303,45 @@ public class BigQuerySinkTask extends SinkTask {
 
     // we use table name from above to sanitize table name further.
 
+    return TableId.of(dataset, tableName);
+  }
 
-    TableId baseTableId = TableId.of(dataset, tableName);
+  private PartitionedTableId getRecordTable(SinkRecord record) {
+    TopicRouter.Route route = topicRouter.route(record.topic());
+    if (useStorageApi) {
+      return route.unpartitioned();
+    }
+
+    TableId baseTableId = route.baseTableId();
     if (upsertDelete) {
-      TableId intermediateTableId = mergeBatches.intermediateTableFor(baseTableId);
       // If upsert/delete is enabled, we want to stream into a non-partitioned intermediate table
-      return new PartitionedTableId.Builder(intermediateTableId).build();
+      return route.intermediate(mergeBatches::intermediateTableFor);
     }
 
-    PartitionedTableId.Builder builder = new PartitionedTableId.Builder(baseTableId);
-    if (usePartitionDecorator) {
-      Table bigQueryTable = retrieveCachedTable(baseTableId);
-      TimePartitioning timePartitioning = TimePartitioning.of(Type.DAY);
-      if (bigQueryTable != null) {
-        StandardTableDefinition standardTableDefinition = bigQueryTable.getDefinition();
-        if (standardTableDefinition != null && standardTableDefinition.getTimePartitioning() != null) {
-          timePartitioning = standardTableDefinition.getTimePartitioning();
-        }
-      }
+    if (!usePartitionDecorator) {
+      return route.unpartitioned();
+    }
 
-      if (useMessageTimeDatePartitioning) {
-        if (record.timestampType() == TimestampType.NO_TIMESTAMP_TYPE) {
-          throw new ConnectException(
-              "Message has no timestamp type, cannot use message timestamp to partition.");
-        }
-        setTimePartitioningForTimestamp(baseTableId, builder, timePartitioning, record.timestamp());
-      } else {
-        setTimePartitioning(baseTableId, builder, timePartitioning);
+    Table bigQueryTable = retrieveCachedTable(baseTableId);
+    TimePartitioning timePartitioning = TimePartitioning.of(Type.DAY);
+    if (bigQueryTable != null) {
+      StandardTableDefinition standardTableDefinition = bigQueryTable.getDefinition();
+      if (standardTableDefinition != null && standardTableDefinition.getTimePartitioning() != null) {
+        timePartitioning = standardTableDefinition.getTimePartitioning();
       }
     }
 
-    return builder.build();
+    if (useMessageTimeDatePartitioning) {
+      if (record.timestampType() == TimestampType.NO_TIMESTAMP_TYPE) {
+        throw new ConnectException(
+            "Message has no timestamp type, cannot use message timestamp to partition.");
+      }
+      checkDayPartitioning(baseTableId, timePartitioning);
+      return route.dayPartition(record.timestamp());
+    } else {
+      checkDayPartitioning(baseTableId, timePartitioning);
+      return route.dayPartition(System.currentTimeMillis());
+    }
   }
 
   private void writeSinkRecords(Collection<SinkRecord> records) {
@@ -282,68 +350,123 @@ public class BigQuerySinkTask extends SinkTask {
 
     logger.debug("Putting {} records in the sink.", records.size());
 
-    // create tableWriters
-    Map<PartitionedTableId, TableWriterBuilder> tableWriterBuilders = new HashMap<>();
+    // Route every record before buffering any of them: routing can fail with a retriable error,
+    // after which the same records are delivered again, and must not be buffered twice
+    boolean deleteEnabled = config.getBoolean(BigQuerySinkConfig.DELETE_ENABLED_CONFIG);
+    List<PartitionedTableId> recordTables = new ArrayList<>(records.size());
+    for (SinkRecord record : records) {
+      recordTables.add(record.value() != null || deleteEnabled ? getRecordTable(record) : null);
+    }
 
+    Iterator<PartitionedTableId> recordTablesIterator = recordTables.iterator();
     for (SinkRecord record : records) {
-      if (record.value() != null || config.getBoolean(BigQuerySinkConfig.DELETE_ENABLED_CONFIG)) {
-        PartitionedTableId table = useStorageApi ? getStorageApiRecordTable(record.topic()) : getRecordTable(record);
-        if (!tableWriterBuilders.containsKey(table)) {
-          TableWriterBuilder tableWriterBuilder;
-          if (useStorageApi) {
-            tableWriterBuilder = new StorageWriteApiWriter.Builder(
-                storageApiWriter,
-                TableNameUtils.tableName(table.getBaseTableId()),
-                recordConverter,
-                batchHandler
-            );
-          } else if (config.getList(BigQuerySinkConfig.ENABLE_BATCH_CONFIG).contains(record.topic())) {
-            String topic = record.topic();
-            long offset = record.kafkaOffset();
-            String gcsBlobName = topic + "_" + uuid + "_" + Instant.now().toEpochMilli() + "_" + offset;
-            String gcsFolderName = config.getString(BigQuerySinkConfig.GCS_FOLDER_NAME_CONFIG);
-            if (gcsFolderName != null && !"".equals(gcsFolderName)) {
-              gcsBlobName = gcsFolderName + "/" + gcsBlobName;
-            }
-            tableWriterBuilder = new GcsBatchTableWriter.Builder(
-                gcsToBqWriter,
-                table.getBaseTableId(),
-                config.getString(BigQuerySinkConfig.GCS_BUCKET_NAME_CONFIG),
-                gcsBlobName,
-                recordConverter);
-          } else {
-            TableWriter.Builder simpleTableWriterBuilder =
-                new TableWriter.Builder(bigQueryWriter, table, recordConverter);
-            if (upsertDelete) {
-              simpleTableWriterBuilder.onFinish(rows ->
-                  mergeBatches.onRowWrites(table.getBaseTableId(), rows));
-            }
-            tableWriterBuilder = simpleTableWriterBuilder;
-          }
-          tableWriterBuilders.put(table, tableWriterBuilder);
-        }
+      PartitionedTableId table = recordTablesIterator.next();
+      if (table != null) {
+        TableWriterBuilder tableWriterBuilder =
+            tableWriterBuffer.builder(table, () -> trackedTableWriterBuilder(record, table));
         try {
-          tableWriterBuilders.get(table).addRow(record, table.getBaseTableId());
+          tableWriterBuilder.addRow(record, table.getBaseTableId());
         } catch (ConversionConnectException ex) {
           // Send records to DLQ in case of ConversionConnectException
           if (errantRecordHandler.getErrantRecordReporter() != null) {
             errantRecordHandler.reportErrantRecords(Collections.singleton(record), ex);
+            continue;
           } else {
             throw ex;
           }
         }
+        tableWriterBuffer.recordAdded(table).ifPresent(builder -> submit(table, builder));
       }
     }
 
-    // add tableWriters to the executor work queue
-    for (TableWriterBuilder builder : tableWriterBuilders.values()) {
-      executor.execute(builder.build());
-    }
+    // add tableWriters for batches that have lingered long enough to the executor work queue
+    tableWriterBuffer.drainExpired().forEach(this::submit);
 
     // check if we should pause topics
     checkQueueSize();
   }
 
+  private TableWriterBuilder trackedTableWriterBuilder(SinkRecord record, PartitionedTableId table) {
+    TableWriterBuilder builder = offsetTracker.track(newTableWriterBuilder(record, table));
+    if (memoryAccountant != null) {
+      // Account for rows from the time they are buffered until they have been written
+      builder = memoryAccountant.track(builder);
+    }
+    return builder;
+  }
+
+  private TableWriterBuilder newTableWriterBuilder(SinkRecord record, PartitionedTableId table) {
+    WriteMetrics.WritePath path = writePath(record);
+    BatchTrace trace = new BatchTrace(writeMetrics.table(table.getBaseTableId(), path), time, path.visibleOnWrite());
+    TableWriterBuilder builder = trace.conversion(newConvertingTableWriterBuilder(record, table));
+    if (parallelConversion) {
+      DeferredConversionBuilder deferred = new DeferredConversionBuilder(builder, errantRecordHandler);
+      builder = estimateRowBytes ? deferred.estimateBytes() : deferred;
+    }
+    return trace.write(builder);
+  }
+
+  private WriteMetrics.WritePath writePath(SinkRecord record) {
+    if (useStorageApi) {
+      return useStorageApiBatchMode ? WriteMetrics.WritePath.STORAGE_BATCH : WriteMetrics.WritePath.STORAGE_DEFAULT;
+    } else if (topicRouter.route(record.topic()).isBatchLoad()) {
+      return WriteMetrics.WritePath.GCS_LOAD;
+    } else {
+      return WriteMetrics.WritePath.INSERT_ALL;
+    }
+  }
+
+  private TableWriterBuilder newConvertingTableWriterBuilder(SinkRecord record, PartitionedTableId table) {
+    if (useStorageApi) {
+      StorageWriteApiWriter.Builder storageApiWriterBuilder = new StorageWriteApiWriter.Builder(
+          storageApiWriter,
+          TableNameUtils.tableName(table.getBaseTableId()),
+          recordConverter,
+          batchHandler
+      );
+      return estimateRowBytes ? storageApiWriterBuilder.estimateBytes() : storageApiWriterBuilder;
+    } else if (topicRouter.route(record.topic()).isBatchLoad()) {
+      String topic = record.topic();
+      long offset = record.kafkaOffset();
+      String gcsBlobName = topic + "_" + uuid + "_" + Instant.now().toEpochMilli() + "_" + offset;
+      String gcsFolderName = config.getString(BigQuerySinkConfig.GCS_FOLDER_NAME_CONFIG);
+      if (gcsFolderName != null && !"".equals(gcsFolderName)) {
+        gcsBlobName = gcsFolderName + "/" + gcsBlobName;
+      }
+      GcsBatchTableWriter.Builder gcsBatchTableWriterBuilder = new GcsBatchTableWriter.Builder(
+          gcsToBqWriter,
+          table.getBaseTableId(),
+          config.getString(BigQuerySinkConfig.GCS_BUCKET_NAME_CONFIG),
+          gcsBlobName,
+          recordConverter);
+      return estimateRowBytes ? gcsBatchTableWriterBuilder.estimateBytes() : gcsBatchTableWriterBuilder;
+    } else {
+      TableWriter.Builder simpleTableWriterBuilder =
+          new TableWriter.Builder(bigQueryWriter, table, recordConverter)
+              .batchSizer(batchSizer)
+              .writeMetrics(writeMetrics);
+      if (estimateRowBytes) {
+        simpleTableWriterBuilder.estimateBytes();
+      }
+      if (upsertDelete) {
+        simpleTableWriterBuilder.onFinish(rows ->
+            mergeBatches.onRowWrites(table.getBaseTableId(), rows));
+      }
+      return simpleTableWriterBuilder;
+    }
+  }
+
+  private void submit(PartitionedTableId table, TableWriterBuilder builder) {
+    Runnable writer = builder.build();
+    if (orderedTableWrites) {
+      executor.executeInOrder(table.getBaseTableId(), writer);
+    } else if (maxConcurrentWritesPerTable != -1) {
+      executor.executeLimited(table.getBaseTableId(), writer, maxConcurrentWritesPerTable);
+    } else {
+      executor.execute(writer);
+    }
+  }
+
   @Override
   public void put(Collection<SinkRecord> records) {
     try {
@@ -374,14 +497,22 @@ public class BigQuerySinkTask extends SinkTask {
   // that it's safe to pause or resume partitions on the consumer.
   private void checkQueueSize() {
     long queueSoftLimit = config.getLong(BigQuerySinkConfig.QUEUE_SIZE_CONFIG);
-    if (queueSoftLimit != -1) {
-      int currentQueueSize = executor.getQueue().size();
-      if (currentQueueSize > queueSoftLimit) {
-        topicPartitionManager.pauseAll();
-      } else if (currentQueueSize <= queueSoftLimit / 2) {
-        // resume only if there is a reasonable chance we won't immediately have to pause again.
-        topicPartitionManager.resumeAll();
+    if (queueSoftLimit == -1 && memoryAccountant == null) {
+      return;
+    }
+    int currentQueueSize = executor.queuedTaskCount();
+    boolean queueFull = queueSoftLimit != -1 && currentQueueSize > queueSoftLimit;
+    boolean memoryFull = memoryAccountant != null && memoryAccountant.isOverBudget();
+    if (queueFull || memoryFull) {
+      if (memoryFull) {
+        logger.debug("Estimated {} bytes of rows in flight, over the limit of {} bytes",
+            memoryAccountant.usedBytes(), memoryAccountant.budgetBytes());
       }
+      topicPartitionManager.pauseAll();
+    } else if ((queueSoftLimit == -1 || currentQueueSize <= queueSoftLimit / 2)
+        && (memoryAccountant == null || memoryAccountant.canResume())) {
+      // resume only if there is a reasonable chance we won't immediately have to pause again.
+      topicPartitionManager.resumeAll();
     }
   }
 
@@ -392,9 +523,7 @@ public class BigQuerySinkTask extends SinkTask {
     return bigQuery.updateAndGet(bq -> bq != null ? bq : newBigQuery());
   }
 
-  private void setTimePartitioningForTimestamp(
-      TableId table, PartitionedTableId.Builder builder, TimePartitioning timePartitioning, Long timestamp
-  ) {
+  private void checkDayPartitioning(TableId table, TimePartitioning timePartitioning) {
     if (timePartitioning.getType() != Type.DAY) {
       throw new ConnectException(String.format(
           "Cannot use decorator syntax to write to %s as it is partitioned by %s and not by day",
@@ -402,22 +531,10 @@ public class BigQuerySinkTask extends SinkTask {
           timePartitioning.getType().toString().toLowerCase()
       ));
     }
-    builder.setDayPartition(timestamp);
-  }
-
-  private void setTimePartitioning(TableId table, PartitionedTableId.Builder builder, TimePartitioning timePartitioning) {
-    if (timePartitioning.getType() != Type.DAY) {
-      throw new ConnectException(String.format(
-          "Cannot use decorator syntax to write to %s as it is partitioned by %s and not by day",
-          TableNameUtils.table(table),
-          timePartitioning.getType().toString().toLowerCase()
-      ));
-    }
-    builder.setDayPartitionForNow();
   }
 
   private Table retrieveCachedTable(TableId tableId) {
-    return getCache().computeIfAbsent(tableId, this::retrieveTable);
+    return tableCache.get(tableId);
   }
 
   private Table retrieveTable(TableId tableId) {
@@ -464,11 +581,13 @@ public class BigQuerySinkTask extends SinkTask {
     Optional<TimePartitioning.Type> timePartitioningType = config.getTimePartitioningType();
     boolean allowSchemaUnionization = config.getBoolean(BigQuerySinkConfig.ALLOW_SCHEMA_UNIONIZATION_CONFIG);
     boolean sanitizeFieldNames = config.getBoolean(BigQuerySinkConfig.SANITIZE_FIELD_NAME_CONFIG);
-    return new SchemaManager(schemaRetriever, schemaConverter, getBigQuery(),
+    SchemaManager schemaManager = new SchemaManager(schemaRetriever, schemaConverter, getBigQuery(),
         allowNewBigQueryFields, allowRequiredFieldRelaxation, allowSchemaUnionization,
         sanitizeFieldNames,
         kafkaKeyFieldName, kafkaDataFieldName,
         timestampPartitionFieldName, partitionExpiration, clusteringFieldName, timePartitioningType);
+    schemaManager.setTableCache(tableCache);
+    return schemaManager;
   }
 
   private BigQueryWriter getBigQueryWriter(ErrantRecordHandler errantRecordHandler) {
@@ -515,21 +634,18 @@ public class BigQuerySinkTask extends SinkTask {
         retry,
         retryWait,
         autoCreateTables,
-        time);
+        time,
+        config.getBoolean(BigQuerySinkConfig.ENABLE_GCS_STREAMING_UPLOAD_CONFIG),
+        GcsBlobFormat.forName(config.getString(BigQuerySinkConfig.GCS_BLOB_FORMAT_CONFIG)),
+        config.getString(BigQuerySinkConfig.GCS_BLOB_COMPRESSION_CONFIG),
+        tableCache
+    );
   }
 
   private SinkRecordConverter getConverter(BigQuerySinkTaskConfig config) {
     return new SinkRecordConverter(config, mergeBatches, mergeQueries);
   }
 
-  private synchronized Map<TableId, Table> getCache() {
-    if (cache == null) {
-      cache = new HashMap<>();
-    }
-
-    return cache;
-  }
-
   @Override
   public void start(Map<String, String> properties) {
     logger.trace("task.start()");
@@ -541,12 +657,32 @@ public class BigQuerySinkTask extends SinkTask {
 
     useStorageApi = config.getBoolean(BigQuerySinkConfig.USE_STORAGE_WRITE_API_CONFIG);
     useStorageApiBatchMode = useStorageApi && config.getBoolean(BigQuerySinkConfig.ENABLE_BATCH_MODE_CONFIG);
+    orderedTableWrites = config.getBoolean(BigQuerySinkConfig.ENABLE_ORDERED_TABLE_WRITES_CONFIG);
+    maxConcurrentWritesPerTable = config.getInt(BigQuerySinkConfig.MAX_CONCURRENT_WRITES_PER_TABLE_CONFIG);
+    // Upsert/delete and Storage Write API batch mode assign rows to batches as they are converted,
+    // which has to happen in the order the records were read
+    parallelConversion = config.getBoolean(BigQuerySinkConfig.ENABLE_PARALLEL_CONVERSION_CONFIG)
+        && !upsertDelete && !useStorageApiBatchMode;
+    baseThreadFactory = null;
+    if (config.getBoolean(BigQuerySinkConfig.ENABLE_VIRTUAL_THREADS_CONFIG)) {
+      baseThreadFactory = VirtualThreads.factory().orElse(null);
+      if (baseThreadFactory == null) {
+        logger.warn("{} is enabled, but virtual threads are not supported by this JVM; using platform threads",
+            BigQuerySinkConfig.ENABLE_VIRTUAL_THREADS_CONFIG);
+      } else {
+        logger.info("Using virtual threads for writes and loads");
+      }
+    }
 
     retry = config.getInt(BigQuerySinkConfig.BIGQUERY_RETRY_CONFIG);
     retryWait = config.getLong(BigQuerySinkConfig.BIGQUERY_RETRY_WAIT_CONFIG);
     allowNewBigQueryFields = config.getBoolean(BigQuerySinkConfig.ALLOW_NEW_BIGQUERY_FIELDS_CONFIG);
     allowRequiredFieldRelaxation = config.getBoolean(BigQuerySinkConfig.ALLOW_BIGQUERY_REQUIRED_FIELD_RELAXATION_CONFIG);
-    topicToPartitionTableId = new HashMap<>();
+    List<String> batchLoadTopics = config.getList(BigQuerySinkConfig.ENABLE_BATCH_CONFIG);
+    topicRouter = new TopicRouter(
+        useStorageApi ? this::storageApiTableFor : this::tableFor,
+        batchLoadTopics::contains
+    );
     bigQuery = new AtomicReference<>();
     schemaManager = new AtomicReference<>();
 
@@ -571,15 +707,74 @@ public class BigQuerySinkTask extends SinkTask {
       mergeBatches = new MergeBatches(intermediateTableSuffix);
     }
 
-    cache = getCache();
+    tableRefreshExecutor = Executors.newSingleThreadExecutor(newThreadFactory());
+    tableCache = new TableMetadataCache(
+        this::retrieveTable,
+        TimeUnit.SECONDS.toMillis(config.getInt(BigQuerySinkConfig.TABLE_METADATA_CACHE_TTL_SEC_CONFIG)),
+        tableRefreshExecutor,
+        time
+    );
+    if (testCache != null) {
+      tableCache.putAll(testCache);
+    }
+    metrics = new Metrics(
+        new MetricConfig(),
+        Collections.singletonList(new JmxReporter()),
+        org.apache.kafka.common.utils.Time.SYSTEM,
+        new KafkaMetricsContext(METRICS_NAMESPACE)
+    );
+    writeMetrics = new WriteMetrics(metrics, metricTags(), config.getString(BigQuerySinkConfig.PROJECT_CONFIG));
     bigQueryWriter = getBigQueryWriter(errantRecordHandler);
+    bigQueryWriter.setWriteMetrics(writeMetrics);
+    batchSizer = new AdaptiveBatchSizer<>();
+    long maxInFlightBytes = config.getLong(BigQuerySinkConfig.MAX_IN_FLIGHT_BYTES_CONFIG);
+    if (maxInFlightBytes != -1) {
+      WriteMemoryAccountant accountant = new WriteMemoryAccountant(maxInFlightBytes);
+      metrics.addMetric(
+          metrics.metricName("in-flight-bytes", TASK_METRICS_GROUP,
+              "The estimated size, in bytes, of the rows that have been read from Kafka and not yet written.",
+              metricTags()),
+          (Gauge<Long>) (metricConfig, now) -> accountant.usedBytes()
+      );
+      memoryAccountant = accountant;
+    } else {
+      memoryAccountant = null;
+    }
     gcsToBqWriter = getGcsWriter();
-    executor = new KcbqThreadPoolExecutor(
-        config,
-        new LinkedBlockingQueue<>(),
-        new MdcContextThreadFactory()
-    );
+    gcsToBqWriter.setWriteMetrics(writeMetrics);
+    if (baseThreadFactory != null) {
+      // Virtual threads are cheap to create and are not pooled; the thread pool size and the limit per
+      // table are what bound the number of concurrent writes
+      executor = KcbqThreadPoolExecutor.threadPerTask(config, newThreadFactory());
+    } else {
+      executor = new KcbqThreadPoolExecutor(
+          config,
+          new LinkedBlockingQueue<>(),
+          newThreadFactory()
+      );
+    }
     topicPartitionManager = new TopicPartitionManager();
+    metrics.addMetric(
+        metrics.metricName("write-queue-depth", TASK_METRICS_GROUP,
+            "The number of writes that are waiting for a write thread.", metricTags()),
+        (Gauge<Integer>) (metricConfig, now) -> executor.queuedTaskCount()
+    );
+    metrics.addMetric(
+        metrics.metricName("partitions-paused", TASK_METRICS_GROUP,
+            "Whether the task has paused consumption of its partitions because too many writes are waiting "
+                + "(1) or not (0).", metricTags()),
+        (Gauge<Integer>) (metricConfig, now) -> topicPartitionManager.isPaused() ? 1 : 0
+    );
+    offsetTracker = new OffsetTracker();
+    long maxBatchBytes = config.getLong(BigQuerySinkConfig.MAX_BATCH_BYTES_CONFIG);
+    tableWriterBuffer = new TableWriterBuffer<>(
+        config.getLong(BigQuerySinkConfig.LINGER_MS_CONFIG),
+        config.getInt(BigQuerySinkConfig.MAX_BATCH_ROWS_CONFIG),
+        maxBatchBytes,
+        time
+    );
+    // Rows are only estimated as they are buffered if the estimate limits batches or rows in flight
+    estimateRowBytes = maxBatchBytes != -1 || memoryAccountant != null;
     useMessageTimeDatePartitioning =
         config.getBoolean(BigQuerySinkConfig.BIGQUERY_MESSAGE_TIME_PARTITIONING_CONFIG);
     usePartitionDecorator =
@@ -589,6 +784,7 @@ public class BigQuerySinkTask extends SinkTask {
     } else if (upsertDelete) {
       mergeQueries =
           new MergeQueries(config, mergeBatches, executor, getBigQuery(), getSchemaManager(), context);
+      mergeQueries.setWriteMetrics(writeMetrics);
       maybeStartMergeFlushTask();
     } else if (useStorageApi) {
       initializeStorageApiMode();
@@ -605,12 +801,13 @@ public class BigQuerySinkTask extends SinkTask {
       storageApiWriter = testStorageWriteApi;
       batchHandler = testStorageApiBatchHandler;
       if (loadExecutor == null) {
-        loadExecutor = Executors.newScheduledThreadPool(1, new MdcContextThreadFactory());
+        loadExecutor = Executors.newScheduledThreadPool(1, newThreadFactory());
       }
       int commitInterval = config.getInt(BigQuerySinkConfig.COMMIT_INTERVAL_SEC_CONFIG);
       loadExecutor.scheduleAtFixedRate(this::batchLoadExecutorRunnable, commitInterval, commitInterval, TimeUnit.SECONDS);
     } else {
       boolean attemptSchemaUpdate = allowNewBigQueryFields || allowRequiredFieldRelaxation;
+      int maxInFlightAppends = config.getInt(BigQuerySinkConfig.MAX_IN_FLIGHT_APPEND_REQUESTS_CONFIG);
       BigQueryWriteSettings writeSettings = new GcpClientBuilder.BigQueryWriteSettingsBuilder().withConfig(config).build();
       if (useStorageApiBatchMode) {
         StorageWriteApiBatchApplicationStream writer = new StorageWriteApiBatchApplicationStream(
@@ -620,7 +817,8 @@ public class BigQuerySinkTask extends SinkTask {
             autoCreateTables,
             errantRecordHandler,
             getSchemaManager(),
-            attemptSchemaUpdate
+            attemptSchemaUpdate,
+            maxInFlightAppends
         );
         storageApiWriter = writer;
 
@@ -629,7 +827,7 @@ public class BigQuerySinkTask extends SinkTask {
 
         int commitInterval = config.getInt(BigQuerySinkConfig.COMMIT_INTERVAL_SEC_CONFIG);
         logger.info("Starting Load Executor for Storage Write API Batch Mode with {} seconds interval ", commitInterval);
-        loadExecutor = Executors.newScheduledThreadPool(1, new MdcContextThreadFactory());
+        loadExecutor = Executors.newScheduledThreadPool(1, newThreadFactory());
         loadExecutor.scheduleAtFixedRate(this::batchLoadExecutorRunnable, commitInterval, commitInterval, TimeUnit.SECONDS);
       } else {
         logger.info("Starting task with Storage Write API Default Stream");
@@ -640,9 +838,13 @@ public class BigQuerySinkTask extends SinkTask {
             autoCreateTables,
             errantRecordHandler,
             getSchemaManager(),
-            attemptSchemaUpdate
+            attemptSchemaUpdate,
+            maxInFlightAppends,
+            config.getBoolean(BigQuerySinkConfig.ENABLE_PROTO_ENCODING_CONFIG),
+            config.getInt(BigQuerySinkConfig.DEFAULT_STREAM_WRITERS_PER_TABLE_CONFIG)
         );
       }
+      storageApiWriter.setWriteMetrics(writeMetrics);
     }
   }
 
@@ -658,6 +860,9 @@ public class BigQuerySinkTask extends SinkTask {
 
   private void maybeThrowErrors() {
     executor.maybeThrowEncounteredError();
+    if (useStorageApi) {
+      storageApiWriter.maybeThrowEncounteredError();
+    }
     if (useStorageApiBatchMode && loadExecutor.isTerminated()) {
       throw new BigQueryStorageWriteApiConnectException(
           "Batch load handler is terminated, failing task as no data would be written to bigquery tables!");
@@ -666,7 +871,7 @@ public class BigQuerySinkTask extends SinkTask {
 
   private void startGcsToBqLoadTask() {
     logger.info("Attempting to start GCS Load Executor.");
-    loadExecutor = Executors.newScheduledThreadPool(1, new MdcContextThreadFactory());
+    loadExecutor = Executors.newScheduledThreadPool(1, newThreadFactory());
     String bucketName = config.getString(BigQuerySinkConfig.GCS_BUCKET_NAME_CONFIG);
     Storage gcs = getGcs();
     // get the bucket, or create it if it does not exist.
@@ -685,12 +890,43 @@ public class BigQuerySinkTask extends SinkTask {
         ));
       }
     }
-    GcsToBqLoadRunnable loadRunnable = new GcsToBqLoadRunnable(getBigQuery(), bucket);
+    GcsBlobIndex gcsBlobIndex = new GcsBlobIndex(
+        bucket,
+        config.getString(BigQuerySinkConfig.GCS_FOLDER_NAME_CONFIG),
+        TimeUnit.SECONDS.toMillis(config.getInt(BigQuerySinkConfig.GCS_BLOB_LIST_INTERVAL_SEC_CONFIG)),
+        time
+    );
+    // Blobs uploaded by this task go straight into the index; those of other tasks are found by listing
+    gcsToBqWriter.setBlobIndex(gcsBlobIndex);
+    // Status checks are requests to BigQuery like writes, so they are bounded the same way
+    loadJobCheckExecutor = Executors.newFixedThreadPool(
+        config.getInt(BigQuerySinkConfig.THREAD_POOL_SIZE_CONFIG),
+        newThreadFactory()
+    );
+    GcsToBqLoadRunnable loadRunnable = new GcsToBqLoadRunnable(
+        getBigQuery(),
+        bucket,
+        gcsBlobIndex,
+        loadJobCheckExecutor,
+        new GcsToBqLoadMetrics(metrics, metricTags()),
+        time
+    );
+    loadRunnable.setWriteMetrics(writeMetrics);
 
     int intervalSec = config.getInt(BigQuerySinkConfig.BATCH_LOAD_INTERVAL_SEC_CONFIG);
     loadExecutor.scheduleAtFixedRate(loadRunnable, intervalSec, intervalSec, TimeUnit.SECONDS);
   }
 
+  private Map<String, String> metricTags() {
+    Map<String, String> tags = new LinkedHashMap<>();
+    String connectorName = config.originalsStrings().get("name");
+    if (connectorName != null) {
+      tags.put("connector", connectorName);
+    }
+    tags.put("task", Integer.toString(config.getInt(BigQuerySinkTaskConfig.TASK_ID_CONFIG)));
+    return tags;
+  }
+
   private void maybeStartMergeFlushTask() {
     long intervalMs = config.getLong(BigQuerySinkConfig.MERGE_INTERVAL_MS_CONFIG);
     if (intervalMs == -1) {
@@ -698,7 +934,7 @@ public class BigQuerySinkTask extends SinkTask {
       return;
     }
     logger.info("Attempting to start upsert/delete load executor");
-    loadExecutor = Executors.newScheduledThreadPool(1, new MdcContextThreadFactory());
+    loadExecutor = Executors.newScheduledThreadPool(1, newThreadFactory());
     loadExecutor.scheduleAtFixedRate(
         mergeQueries::mergeFlushAll, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
   }
@@ -707,7 +943,12 @@ public class BigQuerySinkTask extends SinkTask {
   public void stop() {
     try {
       maybeStopExecutor(loadExecutor, "load executor");
+      maybeStopExecutor(loadJobCheckExecutor, "load job check executor");
       maybeStopExecutor(executor, "table write executor");
+      maybeStopExecutor(tableRefreshExecutor, "table metadata refresh executor");
+      if (metrics != null) {
+        metrics.close();
+      }
       if (upsertDelete) {
         mergeBatches.intermediateTables().forEach(table -> {
           logger.debug("Deleting {}", intTable(table));
@@ -756,31 +997,14 @@ public class BigQuerySinkTask extends SinkTask {
     return version;
   }
 
-  private static class MdcContextThreadFactory implements ThreadFactory {
-
-    private final Map<String, String> mdcContext;
-
-    public MdcContextThreadFactory() {
-      this.mdcContext = MDC.getCopyOfContextMap();
-    }
-
-    @Override
-    public Thread newThread(Runnable runnable) {
-      if (mdcContext == null) {
-        return new Thread(runnable);
-      } else {
-        return new Thread(() -> {
-          MDC.setContextMap(mdcContext);
-          runnable.run();
-        });
-      }
-    }
+  private ThreadFactory newThreadFactory() {
+    return new MdcContextThreadFactory(baseThreadFactory != null ? baseThreadFactory : Thread::new);
   }
 
   private class TopicPartitionManager {
 
     private Long lastChangeMs;
-    private boolean isPaused;
+    private volatile boolean isPaused;
 
     public TopicPartitionManager() {
       this.lastChangeMs = System.currentTimeMillis();
@@ -798,6 +1022,10 @@ public class BigQuerySinkTask extends SinkTask {
       context.pause(assignment.toArray(new TopicPartition[assignment.size()]));
     }
 
+    public boolean isPaused() {
+      return isPaused;
+    }
+
     public void resumeAll() {
       if (isPaused) {
         long now = System.currentTimeMillis();
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery;
+
+import com.google.api.gax.paging.Page;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Bucket;
+import com.google.cloud.storage.Storage;
+import com.wepay.kafka.connect.bigquery.utils.Time;
+import com.wepay.kafka.connect.bigquery.write.row.GcsBlobFormat;
+import com.wepay.kafka.connect.bigquery.write.row.GcsToBqWriter;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An index of the blobs waiting to be loaded from the GCS folder used for batch loading, kept up to
+ * date incrementally instead of by listing the whole bucket on every load run.
+ *
+ * <p>Blobs uploaded by the task that owns the index are added to it as soon as they have been
+ * uploaded, if they are in its bucket and folder (see {@link #blobUploaded(BlobInfo, long)}). The
+ * folder itself is only listed once the listing interval has elapsed, to pick up blobs uploaded by
+ * other tasks and to forget blobs that no longer exist. Blobs are indexed by name and generation,
+ * so listing a blob that is already indexed costs no more than a map lookup.
+ *
+ * <p>Except for {@link #blobUploaded(BlobInfo, long)}, this class is not thread safe, and should
+ * only be used by the thread running the load jobs.
+ */
+public class GcsBlobIndex {
+
+  private static final Logger logger = LoggerFactory.getLogger(GcsBlobIndex.class);
+
+  private final Bucket bucket;
+  private final String prefix;
+  private final long listIntervalMs;
+  private final Time time;
+  private final Map<String, IndexedBlob> blobs;
+  private final Queue<IndexedBlob> uploadedBlobs;
+  private long lastListMs;
+  private boolean listed;
+
+  /**
+   * @param bucket         the GCS bucket blobs are uploaded to
+   * @param folderName     the folder under the bucket blobs are uploaded to, or null or empty if
+   *                       they are uploaded to the root of the bucket
+   * @param listIntervalMs the minimum interval between listings of the folder; with 0, the folder
+   *                       is listed on every {@link #refresh()}
+   * @param time           used to track the listing interval
+   */
+  public GcsBlobIndex(Bucket bucket, String folderName, long listIntervalMs, Time time) {
+    this.bucket = bucket;
+    this.prefix = folderName == null || folderName.isEmpty() ? null : folderName + "/";
+    this.listIntervalMs = listIntervalMs;
+    this.time = time;
+    this.blobs = new LinkedHashMap<>();
+    this.uploadedBlobs = new ConcurrentLinkedQueue<>();
+  }
+
+  /**
+   * Notify the index that a blob has been uploaded. Blobs outside of the index's bucket and folder
+   * are ignored.
+   *
+   * @param blob the uploaded blob
+   * @param size the size of the blob's content, in bytes
+   */
+  public void blobUploaded(BlobInfo blob, long size) {
+    if (bucket.getName().equals(blob.getBucket())
+        && (prefix == null || blob.getName().startsWith(prefix))) {
+      uploadedBlobs.add(IndexedBlob.of(blob, size, time.milliseconds()));
+    }
+  }
+
+  /**
+   * Bring the index up to date with the blobs uploaded since the last call, listing the folder if
+   * the listing interval has elapsed.
+   *
+   * @return all blobs currently in the index
+   */
+  Collection<IndexedBlob> refresh() {
+    IndexedBlob uploaded;
+    while ((uploaded = uploadedBlobs.poll()) != null) {
+      blobs.putIfAbsent(uploaded.blobId().getName(), uploaded);
+    }
+    if (!listed || time.milliseconds() - lastListMs >= listIntervalMs) {
+      list();
+    }
+    return Collections.unmodifiableCollection(blobs.values());
+  }
+
+  private void list() {
+    logger.trace("Starting GCS bucket list with prefix {}", prefix);
+    Page<Blob> page = prefix != null
+        ? bucket.list(Storage.BlobListOption.prefix(prefix))
+        : bucket.list();
+
+    Set<String> listedNames = new HashSet<>();
+    int newBlobs = 0;
+    for (Blob blob : page.iterateAll()) {
+      listedNames.add(blob.getName());
+      IndexedBlob indexed = blobs.get(blob.getName());
+      if (indexed == null || !indexed.hasGeneration(blob.getGeneration())) {
+        blobs.put(blob.getName(), IndexedBlob.of(
+            blob,
+            blob.getSize() != null ? blob.getSize() : 0L,
+            blob.getCreateTime() != null ? blob.getCreateTime() : time.milliseconds()
+        ));
+        newBlobs++;
+      }
+    }
+    // Anything not listed has been deleted since it was indexed
+    blobs.keySet().retainAll(listedNames);
+    lastListMs = time.milliseconds();
+    listed = true;
+    logger.debug("Finished GCS bucket list: {} blobs, {} of which were newly indexed",
+        listedNames.size(), newBlobs);
+  }
+
+  /**
+   * Remove blobs from the index once they have been deleted.
+   *
+   * @param blobIds the deleted blobs
+   */
+  void remove(Collection<BlobId> blobIds) {
+    for (BlobId blobId : blobIds) {
+      IndexedBlob indexed = blobs.get(blobId.getName());
+      if (indexed != null && indexed.blobId().equals(blobId)) {
+        blobs.remove(blobId.getName());
+      }
+    }
+  }
+
+  /**
+   * The properties of a blob needed to load it into BigQuery, read once when it is indexed.
+   */
+  static final class IndexedBlob {
+    private final BlobId blobId;
+    private final TableId table;
+    private final GcsBlobFormat format;
+    private final long size;
+    private final long uploadedMs;
+    private final long maxRecordTimestamp;
+
+    private IndexedBlob(BlobId blobId, TableId table, GcsBlobFormat format, long size, long uploadedMs,
+                        long maxRecordTimestamp) {
+      this.blobId = blobId;
+      this.table = table;
+      this.format = format;
+      this.size = size;
+      this.uploadedMs = uploadedMs;
+      this.maxRecordTimestamp = maxRecordTimestamp;
+    }
+
+    static IndexedBlob of(BlobInfo blob, long size, long uploadedMs) {
+      TableId table = GcsToBqLoadRunnable.getTableFromBlob(blob);
+      GcsBlobFormat format = table != null ? GcsBlobFormat.fromMetadata(blob.getMetadata()) : null;
+      if (table != null && format == null) {
+        logger.error("Found blob {}/{} with unknown format {}.", blob.getBucket(), blob.getName(),
+            blob.getMetadata().get(GcsBlobFormat.GCS_METADATA_FORMAT_KEY));
+        table = null;
+      }
+      return new IndexedBlob(blob.getBlobId(), table, format, size, uploadedMs, maxRecordTimestamp(blob));
+    }
+
+    private static long maxRecordTimestamp(BlobInfo blob) {
+      String timestamp = blob.getMetadata() != null
+          ? blob.getMetadata().get(GcsToBqWriter.GCS_METADATA_MAX_TIMESTAMP_KEY)
+          : null;
+      if (timestamp == null) {
+        return -1;
+      }
+      try {
+        return Long.parseLong(timestamp);
+      } catch (NumberFormatException e) {
+        logger.debug("Ignoring unparsable record timestamp {} of blob {}/{}", timestamp, blob.getBucket(),
+            blob.getName());
+        return -1;
+      }
+    }
+
+    BlobId blobId() {
+      return blobId;
+    }
+
+    /**
+     * @return the table the blob should be loaded into, or null if it cannot be loaded
+     */
+    TableId table() {
+      return table;
+    }
+
+    GcsBlobFormat format() {
+      return format;
+    }
+
+    long size() {
+      return size;
+    }
+
+    long uploadedMs() {
+      return uploadedMs;
+    }
+
+    /**
+     * @return the newest timestamp of the records in the blob, or -1 if it is not known
+     */
+    long maxRecordTimestamp() {
+      return maxRecordTimestamp;
+    }
+
+    /**
+     * Blobs whose generation is not known (such as those uploaded through a resumable upload) are
+     * assumed to be of any generation with the same name.
+     */
+    boolean hasGeneration(Long generation) {
+      return blobId.getGeneration() == null || Objects.equals(blobId.getGeneration(), generation);
+    }
+
+    @Override
+    public String toString() {
+      return blobId.getName();
+    }
+  }
+}
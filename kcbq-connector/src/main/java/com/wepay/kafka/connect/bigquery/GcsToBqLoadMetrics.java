@@ -0,0 +1,106 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery;
+
+import java.util.Map;
+import org.apache.kafka.common.metrics.Gauge;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.metrics.stats.Avg;
+import org.apache.kafka.common.metrics.stats.CumulativeCount;
+import org.apache.kafka.common.metrics.stats.Max;
+
+/**
+ * Metrics for the load jobs run by a {@link GcsToBqLoadRunnable}.
+ */
+public class GcsToBqLoadMetrics {
+
+  public static final String GROUP = "gcs-to-bq-load-metrics";
+
+  // records nothing, for runnables that are not given a registry to report to
+  static final GcsToBqLoadMetrics NONE = new GcsToBqLoadMetrics();
+
+  private final Sensor completedJobs;
+  private final Sensor failedJobs;
+  private volatile int activeJobs;
+
+  private GcsToBqLoadMetrics() {
+    completedJobs = null;
+    failedJobs = null;
+  }
+
+  /**
+   * @param metrics the registry to add the metrics to
+   * @param tags    the tags to identify the metrics of this task by
+   */
+  public GcsToBqLoadMetrics(Metrics metrics, Map<String, String> tags) {
+    metrics.addMetric(
+        metrics.metricName("active-load-jobs", GROUP,
+            "The number of load jobs that have been started and have not yet completed.", tags),
+        (Gauge<Integer>) (config, now) -> activeJobs
+    );
+
+    completedJobs = metrics.sensor("completed-load-jobs");
+    completedJobs.add(
+        metrics.metricName("load-latency-avg", GROUP,
+            "The average time, in milliseconds, from the upload of the oldest blob in a load job to "
+                + "the completion of that job.", tags),
+        new Avg()
+    );
+    completedJobs.add(
+        metrics.metricName("load-latency-max", GROUP,
+            "The maximum time, in milliseconds, from the upload of the oldest blob in a load job to "
+                + "the completion of that job.", tags),
+        new Max()
+    );
+    completedJobs.add(
+        metrics.metricName("load-job-success-total", GROUP,
+            "The total number of load jobs that have completed.", tags),
+        new CumulativeCount()
+    );
+
+    failedJobs = metrics.sensor("failed-load-jobs");
+    failedJobs.add(
+        metrics.metricName("load-job-failure-total", GROUP,
+            "The total number of load jobs that have failed.", tags),
+        new CumulativeCount()
+    );
+  }
+
+  void activeJobs(int activeJobs) {
+    this.activeJobs = activeJobs;
+  }
+
+  void jobCompleted(long latencyMs) {
+    if (completedJobs != null) {
+      completedJobs.record(latencyMs);
+    }
+  }
+
+  void jobFailed() {
+    if (failedJobs != null) {
+      failedJobs.record();
+    }
+  }
+}
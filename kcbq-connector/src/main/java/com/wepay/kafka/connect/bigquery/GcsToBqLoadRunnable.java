@@ -23,28 +23,33 @@
 
 package com.wepay.kafka.connect.bigquery;
 
-import com.google.api.gax.paging.Page;
 import com.google.cloud.bigquery.BigQuery;
 import com.google.cloud.bigquery.BigQueryException;
-import com.google.cloud.bigquery.FormatOptions;
 import com.google.cloud.bigquery.Job;
 import com.google.cloud.bigquery.JobInfo;
 import com.google.cloud.bigquery.LoadJobConfiguration;
 import com.google.cloud.bigquery.TableId;
-import com.google.cloud.storage.Blob;
 import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
 import com.google.cloud.storage.Bucket;
 import com.google.cloud.storage.StorageException;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.re2j.Matcher;
 import com.google.re2j.Pattern;
+import com.wepay.kafka.connect.bigquery.GcsBlobIndex.IndexedBlob;
+import com.wepay.kafka.connect.bigquery.utils.Time;
+import com.wepay.kafka.connect.bigquery.write.row.GcsBlobFormat;
 import com.wepay.kafka.connect.bigquery.write.row.GcsToBqWriter;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -52,9 +57,12 @@ import org.slf4j.LoggerFactory;
 /**
  * A Runnable that runs a GCS to BQ Load task.
  *
- * <p>This task goes through the given GCS bucket, and takes as many blobs as a single load job per
+ * <p>This task goes through the blobs of the given {@link GcsBlobIndex}, and takes as many blobs as a single load job per
  * table can handle (as defined here: https://cloud.google.com/bigquery/quotas#load_jobs) and runs
  * those load jobs. Blobs are deleted (only) once a load job involving that blob succeeds.
+ *
+ * <p>The status of running load jobs is checked concurrently on the given executor, and jobs that
+ * are still running are checked again with an exponentially increasing delay.
  */
 public class GcsToBqLoadRunnable implements Runnable {
   public static final Pattern METADATA_TABLE_PATTERN =
@@ -65,29 +73,77 @@ public class GcsToBqLoadRunnable implements Runnable {
   // max total size (in bytes) of the files we can load in a single load job.
   private static long MAX_LOAD_SIZE_B = 15 * 1000000000000L; // 15TB
   private static String SOURCE_URI_FORMAT = "gs://%s/%s";
+  // bounds on the delay between status checks of a single load job
+  private static final long MIN_JOB_CHECK_BACKOFF_MS = 1000;
+  private static final long MAX_JOB_CHECK_BACKOFF_MS = 60000;
   private final BigQuery bigQuery;
 
   // these numbers are intended to try to make this task not excede Google Cloud Quotas.
   // see: https://cloud.google.com/bigquery/quotas#load_jobs
   private final Bucket bucket;
-  private final Map<Job, List<BlobId>> activeJobs;
+  private final GcsBlobIndex blobIndex;
+  private final ExecutorService jobCheckExecutor;
+  private final GcsToBqLoadMetrics metrics;
+  private final Time time;
+  private final Map<Job, ActiveJob> activeJobs;
   private final Set<BlobId> claimedBlobIds;
   private final Set<BlobId> deletableBlobIds;
+  private WriteMetrics writeMetrics;
 
   /**
    * Create a {@link GcsToBqLoadRunnable} with the given bigquery, bucket, and ms wait interval.
+   * Load jobs are not recorded in any metrics.
    *
    * @param bigQuery the {@link BigQuery} instance.
    * @param bucket   the the GCS bucket to read from.
    */
   public GcsToBqLoadRunnable(BigQuery bigQuery, Bucket bucket) {
+    this(
+        bigQuery,
+        bucket,
+        new GcsBlobIndex(bucket, null, 0, Time.SYSTEM),
+        MoreExecutors.newDirectExecutorService(),
+        GcsToBqLoadMetrics.NONE,
+        Time.SYSTEM
+    );
+  }
+
+  /**
+   * Create a {@link GcsToBqLoadRunnable}.
+   *
+   * @param bigQuery         the {@link BigQuery} instance.
+   * @param bucket           the the GCS bucket to read from.
+   * @param blobIndex        the index of blobs in the bucket to load.
+   * @param jobCheckExecutor the executor to check the status of load jobs on; its number of
+   *                         threads bounds the number of concurrent status requests.
+   * @param metrics          the metrics to record load jobs in.
+   * @param time             used to schedule status checks and measure load latency.
+   */
+  public GcsToBqLoadRunnable(BigQuery bigQuery,
+                             Bucket bucket,
+                             GcsBlobIndex blobIndex,
+                             ExecutorService jobCheckExecutor,
+                             GcsToBqLoadMetrics metrics,
+                             Time time) {
     this.bigQuery = bigQuery;
     this.bucket = bucket;
+    this.blobIndex = blobIndex;
+    this.jobCheckExecutor = jobCheckExecutor;
+    this.metrics = metrics;
+    this.time = time;
     this.activeJobs = new HashMap<>();
     this.claimedBlobIds = new HashSet<>();
     this.deletableBlobIds = new HashSet<>();
   }
 
+  /**
+   * @param writeMetrics the metrics to record the freshness of the data loaded into each table in;
+   *                     may be null
+   */
+  public void setWriteMetrics(WriteMetrics writeMetrics) {
+    this.writeMetrics = writeMetrics;
+  }
+
   /**
    * Given a blob, return the {@link TableId} this blob should be inserted into.
    *
@@ -95,7 +151,7 @@ public class GcsToBqLoadRunnable implements Runnable {
    * @return the TableId this data should be loaded into, or null if we could not tell what
    * table it should be loaded into.
    */
-  public static TableId getTableFromBlob(Blob blob) {
+  public static TableId getTableFromBlob(BlobInfo blob) {
     if (blob.getMetadata() == null
         || blob.getMetadata().get(GcsToBqWriter.GCS_METADATA_TABLE_KEY) == null) {
       logger.error("Found blob {}/{} with no metadata.", blob.getBucket(), blob.getName());
@@ -124,27 +180,22 @@ public class GcsToBqLoadRunnable implements Runnable {
   }
 
   /**
-   * Return a map of {@link TableId}s to a list of {@link Blob}s intended to be batch-loaded into
-   * that table.
+   * Return a map of {@link TableId}s to a list of blobs intended to be batch-loaded into that table.
    *
    * <p>Each blob list will not exceed the {@link #FILE_LOAD_LIMIT} in number of blobs or
    * {@link #MAX_LOAD_SIZE_B} in total byte size. Blobs that are already claimed by an in-progress
    * load job will also not be included.
    *
-   * @return map from {@link TableId}s to {@link Blob}s.
+   * @return map from {@link TableId}s to blobs.
    */
-  private Map<TableId, List<Blob>> getBlobsUpToLimit() {
-    Map<TableId, List<Blob>> tableToUris = new HashMap<>();
+  private Map<TableId, List<IndexedBlob>> getBlobsUpToLimit() {
+    Map<TableId, List<IndexedBlob>> tableToUris = new HashMap<>();
     Map<TableId, Long> tableToCurrentLoadSize = new HashMap<>();
 
-    logger.trace("Starting GCS bucket list");
-    Page<Blob> list = bucket.list();
-    logger.trace("Finished GCS bucket list");
-
-    for (Blob blob : list.iterateAll()) {
-      BlobId blobId = blob.getBlobId();
-      TableId table = getTableFromBlob(blob);
-      logger.debug("Checking blob bucket={}, name={}, table={} ", blob.getBucket(), blob.getName(), table);
+    for (IndexedBlob blob : blobIndex.refresh()) {
+      BlobId blobId = blob.blobId();
+      TableId table = blob.table();
+      logger.debug("Checking blob bucket={}, name={}, table={} ", blobId.getBucket(), blobId.getName(), table);
 
       if (table == null || claimedBlobIds.contains(blobId) || deletableBlobIds.contains(blobId)) {
         // don't do anything if:
@@ -160,7 +211,7 @@ public class GcsToBqLoadRunnable implements Runnable {
         tableToCurrentLoadSize.put(table, 0L);
       }
 
-      long newSize = tableToCurrentLoadSize.get(table) + blob.getSize();
+      long newSize = tableToCurrentLoadSize.get(table) + blob.size();
       // if this file does not cause us to exceed our per-request quota limits...
       if (newSize < MAX_LOAD_SIZE_B && tableToUris.get(table).size() < FILE_LOAD_LIMIT) {
         // ...add the file (and update the load size)
@@ -177,89 +228,132 @@ public class GcsToBqLoadRunnable implements Runnable {
    * Trigger a BigQuery load job for each table in the input containing all the blobs associated
    * with that table.
    *
-   * @param tablesToBlobs a map of {@link TableId} to the list of {@link Blob}s to be loaded into
-   *                      that table.
+   * @param tablesToBlobs a map of {@link TableId} to the list of blobs to be loaded into that
+   *                      table.
    * @return a map from Jobs to the list of blobs being loaded in that job.
    */
-  private Map<Job, List<Blob>> triggerBigQueryLoadJobs(Map<TableId, List<Blob>> tablesToBlobs) {
-    Map<Job, List<Blob>> newJobs = new HashMap<>(tablesToBlobs.size());
-    for (Map.Entry<TableId, List<Blob>> entry : tablesToBlobs.entrySet()) {
-      newJobs.put(triggerBigQueryLoadJob(entry.getKey(), entry.getValue()), entry.getValue());
+  private Map<Job, List<IndexedBlob>> triggerBigQueryLoadJobs(Map<TableId, List<IndexedBlob>> tablesToBlobs) {
+    Map<Job, List<IndexedBlob>> newJobs = new HashMap<>(tablesToBlobs.size());
+    for (Map.Entry<TableId, List<IndexedBlob>> entry : tablesToBlobs.entrySet()) {
+      // A single load job can only read files of one format
+      Map<GcsBlobFormat, List<IndexedBlob>> formatsToBlobs = entry.getValue().stream()
+          .collect(Collectors.groupingBy(IndexedBlob::format));
+      for (Map.Entry<GcsBlobFormat, List<IndexedBlob>> formatEntry : formatsToBlobs.entrySet()) {
+        newJobs.put(
+            triggerBigQueryLoadJob(entry.getKey(), formatEntry.getKey(), formatEntry.getValue()),
+            formatEntry.getValue()
+        );
+      }
     }
     return newJobs;
   }
 
-  private Job triggerBigQueryLoadJob(TableId table, List<Blob> blobs) {
+  private Job triggerBigQueryLoadJob(TableId table, GcsBlobFormat format, List<IndexedBlob> blobs) {
     List<String> uris = blobs.stream()
         .map(b -> String.format(SOURCE_URI_FORMAT,
             bucket.getName(),
-            b.getName()))
+            b.blobId().getName()))
         .collect(Collectors.toList());
     // create job load configuration
-    LoadJobConfiguration loadJobConfiguration =
+    LoadJobConfiguration.Builder loadJobConfigurationBuilder =
         LoadJobConfiguration.newBuilder(table, uris)
-            .setFormatOptions(FormatOptions.json())
+            .setFormatOptions(format.formatOptions())
             .setCreateDisposition(JobInfo.CreateDisposition.CREATE_IF_NEEDED)
-            .setWriteDisposition(JobInfo.WriteDisposition.WRITE_APPEND)
-            .build();
+            .setWriteDisposition(JobInfo.WriteDisposition.WRITE_APPEND);
+    if (format == GcsBlobFormat.AVRO) {
+      loadJobConfigurationBuilder.setUseAvroLogicalTypes(true);
+    }
+    LoadJobConfiguration loadJobConfiguration = loadJobConfigurationBuilder.build();
     // create and return the job.
     Job job = bigQuery.create(JobInfo.of(loadJobConfiguration));
     // update active jobs and claimed blobs.
-    List<BlobId> blobIds = blobs.stream().map(Blob::getBlobId).collect(Collectors.toList());
-    activeJobs.put(job, blobIds);
+    List<BlobId> blobIds = blobs.stream().map(IndexedBlob::blobId).collect(Collectors.toList());
+    long oldestUploadMs = blobs.stream().mapToLong(IndexedBlob::uploadedMs).min().orElse(time.milliseconds());
+    long maxRecordTimestamp = blobs.stream().mapToLong(IndexedBlob::maxRecordTimestamp).max().orElse(-1);
+    activeJobs.put(job, new ActiveJob(table, blobIds, oldestUploadMs, maxRecordTimestamp, time.milliseconds()));
+    metrics.activeJobs(activeJobs.size());
     claimedBlobIds.addAll(blobIds);
-    logger.info("Triggered load job for table {} with {} blobs.", table, blobs.size());
+    logger.info("Triggered load job for table {} with {} {} blobs.", table, blobs.size(), format);
     return job;
   }
 
   /**
-   * Check all active jobs. Remove those that have completed successfully and log a message for
-   * any jobs that failed. We only log a message for failed jobs because those blobs will be
-   * retried during the next run.
+   * Check all active jobs that are due for a status check. Remove those that have completed
+   * successfully and log a message for any jobs that failed. We only log a message for failed jobs
+   * because those blobs will be retried during the next run.
    */
-  private void checkJobs() {
+  private void checkJobs() throws InterruptedException {
     if (activeJobs.isEmpty()) {
       // quick exit if nothing needs to be done.
       logger.debug("No active jobs to check. Skipping check jobs.");
       return;
     }
-    logger.debug("Checking {} active jobs", activeJobs.size());
 
-    Iterator<Map.Entry<Job, List<BlobId>>> jobIterator = activeJobs.entrySet().iterator();
+    long now = time.milliseconds();
+    Map<Job, Future<Boolean>> jobChecks = new HashMap<>();
+    for (Map.Entry<Job, ActiveJob> jobEntry : activeJobs.entrySet()) {
+      if (jobEntry.getValue().nextCheckMs <= now) {
+        Job job = jobEntry.getKey();
+        jobChecks.put(job, jobCheckExecutor.submit(job::isDone));
+      }
+    }
+    logger.debug("Checking {} of {} active jobs", jobChecks.size(), activeJobs.size());
+
     int successCount = 0;
     int failureCount = 0;
-
-    while (jobIterator.hasNext()) {
-      Map.Entry<Job, List<BlobId>> jobEntry = jobIterator.next();
-      Job job = jobEntry.getKey();
-      logger.debug("Checking next job: {}", job.getJobId());
-
+    for (Map.Entry<Job, Future<Boolean>> jobCheck : jobChecks.entrySet()) {
+      Job job = jobCheck.getKey();
+      ActiveJob activeJob = activeJobs.get(job);
       try {
-        if (job.isDone()) {
+        if (awaitCheck(jobCheck.getValue(), jobChecks.values())) {
           logger.trace("Job is marked done: id={}, status={}", job.getJobId(), job.getStatus());
-          final List<BlobId> blobIdsToDelete = jobEntry.getValue();
-          jobIterator.remove();
-          logger.trace("Job is removed from iterator: {}", job.getJobId());
+          activeJobs.remove(job);
           successCount++;
-          claimedBlobIds.removeAll(blobIdsToDelete);
-          logger.trace("Completed blobs have been removed from claimed set: {}", blobIdsToDelete);
-          deletableBlobIds.addAll(blobIdsToDelete);
-          logger.trace("Completed blobs marked as deletable: {}", blobIdsToDelete);
+          claimedBlobIds.removeAll(activeJob.blobIds);
+          logger.trace("Completed blobs have been removed from claimed set: {}", activeJob.blobIds);
+          deletableBlobIds.addAll(activeJob.blobIds);
+          logger.trace("Completed blobs marked as deletable: {}", activeJob.blobIds);
+          metrics.jobCompleted(time.milliseconds() - activeJob.oldestUploadMs);
+          // The rows of the job only become visible in BigQuery now, rather than when they were uploaded
+          if (writeMetrics != null && activeJob.maxRecordTimestamp >= 0) {
+            writeMetrics.table(activeJob.table, WriteMetrics.WritePath.GCS_LOAD)
+                .acknowledged(activeJob.maxRecordTimestamp);
+          }
+        } else {
+          activeJob.backOff(time.milliseconds());
+          logger.trace("Job {} is still running; checking again in {} ms",
+              job.getJobId(), activeJob.backoffMs);
+        }
+      } catch (ExecutionException e) {
+        if (!(e.getCause() instanceof BigQueryException)) {
+          logger.warn("Unexpected error while checking status of GCS to BQ load job {}", job.getJobId(), e.getCause());
+          activeJob.backOff(time.milliseconds());
+          continue;
         }
-      } catch (BigQueryException ex) {
         // log a message.
-        logger.warn("GCS to BQ load job failed", ex);
+        logger.warn("GCS to BQ load job failed", e.getCause());
         // remove job from active jobs (it's not active anymore)
-        List<BlobId> blobIds = activeJobs.get(job);
-        jobIterator.remove();
+        activeJobs.remove(job);
         // unclaim blobs
-        claimedBlobIds.removeAll(blobIds);
+        claimedBlobIds.removeAll(activeJob.blobIds);
         failureCount++;
-      } finally {
-        logger.info("GCS To BQ job tally: {} successful jobs, {} failed jobs.",
-            successCount, failureCount);
+        metrics.jobFailed();
       }
     }
+    metrics.activeJobs(activeJobs.size());
+    logger.info("GCS To BQ job tally: {} successful jobs, {} failed jobs, {} still running.",
+        successCount, failureCount, activeJobs.size());
+  }
+
+  private static boolean awaitCheck(Future<Boolean> check, Collection<Future<Boolean>> allChecks)
+      throws InterruptedException, ExecutionException {
+    try {
+      return check.get();
+    } catch (InterruptedException e) {
+      // the jobs are checked again on the next run; don't leave requests queued up until then
+      allChecks.forEach(c -> c.cancel(true));
+      throw e;
+    }
   }
 
   /**
@@ -299,6 +393,7 @@ public class GcsToBqLoadRunnable implements Runnable {
       // the deletableBlobIds.
       successfulDeletes = numberOfBlobs - failedDeletes;
       deletableBlobIds.removeAll(blobIdsToDelete);
+      blobIndex.remove(blobIdsToDelete);
 
       logger.info("Successfully deleted {} blobs; failed to delete {} blobs",
           successfulDeletes,
@@ -317,12 +412,37 @@ public class GcsToBqLoadRunnable implements Runnable {
       logger.trace("Deleting deletable blobs");
       deleteBlobs();
       logger.trace("Finding new blobs to load into BQ");
-      Map<TableId, List<Blob>> tablesToSourceUris = getBlobsUpToLimit();
+      Map<TableId, List<IndexedBlob>> tablesToSourceUris = getBlobsUpToLimit();
       logger.trace("Loading {} new blobs into BQ", tablesToSourceUris.size());
       triggerBigQueryLoadJobs(tablesToSourceUris);
       logger.trace("Finished BQ load run");
+    } catch (InterruptedException e) {
+      logger.debug("Interrupted while checking load jobs", e);
+      Thread.currentThread().interrupt();
     } catch (Exception e) {
       logger.error("Uncaught error in BQ loader", e);
     }
   }
+
+  private static class ActiveJob {
+    private final TableId table;
+    private final List<BlobId> blobIds;
+    private final long oldestUploadMs;
+    private final long maxRecordTimestamp;
+    private long nextCheckMs;
+    private long backoffMs;
+
+    ActiveJob(TableId table, List<BlobId> blobIds, long oldestUploadMs, long maxRecordTimestamp, long startedMs) {
+      this.table = table;
+      this.blobIds = blobIds;
+      this.oldestUploadMs = oldestUploadMs;
+      this.maxRecordTimestamp = maxRecordTimestamp;
+      this.nextCheckMs = startedMs;
+    }
+
+    void backOff(long now) {
+      backoffMs = Math.min(Math.max(backoffMs * 2, MIN_JOB_CHECK_BACKOFF_MS), MAX_JOB_CHECK_BACKOFF_MS);
+      nextCheckMs = now + backoffMs;
+    }
+  }
 }
@@ -74,6 +74,7 @@ public class MergeQueries {
   private final SchemaManager schemaManager;
   private final SinkTaskContext context;
   private final Time time;
+  private WriteMetrics writeMetrics;
 
   public MergeQueries(BigQuerySinkTaskConfig config,
                       MergeBatches mergeBatches,
@@ -126,6 +127,13 @@ public class MergeQueries {
     this.time = time;
   }
 
+  /**
+   * @param writeMetrics the metrics to record the merge queries run in; may be null
+   */
+  public void setWriteMetrics(WriteMetrics writeMetrics) {
+    this.writeMetrics = writeMetrics;
+  }
+
   // DELETE FROM `<dataset>`.`<intermediateTable>` WHERE batchNumber <= <batchNumber> AND _PARTITIONTIME IS NOT NULL;
   @VisibleForTesting
   static String batchClearQuery(TableId intermediateTable, int batchNumber) {
@@ -187,14 +195,20 @@ public class MergeQueries {
       String mergeFlushQuery = mergeFlushQuery(intermediateTable, destinationTable, batchNumber);
       logger.trace(mergeFlushQuery);
 
+      WriteMetrics.TableWriteMetrics tableMetrics = writeMetrics != null
+          ? writeMetrics.table(destinationTable, WriteMetrics.WritePath.MERGE)
+          : null;
       int attempt = 0;
       boolean success = false;
       while (!success) {
         try {
           if (attempt > 0) {
             SleepUtils.waitRandomTime(time, this.bigQueryRetryWait, WAIT_MAX_JITTER);
+            if (tableMetrics != null) {
+              tableMetrics.retry();
+            }
           }
-          bigQuery.query(QueryJobConfiguration.of(mergeFlushQuery));
+          runMergeQuery(mergeFlushQuery, tableMetrics);
           success = true;
         } catch (BigQueryException e) {
           if (attempt >= bigQueryRetry) {
@@ -232,6 +246,17 @@ public class MergeQueries {
     bigQuery.query(QueryJobConfiguration.of(batchClearQuery));
   }
 
+  private void runMergeQuery(String query, WriteMetrics.TableWriteMetrics tableMetrics) throws InterruptedException {
+    long requestStartMs = time.milliseconds();
+    try {
+      bigQuery.query(QueryJobConfiguration.of(query));
+    } finally {
+      if (tableMetrics != null) {
+        tableMetrics.request(time.milliseconds() - requestStartMs);
+      }
+    }
+  }
+
   @VisibleForTesting
   String mergeFlushQuery(TableId intermediateTable, TableId destinationTable, int batchNumber) {
     Schema intermediateSchema = schemaManager.cachedSchema(intermediateTable);
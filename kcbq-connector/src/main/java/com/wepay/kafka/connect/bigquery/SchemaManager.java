@@ -31,8 +31,10 @@ import com.google.cloud.bigquery.BigQueryException;
 import com.google.cloud.bigquery.Clustering;
 import com.google.cloud.bigquery.Field;
 import com.google.cloud.bigquery.Field.Mode;
+import com.google.cloud.bigquery.FieldList;
 import com.google.cloud.bigquery.LegacySQLTypeName;
 import com.google.cloud.bigquery.StandardTableDefinition;
+import com.google.cloud.bigquery.Table;
 import com.google.cloud.bigquery.TableId;
 import com.google.cloud.bigquery.TableInfo;
 import com.google.cloud.bigquery.TimePartitioning;
@@ -46,12 +48,19 @@ import com.wepay.kafka.connect.bigquery.exception.BigQueryConnectException;
 import com.wepay.kafka.connect.bigquery.utils.FieldNameSanitizer;
 import com.wepay.kafka.connect.bigquery.utils.TableNameUtils;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
 import org.apache.kafka.connect.data.Schema;
 import org.apache.kafka.connect.sink.SinkRecord;
 import org.slf4j.Logger;
@@ -63,6 +72,7 @@ import org.slf4j.LoggerFactory;
 public class SchemaManager {
 
   private static final Logger logger = LoggerFactory.getLogger(SchemaManager.class);
+  private static final int MAX_MEMOIZED_SCHEMAS = 64;
 
   private final SchemaRetriever schemaRetriever;
   private final SchemaConverter<com.google.cloud.bigquery.Schema> schemaConverter;
@@ -81,6 +91,14 @@ public class SchemaManager {
   private final ConcurrentMap<TableId, Object> tableCreateLocks;
   private final ConcurrentMap<TableId, Object> tableUpdateLocks;
   private final ConcurrentMap<TableId, com.google.cloud.bigquery.Schema> schemaCache;
+  private volatile TableMetadataCache tableCache;
+  // Conversions depend on this instance's configuration, so neither memo is shared with the
+  // schema manager for intermediate tables
+  private final Map<RecordSchemas, com.google.cloud.bigquery.Schema> convertedSchemas = lruMap();
+  private final Map<UnionKey, com.google.cloud.bigquery.Schema> unionizedSchemas = lruMap();
+  private final ConcurrentMap<Object, PendingSchemaChange<Boolean>> pendingCreates = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Object, PendingSchemaChange<Boolean>> pendingUpdates = new ConcurrentHashMap<>();
+  private final ConcurrentMap<TableId, CheckedSchemas> checkedSchemas = new ConcurrentHashMap<>();
 
   /**
    * @param schemaRetriever                Used to determine the Kafka Connect Schema that should be used for a
@@ -173,8 +191,19 @@ public class SchemaManager {
     this.schemaCache = schemaCache;
   }
 
+  /**
+   * Use a shared cache to check whether tables exist before creating or updating them, instead of
+   * reading their metadata from BigQuery every time. The cache is kept up to date with the tables
+   * this schema manager creates and updates.
+   *
+   * @param tableCache the cache to use; may be null to always read table metadata from BigQuery
+   */
+  public void setTableCache(TableMetadataCache tableCache) {
+    this.tableCache = tableCache;
+  }
+
   public SchemaManager forIntermediateTables() {
-    return new SchemaManager(
+    SchemaManager result = new SchemaManager(
         schemaRetriever,
         schemaConverter,
         bigQuery,
@@ -193,6 +222,8 @@ public class SchemaManager {
         tableUpdateLocks,
         schemaCache
     );
+    result.setTableCache(tableCache);
+    return result;
   }
 
   /**
@@ -207,6 +238,36 @@ public class SchemaManager {
     return schemaCache.get(table);
   }
 
+  /**
+   * Check, without contacting BigQuery, whether a batch of records would be rejected by the last
+   * known schema of a table because they have fields it lacks or lack fields it requires. Each
+   * distinct record schema is only checked once for as long as the table's schema is unchanged, so
+   * batches with schemas that have already been seen are checked without converting them, and a
+   * given mismatch is only reported once.
+   *
+   * @param table   The BigQuery table the records are about to be written to
+   * @param records The sink records about to be written
+   * @return whether the table's schema should be updated before writing the records; false if
+   * the table's schema is not known
+   */
+  public boolean needsSchemaUpdate(TableId table, List<SinkRecord> records) {
+    com.google.cloud.bigquery.Schema tableSchema = knownTableSchema(table);
+    if (tableSchema == null) {
+      return false;
+    }
+    // Compared by value, as the table metadata cache fetches a new copy of an unchanged schema
+    CheckedSchemas checked = checkedSchemas.compute(table, (t, current) ->
+        current != null && current.tableSchema.equals(tableSchema) ? current : new CheckedSchemas(tableSchema));
+    for (RecordSchemas schemas : distinctRecordSchemas(records)) {
+      if (checked.recordSchemas.add(schemas)
+          && !fitsSchema(convertRecordSchemas(schemas).getFields(), tableSchema.getFields())) {
+        logger.debug("Records for {} do not fit its current schema", table(table));
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * Create a new table in BigQuery, if it doesn't already exist. Otherwise, update the existing
    * table to use the most-current schema.
@@ -215,12 +276,12 @@ public class SchemaManager {
    * @param records The sink records used to determine the schema.
    */
   public void createOrUpdateTable(TableId table, List<SinkRecord> records) {
-    synchronized (lock(tableCreateLocks, table)) {
-      if (bigQuery.getTable(table) == null) {
-        logger.debug("{} doesn't exist; creating instead of updating", table(table));
-        if (createTable(table, records)) {
-          return;
-        }
+    TableMetadataCache cache = tableCache;
+    boolean exists = cache != null ? cache.exists(table) : bigQuery.getTable(table) != null;
+    if (!exists) {
+      logger.debug("{} doesn't exist; creating instead of updating", table(table));
+      if (createTable(table, records)) {
+        return;
       }
     }
 
@@ -230,61 +291,139 @@ public class SchemaManager {
   }
 
   /**
-   * Create a new table in BigQuery.
+   * Create a new table in BigQuery. Concurrent calls for the same table are coalesced where their
+   * records allow it: the records of every such caller waiting on the table are used to determine
+   * its schema, and the table is created with a single request.
    *
    * @param table   The BigQuery table to create.
    * @param records The sink records used to determine the schema.
    * @return whether the table had to be created; if the table already existed, will return false
    */
   public boolean createTable(TableId table, List<SinkRecord> records) {
-    synchronized (lock(tableCreateLocks, table)) {
-      if (schemaCache.containsKey(table)) {
-        // Table already exists; noop
-        logger.debug("Skipping create of {} as it should already exist or appear very soon", table(table));
+    return coalesce(
+        table, records, tableCreateLocks, pendingCreates, allRecords -> doCreateTable(table, allRecords));
+  }
+
+  private boolean doCreateTable(TableId table, List<SinkRecord> records) {
+    if (schemaCache.containsKey(table)) {
+      // Table already exists; noop
+      logger.debug("Skipping create of {} as it should already exist or appear very soon", table(table));
+      return false;
+    }
+    TableInfo tableInfo = getTableInfo(table, records, true);
+    logger.info("Attempting to create {} with schema {}",
+        table(table), tableInfo.getDefinition().getSchema());
+    try {
+      bigQuery.create(tableInfo);
+      logger.debug("Successfully created {}", table(table));
+      schemaCache.put(table, tableInfo.getDefinition().getSchema());
+      invalidateCachedTable(table);
+      return true;
+    } catch (BigQueryException e) {
+      if (e.getCode() == 409) {
+        logger.debug("Failed to create {} as it already exists (possibly created by another task)", table(table));
+        schemaCache.put(table, readTableSchema(table));
+        invalidateCachedTable(table);
         return false;
       }
-      TableInfo tableInfo = getTableInfo(table, records, true);
-      logger.info("Attempting to create {} with schema {}",
-          table(table), tableInfo.getDefinition().getSchema());
-      try {
-        bigQuery.create(tableInfo);
-        logger.debug("Successfully created {}", table(table));
-        schemaCache.put(table, tableInfo.getDefinition().getSchema());
-        return true;
-      } catch (BigQueryException e) {
-        if (e.getCode() == 409) {
-          logger.debug("Failed to create {} as it already exists (possibly created by another task)", table(table));
-          schemaCache.put(table, readTableSchema(table));
-          return false;
-        }
-        throw e;
-      }
+      throw e;
     }
   }
 
   /**
-   * Update an existing table in BigQuery.
+   * Update an existing table in BigQuery. Concurrent calls for the same table are coalesced where
+   * their records allow it: the records of every such caller waiting on the table are used to
+   * determine the new schema, and the table is updated with a single request.
    *
    * @param table   The BigQuery table to update.
    * @param records The sink records used to update the schema.
+   * @return whether the schema of the table had to be updated; if the current schema was already
+   * compatible with the records, will return false
    */
-  public void updateSchema(TableId table, List<SinkRecord> records) {
-    synchronized (lock(tableUpdateLocks, table)) {
-      TableInfo tableInfo = getTableInfo(table, records, false);
-      if (!schemaCache.containsKey(table)) {
-        schemaCache.put(table, readTableSchema(table));
-      }
+  public boolean updateSchema(TableId table, List<SinkRecord> records) {
+    return coalesce(
+        table, records, tableUpdateLocks, pendingUpdates, allRecords -> doUpdateSchema(table, allRecords));
+  }
 
-      if (!schemaCache.get(table).equals(tableInfo.getDefinition().getSchema())) {
-        logger.info("Attempting to update {} with schema {}",
-            table(table), tableInfo.getDefinition().getSchema());
-        bigQuery.update(tableInfo);
-        logger.debug("Successfully updated {}", table(table));
-        schemaCache.put(table, tableInfo.getDefinition().getSchema());
-      } else {
-        logger.debug("Skipping update of {} since current schema should be compatible", table(table));
+  private boolean doUpdateSchema(TableId table, List<SinkRecord> records) {
+    TableInfo tableInfo = getTableInfo(table, records, false);
+    if (!schemaCache.containsKey(table)) {
+      schemaCache.put(table, readTableSchema(table));
+    }
+
+    if (!schemaCache.get(table).equals(tableInfo.getDefinition().getSchema())) {
+      logger.info("Attempting to update {} with schema {}",
+          table(table), tableInfo.getDefinition().getSchema());
+      bigQuery.update(tableInfo);
+      logger.debug("Successfully updated {}", table(table));
+      schemaCache.put(table, tableInfo.getDefinition().getSchema());
+      invalidateCachedTable(table);
+      return true;
+    } else {
+      logger.debug("Skipping update of {} since current schema should be compatible", table(table));
+      return false;
+    }
+  }
+
+  /**
+   * Queue a schema change for a table behind any other changes for it. The first caller to acquire
+   * the table's lock applies the change with the records of every compatible caller queued at that
+   * point, and the others then return (or throw) its result without issuing any requests of their
+   * own. Callers that cannot be coalesced apply their own change once they acquire the lock.
+   */
+  private <T> T coalesce(
+      TableId table,
+      List<SinkRecord> records,
+      ConcurrentMap<TableId, Object> locks,
+      ConcurrentMap<Object, PendingSchemaChange<T>> pendingChanges,
+      Function<List<SinkRecord>, T> change) {
+    Object pendingKey = pendingKey(table, records);
+    if (pendingKey == null) {
+      synchronized (lock(locks, table)) {
+        return change.apply(records);
       }
     }
+    PendingSchemaChange<T> pending = pendingChanges.compute(pendingKey, (k, queued) -> {
+      PendingSchemaChange<T> result = queued != null ? queued : new PendingSchemaChange<>();
+      result.records.addAll(records);
+      result.callers++;
+      return result;
+    });
+    synchronized (lock(locks, table)) {
+      // If the change is no longer queued, another caller has already applied it
+      if (pendingChanges.remove(pendingKey, pending)) {
+        if (pending.callers > 1) {
+          logger.debug("Coalescing schema changes from {} callers for {}", pending.callers, table(table));
+        }
+        try {
+          pending.result = change.apply(pending.records);
+        } catch (RuntimeException e) {
+          pending.failure = e;
+        }
+      }
+      if (pending.failure != null) {
+        throw pending.failure;
+      }
+      return pending.result;
+    }
+  }
+
+  /**
+   * Returns the key under which a schema change for a batch of records may be coalesced with
+   * others, or null if it must be applied on its own. Unionized schemas include the fields of
+   * every record, so all changes for a table can be applied together. Otherwise the schema is
+   * taken from a single record, and only batches made up of the same single schema are
+   * guaranteed to produce the same change.
+   */
+  private Object pendingKey(TableId table, List<SinkRecord> records) {
+    if (allowSchemaUnionization) {
+      return table;
+    }
+    List<RecordSchemas> recordSchemas = distinctRecordSchemas(records);
+    if (recordSchemas.size() > 1) {
+      return null;
+    }
+    return Arrays.asList(table, recordSchemas);
   }
 
   /**
@@ -312,8 +451,17 @@ public class SchemaManager {
       TableId table, List<SinkRecord> records) {
     com.google.cloud.bigquery.Schema result;
     if (allowSchemaUnionization) {
-      List<com.google.cloud.bigquery.Schema> bigQuerySchemas = getSchemasList(table, records);
-      result = getUnionizedSchema(bigQuerySchemas);
+      com.google.cloud.bigquery.Schema existingSchema = readTableSchema(table);
+      List<RecordSchemas> recordSchemas = distinctRecordSchemas(records);
+      UnionKey unionKey = new UnionKey(existingSchema, recordSchemas);
+      result = unionizedSchemas.get(unionKey);
+      if (result == null) {
+        List<com.google.cloud.bigquery.Schema> bigQuerySchemas = getSchemasList(existingSchema, recordSchemas);
+        result = getUnionizedSchema(bigQuerySchemas);
+        unionizedSchemas.put(unionKey, result);
+      } else {
+        logger.trace("Reusing unionized schema for {}", table(table));
+      }
     } else {
       com.google.cloud.bigquery.Schema existingSchema = readTableSchema(table);
       SinkRecord recordToConvert = getRecordToConvert(records);
@@ -337,23 +485,51 @@ public class SchemaManager {
   }
 
   /**
-   * Returns a list of BigQuery schemas of the specified table and the sink records
+   * Returns a list of BigQuery schemas of the specified table and the distinct schemas of a batch
+   * of sink records
    *
-   * @param table   The BigQuery table's schema to add to the list of schemas
-   * @param records The sink records' schemas to add to the list of schemas
+   * @param existingSchema The BigQuery table's schema to add to the list of schemas; may be null
+   * @param recordSchemas  The distinct record schemas to convert and add to the list of schemas
    * @return List of BigQuery schemas
    */
-  private List<com.google.cloud.bigquery.Schema> getSchemasList(TableId table, List<SinkRecord> records) {
+  private List<com.google.cloud.bigquery.Schema> getSchemasList(
+      com.google.cloud.bigquery.Schema existingSchema, List<RecordSchemas> recordSchemas) {
     List<com.google.cloud.bigquery.Schema> bigQuerySchemas = new ArrayList<>();
-    Optional.ofNullable(readTableSchema(table)).ifPresent(bigQuerySchemas::add);
-    for (SinkRecord record : records) {
-      Schema kafkaValueSchema = schemaRetriever.retrieveValueSchema(record);
+    Optional.ofNullable(existingSchema).ifPresent(bigQuerySchemas::add);
+    for (RecordSchemas schemas : recordSchemas) {
+      bigQuerySchemas.add(convertRecordSchemas(schemas));
+    }
+    return bigQuerySchemas;
+  }
+
+  /**
+   * Returns the distinct key and value schemas of a batch of sink records, in the order they
+   * first appear. Tombstone records are skipped. Batches are usually made up of long runs of
+   * records sharing the same schema instances, which are collapsed without hashing the schemas.
+   *
+   * @param records The sink records to collect the schemas of
+   * @return List of distinct record schemas
+   */
+  private List<RecordSchemas> distinctRecordSchemas(List<SinkRecord> records) {
+    Set<RecordSchemas> result = new LinkedHashSet<>();
+    List<Schema> valueSchemas = schemaRetriever.retrieveValueSchemas(records);
+    List<Schema> keySchemas = kafkaKeyFieldName.isPresent() ? schemaRetriever.retrieveKeySchemas(records) : null;
+    Schema lastKeySchema = null;
+    Schema lastValueSchema = null;
+    for (int i = 0; i < valueSchemas.size(); i++) {
+      Schema kafkaValueSchema = valueSchemas.get(i);
       if (kafkaValueSchema == null) {
         continue;
       }
-      bigQuerySchemas.add(convertRecordSchema(record));
+      Schema kafkaKeySchema = keySchemas != null ? keySchemas.get(i) : null;
+      if (kafkaValueSchema == lastValueSchema && kafkaKeySchema == lastKeySchema) {
+        continue;
+      }
+      result.add(new RecordSchemas(kafkaKeySchema, kafkaValueSchema));
+      lastKeySchema = kafkaKeySchema;
+      lastValueSchema = kafkaValueSchema;
     }
-    return bigQuerySchemas;
+    return new ArrayList<>(result);
   }
 
   /**
@@ -377,7 +553,15 @@ public class SchemaManager {
   private com.google.cloud.bigquery.Schema convertRecordSchema(SinkRecord record) {
     Schema kafkaValueSchema = schemaRetriever.retrieveValueSchema(record);
     Schema kafkaKeySchema = kafkaKeyFieldName.isPresent() ? schemaRetriever.retrieveKeySchema(record) : null;
-    com.google.cloud.bigquery.Schema result = getBigQuerySchema(kafkaKeySchema, kafkaValueSchema);
+    return convertRecordSchemas(new RecordSchemas(kafkaKeySchema, kafkaValueSchema));
+  }
+
+  private com.google.cloud.bigquery.Schema convertRecordSchemas(RecordSchemas schemas) {
+    com.google.cloud.bigquery.Schema result = convertedSchemas.get(schemas);
+    if (result == null) {
+      result = getBigQuerySchema(schemas.keySchema, schemas.valueSchema);
+      convertedSchemas.put(schemas, result);
+    }
     return result;
   }
 
@@ -735,6 +919,50 @@ public class SchemaManager {
         : TableNameUtils.table(table);
   }
 
+  private com.google.cloud.bigquery.Schema knownTableSchema(TableId table) {
+    com.google.cloud.bigquery.Schema result = schemaCache.get(table);
+    TableMetadataCache cache = tableCache;
+    if (result == null && cache != null) {
+      Table cachedTable = cache.get(table);
+      result = cachedTable != null ? cachedTable.getDefinition().getSchema() : null;
+    }
+    return result;
+  }
+
+  /**
+   * @return whether rows with the given fields can be written to a table with the given fields;
+   * names are compared case-insensitively, as they are by BigQuery. Types are not compared, since
+   * BigQuery accepts values for many columns whose type differs from the converted one (such as
+   * NUMERIC or DATETIME columns of pre-created tables); real type conflicts are left to the write
+   * to report
+   */
+  private static boolean fitsSchema(FieldList recordFields, FieldList tableFields) {
+    Map<String, Field> remainingTableFields = new LinkedHashMap<>();
+    if (tableFields != null) {
+      tableFields.forEach(field -> remainingTableFields.put(field.getName().toLowerCase(Locale.ROOT), field));
+    }
+    if (recordFields != null) {
+      for (Field recordField : recordFields) {
+        Field tableField = remainingTableFields.remove(recordField.getName().toLowerCase(Locale.ROOT));
+        if (tableField == null
+            || (mode(tableField) == Mode.REPEATED) != (mode(recordField) == Mode.REPEATED)
+            || (mode(tableField) == Mode.REQUIRED && mode(recordField) != Mode.REQUIRED)) {
+          return false;
+        }
+        if (LegacySQLTypeName.RECORD.equals(recordField.getType())
+            && LegacySQLTypeName.RECORD.equals(tableField.getType())
+            && !fitsSchema(recordField.getSubFields(), tableField.getSubFields())) {
+          return false;
+        }
+      }
+    }
+    return remainingTableFields.values().stream().noneMatch(field -> mode(field) == Mode.REQUIRED);
+  }
+
+  private static Mode mode(Field field) {
+    return field.getMode() != null ? field.getMode() : Mode.NULLABLE;
+  }
+
   private com.google.cloud.bigquery.Schema readTableSchema(TableId table) {
     logger.trace("Reading schema for {}", table(table));
     return Optional.ofNullable(bigQuery.getTable(table))
@@ -742,7 +970,115 @@ public class SchemaManager {
         .orElse(null);
   }
 
+  private void invalidateCachedTable(TableId table) {
+    TableMetadataCache cache = tableCache;
+    if (cache != null) {
+      cache.invalidate(table);
+    }
+  }
+
   private Object lock(ConcurrentMap<TableId, Object> locks, TableId table) {
     return locks.computeIfAbsent(table, t -> new Object());
   }
+
+  private static <K, V> Map<K, V> lruMap() {
+    return Collections.synchronizedMap(new LinkedHashMap<K, V>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return size() > MAX_MEMOIZED_SCHEMAS;
+      }
+    });
+  }
+
+  /**
+   * The Kafka Connect key and value schemas of a record, which together determine the BigQuery
+   * schema it is converted to.
+   */
+  private static final class RecordSchemas {
+    private final Schema keySchema;
+    private final Schema valueSchema;
+    private final int hash;
+
+    RecordSchemas(Schema keySchema, Schema valueSchema) {
+      this.keySchema = keySchema;
+      this.valueSchema = valueSchema;
+      this.hash = Objects.hash(keySchema, valueSchema);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof RecordSchemas)) {
+        return false;
+      }
+      RecordSchemas that = (RecordSchemas) o;
+      return hash == that.hash
+          && Objects.equals(keySchema, that.keySchema)
+          && Objects.equals(valueSchema, that.valueSchema);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /**
+   * The inputs to a schema union: the current schema of the table and the distinct schemas of
+   * the records being written to it.
+   */
+  private static final class UnionKey {
+    private final com.google.cloud.bigquery.Schema tableSchema;
+    private final List<RecordSchemas> recordSchemas;
+    private final int hash;
+
+    UnionKey(com.google.cloud.bigquery.Schema tableSchema, List<RecordSchemas> recordSchemas) {
+      this.tableSchema = tableSchema;
+      this.recordSchemas = recordSchemas;
+      this.hash = Objects.hash(tableSchema, recordSchemas);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof UnionKey)) {
+        return false;
+      }
+      UnionKey that = (UnionKey) o;
+      return hash == that.hash
+          && Objects.equals(tableSchema, that.tableSchema)
+          && recordSchemas.equals(that.recordSchemas);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /**
+   * A schema change for a table, and the records of every caller waiting for it.
+   */
+  private static final class PendingSchemaChange<T> {
+    private final List<SinkRecord> records = new ArrayList<>();
+    private int callers;
+    private T result;
+    private RuntimeException failure;
+  }
+
+  /**
+   * The record schemas that have been checked against a version of a table's schema.
+   */
+  private static final class CheckedSchemas {
+    private final com.google.cloud.bigquery.Schema tableSchema;
+    private final Set<RecordSchemas> recordSchemas = ConcurrentHashMap.newKeySet();
+
+    CheckedSchemas(com.google.cloud.bigquery.Schema tableSchema) {
+      this.tableSchema = tableSchema;
+    }
+  }
 }
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery;
+
+import com.google.cloud.bigquery.Table;
+import com.google.cloud.bigquery.TableId;
+import com.wepay.kafka.connect.bigquery.utils.Time;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A cache of the metadata of BigQuery tables, shared by the task and its writers so that table
+ * metadata does not have to be read from BigQuery for every record or batch.
+ *
+ * <p>Tables that do not exist are cached as well, so that they are not looked up again for every
+ * record until they are created. Once an entry is older than the TTL, the stale metadata is still
+ * returned, and refreshed in the background; only tables that have never been looked up are read
+ * synchronously. Entries should be invalidated when the connector creates or updates a table.
+ *
+ * <p>This class is thread safe.
+ */
+public class TableMetadataCache {
+
+  private static final Logger logger = LoggerFactory.getLogger(TableMetadataCache.class);
+
+  private final Function<TableId, Table> loader;
+  private final long ttlMs;
+  private final Executor refreshExecutor;
+  private final Time time;
+  private final ConcurrentMap<TableId, Entry> entries;
+
+  /**
+   * @param loader          reads the metadata of a table from BigQuery, returning null if the
+   *                        table does not exist
+   * @param ttlMs           how long metadata is used for before it is refreshed
+   * @param refreshExecutor runs background refreshes
+   * @param time            used to determine the age of entries
+   */
+  public TableMetadataCache(Function<TableId, Table> loader, long ttlMs, Executor refreshExecutor, Time time) {
+    this.loader = loader;
+    this.ttlMs = ttlMs;
+    this.refreshExecutor = refreshExecutor;
+    this.time = time;
+    this.entries = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * @param table the table to get the metadata of
+   * @return the cached metadata of the table, or null if the table does not exist
+   */
+  public Table get(TableId table) {
+    Entry entry = entries.get(table);
+    if (entry == null) {
+      // Not loaded while computing the entry, so that lookups of other tables are not blocked
+      Entry loaded = new Entry(loader.apply(table), time.milliseconds());
+      Entry existing = entries.putIfAbsent(table, loaded);
+      entry = existing != null ? existing : loaded;
+    } else if (time.milliseconds() - entry.loadedMs >= ttlMs) {
+      maybeRefresh(table, entry);
+    }
+    return entry.table;
+  }
+
+  /**
+   * @param table the table to check
+   * @return whether the table exists, according to the cached metadata
+   */
+  public boolean exists(TableId table) {
+    return get(table) != null;
+  }
+
+  /**
+   * Add the metadata of some tables to the cache, as if they had just been read.
+   *
+   * @param tables the metadata of the tables
+   */
+  public void putAll(Map<TableId, Table> tables) {
+    long now = time.milliseconds();
+    tables.forEach((tableId, table) -> entries.put(tableId, new Entry(table, now)));
+  }
+
+  /**
+   * Forget the metadata of a table, so that it is read again the next time it is needed, such as
+   * after the table has been created or updated.
+   *
+   * @param table the table to forget
+   */
+  public void invalidate(TableId table) {
+    entries.remove(table);
+  }
+
+  private void maybeRefresh(TableId table, Entry entry) {
+    if (!entry.refreshing.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      refreshExecutor.execute(() -> {
+        try {
+          Table refreshed = loader.apply(table);
+          // Only replace the entry that was refreshed, in case it was invalidated in the meantime
+          entries.replace(table, entry, new Entry(refreshed, time.milliseconds()));
+        } catch (RuntimeException e) {
+          logger.warn("Failed to refresh the metadata of table {}; will retry", table, e);
+        } finally {
+          entry.refreshing.set(false);
+        }
+      });
+    } catch (RuntimeException e) {
+      // The executor may have been shut down as the task is stopping
+      entry.refreshing.set(false);
+      logger.debug("Could not schedule refresh of the metadata of table {}", table, e);
+    }
+  }
+
+  private static class Entry {
+    private final Table table;
+    private final long loadedMs;
+    private final AtomicBoolean refreshing;
+
+    Entry(Table table, long loadedMs) {
+      this.table = table;
+      this.loadedMs = loadedMs;
+      this.refreshing = new AtomicBoolean();
+    }
+  }
+}
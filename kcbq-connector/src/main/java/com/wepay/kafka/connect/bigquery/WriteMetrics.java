@@ -0,0 +1,314 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery;
+
+import com.google.cloud.bigquery.TableId;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.metrics.Measurable;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.metrics.stats.Avg;
+import org.apache.kafka.common.metrics.stats.CumulativeCount;
+import org.apache.kafka.common.metrics.stats.CumulativeSum;
+import org.apache.kafka.common.metrics.stats.Max;
+import org.apache.kafka.common.metrics.stats.Meter;
+import org.apache.kafka.common.metrics.stats.Percentile;
+import org.apache.kafka.common.metrics.stats.Percentiles;
+import org.apache.kafka.common.metrics.stats.WindowedCount;
+
+/**
+ * Metrics for the writes made to each table, by each of the paths that the connector writes
+ * rows to BigQuery with. The metrics of a table are only registered once it is first written to.
+ *
+ * <p>Besides the requests made to BigQuery, the time that batches spend in each {@link Stage} on
+ * the way there is recorded, along with how fresh the data written to each table is.
+ */
+public class WriteMetrics {
+
+  public static final String GROUP = "bigquery-write-metrics";
+
+  // Request latencies above this are counted in the highest bucket of the latency histograms
+  private static final double MAX_TRACKED_LATENCY_MS = 60_000;
+  private static final int LATENCY_HISTOGRAM_BYTES = 4 * 1024;
+
+  /**
+   * The ways in which rows are written to BigQuery.
+   */
+  public enum WritePath {
+    INSERT_ALL("insert-all", true),
+    STORAGE_DEFAULT("storage-default", true),
+    STORAGE_BATCH("storage-batch", false),
+    GCS_LOAD("gcs-load", false),
+    MERGE("merge", true);
+
+    private final String tag;
+    private final boolean visibleOnWrite;
+
+    WritePath(String tag, boolean visibleOnWrite) {
+      this.tag = tag;
+      this.visibleOnWrite = visibleOnWrite;
+    }
+
+    public String tag() {
+      return tag;
+    }
+
+    /**
+     * @return whether rows are visible in BigQuery as soon as they have been written; otherwise, they
+     * only become visible once the stream they were appended to is committed, or the blob they were
+     * uploaded in is loaded
+     */
+    public boolean visibleOnWrite() {
+      return visibleOnWrite;
+    }
+  }
+
+  /**
+   * The stages that a batch of rows goes through before it is written, other than the requests
+   * made to write it.
+   */
+  public enum Stage {
+    /** Converting the records of the batch to rows. */
+    CONVERSION("conversion"),
+    /** Waiting for a write thread, from the time the batch is submitted. */
+    QUEUE("queue"),
+    /** Writing the batch in a write thread, including any retries. */
+    WRITE("write"),
+    /** Committing the stream that a batch was written to, when using the Storage Write API in batch mode. */
+    COMMIT("commit");
+
+    private final String tag;
+
+    Stage(String tag) {
+      this.tag = tag;
+    }
+
+    public String tag() {
+      return tag;
+    }
+  }
+
+  private final Metrics metrics;
+  private final Map<String, String> tags;
+  private final String defaultProject;
+  private final ConcurrentMap<String, TableWriteMetrics> tables;
+
+  /**
+   * @param metrics        the registry to add the metrics to
+   * @param tags           the tags to identify the metrics of this task by
+   * @param defaultProject the project of the tables whose ids do not name one
+   */
+  public WriteMetrics(Metrics metrics, Map<String, String> tags, String defaultProject) {
+    this.metrics = metrics;
+    this.tags = tags;
+    this.defaultProject = defaultProject;
+    this.tables = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * @param table the table being written to, without any partition decorator
+   * @param path  the path the table is written to with
+   * @return the metrics for writes to the table with the given path
+   */
+  public TableWriteMetrics table(TableId table, WritePath path) {
+    String project = table.getProject() != null ? table.getProject() : defaultProject;
+    String tableName = project + "." + table.getDataset() + "." + table.getTable();
+    return tables.computeIfAbsent(path.tag() + ":" + tableName, key -> new TableWriteMetrics(tableName, path));
+  }
+
+  /**
+   * Metrics for the writes made to a single table with a single write path.
+   */
+  public class TableWriteMetrics {
+
+    private final Sensor rows;
+    private final Sensor bytes;
+    private final Sensor requests;
+    private final Sensor retries;
+    private final Sensor batchSizeReductions;
+    private final Sensor dlqRecords;
+    private final Map<String, String> tableTags;
+    private final String prefix;
+    private final ConcurrentMap<Stage, Sensor> stages;
+    private final AtomicLong latestAcknowledgedTimestamp;
+
+    private TableWriteMetrics(String table, WritePath path) {
+      tableTags = new LinkedHashMap<>(tags);
+      tableTags.put("table", table);
+      tableTags.put("path", path.tag());
+      prefix = GROUP + ":" + path.tag() + ":" + table + ":";
+      stages = new ConcurrentHashMap<>();
+      latestAcknowledgedTimestamp = new AtomicLong(-1);
+
+      rows = metrics.sensor(prefix + "rows");
+      rows.add(new Meter(
+          name("rows-written-rate", "The average number of rows written per second.", tableTags),
+          name("rows-written-total", "The total number of rows written.", tableTags)
+      ));
+
+      bytes = metrics.sensor(prefix + "bytes");
+      bytes.add(new Meter(
+          name("bytes-written-rate", "The average estimated number of bytes written per second.", tableTags),
+          name("bytes-written-total", "The total estimated number of bytes written.", tableTags)
+      ));
+
+      requests = metrics.sensor(prefix + "requests");
+      requests.add(new Meter(
+          new WindowedCount(),
+          name("request-rate", "The average number of requests made per second, including failed requests.",
+              tableTags),
+          name("request-total", "The total number of requests made, including failed requests.", tableTags)
+      ));
+      requests.add(
+          name("request-latency-avg", "The average time, in milliseconds, taken by a request.", tableTags),
+          new Avg()
+      );
+      requests.add(
+          name("request-latency-max", "The maximum time, in milliseconds, taken by a request.", tableTags),
+          new Max()
+      );
+      requests.add(latencyHistogram("request-latency", "taken by a request"));
+
+      retries = metrics.sensor(prefix + "retries");
+      retries.add(
+          name("retry-total", "The total number of requests that have been retried.", tableTags),
+          new CumulativeCount()
+      );
+
+      batchSizeReductions = metrics.sensor(prefix + "batch-size-reductions");
+      batchSizeReductions.add(
+          name("batch-size-reduction-total",
+              "The total number of times that a batch was split up after being rejected as too large.", tableTags),
+          new CumulativeCount()
+      );
+
+      dlqRecords = metrics.sensor(prefix + "dlq-records");
+      dlqRecords.add(
+          name("dlq-record-total", "The total number of records that were sent to the dead letter queue.",
+              tableTags),
+          new CumulativeSum()
+      );
+
+      metrics.addMetric(
+          name("data-freshness-ms",
+              "The time, in milliseconds, since the timestamp of the newest record that has become visible "
+                  + "in BigQuery, or NaN if no records with timestamps have become visible yet. Batch loads and "
+                  + "batch-mode Storage Write API writes only become visible once their load jobs complete "
+                  + "or their streams are committed.",
+              tableTags),
+          (Measurable) (config, now) -> {
+            long timestamp = latestAcknowledgedTimestamp.get();
+            return timestamp < 0 ? Double.NaN : now - timestamp;
+          }
+      );
+    }
+
+    private MetricName name(String name, String description, Map<String, String> tableTags) {
+      return metrics.metricName(name, GROUP, description, tableTags);
+    }
+
+    private Percentiles latencyHistogram(String name, String description) {
+      return new Percentiles(
+          LATENCY_HISTOGRAM_BYTES,
+          MAX_TRACKED_LATENCY_MS,
+          Percentiles.BucketSizing.LINEAR,
+          new Percentile(
+              name(name + "-p50", "The median time, in milliseconds, " + description + ".", tableTags),
+              50),
+          new Percentile(
+              name(name + "-p99", "The 99th percentile of the time, in milliseconds, " + description + ".",
+                  tableTags),
+              99)
+      );
+    }
+
+    private Sensor stageSensor(Stage stage) {
+      String name = stage.tag() + "-time";
+      String description = "spent by a batch in the " + stage.tag() + " stage";
+      Sensor sensor = metrics.sensor(prefix + name);
+      sensor.add(
+          name(name + "-avg", "The average time, in milliseconds, " + description + ".", tableTags),
+          new Avg()
+      );
+      sensor.add(
+          name(name + "-max", "The maximum time, in milliseconds, " + description + ".", tableTags),
+          new Max()
+      );
+      sensor.add(latencyHistogram(name, description));
+      return sensor;
+    }
+
+    /**
+     * Record a request to BigQuery or GCS, whether or not it succeeded.
+     *
+     * @param latencyMs how long the request took
+     */
+    public void request(long latencyMs) {
+      requests.record(latencyMs);
+    }
+
+    /**
+     * @param rowCount the number of rows that were written successfully
+     * @param byteCount the estimated size of those rows
+     */
+    public void rowsWritten(int rowCount, long byteCount) {
+      rows.record(rowCount);
+      bytes.record(byteCount);
+    }
+
+    public void retry() {
+      retries.record();
+    }
+
+    public void batchSizeReduced() {
+      batchSizeReductions.record();
+    }
+
+    /**
+     * @param recordCount the number of records sent to the dead letter queue
+     */
+    public void sentToDlq(int recordCount) {
+      dlqRecords.record(recordCount);
+    }
+
+    /**
+     * @param stage  the stage that a batch went through
+     * @param timeMs how long the batch spent in the stage
+     */
+    public void stage(Stage stage, double timeMs) {
+      stages.computeIfAbsent(stage, this::stageSensor).record(timeMs);
+    }
+
+    /**
+     * @param timestamp the timestamp of the newest record in a batch that has become visible in BigQuery
+     */
+    public void acknowledged(long timestamp) {
+      latestAcknowledgedTimestamp.accumulateAndGet(timestamp, Math::max);
+    }
+  }
+}
@@ -66,6 +66,20 @@ public class BigQuerySinkConfig extends AbstractConfig {
   public static final String GCS_BUCKET_NAME_CONFIG = "gcsBucketName";
   public static final String GCS_FOLDER_NAME_CONFIG = "gcsFolderName";
   public static final String GCS_FOLDER_NAME_DEFAULT = "";
+  public static final String ENABLE_GCS_STREAMING_UPLOAD_CONFIG = "enableGcsStreamingUpload";
+  public static final boolean ENABLE_GCS_STREAMING_UPLOAD_DEFAULT = false;
+  public static final String GCS_BLOB_COMPRESSION_CONFIG = "gcsBlobCompression";
+  public static final String GCS_BLOB_COMPRESSION_NONE = "none";
+  public static final String GCS_BLOB_COMPRESSION_GZIP = "gzip";
+  public static final String GCS_BLOB_COMPRESSION_DEFLATE = "deflate";
+  public static final String GCS_BLOB_COMPRESSION_SNAPPY = "snappy";
+  public static final String GCS_BLOB_COMPRESSION_DEFAULT = GCS_BLOB_COMPRESSION_NONE;
+  public static final String GCS_BLOB_FORMAT_CONFIG = "gcsBlobFormat";
+  public static final String GCS_BLOB_FORMAT_JSON = "json";
+  public static final String GCS_BLOB_FORMAT_AVRO = "avro";
+  public static final String GCS_BLOB_FORMAT_DEFAULT = GCS_BLOB_FORMAT_JSON;
+  public static final String GCS_BLOB_LIST_INTERVAL_SEC_CONFIG = "gcsBlobListIntervalSec";
+  public static final int GCS_BLOB_LIST_INTERVAL_SEC_DEFAULT = 0;
   public static final String PROJECT_CONFIG = "project";
   public static final String DEFAULT_DATASET_CONFIG = "defaultDataset";
   public static final String SCHEMA_RETRIEVER_CONFIG = "schemaRetriever";
@@ -117,6 +131,12 @@ public class BigQuerySinkConfig extends AbstractConfig {
   public static final String ENABLE_BATCH_MODE_CONFIG = "enableBatchMode";
   public static final boolean ENABLE_BATCH_MODE_DEFAULT = false;
   public static final String COMMIT_INTERVAL_SEC_CONFIG = "commitInterval";
+  public static final String MAX_IN_FLIGHT_APPEND_REQUESTS_CONFIG = "maxInFlightAppendRequests";
+  public static final int MAX_IN_FLIGHT_APPEND_REQUESTS_DEFAULT = 1;
+  public static final String ENABLE_PROTO_ENCODING_CONFIG = "enableProtoEncoding";
+  public static final boolean ENABLE_PROTO_ENCODING_DEFAULT = false;
+  public static final String DEFAULT_STREAM_WRITERS_PER_TABLE_CONFIG = "defaultStreamWritersPerTable";
+  public static final int DEFAULT_STREAM_WRITERS_PER_TABLE_DEFAULT = 1;
   public static final String DELETE_ENABLED_CONFIG = "deleteEnabled";
   public static final boolean DELETE_ENABLED_DEFAULT = false;
   public static final String INTERMEDIATE_TABLE_SUFFIX_CONFIG = "intermediateTableSuffix";
@@ -130,6 +150,24 @@ public class BigQuerySinkConfig extends AbstractConfig {
   public static final String QUEUE_SIZE_CONFIG = "queueSize";
   // should this even have a default?
   public static final Long QUEUE_SIZE_DEFAULT = -1L;
+  public static final String MAX_IN_FLIGHT_BYTES_CONFIG = "maxInFlightBytes";
+  public static final long MAX_IN_FLIGHT_BYTES_DEFAULT = -1L;
+  public static final String LINGER_MS_CONFIG = "lingerMs";
+  public static final long LINGER_MS_DEFAULT = 0L;
+  public static final String MAX_BATCH_ROWS_CONFIG = "maxBatchRows";
+  public static final int MAX_BATCH_ROWS_DEFAULT = -1;
+  public static final String MAX_BATCH_BYTES_CONFIG = "maxBatchBytes";
+  public static final long MAX_BATCH_BYTES_DEFAULT = -1L;
+  public static final String ENABLE_ORDERED_TABLE_WRITES_CONFIG = "enableOrderedTableWrites";
+  public static final boolean ENABLE_ORDERED_TABLE_WRITES_DEFAULT = false;
+  public static final String MAX_CONCURRENT_WRITES_PER_TABLE_CONFIG = "maxConcurrentWritesPerTable";
+  public static final int MAX_CONCURRENT_WRITES_PER_TABLE_DEFAULT = -1;
+  public static final String ENABLE_VIRTUAL_THREADS_CONFIG = "enableVirtualThreads";
+  public static final boolean ENABLE_VIRTUAL_THREADS_DEFAULT = false;
+  public static final String ENABLE_PARALLEL_CONVERSION_CONFIG = "enableParallelConversion";
+  public static final boolean ENABLE_PARALLEL_CONVERSION_DEFAULT = false;
+  public static final String TABLE_METADATA_CACHE_TTL_SEC_CONFIG = "tableMetadataCacheTtlSec";
+  public static final int TABLE_METADATA_CACHE_TTL_SEC_DEFAULT = 300;
   public static final String BIGQUERY_RETRY_CONFIG = "bigQueryRetry";
   public static final Integer BIGQUERY_RETRY_DEFAULT = 0;
   public static final String BIGQUERY_RETRY_WAIT_CONFIG = "bigQueryRetryWait";
@@ -191,6 +229,45 @@ public class BigQuerySinkConfig extends AbstractConfig {
   private static final String GCS_FOLDER_NAME_DOC =
       "The name of the folder under the bucket in which gcs blobs used to batch load to BigQuery "
           + "should be located. Only relevant if enableBatchLoad is configured.";
+  private static final ConfigDef.Type ENABLE_GCS_STREAMING_UPLOAD_TYPE = ConfigDef.Type.BOOLEAN;
+  private static final ConfigDef.Importance ENABLE_GCS_STREAMING_UPLOAD_IMPORTANCE = ConfigDef.Importance.LOW;
+  private static final String ENABLE_GCS_STREAMING_UPLOAD_DOC =
+      "Whether to stream rows directly into a resumable upload when writing GCS blobs for batch loading, instead of "
+          + "serializing each blob in memory before uploading it. Reduces memory usage for large batches. Only "
+          + "relevant if enableBatchLoad is configured.";
+  private static final ConfigDef.Type GCS_BLOB_COMPRESSION_TYPE = ConfigDef.Type.STRING;
+  private static final ConfigDef.Validator GCS_BLOB_COMPRESSION_VALIDATOR = ConfigDef.ValidString.in(
+      GCS_BLOB_COMPRESSION_NONE,
+      GCS_BLOB_COMPRESSION_GZIP,
+      GCS_BLOB_COMPRESSION_DEFLATE,
+      GCS_BLOB_COMPRESSION_SNAPPY
+  );
+  private static final ConfigDef.Importance GCS_BLOB_COMPRESSION_IMPORTANCE = ConfigDef.Importance.LOW;
+  private static final String GCS_BLOB_COMPRESSION_DOC =
+      "The compression to apply to GCS blobs used to batch load to BigQuery. JSON blobs may be compressed with "
+          + GCS_BLOB_COMPRESSION_GZIP + ", which makes them cheaper to store and upload, but BigQuery cannot read "
+          + "a single gzipped file in parallel. Avro blobs may be compressed with " + GCS_BLOB_COMPRESSION_DEFLATE
+          + " or " + GCS_BLOB_COMPRESSION_SNAPPY + ", which compress each data block separately and so can still be "
+          + "read in parallel. Only relevant if enableBatchLoad is configured.";
+  private static final ConfigDef.Type GCS_BLOB_FORMAT_TYPE = ConfigDef.Type.STRING;
+  private static final ConfigDef.Validator GCS_BLOB_FORMAT_VALIDATOR = ConfigDef.ValidString.in(
+      GCS_BLOB_FORMAT_JSON,
+      GCS_BLOB_FORMAT_AVRO
+  );
+  private static final ConfigDef.Importance GCS_BLOB_FORMAT_IMPORTANCE = ConfigDef.Importance.LOW;
+  private static final String GCS_BLOB_FORMAT_DOC =
+      "The file format in which to write GCS blobs used to batch load to BigQuery. Avro blobs are smaller and faster "
+          + "for BigQuery to load, and are written against the schema of the destination table; batches which "
+          + "cannot be represented in that schema are still written as JSON. Only relevant if enableBatchLoad is "
+          + "configured.";
+  private static final ConfigDef.Type GCS_BLOB_LIST_INTERVAL_SEC_TYPE = ConfigDef.Type.INT;
+  private static final ConfigDef.Validator GCS_BLOB_LIST_INTERVAL_SEC_VALIDATOR = ConfigDef.Range.atLeast(0);
+  private static final ConfigDef.Importance GCS_BLOB_LIST_INTERVAL_SEC_IMPORTANCE = ConfigDef.Importance.LOW;
+  private static final String GCS_BLOB_LIST_INTERVAL_SEC_DOC =
+      "The minimum interval, in seconds, between listings of the GCS folder by the task that runs GCS to BQ load "
+          + "jobs. Blobs uploaded by that task itself are picked up by the next load job without a listing; blobs "
+          + "uploaded by other tasks, or before a restart, are only picked up by the next listing. With the default of 0, the folder is listed before every load job. Only relevant if "
+          + "enableBatchLoad is configured.";
   private static final ConfigDef.Type PROJECT_TYPE = ConfigDef.Type.STRING;
   private static final ConfigDef.Importance PROJECT_IMPORTANCE = ConfigDef.Importance.HIGH;
   private static final String PROJECT_DOC =
@@ -204,7 +281,10 @@ public class BigQuerySinkConfig extends AbstractConfig {
   private static final ConfigDef.Importance SCHEMA_RETRIEVER_IMPORTANCE =
       ConfigDef.Importance.MEDIUM;
   private static final String SCHEMA_RETRIEVER_DOC =
-      "A class that can be used for automatically creating tables and/or updating schemas";
+      "A class that can be used for automatically creating tables and/or updating schemas. "
+          + "com.wepay.kafka.connect.bigquery.retrieve.SchemaRegistrySchemaRetriever uses the latest "
+          + "schemas registered for each topic in the Schema Registry at schemaRegistryUrl, and can be "
+          + "tuned with schemaRegistryCacheSize, schemaRegistryRefreshIntervalSec and schemaRegistryTimeoutMs";
   private static final ConfigDef.Type KEYFILE_TYPE = ConfigDef.Type.PASSWORD;
   private static final ConfigDef.Importance KEYFILE_IMPORTANCE = ConfigDef.Importance.MEDIUM;
   private static final String KEYFILE_DOC =
@@ -350,6 +430,26 @@ public class BigQuerySinkConfig extends AbstractConfig {
   private static final ConfigDef.Importance COMMIT_INTERVAL_SEC_IMPORTANCE = ConfigDef.Importance.LOW;
   private static final String COMMIT_INTERVAL_SEC_DOC =
       "The interval, in seconds, in which to attempt to commit streamed records.";
+  private static final ConfigDef.Type MAX_IN_FLIGHT_APPEND_REQUESTS_TYPE = ConfigDef.Type.INT;
+  private static final ConfigDef.Validator MAX_IN_FLIGHT_APPEND_REQUESTS_VALIDATOR = ConfigDef.Range.atLeast(1);
+  private static final ConfigDef.Importance MAX_IN_FLIGHT_APPEND_REQUESTS_IMPORTANCE = ConfigDef.Importance.LOW;
+  private static final String MAX_IN_FLIGHT_APPEND_REQUESTS_DOC =
+      "(Storage Write API only) The maximum number of AppendRows requests that may be outstanding at once for each "
+      + "table. The default of 1 writes each batch synchronously; larger values pipeline appends and only wait for "
+      + "their results when offsets are flushed.";
+  private static final ConfigDef.Type ENABLE_PROTO_ENCODING_TYPE = ConfigDef.Type.BOOLEAN;
+  private static final ConfigDef.Importance ENABLE_PROTO_ENCODING_IMPORTANCE = ConfigDef.Importance.LOW;
+  private static final String ENABLE_PROTO_ENCODING_DOC =
+      "(Storage Write API default stream only) Encode rows directly as protocol buffers instead of "
+      + "converting them to JSON first. Rows that cannot be encoded directly (for example, because they contain "
+      + "fields that are not yet part of the table schema) are still written as JSON.";
+  private static final ConfigDef.Type DEFAULT_STREAM_WRITERS_PER_TABLE_TYPE = ConfigDef.Type.INT;
+  private static final ConfigDef.Validator DEFAULT_STREAM_WRITERS_PER_TABLE_VALIDATOR = ConfigDef.Range.atLeast(1);
+  private static final ConfigDef.Importance DEFAULT_STREAM_WRITERS_PER_TABLE_IMPORTANCE = ConfigDef.Importance.LOW;
+  private static final String DEFAULT_STREAM_WRITERS_PER_TABLE_DOC =
+      "(Storage Write API default stream only) The number of stream writers, each with its own connection, to open "
+      + "for every table. Batches for the same table are spread over these writers in round-robin order, which can "
+      + "raise the throughput for a table beyond the bandwidth of a single connection.";
   private static final ConfigDef.Type DELETE_ENABLED_TYPE = ConfigDef.Type.BOOLEAN;
   private static final ConfigDef.Importance DELETE_ENABLED_IMPORTANCE = ConfigDef.Importance.LOW;
   private static final String DELETE_ENABLED_DOC =
@@ -414,15 +514,88 @@ public class BigQuerySinkConfig extends AbstractConfig {
       ConfigDef.Importance.MEDIUM;
   private static final String THREAD_POOL_SIZE_DOC =
       "The size of the BigQuery write thread pool. This establishes the maximum number of "
-          + "concurrent writes to BigQuery.";
+          + "concurrent writes to BigQuery. With virtual threads, writes are not run on a pool of threads, "
+          + "but this still limits how many of them run at once. When batch loading through GCS, it also "
+          + "establishes the maximum number of concurrent load job status checks.";
   private static final ConfigDef.Type QUEUE_SIZE_TYPE = ConfigDef.Type.LONG;
   private static final ConfigDef.Validator QUEUE_SIZE_VALIDATOR = ConfigDef.Range.atLeast(-1);
   private static final ConfigDef.Importance QUEUE_SIZE_IMPORTANCE = ConfigDef.Importance.HIGH;
   private static final String QUEUE_SIZE_DOC =
       "The maximum size (or -1 for no maximum size) of the worker queue for bigQuery write "
           + "requests before all topics are paused. This is a soft limit; the size of the queue can "
-          + "go over this before topics are paused. All topics will be resumed once a flush is "
-          + "requested or the size of the queue drops under half of the maximum size.";
+          + "go over this before topics are paused. All topics will be resumed once the size of the "
+          + "queue drops under half of the maximum size, which is checked whenever records are "
+          + "delivered to the task or offsets are committed.";
+  private static final ConfigDef.Type MAX_IN_FLIGHT_BYTES_TYPE = ConfigDef.Type.LONG;
+  private static final ConfigDef.Validator MAX_IN_FLIGHT_BYTES_VALIDATOR = ConfigDef.Range.atLeast(-1);
+  private static final ConfigDef.Importance MAX_IN_FLIGHT_BYTES_IMPORTANCE = ConfigDef.Importance.MEDIUM;
+  private static final String MAX_IN_FLIGHT_BYTES_DOC =
+      "The maximum estimated size, in bytes, (or -1 for no maximum size) of the converted rows that have been "
+          + "read from Kafka and not yet written to BigQuery before all topics are paused. Like " + QUEUE_SIZE_CONFIG
+          + ", this is a soft limit, and all topics will be resumed once the estimated size drops under half of the "
+          + "maximum size. Unlike " + QUEUE_SIZE_CONFIG + ", it accounts for the size of "
+          + "each batch, and so bounds the memory used by the task more closely. Rows are counted from the time "
+          + "they are buffered until they have been written, including while their append requests are in flight.";
+  private static final ConfigDef.Type LINGER_MS_TYPE = ConfigDef.Type.LONG;
+  private static final ConfigDef.Validator LINGER_MS_VALIDATOR = ConfigDef.Range.atLeast(0);
+  private static final ConfigDef.Importance LINGER_MS_IMPORTANCE = ConfigDef.Importance.MEDIUM;
+  private static final String LINGER_MS_DOC =
+      "How long (in milliseconds) to keep the records for a table across calls to put() before writing them, "
+          + "so that tables which receive few records at a time are written in larger batches. A batch is written "
+          + "earlier if it reaches " + MAX_BATCH_ROWS_CONFIG + " or " + MAX_BATCH_BYTES_CONFIG + ", and all batches "
+          + "are written when offsets are committed. The default of 0 writes the records given to each put() "
+          + "immediately.";
+  private static final ConfigDef.Type MAX_BATCH_ROWS_TYPE = ConfigDef.Type.INT;
+  private static final ConfigDef.Validator MAX_BATCH_ROWS_VALIDATOR = ConfigDef.Range.atLeast(-1);
+  private static final ConfigDef.Importance MAX_BATCH_ROWS_IMPORTANCE = ConfigDef.Importance.LOW;
+  private static final String MAX_BATCH_ROWS_DOC =
+      "The number of rows (or -1 for no maximum) at which a table's lingering batch is written without waiting "
+          + "for " + LINGER_MS_CONFIG + " to elapse.";
+  private static final ConfigDef.Type MAX_BATCH_BYTES_TYPE = ConfigDef.Type.LONG;
+  private static final ConfigDef.Validator MAX_BATCH_BYTES_VALIDATOR = ConfigDef.Range.atLeast(-1);
+  private static final ConfigDef.Importance MAX_BATCH_BYTES_IMPORTANCE = ConfigDef.Importance.LOW;
+  private static final String MAX_BATCH_BYTES_DOC =
+      "The estimated size, in bytes, of the record values (or -1 for no maximum) at which a table's lingering "
+          + "batch is written without waiting for " + LINGER_MS_CONFIG + " to elapse.";
+  private static final ConfigDef.Type ENABLE_ORDERED_TABLE_WRITES_TYPE = ConfigDef.Type.BOOLEAN;
+  private static final ConfigDef.Importance ENABLE_ORDERED_TABLE_WRITES_IMPORTANCE = ConfigDef.Importance.LOW;
+  private static final String ENABLE_ORDERED_TABLE_WRITES_DOC =
+      "If true, the batches for each table are written one at a time, in the order they were read, and the "
+          + "tables take turns to use the write threads. This stops a table that receives many records from "
+          + "delaying the writes to every other table, and from running several writes to the same table at once.";
+  private static final ConfigDef.Type MAX_CONCURRENT_WRITES_PER_TABLE_TYPE = ConfigDef.Type.INT;
+  private static final ConfigDef.Validator MAX_CONCURRENT_WRITES_PER_TABLE_VALIDATOR = ConfigDef.Range.atLeast(-1);
+  private static final ConfigDef.Importance MAX_CONCURRENT_WRITES_PER_TABLE_IMPORTANCE = ConfigDef.Importance.LOW;
+  private static final String MAX_CONCURRENT_WRITES_PER_TABLE_DOC =
+      "The maximum number of batches (or -1 for no maximum) that may be written to each table at once. Like "
+          + ENABLE_ORDERED_TABLE_WRITES_CONFIG + ", the tables take turns to use the write threads, which is useful "
+          + "with a large " + THREAD_POOL_SIZE_CONFIG + ". Ignored if " + ENABLE_ORDERED_TABLE_WRITES_CONFIG
+          + " is true.";
+  private static final ConfigDef.Type ENABLE_VIRTUAL_THREADS_TYPE = ConfigDef.Type.BOOLEAN;
+  private static final ConfigDef.Importance ENABLE_VIRTUAL_THREADS_IMPORTANCE = ConfigDef.Importance.LOW;
+  private static final String ENABLE_VIRTUAL_THREADS_DOC =
+      "If true, and the worker runs on Java 21 or later, writes, merge flushes, and batch loads run on virtual "
+          + "threads instead of platform threads. Each write gets a new virtual thread rather than one from a "
+          + "pool. As writes mostly wait on requests to BigQuery, " + THREAD_POOL_SIZE_CONFIG + " can then be set "
+          + "much higher, since it only limits how many writes run at once, using "
+          + MAX_CONCURRENT_WRITES_PER_TABLE_CONFIG + " to limit the writes to each table. Platform threads are "
+          + "used on older versions of Java.";
+  private static final ConfigDef.Type ENABLE_PARALLEL_CONVERSION_TYPE = ConfigDef.Type.BOOLEAN;
+  private static final ConfigDef.Importance ENABLE_PARALLEL_CONVERSION_IMPORTANCE = ConfigDef.Importance.LOW;
+  private static final String ENABLE_PARALLEL_CONVERSION_DOC =
+      "If true, records are converted to BigQuery rows by the write threads, in parallel for each batch, "
+          + "instead of one at a time by the task in put(). Records that cannot be converted are still sent to "
+          + "the dead letter queue, if one is configured. Ignored if upsert/delete or the Storage Write API's "
+          + "batch mode is enabled, as those assign rows to batches in the order they are converted.";
+  private static final ConfigDef.Type TABLE_METADATA_CACHE_TTL_SEC_TYPE = ConfigDef.Type.INT;
+  private static final ConfigDef.Validator TABLE_METADATA_CACHE_TTL_SEC_VALIDATOR = ConfigDef.Range.atLeast(1);
+  private static final ConfigDef.Importance TABLE_METADATA_CACHE_TTL_SEC_IMPORTANCE = ConfigDef.Importance.LOW;
+  private static final String TABLE_METADATA_CACHE_TTL_SEC_DOC =
+      "How long, in seconds, the metadata (including the schema) of each destination table is cached before it is "
+          + "fetched from BigQuery again. Tables that are used after this interval keep being written with the "
+          + "cached metadata while it is refreshed in the background, so changes made to a table outside of the "
+          + "connector are picked up within roughly this interval. Tables created or updated by the connector are "
+          + "refreshed straight away.";
   private static final ConfigDef.Type BIGQUERY_RETRY_TYPE = ConfigDef.Type.INT;
   private static final ConfigDef.Validator BIGQUERY_RETRY_VALIDATOR = ConfigDef.Range.atLeast(0);
   private static final ConfigDef.Importance BIGQUERY_RETRY_IMPORTANCE =
@@ -525,6 +698,7 @@ public class BigQuerySinkConfig extends AbstractConfig {
     MULTI_PROPERTY_VALIDATIONS.add(new CredentialsValidator.GcsCredentialsValidator());
     MULTI_PROPERTY_VALIDATIONS.add(new CredentialsValidator.BigQueryStorageWriteApiCredentialsValidator());
     MULTI_PROPERTY_VALIDATIONS.add(new GcsBucketValidator());
+    MULTI_PROPERTY_VALIDATIONS.add(new GcsBlobFormatValidator());
     MULTI_PROPERTY_VALIDATIONS.add(new PartitioningModeValidator());
     MULTI_PROPERTY_VALIDATIONS.add(new PartitioningTypeValidator());
     MULTI_PROPERTY_VALIDATIONS.add(new StorageWriteApiValidator());
@@ -592,6 +766,33 @@ public class BigQuerySinkConfig extends AbstractConfig {
             GCS_FOLDER_NAME_DEFAULT,
             GCS_FOLDER_NAME_IMPORTANCE,
             GCS_FOLDER_NAME_DOC
+        ).define(
+            ENABLE_GCS_STREAMING_UPLOAD_CONFIG,
+            ENABLE_GCS_STREAMING_UPLOAD_TYPE,
+            ENABLE_GCS_STREAMING_UPLOAD_DEFAULT,
+            ENABLE_GCS_STREAMING_UPLOAD_IMPORTANCE,
+            ENABLE_GCS_STREAMING_UPLOAD_DOC
+        ).define(
+            GCS_BLOB_COMPRESSION_CONFIG,
+            GCS_BLOB_COMPRESSION_TYPE,
+            GCS_BLOB_COMPRESSION_DEFAULT,
+            GCS_BLOB_COMPRESSION_VALIDATOR,
+            GCS_BLOB_COMPRESSION_IMPORTANCE,
+            GCS_BLOB_COMPRESSION_DOC
+        ).define(
+            GCS_BLOB_FORMAT_CONFIG,
+            GCS_BLOB_FORMAT_TYPE,
+            GCS_BLOB_FORMAT_DEFAULT,
+            GCS_BLOB_FORMAT_VALIDATOR,
+            GCS_BLOB_FORMAT_IMPORTANCE,
+            GCS_BLOB_FORMAT_DOC
+        ).define(
+            GCS_BLOB_LIST_INTERVAL_SEC_CONFIG,
+            GCS_BLOB_LIST_INTERVAL_SEC_TYPE,
+            GCS_BLOB_LIST_INTERVAL_SEC_DEFAULT,
+            GCS_BLOB_LIST_INTERVAL_SEC_VALIDATOR,
+            GCS_BLOB_LIST_INTERVAL_SEC_IMPORTANCE,
+            GCS_BLOB_LIST_INTERVAL_SEC_DOC
         ).define(
             PROJECT_CONFIG,
             PROJECT_TYPE,
@@ -751,6 +952,66 @@ public class BigQuerySinkConfig extends AbstractConfig {
             QUEUE_SIZE_VALIDATOR,
             QUEUE_SIZE_IMPORTANCE,
             QUEUE_SIZE_DOC
+        ).define(
+            MAX_IN_FLIGHT_BYTES_CONFIG,
+            MAX_IN_FLIGHT_BYTES_TYPE,
+            MAX_IN_FLIGHT_BYTES_DEFAULT,
+            MAX_IN_FLIGHT_BYTES_VALIDATOR,
+            MAX_IN_FLIGHT_BYTES_IMPORTANCE,
+            MAX_IN_FLIGHT_BYTES_DOC
+        ).define(
+            LINGER_MS_CONFIG,
+            LINGER_MS_TYPE,
+            LINGER_MS_DEFAULT,
+            LINGER_MS_VALIDATOR,
+            LINGER_MS_IMPORTANCE,
+            LINGER_MS_DOC
+        ).define(
+            MAX_BATCH_ROWS_CONFIG,
+            MAX_BATCH_ROWS_TYPE,
+            MAX_BATCH_ROWS_DEFAULT,
+            MAX_BATCH_ROWS_VALIDATOR,
+            MAX_BATCH_ROWS_IMPORTANCE,
+            MAX_BATCH_ROWS_DOC
+        ).define(
+            MAX_BATCH_BYTES_CONFIG,
+            MAX_BATCH_BYTES_TYPE,
+            MAX_BATCH_BYTES_DEFAULT,
+            MAX_BATCH_BYTES_VALIDATOR,
+            MAX_BATCH_BYTES_IMPORTANCE,
+            MAX_BATCH_BYTES_DOC
+        ).define(
+            ENABLE_ORDERED_TABLE_WRITES_CONFIG,
+            ENABLE_ORDERED_TABLE_WRITES_TYPE,
+            ENABLE_ORDERED_TABLE_WRITES_DEFAULT,
+            ENABLE_ORDERED_TABLE_WRITES_IMPORTANCE,
+            ENABLE_ORDERED_TABLE_WRITES_DOC
+        ).define(
+            MAX_CONCURRENT_WRITES_PER_TABLE_CONFIG,
+            MAX_CONCURRENT_WRITES_PER_TABLE_TYPE,
+            MAX_CONCURRENT_WRITES_PER_TABLE_DEFAULT,
+            MAX_CONCURRENT_WRITES_PER_TABLE_VALIDATOR,
+            MAX_CONCURRENT_WRITES_PER_TABLE_IMPORTANCE,
+            MAX_CONCURRENT_WRITES_PER_TABLE_DOC
+        ).define(
+            ENABLE_VIRTUAL_THREADS_CONFIG,
+            ENABLE_VIRTUAL_THREADS_TYPE,
+            ENABLE_VIRTUAL_THREADS_DEFAULT,
+            ENABLE_VIRTUAL_THREADS_IMPORTANCE,
+            ENABLE_VIRTUAL_THREADS_DOC
+        ).define(
+            ENABLE_PARALLEL_CONVERSION_CONFIG,
+            ENABLE_PARALLEL_CONVERSION_TYPE,
+            ENABLE_PARALLEL_CONVERSION_DEFAULT,
+            ENABLE_PARALLEL_CONVERSION_IMPORTANCE,
+            ENABLE_PARALLEL_CONVERSION_DOC
+        ).define(
+            TABLE_METADATA_CACHE_TTL_SEC_CONFIG,
+            TABLE_METADATA_CACHE_TTL_SEC_TYPE,
+            TABLE_METADATA_CACHE_TTL_SEC_DEFAULT,
+            TABLE_METADATA_CACHE_TTL_SEC_VALIDATOR,
+            TABLE_METADATA_CACHE_TTL_SEC_IMPORTANCE,
+            TABLE_METADATA_CACHE_TTL_SEC_DOC
         ).define(
             BIGQUERY_RETRY_CONFIG,
             BIGQUERY_RETRY_TYPE,
@@ -847,6 +1108,26 @@ public class BigQuerySinkConfig extends AbstractConfig {
             COMMIT_INTERVAL_VALIDATOR,
             COMMIT_INTERVAL_SEC_IMPORTANCE,
             COMMIT_INTERVAL_SEC_DOC
+        ).define(
+            MAX_IN_FLIGHT_APPEND_REQUESTS_CONFIG,
+            MAX_IN_FLIGHT_APPEND_REQUESTS_TYPE,
+            MAX_IN_FLIGHT_APPEND_REQUESTS_DEFAULT,
+            MAX_IN_FLIGHT_APPEND_REQUESTS_VALIDATOR,
+            MAX_IN_FLIGHT_APPEND_REQUESTS_IMPORTANCE,
+            MAX_IN_FLIGHT_APPEND_REQUESTS_DOC
+        ).define(
+            ENABLE_PROTO_ENCODING_CONFIG,
+            ENABLE_PROTO_ENCODING_TYPE,
+            ENABLE_PROTO_ENCODING_DEFAULT,
+            ENABLE_PROTO_ENCODING_IMPORTANCE,
+            ENABLE_PROTO_ENCODING_DOC
+        ).define(
+            DEFAULT_STREAM_WRITERS_PER_TABLE_CONFIG,
+            DEFAULT_STREAM_WRITERS_PER_TABLE_TYPE,
+            DEFAULT_STREAM_WRITERS_PER_TABLE_DEFAULT,
+            DEFAULT_STREAM_WRITERS_PER_TABLE_VALIDATOR,
+            DEFAULT_STREAM_WRITERS_PER_TABLE_IMPORTANCE,
+            DEFAULT_STREAM_WRITERS_PER_TABLE_DOC
         ).define(
             MAX_RETRIES_CONFIG,
             MAX_RETRIES_TYPE,
@@ -951,7 +1232,8 @@ public class BigQuerySinkConfig extends AbstractConfig {
     return new BigQueryRecordConverter(
         getBoolean(CONVERT_DOUBLE_SPECIAL_VALUES_CONFIG),
         getBoolean(CONVERT_DEBEZIUM_TIMESTAMP_TO_INTEGER_CONFIG),
-        getBoolean(USE_STORAGE_WRITE_API_CONFIG)
+        getBoolean(USE_STORAGE_WRITE_API_CONFIG),
+        getBoolean(SANITIZE_FIELD_NAME_CONFIG)
     );
   }
 
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.config;
+
+import static com.wepay.kafka.connect.bigquery.config.BigQuerySinkConfig.GCS_BLOB_COMPRESSION_CONFIG;
+import static com.wepay.kafka.connect.bigquery.config.BigQuerySinkConfig.GCS_BLOB_COMPRESSION_DEFLATE;
+import static com.wepay.kafka.connect.bigquery.config.BigQuerySinkConfig.GCS_BLOB_COMPRESSION_GZIP;
+import static com.wepay.kafka.connect.bigquery.config.BigQuerySinkConfig.GCS_BLOB_COMPRESSION_NONE;
+import static com.wepay.kafka.connect.bigquery.config.BigQuerySinkConfig.GCS_BLOB_COMPRESSION_SNAPPY;
+import static com.wepay.kafka.connect.bigquery.config.BigQuerySinkConfig.GCS_BLOB_FORMAT_AVRO;
+import static com.wepay.kafka.connect.bigquery.config.BigQuerySinkConfig.GCS_BLOB_FORMAT_CONFIG;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+public class GcsBlobFormatValidator extends MultiPropertyValidator<BigQuerySinkConfig> {
+
+  private static final Collection<String> DEPENDENTS = Collections.unmodifiableCollection(Arrays.asList(
+      GCS_BLOB_FORMAT_CONFIG
+  ));
+
+  private static final List<String> JSON_COMPRESSIONS = Arrays.asList(
+      GCS_BLOB_COMPRESSION_NONE, GCS_BLOB_COMPRESSION_GZIP
+  );
+  private static final List<String> AVRO_COMPRESSIONS = Arrays.asList(
+      GCS_BLOB_COMPRESSION_NONE, GCS_BLOB_COMPRESSION_DEFLATE, GCS_BLOB_COMPRESSION_SNAPPY
+  );
+
+  public GcsBlobFormatValidator() {
+    super(GCS_BLOB_COMPRESSION_CONFIG);
+  }
+
+  @Override
+  protected Collection<String> dependents() {
+    return DEPENDENTS;
+  }
+
+  @Override
+  protected Optional<String> doValidate(BigQuerySinkConfig config) {
+    String format = config.getString(GCS_BLOB_FORMAT_CONFIG);
+    String compression = config.getString(GCS_BLOB_COMPRESSION_CONFIG);
+    List<String> supported = GCS_BLOB_FORMAT_AVRO.equals(format) ? AVRO_COMPRESSIONS : JSON_COMPRESSIONS;
+    if (!supported.contains(compression)) {
+      return Optional.of(String.format(
+          "Compression %s cannot be used with the %s blob format; supported compressions are %s",
+          compression,
+          format,
+          supported
+      ));
+    }
+    return Optional.empty();
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.config;
+
+import java.util.Map;
+import org.apache.kafka.common.config.AbstractConfig;
+import org.apache.kafka.common.config.ConfigDef;
+
+/**
+ * Class for configuration properties of the
+ * {@link com.wepay.kafka.connect.bigquery.retrieve.SchemaRegistrySchemaRetriever}, which are read
+ * from the properties of the connector.
+ */
+public class SchemaRegistrySchemaRetrieverConfig extends AbstractConfig {
+
+  public static final String SCHEMA_REGISTRY_URL_CONFIG = "schemaRegistryUrl";
+  private static final ConfigDef.Type SCHEMA_REGISTRY_URL_TYPE = ConfigDef.Type.STRING;
+  private static final ConfigDef.Importance SCHEMA_REGISTRY_URL_IMPORTANCE = ConfigDef.Importance.HIGH;
+  private static final String SCHEMA_REGISTRY_URL_DOC =
+      "The URL of the Schema Registry to retrieve the latest schemas of topics from";
+
+  public static final String SCHEMA_REGISTRY_CACHE_SIZE_CONFIG = "schemaRegistryCacheSize";
+  public static final int SCHEMA_REGISTRY_CACHE_SIZE_DEFAULT = 1000;
+  private static final ConfigDef.Type SCHEMA_REGISTRY_CACHE_SIZE_TYPE = ConfigDef.Type.INT;
+  private static final ConfigDef.Validator SCHEMA_REGISTRY_CACHE_SIZE_VALIDATOR = ConfigDef.Range.atLeast(1);
+  private static final ConfigDef.Importance SCHEMA_REGISTRY_CACHE_SIZE_IMPORTANCE = ConfigDef.Importance.LOW;
+  private static final String SCHEMA_REGISTRY_CACHE_SIZE_DOC =
+      "The maximum number of subjects whose latest schema is cached; the least recently used "
+          + "subjects are evicted first";
+
+  public static final String SCHEMA_REGISTRY_REFRESH_INTERVAL_SEC_CONFIG = "schemaRegistryRefreshIntervalSec";
+  public static final int SCHEMA_REGISTRY_REFRESH_INTERVAL_SEC_DEFAULT = 300;
+  private static final ConfigDef.Type SCHEMA_REGISTRY_REFRESH_INTERVAL_SEC_TYPE = ConfigDef.Type.INT;
+  private static final ConfigDef.Validator SCHEMA_REGISTRY_REFRESH_INTERVAL_SEC_VALIDATOR = ConfigDef.Range.atLeast(1);
+  private static final ConfigDef.Importance SCHEMA_REGISTRY_REFRESH_INTERVAL_SEC_IMPORTANCE = ConfigDef.Importance.LOW;
+  private static final String SCHEMA_REGISTRY_REFRESH_INTERVAL_SEC_DOC =
+      "How long, in seconds, the latest schema of a subject is used for before it is looked up "
+          + "again. The cached schema keeps being used while the lookup happens in the background";
+
+  public static final String SCHEMA_REGISTRY_TIMEOUT_MS_CONFIG = "schemaRegistryTimeoutMs";
+  public static final int SCHEMA_REGISTRY_TIMEOUT_MS_DEFAULT = 10000;
+  private static final ConfigDef.Type SCHEMA_REGISTRY_TIMEOUT_MS_TYPE = ConfigDef.Type.INT;
+  private static final ConfigDef.Validator SCHEMA_REGISTRY_TIMEOUT_MS_VALIDATOR = ConfigDef.Range.atLeast(1);
+  private static final ConfigDef.Importance SCHEMA_REGISTRY_TIMEOUT_MS_IMPORTANCE = ConfigDef.Importance.LOW;
+  private static final String SCHEMA_REGISTRY_TIMEOUT_MS_DOC =
+      "The connect and read timeout, in milliseconds, of requests to the Schema Registry";
+
+  /**
+   * @param properties A Map detailing configuration properties and their respective values.
+   */
+  public SchemaRegistrySchemaRetrieverConfig(Map<String, String> properties) {
+    super(config(), properties, false);
+  }
+
+  /**
+   * Return a ConfigDef object used to define this config's fields.
+   *
+   * @return A ConfigDef object used to define this config's fields.
+   */
+  public static ConfigDef config() {
+    return new ConfigDef()
+        .define(
+            SCHEMA_REGISTRY_URL_CONFIG,
+            SCHEMA_REGISTRY_URL_TYPE,
+            ConfigDef.NO_DEFAULT_VALUE,
+            SCHEMA_REGISTRY_URL_IMPORTANCE,
+            SCHEMA_REGISTRY_URL_DOC
+        ).define(
+            SCHEMA_REGISTRY_CACHE_SIZE_CONFIG,
+            SCHEMA_REGISTRY_CACHE_SIZE_TYPE,
+            SCHEMA_REGISTRY_CACHE_SIZE_DEFAULT,
+            SCHEMA_REGISTRY_CACHE_SIZE_VALIDATOR,
+            SCHEMA_REGISTRY_CACHE_SIZE_IMPORTANCE,
+            SCHEMA_REGISTRY_CACHE_SIZE_DOC
+        ).define(
+            SCHEMA_REGISTRY_REFRESH_INTERVAL_SEC_CONFIG,
+            SCHEMA_REGISTRY_REFRESH_INTERVAL_SEC_TYPE,
+            SCHEMA_REGISTRY_REFRESH_INTERVAL_SEC_DEFAULT,
+            SCHEMA_REGISTRY_REFRESH_INTERVAL_SEC_VALIDATOR,
+            SCHEMA_REGISTRY_REFRESH_INTERVAL_SEC_IMPORTANCE,
+            SCHEMA_REGISTRY_REFRESH_INTERVAL_SEC_DOC
+        ).define(
+            SCHEMA_REGISTRY_TIMEOUT_MS_CONFIG,
+            SCHEMA_REGISTRY_TIMEOUT_MS_TYPE,
+            SCHEMA_REGISTRY_TIMEOUT_MS_DEFAULT,
+            SCHEMA_REGISTRY_TIMEOUT_MS_VALIDATOR,
+            SCHEMA_REGISTRY_TIMEOUT_MS_IMPORTANCE,
+            SCHEMA_REGISTRY_TIMEOUT_MS_DOC
+        );
+  }
+}
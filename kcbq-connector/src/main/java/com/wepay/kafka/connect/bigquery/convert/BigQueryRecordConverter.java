@@ -24,6 +24,7 @@
 package com.wepay.kafka.connect.bigquery.convert;
 
 import com.google.cloud.bigquery.InsertAllRequest.RowToInsert;
+import com.google.common.collect.MapMaker;
 import com.google.protobuf.ByteString;
 import com.wepay.kafka.connect.bigquery.api.KafkaSchemaRecordType;
 import com.wepay.kafka.connect.bigquery.convert.logicaltype.DebeziumLogicalConverters;
@@ -31,6 +32,8 @@ import com.wepay.kafka.connect.bigquery.convert.logicaltype.KafkaLogicalConverte
 import com.wepay.kafka.connect.bigquery.convert.logicaltype.LogicalConverterRegistry;
 import com.wepay.kafka.connect.bigquery.convert.logicaltype.LogicalTypeConverter;
 import com.wepay.kafka.connect.bigquery.exception.ConversionConnectException;
+import com.wepay.kafka.connect.bigquery.utils.FieldNameSanitizer;
+import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -40,6 +43,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
 import org.apache.kafka.connect.data.Field;
 import org.apache.kafka.connect.data.Schema;
@@ -67,13 +71,30 @@ public class BigQueryRecordConverter implements RecordConverter<Map<String, Obje
   private final boolean shouldConvertSpecialDouble;
   private final boolean shouldConvertDebeziumTimestampToInteger;
   private final boolean useStorageWriteApi;
+  private final boolean sanitizeFieldNames;
+  private final ConcurrentMap<Schema, StructConverter> structConverters;
 
   public BigQueryRecordConverter(boolean shouldConvertDoubleSpecial,
                                  boolean shouldConvertDebeziumTimestampToInteger,
                                  boolean useStorageWriteApi) {
+    this(shouldConvertDoubleSpecial, shouldConvertDebeziumTimestampToInteger, useStorageWriteApi, false);
+  }
+
+  /**
+   * @param sanitizeFieldNames If true, field names (and, for schemaless records, map keys) in the
+   *                           converted rows are sanitized with {@link FieldNameSanitizer}; for
+   *                           records with a schema this is done once per schema, when its
+   *                           conversion plan is compiled, instead of once per row.
+   */
+  public BigQueryRecordConverter(boolean shouldConvertDoubleSpecial,
+                                 boolean shouldConvertDebeziumTimestampToInteger,
+                                 boolean useStorageWriteApi,
+                                 boolean sanitizeFieldNames) {
     this.shouldConvertSpecialDouble = shouldConvertDoubleSpecial;
     this.shouldConvertDebeziumTimestampToInteger = shouldConvertDebeziumTimestampToInteger;
     this.useStorageWriteApi = useStorageWriteApi;
+    this.sanitizeFieldNames = sanitizeFieldNames;
+    this.structConverters = new MapMaker().weakKeys().makeMap();
   }
 
   /**
@@ -100,7 +121,12 @@ public class BigQueryRecordConverter implements RecordConverter<Map<String, Obje
     if (kafkaConnectSchema.type() != Schema.Type.STRUCT) {
       throw new ConversionConnectException("Top-level Kafka Connect schema must be of type 'struct'");
     }
-    return convertStruct(kafkaConnectStruct, kafkaConnectSchema);
+    return structConverter(kafkaConnectSchema).convert(kafkaConnectStruct);
+  }
+
+  @Override
+  public boolean sanitizesFieldNames() {
+    return sanitizeFieldNames;
   }
 
   @SuppressWarnings("unchecked")
@@ -135,7 +161,10 @@ public class BigQueryRecordConverter implements RecordConverter<Map<String, Obje
                               + "Map objects in absence of schema needs to have string value keys. "
                       );
                     }
-                    m.put(e.getKey(), convertSchemalessRecord(e.getValue()));
+                    String key = sanitizeFieldNames
+                        ? FieldNameSanitizer.sanitizeName((String) e.getKey())
+                        : (String) e.getKey();
+                    m.put(key, convertSchemalessRecord(e.getValue()));
                   },
                   HashMap::putAll);
     }
@@ -145,122 +174,143 @@ public class BigQueryRecordConverter implements RecordConverter<Map<String, Obje
     );
   }
 
-  private Object convertObject(Object kafkaConnectObject, Schema kafkaConnectSchema) {
-    if (kafkaConnectObject == null) {
-      if (kafkaConnectSchema.isOptional()) {
-        // short circuit converting the object
-        return null;
-      } else {
-        throw new ConversionConnectException(
-            kafkaConnectSchema.name() + " is not optional, but converting object had null value");
+  /**
+   * Returns the conversion plan for a top-level struct schema, compiling it on first use. Plans are
+   * cached by schema identity (converters typically reuse the same {@link Schema} instance for
+   * every record with a given schema version) and are discarded once the schema itself is no
+   * longer referenced.
+   */
+  private StructConverter structConverter(Schema kafkaConnectSchema) {
+    StructConverter converter = structConverters.get(kafkaConnectSchema);
+    if (converter == null) {
+      converter = compileStruct(kafkaConnectSchema);
+      StructConverter existing = structConverters.putIfAbsent(kafkaConnectSchema, converter);
+      if (existing != null) {
+        converter = existing;
       }
     }
+    return converter;
+  }
+
+  private ValueConverter compile(Schema kafkaConnectSchema) {
+    ValueConverter converter = compileNonNull(kafkaConnectSchema);
+    if (kafkaConnectSchema.isOptional()) {
+      return kafkaConnectObject -> kafkaConnectObject == null ? null : converter.convert(kafkaConnectObject);
+    }
+    String schemaName = kafkaConnectSchema.name();
+    return kafkaConnectObject -> {
+      if (kafkaConnectObject == null) {
+        throw new ConversionConnectException(
+            schemaName + " is not optional, but converting object had null value");
+      }
+      return converter.convert(kafkaConnectObject);
+    };
+  }
+
+  private ValueConverter compileNonNull(Schema kafkaConnectSchema) {
     if (LogicalConverterRegistry.isRegisteredLogicalType(kafkaConnectSchema.name())) {
-      return convertLogical(kafkaConnectObject, kafkaConnectSchema);
+      return compileLogical(kafkaConnectSchema);
     }
     Schema.Type kafkaConnectSchemaType = kafkaConnectSchema.type();
     switch (kafkaConnectSchemaType) {
       case ARRAY:
-        return convertArray(kafkaConnectObject, kafkaConnectSchema);
+        return compileArray(kafkaConnectSchema);
       case MAP:
-        return convertMap(kafkaConnectObject, kafkaConnectSchema);
+        return compileMap(kafkaConnectSchema);
       case STRUCT:
-        return convertStruct(kafkaConnectObject, kafkaConnectSchema);
+        return compileStruct(kafkaConnectSchema);
       case BYTES:
-        return convertBytes(kafkaConnectObject);
+        return this::convertBytes;
       case FLOAT64:
-        return convertDouble((Double) kafkaConnectObject);
+        return kafkaConnectObject -> convertDouble((Double) kafkaConnectObject);
 
       case FLOAT32:
         return useStorageWriteApi
-            ? ((Float) kafkaConnectObject).doubleValue()
-            : kafkaConnectObject;
+            ? kafkaConnectObject -> ((Float) kafkaConnectObject).doubleValue()
+            : kafkaConnectObject -> kafkaConnectObject;
       case INT8:
         return useStorageWriteApi
-            ? ((Byte) kafkaConnectObject).intValue()
-            : kafkaConnectObject;
+            ? kafkaConnectObject -> ((Byte) kafkaConnectObject).intValue()
+            : kafkaConnectObject -> kafkaConnectObject;
       case INT16:
         return useStorageWriteApi
-            ? ((Short) kafkaConnectObject).intValue()
-            : kafkaConnectObject;
+            ? kafkaConnectObject -> ((Short) kafkaConnectObject).intValue()
+            : kafkaConnectObject -> kafkaConnectObject;
 
       case BOOLEAN:
       case INT32:
       case INT64:
       case STRING:
-        return kafkaConnectObject;
+        return kafkaConnectObject -> kafkaConnectObject;
       default:
-        throw new ConversionConnectException("Unrecognized schema type: " + kafkaConnectSchemaType);
+        return kafkaConnectObject -> {
+          throw new ConversionConnectException("Unrecognized schema type: " + kafkaConnectSchemaType);
+        };
     }
   }
 
-  private Map<String, Object> convertStruct(Object kafkaConnectObject, Schema kafkaConnectSchema) {
-    Map<String, Object> bigQueryRecord = new HashMap<>();
-    List<Field> kafkaConnectSchemaFields = kafkaConnectSchema.fields();
-    Struct kafkaConnectStruct = (Struct) kafkaConnectObject;
-    for (Field kafkaConnectField : kafkaConnectSchemaFields) {
+  private StructConverter compileStruct(Schema kafkaConnectSchema) {
+    List<Field> convertedFields = new ArrayList<>();
+    List<String> bigQueryFieldNames = new ArrayList<>();
+    List<ValueConverter> fieldConverters = new ArrayList<>();
+    for (Field kafkaConnectField : kafkaConnectSchema.fields()) {
       // ignore empty structures
       boolean isEmptyStruct = kafkaConnectField.schema().type() == Schema.Type.STRUCT
           && kafkaConnectField.schema().fields().isEmpty();
       if (!isEmptyStruct) {
-        Object bigQueryObject = convertObject(
-            kafkaConnectStruct.get(kafkaConnectField.name()),
-            kafkaConnectField.schema()
-        );
-        if (bigQueryObject != null) {
-          bigQueryRecord.put(kafkaConnectField.name(), bigQueryObject);
-        }
+        convertedFields.add(kafkaConnectField);
+        bigQueryFieldNames.add(sanitizeFieldNames
+            ? FieldNameSanitizer.sanitizeName(kafkaConnectField.name())
+            : kafkaConnectField.name());
+        fieldConverters.add(compile(kafkaConnectField.schema()));
       }
     }
-    return bigQueryRecord;
+    return new StructConverter(
+        kafkaConnectSchema,
+        convertedFields.toArray(new Field[0]),
+        bigQueryFieldNames.toArray(new String[0]),
+        fieldConverters.toArray(new ValueConverter[0])
+    );
   }
 
   @SuppressWarnings("unchecked")
-  private List<Object> convertArray(Object kafkaConnectObject,
-                                    Schema kafkaConnectSchema) {
-    Schema kafkaConnectValueSchema = kafkaConnectSchema.valueSchema();
-    List<Object> bigQueryList = new ArrayList<>();
-    List<Object> kafkaConnectList = (List<Object>) kafkaConnectObject;
-    for (Object kafkaConnectElement : kafkaConnectList) {
-      Object bigQueryValue = convertObject(kafkaConnectElement, kafkaConnectValueSchema);
-      bigQueryList.add(bigQueryValue);
-    }
-    return bigQueryList;
+  private ValueConverter compileArray(Schema kafkaConnectSchema) {
+    ValueConverter elementConverter = compile(kafkaConnectSchema.valueSchema());
+    return kafkaConnectObject -> {
+      List<Object> kafkaConnectList = (List<Object>) kafkaConnectObject;
+      List<Object> bigQueryList = new ArrayList<>(kafkaConnectList.size());
+      for (Object kafkaConnectElement : kafkaConnectList) {
+        bigQueryList.add(elementConverter.convert(kafkaConnectElement));
+      }
+      return bigQueryList;
+    };
   }
 
   @SuppressWarnings("unchecked")
-  private List<Map<String, Object>> convertMap(Object kafkaConnectObject,
-                                               Schema kafkaConnectSchema) {
-    Schema kafkaConnectKeySchema = kafkaConnectSchema.keySchema();
-    Schema kafkaConnectValueSchema = kafkaConnectSchema.valueSchema();
-    List<Map<String, Object>> bigQueryEntryList = new ArrayList<>();
-    Map<Object, Object> kafkaConnectMap = (Map<Object, Object>) kafkaConnectObject;
-    for (Map.Entry<Object, Object> kafkaConnectMapEntry : kafkaConnectMap.entrySet()) {
-      Map<String, Object> bigQueryEntry = new HashMap<>();
-      Object bigQueryKey = convertObject(
-          kafkaConnectMapEntry.getKey(),
-          kafkaConnectKeySchema
-      );
-      Object bigQueryValue = convertObject(
-          kafkaConnectMapEntry.getValue(),
-          kafkaConnectValueSchema
-      );
-      bigQueryEntry.put(BigQuerySchemaConverter.MAP_KEY_FIELD_NAME, bigQueryKey);
-      bigQueryEntry.put(BigQuerySchemaConverter.MAP_VALUE_FIELD_NAME, bigQueryValue);
-      bigQueryEntryList.add(bigQueryEntry);
-    }
-    return bigQueryEntryList;
+  private ValueConverter compileMap(Schema kafkaConnectSchema) {
+    ValueConverter keyConverter = compile(kafkaConnectSchema.keySchema());
+    ValueConverter valueConverter = compile(kafkaConnectSchema.valueSchema());
+    return kafkaConnectObject -> {
+      Map<Object, Object> kafkaConnectMap = (Map<Object, Object>) kafkaConnectObject;
+      List<Map<String, Object>> bigQueryEntryList = new ArrayList<>(kafkaConnectMap.size());
+      for (Map.Entry<Object, Object> kafkaConnectMapEntry : kafkaConnectMap.entrySet()) {
+        Map<String, Object> bigQueryEntry = new HashMap<>(4);
+        bigQueryEntry.put(BigQuerySchemaConverter.MAP_KEY_FIELD_NAME, keyConverter.convert(kafkaConnectMapEntry.getKey()));
+        bigQueryEntry.put(BigQuerySchemaConverter.MAP_VALUE_FIELD_NAME, valueConverter.convert(kafkaConnectMapEntry.getValue()));
+        bigQueryEntryList.add(bigQueryEntry);
+      }
+      return bigQueryEntryList;
+    };
   }
 
-  private Object convertLogical(Object kafkaConnectObject,
-                                Schema kafkaConnectSchema) {
+  private ValueConverter compileLogical(Schema kafkaConnectSchema) {
     LogicalTypeConverter converter =
         LogicalConverterRegistry.getConverter(kafkaConnectSchema.name());
 
     if (shouldConvertDebeziumTimestampToInteger && converter instanceof DebeziumLogicalConverters.TimestampConverter) {
-      return (Long) kafkaConnectObject;
+      return kafkaConnectObject -> (Long) kafkaConnectObject;
     }
-    return converter.convert(kafkaConnectObject);
+    return converter::convert;
   }
 
   /**
@@ -295,4 +345,50 @@ public class BigQueryRecordConverter implements RecordConverter<Map<String, Obje
     }
     return useStorageWriteApi ? ByteString.copyFrom(bytes) : Base64.getEncoder().encodeToString(bytes);
   }
+
+  /**
+   * A conversion step compiled from a Kafka Connect schema, applied to each value with that schema.
+   */
+  private interface ValueConverter {
+    Object convert(Object kafkaConnectObject);
+  }
+
+  private static final class StructConverter implements ValueConverter {
+
+    // Weak, so that the plan cached for a schema doesn't keep that schema (its key) alive
+    private final WeakReference<Schema> kafkaConnectSchema;
+    private final Field[] fields;
+    private final String[] bigQueryFieldNames;
+    private final ValueConverter[] fieldConverters;
+    private final int initialCapacity;
+
+    private StructConverter(Schema kafkaConnectSchema, Field[] fields, String[] bigQueryFieldNames,
+                            ValueConverter[] fieldConverters) {
+      this.kafkaConnectSchema = new WeakReference<>(kafkaConnectSchema);
+      this.fields = fields;
+      this.bigQueryFieldNames = bigQueryFieldNames;
+      this.fieldConverters = fieldConverters;
+      // Large enough that the map never has to be resized
+      this.initialCapacity = (int) (fields.length / 0.75f) + 1;
+    }
+
+    @Override
+    public Map<String, Object> convert(Object kafkaConnectObject) {
+      Struct kafkaConnectStruct = (Struct) kafkaConnectObject;
+      // Fields can only be looked up by position if the struct was built from this exact schema
+      boolean sameSchema = kafkaConnectStruct.schema() == kafkaConnectSchema.get();
+      Map<String, Object> bigQueryRecord = new HashMap<>(initialCapacity);
+      for (int i = 0; i < fields.length; i++) {
+        Field kafkaConnectField = fields[i];
+        Object kafkaConnectValue = sameSchema
+            ? kafkaConnectStruct.get(kafkaConnectField)
+            : kafkaConnectStruct.get(kafkaConnectField.name());
+        Object bigQueryObject = fieldConverters[i].convert(kafkaConnectValue);
+        if (bigQueryObject != null) {
+          bigQueryRecord.put(bigQueryFieldNames[i], bigQueryObject);
+        }
+      }
+      return bigQueryRecord;
+    }
+  }
 }
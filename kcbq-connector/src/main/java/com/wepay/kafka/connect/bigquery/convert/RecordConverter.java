@@ -39,4 +39,12 @@ public interface RecordConverter<R> {
    */
   R convertRecord(SinkRecord record, KafkaSchemaRecordType recordType);
 
+  /**
+   * @return Whether the records returned by {@link #convertRecord} already have sanitized field
+   *     names, in which case they do not need to be sanitized again after conversion.
+   */
+  default boolean sanitizesFieldNames() {
+    return false;
+  }
+
 }
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.retrieve;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.apache.avro.LogicalType;
+import org.apache.avro.LogicalTypes;
+import org.apache.kafka.connect.data.Date;
+import org.apache.kafka.connect.data.Decimal;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Time;
+import org.apache.kafka.connect.data.Timestamp;
+import org.apache.kafka.connect.errors.ConnectException;
+
+/**
+ * Converts Avro schemas retrieved from a Schema Registry into Kafka Connect schemas, in the same
+ * shape as the Avro converter would produce for records written with them. Like the Avro converter,
+ * it restores the names, versions, parameters, docs and integer types that Connect schemas record
+ * in {@code connect.*} properties, so that named logical types (such as those of Debezium) are
+ * recognized. Only unions of null and a single other type are supported; they become optional
+ * schemas.
+ */
+final class AvroToConnectSchemaConverter {
+
+  private static final String CONNECT_NAME_PROP = "connect.name";
+  private static final String CONNECT_DOC_PROP = "connect.doc";
+  private static final String CONNECT_VERSION_PROP = "connect.version";
+  private static final String CONNECT_PARAMETERS_PROP = "connect.parameters";
+  private static final String CONNECT_TYPE_PROP = "connect.type";
+  private static final String CONNECT_DECIMAL_PRECISION_PROP = "connect.decimal.precision";
+  // the name the Avro converter gives to records for unnamed Connect structs
+  private static final String DEFAULT_RECORD_NAME = "io.confluent.connect.avro.ConnectDefault";
+
+  private AvroToConnectSchemaConverter() {
+  }
+
+  /**
+   * @param avroSchema the Avro schema to convert
+   * @return the equivalent Kafka Connect schema
+   * @throws ConnectException if the schema uses types that cannot be converted
+   */
+  static Schema toConnectSchema(org.apache.avro.Schema avroSchema) {
+    return toConnectSchema(avroSchema, null, new HashSet<>());
+  }
+
+  private static Schema toConnectSchema(
+      org.apache.avro.Schema avroSchema, String doc, Set<String> enclosingRecords) {
+    boolean optional = false;
+    if (avroSchema.getType() == org.apache.avro.Schema.Type.UNION) {
+      List<org.apache.avro.Schema> types = avroSchema.getTypes().stream()
+          .filter(type -> type.getType() != org.apache.avro.Schema.Type.NULL)
+          .collect(Collectors.toList());
+      if (types.size() != 1) {
+        throw new ConnectException("Unsupported Avro union " + avroSchema
+            + "; only unions of null and a single other type can be converted");
+      }
+      optional = types.size() < avroSchema.getTypes().size();
+      avroSchema = types.get(0);
+    }
+
+    SchemaBuilder builder = builder(avroSchema, enclosingRecords);
+    applyConnectProperties(avroSchema, builder);
+    String effectiveDoc = doc != null ? doc : avroSchema.getDoc();
+    if (effectiveDoc == null) {
+      effectiveDoc = avroSchema.getProp(CONNECT_DOC_PROP);
+    }
+    if (effectiveDoc != null) {
+      builder.doc(effectiveDoc);
+    }
+    if (optional) {
+      builder.optional();
+    }
+    return builder.build();
+  }
+
+  private static SchemaBuilder builder(org.apache.avro.Schema avroSchema, Set<String> enclosingRecords) {
+    LogicalType logicalType = avroSchema.getLogicalType();
+    switch (avroSchema.getType()) {
+      case RECORD:
+        String name = avroSchema.getFullName();
+        if (!enclosingRecords.add(name)) {
+          throw new ConnectException("Unsupported recursive Avro record " + name);
+        }
+        SchemaBuilder struct = SchemaBuilder.struct();
+        String structName = Optional.ofNullable(avroSchema.getProp(CONNECT_NAME_PROP)).orElse(name);
+        if (!DEFAULT_RECORD_NAME.equals(structName)) {
+          struct.name(structName);
+        }
+        for (org.apache.avro.Schema.Field field : avroSchema.getFields()) {
+          struct.field(field.name(), toConnectSchema(field.schema(), field.doc(), enclosingRecords));
+        }
+        enclosingRecords.remove(name);
+        return struct;
+      case ARRAY:
+        return SchemaBuilder.array(toConnectSchema(avroSchema.getElementType(), null, enclosingRecords));
+      case MAP:
+        return SchemaBuilder.map(
+            Schema.STRING_SCHEMA,
+            toConnectSchema(avroSchema.getValueType(), null, enclosingRecords)
+        );
+      case ENUM:
+      case STRING:
+        return SchemaBuilder.string();
+      case BOOLEAN:
+        return SchemaBuilder.bool();
+      case INT:
+        if (logicalType instanceof LogicalTypes.Date) {
+          return Date.builder();
+        } else if (logicalType instanceof LogicalTypes.TimeMillis) {
+          return Time.builder();
+        }
+        String connectType = avroSchema.getProp(CONNECT_TYPE_PROP);
+        if ("int8".equals(connectType)) {
+          return SchemaBuilder.int8();
+        } else if ("int16".equals(connectType)) {
+          return SchemaBuilder.int16();
+        }
+        return SchemaBuilder.int32();
+      case LONG:
+        if (logicalType instanceof LogicalTypes.TimestampMillis) {
+          return Timestamp.builder();
+        }
+        return SchemaBuilder.int64();
+      case FLOAT:
+        return SchemaBuilder.float32();
+      case DOUBLE:
+        return SchemaBuilder.float64();
+      case BYTES:
+      case FIXED:
+        if (logicalType instanceof LogicalTypes.Decimal) {
+          LogicalTypes.Decimal decimal = (LogicalTypes.Decimal) logicalType;
+          return Decimal.builder(decimal.getScale())
+              .parameter(CONNECT_DECIMAL_PRECISION_PROP, Integer.toString(decimal.getPrecision()));
+        }
+        return SchemaBuilder.bytes();
+      default:
+        throw new ConnectException("Unsupported Avro type " + avroSchema.getType());
+    }
+  }
+
+  private static void applyConnectProperties(org.apache.avro.Schema avroSchema, SchemaBuilder builder) {
+    String name = avroSchema.getProp(CONNECT_NAME_PROP);
+    // Records and logical types are already named
+    if (name != null && builder.name() == null) {
+      builder.name(name);
+    }
+    Object version = avroSchema.getObjectProp(CONNECT_VERSION_PROP);
+    if (version != null) {
+      if (!(version instanceof Integer)) {
+        throw new ConnectException("Expected an integer " + CONNECT_VERSION_PROP + " but found " + version);
+      }
+      builder.version((Integer) version);
+    }
+    Object parameters = avroSchema.getObjectProp(CONNECT_PARAMETERS_PROP);
+    if (parameters != null) {
+      if (!(parameters instanceof Map)) {
+        throw new ConnectException("Expected a JSON object for " + CONNECT_PARAMETERS_PROP + " but found "
+            + parameters);
+      }
+      ((Map<?, ?>) parameters).forEach((key, value) -> builder.parameter(key.toString(), String.valueOf(value)));
+    }
+  }
+}
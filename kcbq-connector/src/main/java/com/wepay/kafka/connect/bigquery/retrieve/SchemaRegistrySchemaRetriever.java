@@ -0,0 +1,288 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.retrieve;
+
+import static com.wepay.kafka.connect.bigquery.config.SchemaRegistrySchemaRetrieverConfig.SCHEMA_REGISTRY_CACHE_SIZE_CONFIG;
+import static com.wepay.kafka.connect.bigquery.config.SchemaRegistrySchemaRetrieverConfig.SCHEMA_REGISTRY_REFRESH_INTERVAL_SEC_CONFIG;
+import static com.wepay.kafka.connect.bigquery.config.SchemaRegistrySchemaRetrieverConfig.SCHEMA_REGISTRY_TIMEOUT_MS_CONFIG;
+import static com.wepay.kafka.connect.bigquery.config.SchemaRegistrySchemaRetrieverConfig.SCHEMA_REGISTRY_URL_CONFIG;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.wepay.kafka.connect.bigquery.api.SchemaRetriever;
+import com.wepay.kafka.connect.bigquery.config.SchemaRegistrySchemaRetrieverConfig;
+import com.wepay.kafka.connect.bigquery.utils.SinkRecordOrigin;
+import com.wepay.kafka.connect.bigquery.utils.Time;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import org.apache.avro.SchemaParseException;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.errors.ConnectException;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link SchemaRetriever} that uses the latest schemas registered for topics in a Schema Registry,
+ * so that tables are created and updated with the newest schema of a topic even while records
+ * written with older schemas are still being read. Subjects are assumed to be named after the
+ * topics records were consumed from (before any transformations renamed them), as
+ * {@code <topic>-key} and {@code <topic>-value}, and only Avro schemas are supported.
+ * Records whose subject is not registered, or whose latest schema cannot be retrieved, fall back to
+ * the schema they were read with.
+ *
+ * <p>Latest schemas are kept in a bounded LRU cache. Once an entry is older than the refresh
+ * interval, it is still used while the subject is looked up again in the background; only subjects
+ * that have never been looked up are retrieved synchronously, and concurrent lookups of the same
+ * subject share a single request.
+ *
+ * <p>See {@link SchemaRegistrySchemaRetrieverConfig} for the properties used to configure it.
+ */
+public class SchemaRegistrySchemaRetriever implements SchemaRetriever {
+
+  private static final Logger logger = LoggerFactory.getLogger(SchemaRegistrySchemaRetriever.class);
+
+  private static final String KEY_SUBJECT_SUFFIX = "-key";
+  private static final String VALUE_SUBJECT_SUFFIX = "-value";
+  private static final String CONTENT_TYPE = "application/vnd.schemaregistry.v1+json";
+
+  private final Executor refreshExecutor;
+  private final Time time;
+  private final ConcurrentMap<String, CompletableFuture<Entry>> lookups = new ConcurrentHashMap<>();
+  private String registryUrl;
+  private int timeoutMs;
+  private long refreshIntervalMs;
+  private Map<String, Entry> latestSchemas;
+
+  public SchemaRegistrySchemaRetriever() {
+    // The refresh thread is only kept around while there are refreshes to run
+    this(new ThreadPoolExecutor(0, 1, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(), runnable -> {
+      Thread thread = new Thread(runnable, "kcbq-schema-registry-refresh");
+      thread.setDaemon(true);
+      return thread;
+    }), Time.SYSTEM);
+  }
+
+  @VisibleForTesting
+  SchemaRegistrySchemaRetriever(Executor refreshExecutor, Time time) {
+    this.refreshExecutor = refreshExecutor;
+    this.time = time;
+  }
+
+  @Override
+  public void configure(Map<String, String> properties) {
+    SchemaRegistrySchemaRetrieverConfig config = new SchemaRegistrySchemaRetrieverConfig(properties);
+    String url = config.getString(SCHEMA_REGISTRY_URL_CONFIG);
+    this.registryUrl = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    this.timeoutMs = config.getInt(SCHEMA_REGISTRY_TIMEOUT_MS_CONFIG);
+    this.refreshIntervalMs = TimeUnit.SECONDS.toMillis(config.getInt(SCHEMA_REGISTRY_REFRESH_INTERVAL_SEC_CONFIG));
+    int cacheSize = config.getInt(SCHEMA_REGISTRY_CACHE_SIZE_CONFIG);
+    this.latestSchemas = Collections.synchronizedMap(new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        return size() > cacheSize;
+      }
+    });
+  }
+
+  @Override
+  public Schema retrieveKeySchema(SinkRecord record) {
+    return retrieveSchema(record, record.keySchema(), KEY_SUBJECT_SUFFIX, this::latestSchema);
+  }
+
+  @Override
+  public Schema retrieveValueSchema(SinkRecord record) {
+    return retrieveSchema(record, record.valueSchema(), VALUE_SUBJECT_SUFFIX, this::latestSchema);
+  }
+
+  @Override
+  public List<Schema> retrieveKeySchemas(List<SinkRecord> records) {
+    return retrieveSchemas(records, SinkRecord::keySchema, KEY_SUBJECT_SUFFIX);
+  }
+
+  @Override
+  public List<Schema> retrieveValueSchemas(List<SinkRecord> records) {
+    return retrieveSchemas(records, SinkRecord::valueSchema, VALUE_SUBJECT_SUFFIX);
+  }
+
+  private List<Schema> retrieveSchemas(
+      List<SinkRecord> records, Function<SinkRecord, Schema> recordSchema, String subjectSuffix) {
+    // Each subject is only looked up once per batch, even in the cache
+    Map<String, Optional<Schema>> batchSchemas = new HashMap<>();
+    Function<String, Schema> latest = subject ->
+        batchSchemas.computeIfAbsent(subject, s -> Optional.ofNullable(latestSchema(s))).orElse(null);
+    List<Schema> result = new ArrayList<>(records.size());
+    for (SinkRecord record : records) {
+      result.add(retrieveSchema(record, recordSchema.apply(record), subjectSuffix, latest));
+    }
+    return result;
+  }
+
+  private Schema retrieveSchema(
+      SinkRecord record, Schema recordSchema, String subjectSuffix, Function<String, Schema> latest) {
+    if (recordSchema == null) {
+      // Tombstones and records without keys have nothing to look up
+      return null;
+    }
+    Schema result = latest.apply(SinkRecordOrigin.topic(record) + subjectSuffix);
+    return result != null ? result : recordSchema;
+  }
+
+  /**
+   * @return the latest schema registered for the subject, or null if it is not registered or could
+   * not be retrieved
+   */
+  private Schema latestSchema(String subject) {
+    Entry entry = latestSchemas.get(subject);
+    if (entry == null) {
+      entry = lookUp(subject, null).join();
+    } else if (time.milliseconds() - entry.loadedMs >= refreshIntervalMs
+        && entry.refreshing.compareAndSet(false, true)) {
+      Entry stale = entry;
+      refreshExecutor.execute(() -> lookUp(subject, stale));
+    }
+    return entry.schema;
+  }
+
+  /**
+   * Retrieve the latest schema of a subject and cache it, unless a lookup of the subject is
+   * already in progress, in which case that lookup is shared instead. If the lookup fails, the
+   * stale entry (or, if there is none, the absence of a schema) is cached until the next refresh.
+   */
+  private CompletableFuture<Entry> lookUp(String subject, Entry stale) {
+    CompletableFuture<Entry> lookup = new CompletableFuture<>();
+    CompletableFuture<Entry> existing = lookups.putIfAbsent(subject, lookup);
+    if (existing != null) {
+      return existing;
+    }
+    Entry loaded = null;
+    try {
+      try {
+        loaded = new Entry(fetchLatestSchema(subject), time.milliseconds());
+      } catch (RuntimeException e) {
+        logger.warn("Failed to retrieve the latest schema of subject {}; will retry in {} ms",
+            subject, refreshIntervalMs, e);
+        loaded = new Entry(stale != null ? stale.schema : null, time.milliseconds());
+      }
+      latestSchemas.put(subject, loaded);
+    } finally {
+      lookups.remove(subject, lookup);
+      if (loaded != null) {
+        lookup.complete(loaded);
+      } else {
+        // Whatever was thrown is on its way up this thread; don't leave the lookups sharing this one hanging
+        if (stale != null) {
+          stale.refreshing.set(false);
+        }
+        lookup.completeExceptionally(
+            new ConnectException("Failed to retrieve the latest schema of subject " + subject));
+      }
+    }
+    return lookup;
+  }
+
+  private Schema fetchLatestSchema(String subject) {
+    HttpURLConnection connection = null;
+    try {
+      URL url = new URL(registryUrl + "/subjects/"
+          + URLEncoder.encode(subject, StandardCharsets.UTF_8.name()) + "/versions/latest");
+      logger.trace("Retrieving the latest schema of subject {} from {}", subject, url);
+      connection = (HttpURLConnection) url.openConnection();
+      connection.setConnectTimeout(timeoutMs);
+      connection.setReadTimeout(timeoutMs);
+      connection.setRequestProperty("Accept", CONTENT_TYPE);
+
+      int status = connection.getResponseCode();
+      if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+        logger.debug("Subject {} is not registered; records will use their own schemas", subject);
+        return null;
+      } else if (status != HttpURLConnection.HTTP_OK) {
+        throw new ConnectException("Schema Registry responded with status " + status
+            + " to the request for the latest schema of subject " + subject);
+      }
+
+      JSONObject response;
+      try (InputStream body = connection.getInputStream()) {
+        response = new JSONObject(readFully(body));
+      }
+      String schemaType = response.optString("schemaType", "AVRO");
+      if (!"AVRO".equals(schemaType)) {
+        logger.warn("Latest schema of subject {} has unsupported type {}; records will use their own schemas",
+            subject, schemaType);
+        return null;
+      }
+      org.apache.avro.Schema avroSchema = new org.apache.avro.Schema.Parser().parse(response.getString("schema"));
+      return AvroToConnectSchemaConverter.toConnectSchema(avroSchema);
+    } catch (IOException | JSONException | SchemaParseException e) {
+      throw new ConnectException("Failed to retrieve the latest schema of subject " + subject, e);
+    } finally {
+      if (connection != null) {
+        connection.disconnect();
+      }
+    }
+  }
+
+  private static String readFully(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private static final class Entry {
+    private final Schema schema;
+    private final long loadedMs;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    Entry(Schema schema, long loadedMs) {
+      this.schema = schema;
+      this.loadedMs = loadedMs;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.utils;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses the string representations of temporal values produced by the record converter (and
+ * accepted by BigQuery) into the numeric forms used by binary encodings of BigQuery rows.
+ *
+ * <p>All methods throw {@link java.time.format.DateTimeParseException} for values that cannot be
+ * parsed, and {@link ArithmeticException} for values that are out of range.
+ */
+public class BigQueryTemporalValues {
+
+  private static final DateTimeFormatter TIMESTAMP_FORMAT = new DateTimeFormatterBuilder()
+      .parseCaseInsensitive()
+      .append(DateTimeFormatter.ISO_LOCAL_DATE)
+      .optionalStart().appendLiteral(' ').optionalEnd()
+      .optionalStart().appendLiteral('T').optionalEnd()
+      .append(DateTimeFormatter.ISO_LOCAL_TIME)
+      .optionalStart().appendOffset("+HH:MM", "Z").optionalEnd()
+      .optionalStart().appendOffset("+HHMM", "Z").optionalEnd()
+      .toFormatter(Locale.ROOT);
+
+  private BigQueryTemporalValues() {
+  }
+
+  /**
+   * @param value A timestamp such as {@code 2024-01-31 12:34:56.789}, optionally with a UTC offset;
+   *              timestamps without an offset are interpreted as UTC
+   * @return the number of microseconds since the epoch
+   */
+  public static long timestampMicros(String value) {
+    TemporalAccessor parsed = TIMESTAMP_FORMAT.parse(value);
+    LocalDateTime dateTime = LocalDateTime.from(parsed);
+    ZoneOffset offset = parsed.isSupported(ChronoField.OFFSET_SECONDS)
+        ? ZoneOffset.from(parsed)
+        : ZoneOffset.UTC;
+    long seconds = dateTime.toEpochSecond(offset);
+    return Math.addExact(
+        TimeUnit.SECONDS.toMicros(seconds),
+        TimeUnit.NANOSECONDS.toMicros(dateTime.getNano())
+    );
+  }
+
+  /**
+   * @param value A date such as {@code 2024-01-31}
+   * @return the number of days since the epoch
+   */
+  public static int epochDay(String value) {
+    return Math.toIntExact(LocalDate.parse(value).toEpochDay());
+  }
+
+  /**
+   * @param value A time of day such as {@code 12:34:56.789}
+   * @return the number of microseconds since midnight
+   */
+  public static long timeMicros(String value) {
+    return TimeUnit.NANOSECONDS.toMicros(LocalTime.parse(value).toNanoOfDay());
+  }
+}
@@ -23,16 +23,40 @@
 
 package com.wepay.kafka.connect.bigquery.utils;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
 
 public class FieldNameSanitizer {
 
+  private static final Pattern INVALID_CHARACTERS = Pattern.compile("[^a-zA-Z0-9_]");
+  private static final Pattern INVALID_FIRST_CHARACTER = Pattern.compile("^[^a-zA-Z_].*");
+
+  // Field names come from a small, stable set of schemas, so this is only an upper bound to
+  // protect against unbounded growth from schemaless records with arbitrary keys
+  private static final int MAX_CACHED_NAMES = 10_000;
+  private static final ConcurrentMap<String, String> SANITIZED_NAMES = new ConcurrentHashMap<>();
+
   // Replace all non-letter, non-digit characters with underscore. Append underscore in front of
   // name if it does not begin with alphabet or underscore.
   public static String sanitizeName(String name) {
-    String sanitizedName = name.replaceAll("[^a-zA-Z0-9_]", "_");
-    if (sanitizedName.matches("^[^a-zA-Z_].*")) {
+    String sanitizedName = SANITIZED_NAMES.get(name);
+    if (sanitizedName == null) {
+      sanitizedName = doSanitizeName(name);
+      if (SANITIZED_NAMES.size() < MAX_CACHED_NAMES) {
+        SANITIZED_NAMES.putIfAbsent(name, sanitizedName);
+      }
+    }
+    return sanitizedName;
+  }
+
+  private static String doSanitizeName(String name) {
+    String sanitizedName = INVALID_CHARACTERS.matcher(name).replaceAll("_");
+    if (INVALID_FIRST_CHARACTER.matcher(sanitizedName).matches()) {
       sanitizedName = "_" + sanitizedName;
     }
     return sanitizedName;
@@ -43,17 +67,25 @@ public class FieldNameSanitizer {
   // letters, numbers, and underscores.
   // Note: a.b and a/b will have the same value after sanitization which will cause Duplicate key
   // Exception.
-  @SuppressWarnings("unchecked")
   public static Map<String, Object> replaceInvalidKeys(Map<String, Object> map) {
-    Map<String, Object> result = new HashMap<>();
-    map.forEach((key, value) -> {
-      String sanitizedKey = sanitizeName(key);
-      if (value instanceof Map) {
-        result.put(sanitizedKey, replaceInvalidKeys((Map<String, Object>) value));
-      } else {
-        result.put(sanitizedKey, value);
-      }
-    });
+    Map<String, Object> result = new HashMap<>((int) (map.size() / 0.75f) + 1);
+    map.forEach((key, value) -> result.put(sanitizeName(key), replaceInvalidKeysInValue(value)));
     return result;
   }
+
+  @SuppressWarnings("unchecked")
+  private static Object replaceInvalidKeysInValue(Object value) {
+    if (value instanceof Map) {
+      return replaceInvalidKeys((Map<String, Object>) value);
+    }
+    if (value instanceof List) {
+      List<?> list = (List<?>) value;
+      List<Object> result = new ArrayList<>(list.size());
+      for (Object element : list) {
+        result.add(replaceInvalidKeysInValue(element));
+      }
+      return result;
+    }
+    return value;
+  }
 }
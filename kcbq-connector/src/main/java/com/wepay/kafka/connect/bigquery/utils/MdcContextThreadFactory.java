@@ -0,0 +1,58 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.utils;
+
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import org.slf4j.MDC;
+
+/**
+ * A {@link ThreadFactory} whose threads inherit the MDC context of the thread that created the
+ * factory, so that log lines from a task's threads can be attributed to the task.
+ */
+public class MdcContextThreadFactory implements ThreadFactory {
+
+  private final Map<String, String> mdcContext;
+  private final ThreadFactory threadFactory;
+
+  /**
+   * @param threadFactory the factory to create the threads with
+   */
+  public MdcContextThreadFactory(ThreadFactory threadFactory) {
+    this.mdcContext = MDC.getCopyOfContextMap();
+    this.threadFactory = threadFactory;
+  }
+
+  @Override
+  public Thread newThread(Runnable runnable) {
+    if (mdcContext == null) {
+      return threadFactory.newThread(runnable);
+    } else {
+      return threadFactory.newThread(() -> {
+        MDC.setContextMap(mdcContext);
+        runnable.run();
+      });
+    }
+  }
+}
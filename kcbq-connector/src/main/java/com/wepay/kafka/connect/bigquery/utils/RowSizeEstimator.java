@@ -0,0 +1,93 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+import org.apache.kafka.connect.data.Field;
+import org.apache.kafka.connect.data.Struct;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Cheaply estimates the size of converted BigQuery rows, roughly as they would be serialized in a
+ * write request.
+ */
+public class RowSizeEstimator {
+
+  // the size assumed for numbers, timestamps, and any other values of unknown size
+  private static final int SCALAR_SIZE = 8;
+
+  private RowSizeEstimator() {
+  }
+
+  /**
+   * @param value a row, or a value in a row, as a {@link Map}, {@link JSONObject}, or any value
+   *              they may contain; a Kafka Connect {@link Struct} may also be given, to estimate the
+   *              size of a record value before it has been converted
+   * @return the estimated size of the value, in bytes
+   */
+  public static long estimate(Object value) {
+    if (value == null) {
+      return 0;
+    } else if (value instanceof CharSequence) {
+      return ((CharSequence) value).length();
+    } else if (value instanceof Map) {
+      long size = 0;
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        size += String.valueOf(entry.getKey()).length() + estimate(entry.getValue());
+      }
+      return size;
+    } else if (value instanceof Struct) {
+      Struct struct = (Struct) value;
+      long size = 0;
+      for (Field field : struct.schema().fields()) {
+        size += field.name().length() + estimate(struct.get(field));
+      }
+      return size;
+    } else if (value instanceof JSONObject) {
+      JSONObject object = (JSONObject) value;
+      long size = 0;
+      for (String key : object.keySet()) {
+        size += key.length() + estimate(object.opt(key));
+      }
+      return size;
+    } else if (value instanceof Collection || value instanceof JSONArray) {
+      long size = 0;
+      for (Object element : (Iterable<?>) value) {
+        size += estimate(element);
+      }
+      return size;
+    } else if (value instanceof byte[]) {
+      return ((byte[]) value).length;
+    } else if (value instanceof ByteBuffer) {
+      return ((ByteBuffer) value).remaining();
+    } else if (value instanceof Boolean) {
+      return 1;
+    } else {
+      return SCALAR_SIZE;
+    }
+  }
+}
@@ -85,7 +85,7 @@ public class SinkRecordConverter {
 
     if (convertedValue != null) {
       config.getKafkaDataFieldName().ifPresent(
-          fieldName -> convertedValue.put(fieldName, KafkaDataBuilder.buildKafkaDataRecord(record))
+          fieldName -> convertedValue.put(maybeSanitize(fieldName), KafkaDataBuilder.buildKafkaDataRecord(record))
       );
     }
 
@@ -128,23 +128,30 @@ public class SinkRecordConverter {
       Map<String, Object> kafkaDataField = config.getBoolean(config.USE_STORAGE_WRITE_API_CONFIG)
           ? KafkaDataBuilder.buildKafkaDataRecordStorageApi(record)
           : KafkaDataBuilder.buildKafkaDataRecord(record);
-      result.put(fieldName, kafkaDataField);
+      result.put(maybeSanitize(fieldName), kafkaDataField);
     });
 
     config.getKafkaKeyFieldName().ifPresent(fieldName -> {
       Map<String, Object> keyData = recordConverter.convertRecord(record, KafkaSchemaRecordType.KEY);
-      result.put(fieldName, keyData);
+      result.put(maybeSanitize(fieldName), keyData);
     });
 
     return maybeSanitize(result);
   }
 
   private Map<String, Object> maybeSanitize(Map<String, Object> convertedRecord) {
-    return config.getBoolean(config.SANITIZE_FIELD_NAME_CONFIG)
+    // Converters that sanitize field names themselves do so once per schema instead of per row
+    return config.getBoolean(config.SANITIZE_FIELD_NAME_CONFIG) && !recordConverter.sanitizesFieldNames()
         ? FieldNameSanitizer.replaceInvalidKeys(convertedRecord)
         : convertedRecord;
   }
 
+  private String maybeSanitize(String fieldName) {
+    return config.getBoolean(config.SANITIZE_FIELD_NAME_CONFIG)
+        ? FieldNameSanitizer.sanitizeName(fieldName)
+        : fieldName;
+  }
+
   private String getRowId(SinkRecord record) {
     return String.format("%s-%d-%d",
         record.topic(),
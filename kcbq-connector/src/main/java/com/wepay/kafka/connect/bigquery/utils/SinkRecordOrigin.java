@@ -0,0 +1,90 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.utils;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+/**
+ * Where a sink record was consumed from, before any transformations changed its topic, partition
+ * or offset. Connect runtimes earlier than Apache Kafka 3.6 do not keep track of this, in which
+ * case the record's own topic, partition and offset are used.
+ */
+public final class SinkRecordOrigin {
+
+  private static volatile boolean originalCoordinatesSupported = true;
+
+  private SinkRecordOrigin() {
+  }
+
+  /**
+   * @param record the record
+   * @return the topic the record was consumed from
+   */
+  public static String topic(SinkRecord record) {
+    if (originalCoordinatesSupported) {
+      try {
+        return record.originalTopic();
+      } catch (NoSuchMethodError e) {
+        originalCoordinatesUnsupported();
+      }
+    }
+    return record.topic();
+  }
+
+  /**
+   * @param record the record
+   * @return the topic partition the record was consumed from
+   */
+  public static TopicPartition topicPartition(SinkRecord record) {
+    if (originalCoordinatesSupported) {
+      try {
+        return new TopicPartition(record.originalTopic(), record.originalKafkaPartition());
+      } catch (NoSuchMethodError e) {
+        originalCoordinatesUnsupported();
+      }
+    }
+    return new TopicPartition(record.topic(), record.kafkaPartition());
+  }
+
+  /**
+   * @param record the record
+   * @return the offset the record was consumed at
+   */
+  public static long offset(SinkRecord record) {
+    if (originalCoordinatesSupported) {
+      try {
+        return record.originalKafkaOffset();
+      } catch (NoSuchMethodError e) {
+        originalCoordinatesUnsupported();
+      }
+    }
+    return record.kafkaOffset();
+  }
+
+  private static void originalCoordinatesUnsupported() {
+    // Will occur in Connect runtimes earlier than 3.6
+    originalCoordinatesSupported = false;
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.utils;
+
+import com.google.cloud.bigquery.TableId;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Resolves the table that the records from each topic are written to once, and keeps the
+ * resulting {@link TableId TableIds} and {@link PartitionedTableId PartitionedTableIds} so that
+ * they do not have to be created again for every record.
+ *
+ * <p>Instances are not thread safe, and should only be used by the task thread.
+ */
+public class TopicRouter {
+
+  private static final long MILLIS_IN_DAY = 86400000L;
+  // the number of day partitions to keep for each table; records are usually for the current day,
+  // and may be for a few previous ones
+  private static final int MAX_CACHED_PARTITIONS = 8;
+
+  private final Function<String, TableId> tableResolver;
+  private final Predicate<String> batchLoadTopics;
+  private final Map<String, Route> routes;
+
+  /**
+   * @param tableResolver   resolves the base table for a topic
+   * @param batchLoadTopics tests whether the records from a topic are written with batch loads
+   */
+  public TopicRouter(Function<String, TableId> tableResolver, Predicate<String> batchLoadTopics) {
+    this.tableResolver = tableResolver;
+    this.batchLoadTopics = batchLoadTopics;
+    this.routes = new HashMap<>();
+  }
+
+  /**
+   * @param topic the topic of a record
+   * @return the route for the records from the topic
+   */
+  public Route route(String topic) {
+    Route route = routes.get(topic);
+    if (route == null) {
+      route = new Route(tableResolver.apply(topic), batchLoadTopics.test(topic));
+      routes.put(topic, route);
+    }
+    return route;
+  }
+
+  /**
+   * The table, and the partitions of that table, that the records from a topic are written to.
+   */
+  public static class Route {
+
+    private final TableId baseTableId;
+    private final boolean batchLoad;
+    private final PartitionedTableId unpartitioned;
+    private final Map<Long, PartitionedTableId> dayPartitions;
+    private PartitionedTableId intermediate;
+
+    private Route(TableId baseTableId, boolean batchLoad) {
+      this.baseTableId = baseTableId;
+      this.batchLoad = batchLoad;
+      this.unpartitioned = new PartitionedTableId.Builder(baseTableId).build();
+      this.dayPartitions = new LinkedHashMap<Long, PartitionedTableId>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, PartitionedTableId> eldest) {
+          return size() > MAX_CACHED_PARTITIONS;
+        }
+      };
+    }
+
+    /**
+     * @return the table, without any partition
+     */
+    public TableId baseTableId() {
+      return baseTableId;
+    }
+
+    /**
+     * @return whether the records are written with batch loads through GCS
+     */
+    public boolean isBatchLoad() {
+      return batchLoad;
+    }
+
+    /**
+     * @return the table, without any partition
+     */
+    public PartitionedTableId unpartitioned() {
+      return unpartitioned;
+    }
+
+    /**
+     * @param utcTime a time, in milliseconds since the epoch
+     * @return the table's partition for the day of the given time
+     */
+    public PartitionedTableId dayPartition(long utcTime) {
+      long epochDay = utcTime / MILLIS_IN_DAY;
+      PartitionedTableId partition = dayPartitions.get(epochDay);
+      if (partition == null) {
+        partition = new PartitionedTableId.Builder(baseTableId)
+            .setDayPartition(LocalDate.ofEpochDay(epochDay))
+            .build();
+        dayPartitions.put(epochDay, partition);
+      }
+      return partition;
+    }
+
+    /**
+     * @param intermediateTableFor resolves the intermediate table for the table, the first time
+     *                             this is called
+     * @return the intermediate table that rows are written to when upsert/delete is enabled
+     */
+    public PartitionedTableId intermediate(Function<TableId, TableId> intermediateTableFor) {
+      if (intermediate == null) {
+        intermediate = new PartitionedTableId.Builder(intermediateTableFor.apply(baseTableId)).build();
+      }
+      return intermediate;
+    }
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.utils;
+
+import java.util.Optional;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads, which are only available on Java 21 and later, without requiring
+ * them at compile time.
+ */
+public class VirtualThreads {
+
+  private VirtualThreads() {
+  }
+
+  /**
+   * @return a factory for virtual threads, or an empty Optional if the JVM does not support them
+   */
+  public static Optional<ThreadFactory> factory() {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Object factory = Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+      return Optional.of((ThreadFactory) factory);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // Either before Java 19, or virtual threads are a preview feature that has not been enabled
+      return Optional.empty();
+    }
+  }
+}
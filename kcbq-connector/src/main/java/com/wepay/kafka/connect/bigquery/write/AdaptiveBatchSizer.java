@@ -0,0 +1,156 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers, per table, how large a write request can be before BigQuery rejects it, so that
+ * writes can start from the last known good batch size instead of rediscovering the limit with
+ * failed requests every time.
+ *
+ * <p>Tables start out without limits. When a batch is rejected for being too large, the table's
+ * limits are cut to half the size of that batch; every batch written successfully at the limit
+ * then raises it by a sixteenth, so that tables whose rows shrink again recover slowly. As batches
+ * are cut at row boundaries, a batch is at the byte limit if it is within a sixteenth of it.
+ *
+ * @param <K> the type identifying tables
+ */
+public class AdaptiveBatchSizer<K> {
+
+  private static final Logger logger = LoggerFactory.getLogger(AdaptiveBatchSizer.class);
+  private static final int GROWTH_DIVISOR = 16;
+
+  private final ConcurrentMap<K, Limit> limits = new ConcurrentHashMap<>();
+
+  /**
+   * @param table the table to write to
+   * @return the current limits for batches written to the table
+   */
+  public Limit limit(K table) {
+    return limits.getOrDefault(table, Limit.UNLIMITED);
+  }
+
+  /**
+   * Record that a batch was written to a table successfully.
+   *
+   * @param table the table written to
+   * @param rows  the number of rows in the batch
+   * @param bytes the estimated size of the batch; only required if the table's limit has a byte
+   *              limit, and otherwise may be negative
+   */
+  public void onSuccess(K table, int rows, long bytes) {
+    limits.computeIfPresent(table, (t, limit) -> limit.grow(rows, bytes));
+  }
+
+  /**
+   * Record that a batch was rejected by BigQuery for being too large.
+   *
+   * @param table the table written to
+   * @param rows  the number of rows in the batch
+   * @param bytes the estimated size of the batch, or a negative number if it was not estimated
+   */
+  public void onTooLarge(K table, int rows, long bytes) {
+    Limit reduced = new Limit(
+        Math.max(1, rows / 2),
+        bytes >= 0 ? Math.max(1, bytes / 2) : Long.MAX_VALUE
+    );
+    Limit limit = limits.merge(table, reduced, Limit::min);
+    logger.debug("Reduced batch limits for table {} to {}", table, limit);
+  }
+
+  /**
+   * The maximum number of rows, and maximum estimated bytes, to write to a table in a single
+   * request.
+   */
+  public static final class Limit {
+
+    public static final Limit UNLIMITED = new Limit(Integer.MAX_VALUE, Long.MAX_VALUE);
+
+    private final int maxRows;
+    private final long maxBytes;
+
+    Limit(int maxRows, long maxBytes) {
+      this.maxRows = maxRows;
+      this.maxBytes = maxBytes;
+    }
+
+    public int maxRows() {
+      return maxRows;
+    }
+
+    public long maxBytes() {
+      return maxBytes;
+    }
+
+    /**
+     * @return whether batches must be sized by their estimated size in bytes
+     */
+    public boolean hasByteLimit() {
+      return maxBytes != Long.MAX_VALUE;
+    }
+
+    private Limit grow(int rows, long bytes) {
+      int newMaxRows = maxRows;
+      if (rows >= maxRows && maxRows != Integer.MAX_VALUE) {
+        newMaxRows = (int) Math.min(Integer.MAX_VALUE, (long) maxRows + maxRows / GROWTH_DIVISOR + 1);
+      }
+      long newMaxBytes = maxBytes;
+      if (hasByteLimit() && bytes >= maxBytes - maxBytes / GROWTH_DIVISOR) {
+        newMaxBytes = maxBytes + maxBytes / GROWTH_DIVISOR + 1;
+      }
+      return new Limit(newMaxRows, newMaxBytes);
+    }
+
+    private static Limit min(Limit a, Limit b) {
+      return new Limit(Math.min(a.maxRows, b.maxRows), Math.min(a.maxBytes, b.maxBytes));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Limit)) {
+        return false;
+      }
+      Limit that = (Limit) o;
+      return maxRows == that.maxRows && maxBytes == that.maxBytes;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(maxRows, maxBytes);
+    }
+
+    @Override
+    public String toString() {
+      return "Limit{maxRows=" + maxRows + ", maxBytes=" + maxBytes + "}";
+    }
+  }
+}
@@ -24,38 +24,88 @@
 package com.wepay.kafka.connect.bigquery.write;
 
 import java.util.List;
+import java.util.function.ToLongFunction;
 
 public class RecordBatches<E> {
 
   private final List<E> records;
+  private final ToLongFunction<E> sizeOf;
+  private final long maxBatchBytes;
 
   private int batchStart;
+  private int batchEnd;
   private int batchSize;
 
   public RecordBatches(List<E> records) {
+    this(records, AdaptiveBatchSizer.Limit.UNLIMITED, null);
+  }
+
+  /**
+   * @param records the records to split into batches
+   * @param limit   the limits to start batches out with
+   * @param sizeOf  estimates the size of a record; only used if the limit has a byte limit, and
+   *                otherwise may be null
+   */
+  public RecordBatches(List<E> records, AdaptiveBatchSizer.Limit limit, ToLongFunction<E> sizeOf) {
     this.records = records;
+    this.sizeOf = sizeOf;
+    this.maxBatchBytes = limit.hasByteLimit() && sizeOf != null ? limit.maxBytes() : Long.MAX_VALUE;
     this.batchStart = 0;
-    this.batchSize = records.size();
+    this.batchSize = Math.min(records.size(), limit.maxRows());
+    updateBatchEnd();
   }
 
   public List<E> currentBatch() {
-    int size = Math.min(records.size() - batchStart, batchSize);
-    return records.subList(batchStart, batchStart + size);
+    return records.subList(batchStart, batchEnd);
+  }
+
+  /**
+   * @return the estimated size of the current batch, or -1 if record sizes are not known
+   */
+  public long currentBatchBytes() {
+    if (sizeOf == null) {
+      return -1;
+    }
+    long bytes = 0;
+    for (E record : currentBatch()) {
+      bytes += sizeOf.applyAsLong(record);
+    }
+    return bytes;
   }
 
   public void advanceToNextBatch() {
-    batchStart += batchSize;
+    batchStart = batchEnd;
+    updateBatchEnd();
   }
 
   public void reduceBatchSize() {
-    if (batchSize <= 1) {
+    int currentSize = batchEnd - batchStart;
+    if (currentSize <= 1) {
       throw new IllegalStateException("Cannot reduce batch size any further");
     }
-    batchSize /= 2;
+    // round batch size up so we don't end up with a dangling 1 row at the end.
+    batchSize = (currentSize + 1) / 2;
+    updateBatchEnd();
   }
 
   public boolean completed() {
     return batchStart >= records.size();
   }
 
+  private void updateBatchEnd() {
+    int end = Math.min(records.size(), batchStart + Math.max(1, batchSize));
+    if (maxBatchBytes != Long.MAX_VALUE) {
+      // Always include at least one record, however large
+      long bytes = 0;
+      for (int i = batchStart; i < end; i++) {
+        bytes += sizeOf.applyAsLong(records.get(i));
+        if (bytes > maxBatchBytes && i > batchStart) {
+          end = i;
+          break;
+        }
+      }
+    }
+    batchEnd = end;
+  }
+
 }
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery.write.batch;
+
+import com.google.cloud.bigquery.TableId;
+import com.wepay.kafka.connect.bigquery.WriteMetrics.Stage;
+import com.wepay.kafka.connect.bigquery.WriteMetrics.TableWriteMetrics;
+import com.wepay.kafka.connect.bigquery.utils.Time;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+/**
+ * Records how long a single batch spends in each {@link Stage} on its way to BigQuery, and the
+ * timestamp of its newest record once it has been written, if that makes it visible in BigQuery.
+ *
+ * <p>The records of a batch may be converted on the task thread, or in the writer if conversion is
+ * deferred, so the conversion of records and the rest of the batch are traced by separate
+ * builders: {@link #conversion} wraps the builder that converts the records, and
+ * {@link #write} wraps the outermost builder, which is built when the batch is submitted.
+ */
+public class BatchTrace {
+
+  private final TableWriteMetrics metrics;
+  private final Time time;
+  private final boolean acknowledgeOnWrite;
+  private long conversionNanos;
+  private long maxTimestamp;
+
+  /**
+   * @param metrics the metrics of the table and write path the batch is written to
+   * @param time    used to measure the time spent waiting for and in a write thread
+   */
+  public BatchTrace(TableWriteMetrics metrics, Time time) {
+    this(metrics, time, true);
+  }
+
+  /**
+   * @param metrics            the metrics of the table and write path the batch is written to
+   * @param time               used to measure the time spent waiting for and in a write thread
+   * @param acknowledgeOnWrite whether to record the timestamp of the newest record once the batch
+   *                           has been written; false for write paths whose rows only become
+   *                           visible later, which record it themselves
+   */
+  public BatchTrace(TableWriteMetrics metrics, Time time, boolean acknowledgeOnWrite) {
+    this.metrics = metrics;
+    this.time = time;
+    this.acknowledgeOnWrite = acknowledgeOnWrite;
+    this.conversionNanos = 0;
+    this.maxTimestamp = -1;
+  }
+
+  /**
+   * @param builder the builder that converts the records of the batch
+   * @return a builder that measures how long the records take to convert
+   */
+  public TableWriterBuilder conversion(TableWriterBuilder builder) {
+    return new ConversionBuilder(builder);
+  }
+
+  /**
+   * @param builder the outermost builder of the batch
+   * @return a builder whose writer records the time spent waiting for a write thread and converting
+   * the batch, whether or not it is written, and the time spent writing the batch and the timestamp
+   * of its newest record once it has been written
+   */
+  public TableWriterBuilder write(TableWriterBuilder builder) {
+    return new WriteBuilder(builder);
+  }
+
+  private class ConversionBuilder implements TableWriterBuilder {
+
+    private final TableWriterBuilder delegate;
+
+    ConversionBuilder(TableWriterBuilder delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void addRow(SinkRecord sinkRecord, TableId table) {
+      long startNanos = System.nanoTime();
+      try {
+        delegate.addRow(sinkRecord, table);
+      } finally {
+        conversionNanos += System.nanoTime() - startNanos;
+      }
+      if (sinkRecord.timestamp() != null) {
+        maxTimestamp = Math.max(maxTimestamp, sinkRecord.timestamp());
+      }
+    }
+
+    @Override
+    public long estimatedBytes() {
+      return delegate.estimatedBytes();
+    }
+
+    @Override
+    public Runnable build() {
+      return delegate.build();
+    }
+  }
+
+  private class WriteBuilder implements TableWriterBuilder {
+
+    private final TableWriterBuilder delegate;
+
+    WriteBuilder(TableWriterBuilder delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void addRow(SinkRecord sinkRecord, TableId table) {
+      delegate.addRow(sinkRecord, table);
+    }
+
+    @Override
+    public long estimatedBytes() {
+      return delegate.estimatedBytes();
+    }
+
+    @Override
+    public Runnable build() {
+      Runnable writer = delegate.build();
+      long submittedMs = time.milliseconds();
+      AtomicLong startMs = new AtomicLong();
+      Runnable timedWriter = () -> {
+        startMs.set(time.milliseconds());
+        metrics.stage(Stage.QUEUE, startMs.get() - submittedMs);
+        try {
+          writer.run();
+        } finally {
+          // Only known once the writer has run, if conversion is deferred to the writer
+          metrics.stage(Stage.CONVERSION, conversionNanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+        }
+      };
+      // The rows may still be in flight once the writer has run, if appends are pipelined
+      return PendingWrite.whenComplete(timedWriter, error -> {
+        if (error != null) {
+          return;
+        }
+        metrics.stage(Stage.WRITE, time.milliseconds() - startMs.get());
+        if (acknowledgeOnWrite && maxTimestamp >= 0) {
+          metrics.acknowledged(maxTimestamp);
+        }
+      });
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.batch;
+
+import com.google.cloud.bigquery.TableId;
+import com.wepay.kafka.connect.bigquery.ErrantRecordHandler;
+import com.wepay.kafka.connect.bigquery.exception.ConversionConnectException;
+import com.wepay.kafka.connect.bigquery.utils.RowSizeEstimator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+/**
+ * A {@link TableWriterBuilder} that only collects records, and adds them to another builder, which
+ * converts them, in the writer it builds. This moves the conversion of records from the task
+ * thread to the write threads, where the records for different tables are converted in parallel.
+ *
+ * <p>Records that fail to convert are sent to the errant record reporter, if there is one, as
+ * they would be if converted on the task thread.
+ */
+public class DeferredConversionBuilder implements TableWriterBuilder {
+
+  private final TableWriterBuilder delegate;
+  private final ErrantRecordHandler errantRecordHandler;
+  private final List<SinkRecord> records;
+  private final List<TableId> tables;
+  private boolean estimateBytes;
+  private long estimatedBytes;
+
+  /**
+   * @param delegate            the builder to add the records to in the writer
+   * @param errantRecordHandler the handler to report records that fail to convert to
+   */
+  public DeferredConversionBuilder(TableWriterBuilder delegate, ErrantRecordHandler errantRecordHandler) {
+    this.delegate = delegate;
+    this.errantRecordHandler = errantRecordHandler;
+    this.records = new ArrayList<>();
+    this.tables = new ArrayList<>();
+    this.estimatedBytes = 0;
+  }
+
+  @Override
+  public void addRow(SinkRecord sinkRecord, TableId table) {
+    records.add(sinkRecord);
+    tables.add(table);
+    if (estimateBytes) {
+      estimatedBytes += RowSizeEstimator.estimate(sinkRecord.value());
+    }
+  }
+
+  /**
+   * Estimate the size of the records as they are added, so that {@link #estimatedBytes()} can be
+   * used to limit the size of the batch or of the rows in flight.
+   *
+   * @return this builder
+   */
+  public DeferredConversionBuilder estimateBytes() {
+    this.estimateBytes = true;
+    return this;
+  }
+
+  /**
+   * Estimated from the unconverted record values, as the rows have not been converted yet.
+   *
+   * @return the estimated size of the records, or -1 if {@link #estimateBytes()} was not called
+   */
+  @Override
+  public long estimatedBytes() {
+    return estimateBytes ? estimatedBytes : -1;
+  }
+
+  @Override
+  public Runnable build() {
+    return new PendingWrite() {
+      private CompletableFuture<Void> completion;
+
+      @Override
+      public void run() {
+        convertRecords();
+        Runnable writer = delegate.build();
+        writer.run();
+        completion = PendingWrite.completionOf(writer);
+      }
+
+      @Override
+      public CompletableFuture<Void> completion() {
+        return completion;
+      }
+    };
+  }
+
+  private void convertRecords() {
+    for (int i = 0; i < records.size(); i++) {
+      SinkRecord record = records.get(i);
+      try {
+        delegate.addRow(record, tables.get(i));
+      } catch (ConversionConnectException ex) {
+        // Send records to DLQ in case of ConversionConnectException
+        if (errantRecordHandler.getErrantRecordReporter() != null) {
+          errantRecordHandler.reportErrantRecords(Collections.singleton(record), ex);
+        } else {
+          throw ex;
+        }
+      }
+    }
+  }
+}
@@ -26,6 +26,7 @@ package com.wepay.kafka.connect.bigquery.write.batch;
 import com.google.cloud.bigquery.InsertAllRequest.RowToInsert;
 import com.google.cloud.bigquery.TableId;
 import com.wepay.kafka.connect.bigquery.convert.RecordConverter;
+import com.wepay.kafka.connect.bigquery.utils.RowSizeEstimator;
 import com.wepay.kafka.connect.bigquery.utils.SinkRecordConverter;
 import com.wepay.kafka.connect.bigquery.write.row.GcsToBqWriter;
 import java.util.Comparator;
@@ -93,6 +94,8 @@ public class GcsBatchTableWriter implements Runnable {
     private final SinkRecordConverter recordConverter;
     private final GcsToBqWriter writer;
     private String blobName;
+    private boolean estimateBytes;
+    private long estimatedBytes;
 
     /**
      * Create a {@link GcsBatchTableWriter.Builder}.
@@ -121,7 +124,33 @@ public class GcsBatchTableWriter implements Runnable {
 
     @Override
     public void addRow(SinkRecord record, TableId table) {
-      rows.put(record, recordConverter.getRecordRow(record, table));
+      RowToInsert row = recordConverter.getRecordRow(record, table);
+      RowToInsert replaced = rows.put(record, row);
+      if (estimateBytes) {
+        estimatedBytes += RowSizeEstimator.estimate(row.getContent());
+        if (replaced != null) {
+          estimatedBytes -= RowSizeEstimator.estimate(replaced.getContent());
+        }
+      }
+    }
+
+    /**
+     * Estimate the size of the rows as they are added, so that {@link #estimatedBytes()} can be
+     * used to limit the size of the batch or of the rows in flight.
+     *
+     * @return this builder
+     */
+    public Builder estimateBytes() {
+      this.estimateBytes = true;
+      return this;
+    }
+
+    /**
+     * @return the estimated size of the rows, or -1 if {@link #estimateBytes()} was not called
+     */
+    @Override
+    public long estimatedBytes() {
+      return estimateBytes ? estimatedBytes : -1;
     }
 
     @Override
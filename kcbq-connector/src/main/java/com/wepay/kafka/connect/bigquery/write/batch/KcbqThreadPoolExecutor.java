@@ -26,12 +26,22 @@ package com.wepay.kafka.connect.bigquery.write.batch;
 import com.wepay.kafka.connect.bigquery.config.BigQuerySinkTaskConfig;
 import com.wepay.kafka.connect.bigquery.exception.BigQueryConnectException;
 import com.wepay.kafka.connect.bigquery.exception.ExpectedInterruptException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,12 +51,33 @@ import org.slf4j.LoggerFactory;
  *
  * <p>Keeps track of the number of threads actively writing for each topic.
  * Keeps track of the number of failed threads in each batch of requests.
+ *
+ * <p>Tasks given to {@link #executeLimited(Object, Runnable, int)} are queued in a separate lane for
+ * each key, and at most the given number of them run at once, in the order they were submitted;
+ * {@link #executeInOrder(Object, Runnable)} runs them one at a time. A lane only has as many tasks
+ * in the shared work queue as it may run at once, and goes to the back of the queue after every
+ * task, so that a key with a long backlog cannot hold up the tasks for other keys.
+ *
+ * <p>An executor created with {@link #threadPerTask(BigQuerySinkTaskConfig, ThreadFactory)} does not
+ * keep a pool of threads, and starts a new thread for each task instead, which is intended for
+ * virtual threads. The thread pool size then only limits how many tasks run at once: tasks beyond
+ * that limit wait in a queue, without a thread, and are started in the order they were submitted.
  */
 public class KcbqThreadPoolExecutor extends ThreadPoolExecutor {
 
   private static final Logger logger = LoggerFactory.getLogger(KcbqThreadPoolExecutor.class);
 
   private final AtomicReference<Throwable> encounteredError = new AtomicReference<>();
+  private final ConcurrentMap<Object, Lane> lanes = new ConcurrentHashMap<>();
+  // the number of tasks waiting in lanes, which are not yet in the shared work queue
+  private final AtomicInteger laneBacklog = new AtomicInteger();
+  // the maximum number of tasks that run at once
+  private final int maxRunningTasks;
+  private final boolean threadPerTask;
+  // for thread-per-task executors, the tasks waiting for one of the running tasks to complete
+  private final Queue<Runnable> waitingTasks = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger runningTasks = new AtomicInteger();
+  private volatile boolean shutdownRequested;
 
   /**
    * @param config    the {@link BigQuerySinkTaskConfig}
@@ -65,6 +96,112 @@ public class KcbqThreadPoolExecutor extends ThreadPoolExecutor {
         workQueue,
         threadFactory
     );
+    this.maxRunningTasks = config.getInt(BigQuerySinkTaskConfig.THREAD_POOL_SIZE_CONFIG);
+    this.threadPerTask = false;
+  }
+
+  private KcbqThreadPoolExecutor(int maxRunningTasks, ThreadFactory threadFactory) {
+    // No core threads and no keep-alive time, so that each task gets a thread of its own
+    super(0, Integer.MAX_VALUE, 0, TimeUnit.SECONDS, new SynchronousQueue<>(), threadFactory);
+    this.maxRunningTasks = maxRunningTasks;
+    this.threadPerTask = true;
+  }
+
+  /**
+   * Create an executor that starts a new thread for each task, rather than keeping a pool of
+   * threads; meant to be used with virtual threads, which are cheap to create and should not be
+   * pooled. At most {@link BigQuerySinkTaskConfig#THREAD_POOL_SIZE_CONFIG} tasks run at once.
+   *
+   * @param config        the {@link BigQuerySinkTaskConfig}
+   * @param threadFactory the factory to create a thread for each task with
+   * @return the executor
+   */
+  public static KcbqThreadPoolExecutor threadPerTask(
+      BigQuerySinkTaskConfig config,
+      ThreadFactory threadFactory
+  ) {
+    return new KcbqThreadPoolExecutor(
+        config.getInt(BigQuerySinkTaskConfig.THREAD_POOL_SIZE_CONFIG),
+        threadFactory
+    );
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    if (!threadPerTask) {
+      super.execute(command);
+      return;
+    }
+    if (shutdownRequested) {
+      getRejectedExecutionHandler().rejectedExecution(command, this);
+      return;
+    }
+    waitingTasks.add(command);
+    startWaitingTasks();
+  }
+
+  /**
+   * Start waiting tasks, in the order they were submitted, until the maximum number of tasks are
+   * running.
+   */
+  private void startWaitingTasks() {
+    while (!waitingTasks.isEmpty()) {
+      int running = runningTasks.get();
+      if (running >= maxRunningTasks) {
+        // The next task to complete will start the next waiting task
+        return;
+      }
+      if (!runningTasks.compareAndSet(running, running + 1)) {
+        continue;
+      }
+      Runnable task = waitingTasks.poll();
+      if (task == null) {
+        runningTasks.decrementAndGet();
+        continue;
+      }
+      try {
+        super.execute(new LimitedTask(task));
+      } catch (RejectedExecutionException e) {
+        runningTasks.decrementAndGet();
+        throw e;
+      }
+    }
+  }
+
+  @Override
+  public void shutdown() {
+    if (!threadPerTask) {
+      super.shutdown();
+      return;
+    }
+    // Tasks that are waiting to start have already been accepted, so let them run first
+    shutdownRequested = true;
+    maybeCompleteShutdown();
+  }
+
+  private void maybeCompleteShutdown() {
+    if (shutdownRequested && waitingTasks.isEmpty() && !super.isShutdown()) {
+      super.shutdown();
+    }
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    if (!threadPerTask) {
+      return super.shutdownNow();
+    }
+    shutdownRequested = true;
+    List<Runnable> notStarted = new ArrayList<>();
+    for (Runnable task = waitingTasks.poll(); task != null; task = waitingTasks.poll()) {
+      notStarted.add(task);
+    }
+    notStarted.addAll(super.shutdownNow());
+    return notStarted;
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return shutdownRequested || super.isShutdown();
   }
 
   @Override
@@ -79,6 +216,52 @@ public class KcbqThreadPoolExecutor extends ThreadPoolExecutor {
     }
   }
 
+  /**
+   * Run a task after all of the tasks previously submitted with the same key have completed.
+   *
+   * @param key  the key to order the task by, such as the table it writes to
+   * @param task the task to run
+   */
+  public void executeInOrder(Object key, Runnable task) {
+    executeLimited(key, task, 1);
+  }
+
+  /**
+   * Run a task once fewer than the given number of tasks with the same key are running, after all
+   * of the tasks previously submitted with the same key have started.
+   *
+   * @param key                the key to limit the task by, such as the table it writes to
+   * @param task               the task to run
+   * @param maxConcurrentTasks the maximum number of tasks to run at once for the key; only used if
+   *                           no tasks for the key are queued or running yet
+   */
+  public void executeLimited(Object key, Runnable task, int maxConcurrentTasks) {
+    laneBacklog.incrementAndGet();
+    Lane[] toSchedule = new Lane[1];
+    lanes.compute(key, (k, lane) -> {
+      if (lane == null) {
+        lane = new Lane(k, maxConcurrentTasks);
+      }
+      lane.tasks.add(task);
+      if (lane.canSchedule()) {
+        lane.scheduled++;
+        toSchedule[0] = lane;
+      }
+      return lane;
+    });
+    if (toSchedule[0] != null) {
+      execute(toSchedule[0]);
+    }
+  }
+
+  /**
+   * @return the number of tasks waiting to run, either in the shared work queue or in the lane for
+   * their key
+   */
+  public int queuedTaskCount() {
+    return getQueue().size() + laneBacklog.get() + waitingTasks.size();
+  }
+
   /**
    * Wait for all the currently queued tasks to complete, and then return.
    *
@@ -87,13 +270,22 @@ public class KcbqThreadPoolExecutor extends ThreadPoolExecutor {
    */
   public void awaitCurrentTasks() throws InterruptedException, BigQueryConnectException {
     /*
-     * create CountDownRunnables equal to the number of threads in the pool and add them to the
-     * queue. Then wait for all CountDownRunnables to complete. This way we can be sure that all
+     * First wait for every lane to reach a marker added after its current tasks, so that they have
+     * all been started. The markers count down without blocking, as they may take up more threads
+     * than there are in the pool.
+     */
+    List<Object> keys = new ArrayList<>(lanes.keySet());
+    CountDownLatch lanesLatch = new CountDownLatch(keys.size());
+    keys.forEach(key -> executeInOrder(key, lanesLatch::countDown));
+    lanesLatch.await();
+
+    /*
+     * create CountDownRunnables equal to the number of tasks that may run at once and add them to
+     * the queue. Then wait for all CountDownRunnables to complete. This way we can be sure that all
      * tasks added before this method was called are complete.
      */
-    int maximumPoolSize = getMaximumPoolSize();
-    CountDownLatch countDownLatch = new CountDownLatch(maximumPoolSize);
-    for (int i = 0; i < maximumPoolSize; i++) {
+    CountDownLatch countDownLatch = new CountDownLatch(maxRunningTasks);
+    for (int i = 0; i < maxRunningTasks; i++) {
       execute(new CountDownRunnable(countDownLatch));
     }
     countDownLatch.await();
@@ -111,4 +303,76 @@ public class KcbqThreadPoolExecutor extends ThreadPoolExecutor {
       throw new BigQueryConnectException("A write thread has failed with an unrecoverable error", t);
     });
   }
+
+  /**
+   * A task of a thread-per-task executor, which starts the next waiting task once it completes.
+   */
+  private class LimitedTask implements Runnable {
+
+    private final Runnable task;
+
+    LimitedTask(Runnable task) {
+      this.task = task;
+    }
+
+    @Override
+    public void run() {
+      try {
+        task.run();
+      } finally {
+        runningTasks.decrementAndGet();
+        startWaitingTasks();
+        maybeCompleteShutdown();
+      }
+    }
+  }
+
+  private class Lane implements Runnable {
+
+    private final Object key;
+    private final int maxRunning;
+    // only accessed while computing the lane's entry in the lanes map
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    // the number of times the lane is in the shared work queue, each of which takes one task
+    private int scheduled;
+    // the number of the lane's tasks that are running
+    private int active;
+
+    Lane(Object key, int maxRunning) {
+      this.key = key;
+      this.maxRunning = maxRunning;
+    }
+
+    private boolean canSchedule() {
+      return scheduled < tasks.size() && scheduled + active < maxRunning;
+    }
+
+    @Override
+    public void run() {
+      Runnable[] task = new Runnable[1];
+      lanes.computeIfPresent(key, (k, lane) -> {
+        lane.scheduled--;
+        lane.active++;
+        task[0] = lane.tasks.poll();
+        return lane;
+      });
+      laneBacklog.decrementAndGet();
+      try {
+        task[0].run();
+      } finally {
+        boolean[] reschedule = new boolean[1];
+        lanes.compute(key, (k, lane) -> {
+          lane.active--;
+          if (lane.canSchedule()) {
+            lane.scheduled++;
+            reschedule[0] = true;
+          }
+          return lane.tasks.isEmpty() && lane.scheduled == 0 && lane.active == 0 ? null : lane;
+        });
+        if (reschedule[0] && !isShutdown()) {
+          execute(this);
+        }
+      }
+    }
+  }
 }
@@ -41,6 +41,9 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.TopicPartition;
@@ -48,6 +51,11 @@ import org.apache.kafka.connect.sink.SinkRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Tracks the batches of rows written to intermediate tables for upsert/delete. Waits use explicit
+ * locks rather than object monitors, so that merge flushes running on virtual threads do not pin
+ * their carrier threads while they wait.
+ */
 public class MergeBatches {
   private static final Logger logger = LoggerFactory.getLogger(MergeBatches.class);
   private static final long STREAMING_BUFFER_AVAILABILITY_WAIT_MS = 10_000L;
@@ -58,6 +66,7 @@ public class MergeBatches {
   private final BiMap<TableId, TableId> intermediateToDestinationTables;
   private final ConcurrentMap<TableId, AtomicInteger> batchNumbers;
   private final ConcurrentMap<TableId, ConcurrentMap<Integer, Batch>> batches;
+  private final ConcurrentMap<TableId, TableLocks> tableLocks;
   private final Map<TopicPartition, Long> offsets;
 
   public MergeBatches(String intermediateTableSuffix) {
@@ -66,7 +75,8 @@ public class MergeBatches {
     this.intermediateToDestinationTables = Maps.synchronizedBiMap(HashBiMap.create());
     this.batchNumbers = new ConcurrentHashMap<>();
     this.batches = new ConcurrentHashMap<>();
-    this.offsets = new HashMap<>();
+    this.tableLocks = new ConcurrentHashMap<>();
+    this.offsets = new ConcurrentHashMap<>();
   }
 
   @VisibleForTesting
@@ -87,12 +97,10 @@ public class MergeBatches {
    * {@link org.apache.kafka.connect.sink.SinkTask#preCommit(Map)}; never null
    */
   public Map<TopicPartition, OffsetAndMetadata> latestOffsets() {
-    synchronized (offsets) {
-      return offsets.entrySet().stream().collect(Collectors.toMap(
-          Map.Entry::getKey,
-          entry -> new OffsetAndMetadata(entry.getValue())
-      ));
-    }
+    return offsets.entrySet().stream().collect(Collectors.toMap(
+        Map.Entry::getKey,
+        entry -> new OffsetAndMetadata(entry.getValue())
+    ));
   }
 
   /**
@@ -131,6 +139,7 @@ public class MergeBatches {
 
     batchNumbers.put(result, new AtomicInteger());
     batches.put(result, new ConcurrentHashMap<>());
+    tableLocks.put(result, new TableLocks());
 
     return result;
   }
@@ -150,14 +159,16 @@ public class MergeBatches {
    */
   public long addToBatch(SinkRecord record, TableId intermediateTable, Map<String, Object> convertedRecord) {
     AtomicInteger batchCount = batchNumbers.get(intermediateTable);
-    // Synchronize here to ensure that the batch number isn't bumped in the middle of this method.
+    Lock batchNumberLock = tableLocks.get(intermediateTable).batchNumber;
+    // Lock here to ensure that the batch number isn't bumped in the middle of this method.
     // On its own, that wouldn't be such a bad thing, but since a merge flush is supposed to
     // immediately follow that bump, it might cause some trouble if we want to add this row to the
     // batch but a merge flush on that batch has already started. This way, either the batch number
     // is bumped before we add the row to the batch (in which case, the row is added to the fresh
     // batch), or the row is added to the batch before preparation for the flush takes place and it
     // is safely counted and tracked there.
-    synchronized (batchCount) {
+    batchNumberLock.lock();
+    try {
       int batchNumber = batchCount.get();
       convertedRecord.put(MergeQueries.INTERMEDIATE_TABLE_BATCH_NUMBER_FIELD, batchNumber);
 
@@ -168,6 +179,8 @@ public class MergeBatches {
       logger.trace("Added record to batch {} for {}; {} rows are currently pending",
           batchNumber, intTable(intermediateTable), pendingBatchSize);
       return batch.total();
+    } finally {
+      batchNumberLock.unlock();
     }
   }
 
@@ -186,12 +199,15 @@ public class MergeBatches {
 
     rowsByBatch.forEach((batchNumber, batchSize) -> {
       Batch batch = batch(intermediateTable, batchNumber);
-      synchronized (batch) {
+      batch.lock.lock();
+      try {
         long remainder = batch.recordWrites(batchSize);
-        batch.notifyAll();
+        batch.rowsWritten.signalAll();
         logger.trace("Notified merge flush executor of successful write of {} rows "
                 + "for batch {} for {}; {} rows remaining",
             batchSize, batchNumber, intTable(intermediateTable), remainder);
+      } finally {
+        batch.lock.unlock();
       }
     });
   }
@@ -205,8 +221,12 @@ public class MergeBatches {
   public boolean isCurrentBatchEmpty(TableId intermediateTable) {
     Batch currentBatch;
     AtomicInteger batchCount = batchNumbers.get(intermediateTable);
-    synchronized (batchCount) {
+    Lock batchNumberLock = tableLocks.get(intermediateTable).batchNumber;
+    batchNumberLock.lock();
+    try {
       currentBatch = batch(intermediateTable, batchCount.get());
+    } finally {
+      batchNumberLock.unlock();
     }
     return currentBatch == null || currentBatch.total.get() == 0L;
   }
@@ -219,9 +239,13 @@ public class MergeBatches {
    */
   public int incrementBatch(TableId intermediateTable) {
     AtomicInteger batchCount = batchNumbers.get(intermediateTable);
-    // See addToBatch for an explanation of the synchronization here
-    synchronized (batchCount) {
+    Lock batchNumberLock = tableLocks.get(intermediateTable).batchNumber;
+    // See addToBatch for an explanation of the locking here
+    batchNumberLock.lock();
+    try {
       return batchCount.getAndIncrement();
+    } finally {
+      batchNumberLock.unlock();
     }
   }
 
@@ -237,12 +261,14 @@ public class MergeBatches {
     final ConcurrentMap<Integer, Batch> allBatchesForTable = batches.get(intermediateTable);
     if (batchNumber != 0) {
       final int priorBatchNumber = batchNumber - 1;
-      synchronized (allBatchesForTable) {
+      final TableLocks locks = tableLocks.get(intermediateTable);
+      locks.flush.lock();
+      try {
         logger.debug("Ensuring batch {} is completed for {} before flushing batch {}",
             priorBatchNumber, intTable(intermediateTable), batchNumber);
         while (allBatchesForTable.containsKey(priorBatchNumber)) {
           try {
-            allBatchesForTable.wait();
+            locks.batchFlushed.await();
           } catch (InterruptedException e) {
             logger.warn("Interrupted while waiting for batch {} to complete for {}",
                 batchNumber, intTable(intermediateTable));
@@ -252,6 +278,8 @@ public class MergeBatches {
             ));
           }
         }
+      } finally {
+        locks.flush.unlock();
       }
     } else {
       logger.debug("Flushing first batch for {}", intTable(intermediateTable));
@@ -263,14 +291,15 @@ public class MergeBatches {
       return false;
     }
 
-    synchronized (currentBatch) {
+    currentBatch.lock.lock();
+    try {
       logger.debug("{} rows currently remaining for batch {} for {}",
           currentBatch.pending(), batchNumber, intTable(intermediateTable));
       while (currentBatch.pending() != 0) {
         logger.trace("Waiting for all rows for batch {} from {} to be written before flushing; {} remaining",
             batchNumber, intTable(intermediateTable), currentBatch.pending());
         try {
-          currentBatch.wait();
+          currentBatch.rowsWritten.await();
         } catch (InterruptedException e) {
           logger.warn("Interrupted while waiting for all rows for batch {} from {} to be written",
               batchNumber, intTable(intermediateTable));
@@ -280,6 +309,8 @@ public class MergeBatches {
           ));
         }
       }
+    } finally {
+      currentBatch.lock.unlock();
     }
 
     try {
@@ -313,20 +344,33 @@ public class MergeBatches {
     final ConcurrentMap<Integer, Batch> allBatchesForTable = batches.get(intermediateTable);
     Batch batch = allBatchesForTable.remove(batchNumber);
 
-    synchronized (allBatchesForTable) {
-      allBatchesForTable.notifyAll();
+    TableLocks locks = tableLocks.get(intermediateTable);
+    locks.flush.lock();
+    try {
+      locks.batchFlushed.signalAll();
+    } finally {
+      locks.flush.unlock();
     }
 
-    synchronized (offsets) {
-      offsets.putAll(batch.offsets());
-    }
+    offsets.putAll(batch.offsets());
   }
 
   private Batch batch(TableId intermediateTable, int batchNumber) {
     return batches.get(intermediateTable).get(batchNumber);
   }
 
+  private static class TableLocks {
+    // Held while reading or bumping the table's batch number; see addToBatch
+    private final Lock batchNumber = new ReentrantLock();
+    private final Lock flush = new ReentrantLock();
+    // Signalled whenever a batch for the table has been merge flushed
+    private final Condition batchFlushed = flush.newCondition();
+  }
+
   private static class Batch {
+    private final Lock lock = new ReentrantLock();
+    // Signalled whenever rows for the batch have been written
+    private final Condition rowsWritten = lock.newCondition();
     private final AtomicLong pending;
     private final AtomicLong total;
     private final Map<TopicPartition, Long> offsets;
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.batch;
+
+import com.google.cloud.bigquery.TableId;
+import com.wepay.kafka.connect.bigquery.utils.SinkRecordOrigin;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+/**
+ * Tracks which records have been written to BigQuery, so that offsets can be committed without
+ * waiting for every queued write to finish.
+ *
+ * <p>Each batch that is being built or written holds back the offset of its first record in every
+ * topic partition it covers. The offset that can be committed for a partition is then the lowest
+ * offset held back by a batch, or the offset given by the framework if no batch holds back the
+ * partition.
+ */
+public class OffsetTracker {
+
+  // the number of unfinished batches starting at each offset, for each topic partition
+  private final Map<TopicPartition, TreeMap<Long, Integer>> pending = new HashMap<>();
+
+  /**
+   * @param builder the builder for a batch of records
+   * @return a builder that holds back the offsets of the records added to it until the writer it
+   * builds has finished writing them successfully, including any appends it left in flight
+   */
+  public TableWriterBuilder track(TableWriterBuilder builder) {
+    return new TrackedBuilder(builder);
+  }
+
+  /**
+   * @param consumedOffsets the offsets of the records that have been given to the task, as passed
+   *                        to {@code preCommit()}
+   * @return the offsets that can be committed, for which every earlier record has been written
+   */
+  public synchronized Map<TopicPartition, OffsetAndMetadata> committableOffsets(
+      Map<TopicPartition, OffsetAndMetadata> consumedOffsets
+  ) {
+    Map<TopicPartition, OffsetAndMetadata> result = new HashMap<>();
+    consumedOffsets.forEach((topicPartition, consumed) -> {
+      TreeMap<Long, Integer> starts = pending.get(topicPartition);
+      if (starts == null) {
+        result.put(topicPartition, consumed);
+      } else {
+        result.put(topicPartition, new OffsetAndMetadata(Math.min(starts.firstKey(), consumed.offset())));
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Stop tracking partitions which are no longer assigned to the task.
+   *
+   * @param topicPartitions the partitions to stop tracking
+   */
+  public synchronized void forget(Collection<TopicPartition> topicPartitions) {
+    topicPartitions.forEach(pending::remove);
+  }
+
+  private synchronized void hold(TopicPartition topicPartition, long offset) {
+    pending.computeIfAbsent(topicPartition, tp -> new TreeMap<>()).merge(offset, 1, Integer::sum);
+  }
+
+  private synchronized void release(Map<TopicPartition, Long> startOffsets) {
+    startOffsets.forEach((topicPartition, offset) -> {
+      TreeMap<Long, Integer> starts = pending.get(topicPartition);
+      if (starts == null) {
+        return;
+      }
+      starts.computeIfPresent(offset, (o, count) -> count > 1 ? count - 1 : null);
+      if (starts.isEmpty()) {
+        pending.remove(topicPartition);
+      }
+    });
+  }
+
+  private class TrackedBuilder implements TableWriterBuilder {
+
+    private final TableWriterBuilder delegate;
+    private final Map<TopicPartition, Long> startOffsets = new HashMap<>();
+
+    TrackedBuilder(TableWriterBuilder delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void addRow(SinkRecord sinkRecord, TableId table) {
+      delegate.addRow(sinkRecord, table);
+      // Offsets are committed for the partitions records were consumed from, which transformations
+      // may have renamed
+      TopicPartition topicPartition = SinkRecordOrigin.topicPartition(sinkRecord);
+      if (!startOffsets.containsKey(topicPartition)) {
+        long offset = SinkRecordOrigin.offset(sinkRecord);
+        startOffsets.put(topicPartition, offset);
+        hold(topicPartition, offset);
+      }
+    }
+
+    @Override
+    public long estimatedBytes() {
+      return delegate.estimatedBytes();
+    }
+
+    @Override
+    public Runnable build() {
+      return PendingWrite.whenComplete(delegate.build(), error -> {
+        if (error == null) {
+          release(startOffsets);
+        }
+      });
+    }
+  }
+}
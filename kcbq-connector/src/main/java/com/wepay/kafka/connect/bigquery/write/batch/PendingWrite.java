@@ -0,0 +1,96 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.batch;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * A writer which may hand its rows off without waiting for them to be written, such as one which
+ * pipelines appends to the Storage Write API. Its rows have only been written once its
+ * {@link #completion()} has completed, rather than when {@link #run()} returns.
+ */
+public interface PendingWrite extends Runnable {
+
+  /**
+   * @return a future that completes once the rows handed off by {@link #run()} have been written,
+   * or exceptionally if they could not be; only valid once {@code run()} has returned normally
+   */
+  CompletableFuture<Void> completion();
+
+  /**
+   * @param writer a writer that has run
+   * @return a future that completes once all of the writer's rows have been written
+   */
+  static CompletableFuture<Void> completionOf(Runnable writer) {
+    if (writer instanceof PendingWrite) {
+      return ((PendingWrite) writer).completion();
+    }
+    return CompletableFuture.completedFuture(null);
+  }
+
+  /**
+   * Wrap a writer so that an action is invoked once all of its rows have been written, or once
+   * writing them has failed, whether {@code run()} threw or its rows were handed off and failed
+   * later.
+   *
+   * @param writer the writer to wrap
+   * @param action invoked with null if the rows were written, or with the error otherwise
+   * @return a writer that runs the given one, and completes once the action has been invoked
+   */
+  static PendingWrite whenComplete(Runnable writer, Consumer<Throwable> action) {
+    CompletableFuture<Void> completion = new CompletableFuture<>();
+    return new PendingWrite() {
+      @Override
+      public void run() {
+        try {
+          writer.run();
+        } catch (RuntimeException | Error e) {
+          try {
+            action.accept(e);
+          } finally {
+            completion.completeExceptionally(e);
+          }
+          throw e;
+        }
+        completionOf(writer).whenComplete((ignored, error) -> {
+          try {
+            action.accept(error);
+          } finally {
+            if (error == null) {
+              completion.complete(null);
+            } else {
+              completion.completeExceptionally(error);
+            }
+          }
+        });
+      }
+
+      @Override
+      public CompletableFuture<Void> completion() {
+        return completion;
+      }
+    };
+  }
+}
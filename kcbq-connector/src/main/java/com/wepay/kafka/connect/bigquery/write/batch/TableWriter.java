@@ -26,11 +26,15 @@ package com.wepay.kafka.connect.bigquery.write.batch;
 import com.google.cloud.bigquery.BigQueryException;
 import com.google.cloud.bigquery.InsertAllRequest.RowToInsert;
 import com.google.cloud.bigquery.TableId;
+import com.wepay.kafka.connect.bigquery.WriteMetrics;
 import com.wepay.kafka.connect.bigquery.exception.BigQueryConnectException;
 import com.wepay.kafka.connect.bigquery.exception.BigQueryErrorResponses;
 import com.wepay.kafka.connect.bigquery.exception.ExpectedInterruptException;
 import com.wepay.kafka.connect.bigquery.utils.PartitionedTableId;
+import com.wepay.kafka.connect.bigquery.utils.RowSizeEstimator;
 import com.wepay.kafka.connect.bigquery.utils.SinkRecordConverter;
+import com.wepay.kafka.connect.bigquery.write.AdaptiveBatchSizer;
+import com.wepay.kafka.connect.bigquery.write.RecordBatches;
 import com.wepay.kafka.connect.bigquery.write.row.BigQueryWriter;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -46,7 +50,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Simple Table Writer that attempts to write all the rows it is given at once.
+ * Simple Table Writer that attempts to write all the rows it is given at once, or, if given an
+ * {@link AdaptiveBatchSizer}, in batches no larger than the last ones known to succeed for the
+ * table.
  */
 public class TableWriter implements Runnable {
 
@@ -56,6 +62,9 @@ public class TableWriter implements Runnable {
   private final PartitionedTableId table;
   private final SortedMap<SinkRecord, RowToInsert> rows;
   private final Consumer<Collection<RowToInsert>> onFinish;
+  private final AdaptiveBatchSizer<TableId> batchSizer;
+  private final WriteMetrics writeMetrics;
+  private final long estimatedBytes;
 
   /**
    * @param writer   the {@link BigQueryWriter} to use.
@@ -68,13 +77,71 @@ public class TableWriter implements Runnable {
                      PartitionedTableId table,
                      SortedMap<SinkRecord, RowToInsert> rows,
                      Consumer<Collection<RowToInsert>> onFinish) {
+    this(writer, table, rows, onFinish, null);
+  }
+
+  /**
+   * @param writer     the {@link BigQueryWriter} to use.
+   * @param table      the BigQuery table to write to.
+   * @param rows       the rows to write.
+   * @param onFinish   a callback to invoke after all rows have been written successfully, which is
+   *                   called with all the rows written by the writer
+   * @param batchSizer the sizer to learn batch limits for the table with; may be null
+   */
+  public TableWriter(BigQueryWriter writer,
+                     PartitionedTableId table,
+                     SortedMap<SinkRecord, RowToInsert> rows,
+                     Consumer<Collection<RowToInsert>> onFinish,
+                     AdaptiveBatchSizer<TableId> batchSizer) {
+    this(writer, table, rows, onFinish, batchSizer, null);
+  }
+
+  /**
+   * @param writer       the {@link BigQueryWriter} to use.
+   * @param table        the BigQuery table to write to.
+   * @param rows         the rows to write.
+   * @param onFinish     a callback to invoke after all rows have been written successfully, which is
+   *                     called with all the rows written by the writer
+   * @param batchSizer   the sizer to learn batch limits for the table with; may be null
+   * @param writeMetrics the metrics to record reductions of the batch size in; may be null
+   */
+  public TableWriter(BigQueryWriter writer,
+                     PartitionedTableId table,
+                     SortedMap<SinkRecord, RowToInsert> rows,
+                     Consumer<Collection<RowToInsert>> onFinish,
+                     AdaptiveBatchSizer<TableId> batchSizer,
+                     WriteMetrics writeMetrics) {
+    this(writer, table, rows, onFinish, batchSizer, writeMetrics, -1);
+  }
+
+  /**
+   * @param writer         the {@link BigQueryWriter} to use.
+   * @param table          the BigQuery table to write to.
+   * @param rows           the rows to write.
+   * @param onFinish       a callback to invoke after all rows have been written successfully, which
+   *                       is called with all the rows written by the writer
+   * @param batchSizer     the sizer to learn batch limits for the table with; may be null
+   * @param writeMetrics   the metrics to record reductions of the batch size in; may be null
+   * @param estimatedBytes the estimated size of all the rows, or a negative number if they have not
+   *                       been estimated
+   */
+  public TableWriter(BigQueryWriter writer,
+                     PartitionedTableId table,
+                     SortedMap<SinkRecord, RowToInsert> rows,
+                     Consumer<Collection<RowToInsert>> onFinish,
+                     AdaptiveBatchSizer<TableId> batchSizer,
+                     WriteMetrics writeMetrics,
+                     long estimatedBytes) {
     this.writer = writer;
     this.table = table;
     this.rows = rows;
     this.onFinish = onFinish;
+    this.batchSizer = batchSizer;
+    this.writeMetrics = writeMetrics;
+    this.estimatedBytes = estimatedBytes;
   }
 
-  private static int getNewBatchSize(int currentBatchSize, Throwable err) {
+  private static void checkBatchSizeCanBeReduced(int currentBatchSize, Throwable err) {
     if (currentBatchSize == 1) {
       logger.error("Attempted to reduce batch size below 1");
       throw new BigQueryConnectException(
@@ -95,8 +162,14 @@ public class TableWriter implements Runnable {
           err
       );
     }
-    // round batch size up so we don't end up with a dangling 1 row at the end.
-    return (int) Math.ceil(currentBatchSize / 2.0);
+  }
+
+  private static long estimatedSize(Map.Entry<SinkRecord, RowToInsert> row) {
+    return RowSizeEstimator.estimate(row.getValue().getContent());
+  }
+
+  private static long batchBytes(RecordBatches<?> batches, long knownBytes) {
+    return knownBytes >= 0 ? knownBytes : batches.currentBatchBytes();
   }
 
   /**
@@ -118,23 +191,32 @@ public class TableWriter implements Runnable {
 
   @Override
   public void run() {
-    int currentIndex = 0;
-    int currentBatchSize = rows.size();
     int successCount = 0;
     int failureCount = 0;
 
+    TableId baseTable = table.getBaseTableId();
     List<Map.Entry<SinkRecord, RowToInsert>> rowsList = new ArrayList<>(rows.entrySet());
+    RecordBatches<Map.Entry<SinkRecord, RowToInsert>> batches = new RecordBatches<>(
+        rowsList,
+        batchSizer != null ? batchSizer.limit(baseTable) : AdaptiveBatchSizer.Limit.UNLIMITED,
+        TableWriter::estimatedSize
+    );
     try {
-      while (currentIndex < rows.size()) {
-        List<Map.Entry<SinkRecord, RowToInsert>> currentBatchList =
-            rowsList.subList(currentIndex, Math.min(currentIndex + currentBatchSize, rows.size()));
+      while (!batches.completed()) {
+        List<Map.Entry<SinkRecord, RowToInsert>> currentBatchList = batches.currentBatch();
+        // Rows are only estimated again if the batch has been split
+        long currentBatchBytes = currentBatchList.size() == rowsList.size() ? estimatedBytes : -1;
         try {
           SortedMap<SinkRecord, RowToInsert> currentBatch = new TreeMap<>(rows.comparator());
           for (Map.Entry<SinkRecord, RowToInsert> record : currentBatchList) {
             currentBatch.put(record.getKey(), record.getValue());
           }
-          writer.writeRows(table, currentBatch);
-          currentIndex += currentBatchSize;
+          writer.writeRows(table, currentBatch, currentBatchBytes);
+          if (batchSizer != null) {
+            batchSizer.onSuccess(baseTable, currentBatchList.size(),
+                batchSizer.limit(baseTable).hasByteLimit() ? batchBytes(batches, currentBatchBytes) : -1);
+          }
+          batches.advanceToNextBatch();
           successCount++;
         } catch (BigQueryException err) {
           logger.warn(
@@ -143,7 +225,14 @@ public class TableWriter implements Runnable {
               currentBatchList.size(), err.getCode(), err.getError(), err);
           if (isBatchSizeError(err)) {
             failureCount++;
-            currentBatchSize = getNewBatchSize(currentBatchSize, err);
+            checkBatchSizeCanBeReduced(currentBatchList.size(), err);
+            if (batchSizer != null) {
+              batchSizer.onTooLarge(baseTable, currentBatchList.size(), batchBytes(batches, currentBatchBytes));
+            }
+            batches.reduceBatchSize();
+            if (writeMetrics != null) {
+              writeMetrics.table(baseTable, WriteMetrics.WritePath.INSERT_ALL).batchSizeReduced();
+            }
           } else {
             // Throw exception on write errors such as 403.
             throw new BigQueryConnectException("Failed to write to table", err);
@@ -172,8 +261,12 @@ public class TableWriter implements Runnable {
     private final PartitionedTableId table;
 
     private SortedMap<SinkRecord, RowToInsert> rows;
+    private boolean estimateBytes;
+    private long estimatedBytes;
     private SinkRecordConverter recordConverter;
     private Consumer<Collection<RowToInsert>> onFinish;
+    private AdaptiveBatchSizer<TableId> batchSizer;
+    private WriteMetrics writeMetrics;
 
     /**
      * @param writer          the BigQueryWriter to use
@@ -193,7 +286,33 @@ public class TableWriter implements Runnable {
 
     @Override
     public void addRow(SinkRecord record, TableId table) {
-      rows.put(record, recordConverter.getRecordRow(record, table));
+      RowToInsert row = recordConverter.getRecordRow(record, table);
+      RowToInsert replaced = rows.put(record, row);
+      if (estimateBytes) {
+        estimatedBytes += RowSizeEstimator.estimate(row.getContent());
+        if (replaced != null) {
+          estimatedBytes -= RowSizeEstimator.estimate(replaced.getContent());
+        }
+      }
+    }
+
+    /**
+     * Estimate the size of the rows as they are added, so that {@link #estimatedBytes()} can be
+     * used to limit the size of the batch or of the rows in flight.
+     *
+     * @return this builder
+     */
+    public Builder estimateBytes() {
+      this.estimateBytes = true;
+      return this;
+    }
+
+    /**
+     * @return the estimated size of the rows, or -1 if {@link #estimateBytes()} was not called
+     */
+    @Override
+    public long estimatedBytes() {
+      return estimateBytes ? estimatedBytes : -1;
     }
 
     /**
@@ -210,10 +329,33 @@ public class TableWriter implements Runnable {
       this.onFinish = Objects.requireNonNull(onFinish, "Finish callback cannot be null");
     }
 
+    /**
+     * Specify a sizer to limit the size of the batches written to the table, and to record the
+     * outcome of those writes in.
+     *
+     * @param batchSizer the sizer to use; may not be null
+     * @return this builder
+     */
+    public Builder batchSizer(AdaptiveBatchSizer<TableId> batchSizer) {
+      this.batchSizer = Objects.requireNonNull(batchSizer, "Batch sizer cannot be null");
+      return this;
+    }
+
+    /**
+     * Specify the metrics to record reductions of the batch size in.
+     *
+     * @param writeMetrics the metrics to use; may not be null
+     * @return this builder
+     */
+    public Builder writeMetrics(WriteMetrics writeMetrics) {
+      this.writeMetrics = Objects.requireNonNull(writeMetrics, "Write metrics cannot be null");
+      return this;
+    }
+
     @Override
     public TableWriter build() {
       return new TableWriter(writer, table, rows, onFinish != null ? onFinish : n -> {
-      });
+      }, batchSizer, writeMetrics, estimatedBytes());
     }
   }
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.batch;
+
+import com.wepay.kafka.connect.bigquery.utils.Time;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Accumulates the records for each table across calls to {@code put()}, so that tables which only
+ * receive a few records per call are still written in reasonably large batches.
+ *
+ * <p>A table's batch is ready to be written once it holds the maximum number of rows or bytes, or
+ * once it has lingered for the configured time since its first record was added. With a linger
+ * time of 0, every batch is ready as soon as it is drained, so that each {@code put()} writes the
+ * records it was given.
+ *
+ * <p>Instances are not thread safe, and should only be used by the task thread.
+ *
+ * @param <K> the type identifying tables
+ */
+public class TableWriterBuffer<K> {
+
+  private final long lingerMs;
+  private final int maxBatchRows;
+  private final long maxBatchBytes;
+  private final Time time;
+  private final Map<K, Batch> batches;
+
+  /**
+   * @param lingerMs      how long to wait for more records for a table before writing them
+   * @param maxBatchRows  the number of rows at which a batch is written, or -1 for no maximum
+   * @param maxBatchBytes the estimated size, in bytes, at which a batch is written, or -1 for no
+   *                      maximum; batches are sized by their builders' estimates
+   * @param time          used to track how long batches have lingered
+   */
+  public TableWriterBuffer(long lingerMs, int maxBatchRows, long maxBatchBytes, Time time) {
+    this.lingerMs = lingerMs;
+    this.maxBatchRows = maxBatchRows;
+    this.maxBatchBytes = maxBatchBytes;
+    this.time = time;
+    this.batches = new LinkedHashMap<>();
+  }
+
+  /**
+   * @param table      the table to write to
+   * @param newBuilder creates a builder for the table, if it has no batch yet
+   * @return the builder to add the table's records to
+   */
+  public TableWriterBuilder builder(K table, Supplier<TableWriterBuilder> newBuilder) {
+    return batches.computeIfAbsent(table, t -> new Batch(newBuilder.get(), time.milliseconds())).builder;
+  }
+
+  /**
+   * Record that a record has been added to the builder for a table.
+   *
+   * @param table the table the record was added for
+   * @return the table's builder, if its batch is now full and should be written immediately; it
+   * is then removed from the buffer
+   */
+  public Optional<TableWriterBuilder> recordAdded(K table) {
+    Batch batch = batches.get(table);
+    batch.rows++;
+    if ((maxBatchRows != -1 && batch.rows >= maxBatchRows)
+        || (maxBatchBytes != -1 && batch.builder.estimatedBytes() >= maxBatchBytes)) {
+      batches.remove(table);
+      return Optional.of(batch.builder);
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * @return the builders of all batches that have lingered long enough, by table, which are removed
+   * from the buffer
+   */
+  public Map<K, TableWriterBuilder> drainExpired() {
+    long now = time.milliseconds();
+    Map<K, TableWriterBuilder> result = new LinkedHashMap<>();
+    Iterator<Map.Entry<K, Batch>> iterator = batches.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<K, Batch> entry = iterator.next();
+      if (now - entry.getValue().createdMs >= lingerMs) {
+        result.put(entry.getKey(), entry.getValue().builder);
+        iterator.remove();
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return the builders of all batches, by table, which are removed from the buffer
+   */
+  public Map<K, TableWriterBuilder> drainAll() {
+    Map<K, TableWriterBuilder> result = new LinkedHashMap<>();
+    batches.forEach((table, batch) -> result.put(table, batch.builder));
+    batches.clear();
+    return result;
+  }
+
+  private static class Batch {
+    private final TableWriterBuilder builder;
+    private final long createdMs;
+    private int rows;
+
+    Batch(TableWriterBuilder builder, long createdMs) {
+      this.builder = builder;
+      this.createdMs = createdMs;
+    }
+  }
+}
@@ -39,6 +39,15 @@ public interface TableWriterBuilder {
    */
   void addRow(SinkRecord sinkRecord, TableId table);
 
+  /**
+   * Estimate the size of the rows added to the builder, as held in memory until they are written.
+   * Builders only estimate rows when asked to, as nothing reads the estimate unless the size of
+   * batches or of the rows in flight is limited.
+   *
+   * @return the estimated size of the rows, in bytes, or -1 if the builder does not estimate them.
+   */
+  long estimatedBytes();
+
   /**
    * Create a {@link TableWriter} from this builder.
    *
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.batch;
+
+import com.google.cloud.bigquery.TableId;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+/**
+ * Keeps track of the estimated size of the rows that have been read from Kafka and not yet
+ * written, whether they are still buffered by the task, waiting for a write thread, or handed off
+ * to BigQuery by a writer, against a budget beyond which the task should stop reading from Kafka.
+ */
+public class WriteMemoryAccountant {
+
+  private final long budgetBytes;
+  private final AtomicLong usedBytes = new AtomicLong();
+
+  /**
+   * @param budgetBytes the estimated size of in-flight rows beyond which reading should pause
+   */
+  public WriteMemoryAccountant(long budgetBytes) {
+    this.budgetBytes = budgetBytes;
+  }
+
+  /**
+   * @param builder the builder for a batch of records
+   * @return a builder that accounts for the rows added to it as soon as they are added, and
+   * releases them once the writer it builds has finished writing them, successfully or not
+   */
+  public TableWriterBuilder track(TableWriterBuilder builder) {
+    return new AccountedBuilder(builder);
+  }
+
+  /**
+   * @return the estimated size, in bytes, of the rows currently in flight
+   */
+  public long usedBytes() {
+    return usedBytes.get();
+  }
+
+  public long budgetBytes() {
+    return budgetBytes;
+  }
+
+  /**
+   * @return whether reading should be paused
+   */
+  public boolean isOverBudget() {
+    return usedBytes.get() > budgetBytes;
+  }
+
+  /**
+   * @return whether enough memory has been released for reading to be resumed without having to
+   * pause again immediately
+   */
+  public boolean canResume() {
+    return usedBytes.get() <= budgetBytes / 2;
+  }
+
+  private class AccountedBuilder implements TableWriterBuilder {
+
+    private final TableWriterBuilder delegate;
+    private long bytes;
+
+    AccountedBuilder(TableWriterBuilder delegate) {
+      this.delegate = delegate;
+      this.bytes = 0;
+    }
+
+    @Override
+    public void addRow(SinkRecord sinkRecord, TableId table) {
+      try {
+        delegate.addRow(sinkRecord, table);
+      } finally {
+        long added = delegate.estimatedBytes() - bytes;
+        bytes += added;
+        usedBytes.addAndGet(added);
+      }
+    }
+
+    @Override
+    public long estimatedBytes() {
+      return bytes;
+    }
+
+    @Override
+    public Runnable build() {
+      long builtBytes = bytes;
+      return PendingWrite.whenComplete(delegate.build(), error -> usedBytes.addAndGet(-builtBytes));
+    }
+  }
+}
@@ -41,6 +41,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
+import org.apache.kafka.connect.errors.ConnectException;
 import org.apache.kafka.connect.sink.SinkRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -85,7 +86,9 @@ public class AdaptiveBigQueryWriter extends BigQueryWriter {
   /**
    * Sends the request to BigQuery, then checks the response to see if any errors have occurred. If
    * any have, and all errors can be blamed upon invalid columns in the rows sent, attempts to
-   * update the schema of the table in BigQuery and then performs the same write request.
+   * update the schema of the table in BigQuery and then performs the same write request. Rows that
+   * are already known not to fit the table's schema cause it to be updated before the request is
+   * sent.
    *
    * @see BigQueryWriter#performWriteRequest(PartitionedTableId, SortedMap)
    */
@@ -96,6 +99,7 @@ public class AdaptiveBigQueryWriter extends BigQueryWriter {
     InsertAllResponse writeResponse = null;
     InsertAllRequest request = null;
 
+    maybeUpdateSchemaBeforeWrite(tableId, new ArrayList<>(rows.keySet()));
     try {
       request = createInsertAllRequest(tableId, rows.values());
       writeResponse = bigQuery.insertAll(request);
@@ -155,6 +159,23 @@ public class AdaptiveBigQueryWriter extends BigQueryWriter {
     return new HashMap<>();
   }
 
+  /**
+   * Update the schema of the table ahead of a write if its records are known not to fit it, so that
+   * the write does not have to fail first. Failures are left for the write and its retries to deal
+   * with.
+   */
+  private void maybeUpdateSchemaBeforeWrite(PartitionedTableId tableId, List<SinkRecord> records) {
+    try {
+      if (schemaManager.needsSchemaUpdate(tableId.getBaseTableId(), records)) {
+        logger.debug("Updating schema of {} before writing to it", tableId.getBaseTableId());
+        attemptSchemaUpdate(tableId, records);
+      }
+    } catch (ConnectException | BigQueryException e) {
+      logger.warn("Failed to update schema of {} before writing to it; will attempt the write anyway",
+          tableId.getBaseTableId(), e);
+    }
+  }
+
   protected void attemptSchemaUpdate(PartitionedTableId tableId, List<SinkRecord> records) {
     try {
       schemaManager.updateSchema(tableId.getBaseTableId(), records);
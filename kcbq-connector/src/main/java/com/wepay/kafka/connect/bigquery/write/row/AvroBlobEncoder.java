@@ -0,0 +1,397 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.row;
+
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.FieldList;
+import com.google.cloud.bigquery.InsertAllRequest.RowToInsert;
+import com.google.cloud.bigquery.StandardSQLTypeName;
+import com.wepay.kafka.connect.bigquery.utils.BigQueryTemporalValues;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.apache.avro.LogicalTypes;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+
+/**
+ * Writes BigQuery rows (as produced by the record converter) to Avro container files that can be
+ * loaded into a table with {@code useAvroLogicalTypes} enabled. An encoder is compiled once from
+ * the schema of the destination table, and can then be reused for every batch written to it.
+ *
+ * <p>Only values whose encoding is unambiguous are handled here; anything else (for example, fields
+ * which are not part of the table schema, or integral timestamps) causes an
+ * {@link UnsupportedValueException}, in which case the batch should be written as JSON instead.
+ */
+public class AvroBlobEncoder {
+
+  private static final int NUMERIC_PRECISION = 38;
+  private static final int NUMERIC_SCALE = 9;
+  private static final int BIGNUMERIC_PRECISION = 76;
+  private static final int BIGNUMERIC_SCALE = 38;
+
+  private final Schema avroSchema;
+  private final RecordEncoder encoder;
+
+  /**
+   * @param tableSchema The schema of the table that rows are written to
+   * @throws IllegalArgumentException if the table has columns that cannot be written as Avro
+   */
+  public AvroBlobEncoder(com.google.cloud.bigquery.Schema tableSchema) {
+    this.encoder = new RecordEncoder("kcbq_row", tableSchema.getFields());
+    this.avroSchema = encoder.schema;
+  }
+
+  public Schema avroSchema() {
+    return avroSchema;
+  }
+
+  /**
+   * Writes the given rows to an Avro container file.
+   *
+   * @param rows  The rows to write
+   * @param out   The stream to write the file to; closed once all rows have been written
+   * @param codec The compression codec to use for the file's data blocks
+   * @throws UnsupportedValueException if any of the rows cannot be written as Avro, in which case
+   *     the contents of the stream should be discarded
+   */
+  public void write(Collection<RowToInsert> rows, OutputStream out, CodecFactory codec)
+      throws IOException, UnsupportedValueException {
+    DataFileWriter<GenericRecord> writer = new DataFileWriter<>(new GenericDatumWriter<GenericRecord>(avroSchema));
+    writer.setCodec(codec);
+    writer.create(avroSchema, out);
+    for (RowToInsert row : rows) {
+      writer.append(encoder.encode(row.getContent()));
+    }
+    writer.close();
+  }
+
+  /**
+   * @param compression The name of a compression codec, as used in the connector's configuration
+   * @return the corresponding Avro codec
+   */
+  public static CodecFactory codec(String compression) {
+    switch (compression.toLowerCase(Locale.ROOT)) {
+      case "deflate":
+        return CodecFactory.deflateCodec(CodecFactory.DEFAULT_DEFLATE_LEVEL);
+      case "snappy":
+        return CodecFactory.snappyCodec();
+      default:
+        return CodecFactory.nullCodec();
+    }
+  }
+
+  private interface ValueEncoder {
+    Object encode(Object value) throws UnsupportedValueException;
+  }
+
+  private static final class RecordEncoder implements ValueEncoder {
+
+    private final Schema schema;
+    private final Map<String, Integer> positions;
+    private final Map<String, Integer> lowerCasePositions;
+    private final ValueEncoder[] fields;
+    private final String[] names;
+    private final boolean[] required;
+
+    private RecordEncoder(String recordName, FieldList columns) {
+      SchemaBuilder.FieldAssembler<Schema> assembler = SchemaBuilder.record(recordName).fields();
+      this.positions = new HashMap<>();
+      this.lowerCasePositions = new HashMap<>();
+      this.fields = new ValueEncoder[columns.size()];
+      this.names = new String[columns.size()];
+      this.required = new boolean[columns.size()];
+      for (int i = 0; i < columns.size(); i++) {
+        Field column = columns.get(i);
+        Field.Mode mode = column.getMode() != null ? column.getMode() : Field.Mode.NULLABLE;
+        Schema valueSchema;
+        ValueEncoder valueEncoder;
+        if (column.getType().getStandardType() == StandardSQLTypeName.STRUCT) {
+          RecordEncoder nested = new RecordEncoder(recordName + "_" + column.getName(), column.getSubFields());
+          valueSchema = nested.schema;
+          valueEncoder = nested;
+        } else {
+          valueSchema = primitiveSchema(column);
+          valueEncoder = primitiveEncoder(column);
+        }
+
+        switch (mode) {
+          case REPEATED:
+            assembler.name(column.getName()).type(Schema.createArray(valueSchema)).withDefault(Collections.emptyList());
+            fields[i] = new ArrayEncoder(column.getName(), valueEncoder);
+            break;
+          case REQUIRED:
+            assembler.name(column.getName()).type(valueSchema).noDefault();
+            fields[i] = valueEncoder;
+            required[i] = true;
+            break;
+          default:
+            assembler.name(column.getName())
+                .type(Schema.createUnion(Schema.create(Schema.Type.NULL), valueSchema))
+                .withDefault(null);
+            fields[i] = valueEncoder;
+            break;
+        }
+        names[i] = column.getName();
+        positions.put(column.getName(), i);
+        lowerCasePositions.put(column.getName().toLowerCase(Locale.ROOT), i);
+      }
+      this.schema = assembler.endRecord();
+    }
+
+    @Override
+    public GenericRecord encode(Object value) throws UnsupportedValueException {
+      if (!(value instanceof Map)) {
+        throw new UnsupportedValueException("Cannot write value of " + value.getClass() + " as a record");
+      }
+      GenericData.Record record = new GenericData.Record(schema);
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        String name = String.valueOf(entry.getKey());
+        Integer position = positions.get(name);
+        if (position == null) {
+          position = lowerCasePositions.get(name.toLowerCase(Locale.ROOT));
+        }
+        if (position == null) {
+          throw new UnsupportedValueException("Field " + name + " is not present in the table schema");
+        }
+        if (entry.getValue() != null) {
+          record.put(position, fields[position].encode(entry.getValue()));
+        }
+      }
+      for (int i = 0; i < fields.length; i++) {
+        if (record.get(i) == null) {
+          if (required[i]) {
+            throw new UnsupportedValueException("Row is missing required field " + names[i]);
+          } else if (fields[i] instanceof ArrayEncoder) {
+            record.put(i, Collections.emptyList());
+          }
+        }
+      }
+      return record;
+    }
+  }
+
+  private static final class ArrayEncoder implements ValueEncoder {
+
+    private final String name;
+    private final ValueEncoder elements;
+
+    private ArrayEncoder(String name, ValueEncoder elements) {
+      this.name = name;
+      this.elements = elements;
+    }
+
+    @Override
+    public Object encode(Object value) throws UnsupportedValueException {
+      if (!(value instanceof List)) {
+        throw new UnsupportedValueException("Cannot write value of " + value.getClass() + " to repeated field " + name);
+      }
+      List<?> list = (List<?>) value;
+      List<Object> result = new ArrayList<>(list.size());
+      for (Object element : list) {
+        if (element == null) {
+          throw new UnsupportedValueException("Repeated field " + name + " contains a null element");
+        }
+        result.add(elements.encode(element));
+      }
+      return result;
+    }
+  }
+
+  private static Schema primitiveSchema(Field column) {
+    switch (column.getType().getStandardType()) {
+      case STRING:
+      case JSON:
+      case GEOGRAPHY:
+        return Schema.create(Schema.Type.STRING);
+      case INT64:
+        return Schema.create(Schema.Type.LONG);
+      case FLOAT64:
+        return Schema.create(Schema.Type.DOUBLE);
+      case BOOL:
+        return Schema.create(Schema.Type.BOOLEAN);
+      case BYTES:
+        return Schema.create(Schema.Type.BYTES);
+      case NUMERIC:
+        return LogicalTypes.decimal(NUMERIC_PRECISION, NUMERIC_SCALE).addToSchema(Schema.create(Schema.Type.BYTES));
+      case BIGNUMERIC:
+        return LogicalTypes.decimal(BIGNUMERIC_PRECISION, BIGNUMERIC_SCALE).addToSchema(Schema.create(Schema.Type.BYTES));
+      case TIMESTAMP:
+        return LogicalTypes.timestampMicros().addToSchema(Schema.create(Schema.Type.LONG));
+      case DATE:
+        return LogicalTypes.date().addToSchema(Schema.create(Schema.Type.INT));
+      case TIME:
+        return LogicalTypes.timeMicros().addToSchema(Schema.create(Schema.Type.LONG));
+      default:
+        throw new IllegalArgumentException(
+            "Column " + column.getName() + " of type " + column.getType() + " cannot be written as Avro");
+    }
+  }
+
+  private static ValueEncoder primitiveEncoder(Field column) {
+    String name = column.getName();
+    StandardSQLTypeName type = column.getType().getStandardType();
+    switch (type) {
+      case STRING:
+      case JSON:
+      case GEOGRAPHY:
+        return value -> {
+          if (value instanceof String) {
+            return value;
+          }
+          throw unsupported(name, type, value);
+        };
+      case INT64:
+        return value -> {
+          if (isIntegral(value)) {
+            return ((Number) value).longValue();
+          }
+          throw unsupported(name, type, value);
+        };
+      case FLOAT64:
+        return value -> {
+          if (value instanceof Number && !(value instanceof BigDecimal)) {
+            return ((Number) value).doubleValue();
+          }
+          throw unsupported(name, type, value);
+        };
+      case BOOL:
+        return value -> {
+          if (value instanceof Boolean) {
+            return value;
+          }
+          throw unsupported(name, type, value);
+        };
+      case BYTES:
+        return value -> {
+          if (value instanceof byte[]) {
+            return ByteBuffer.wrap((byte[]) value);
+          } else if (value instanceof ByteBuffer) {
+            return value;
+          } else if (value instanceof String) {
+            // Bytes are converted to base64 strings for the insertAll API
+            try {
+              return ByteBuffer.wrap(Base64.getDecoder().decode((String) value));
+            } catch (IllegalArgumentException e) {
+              throw unsupported(name, type, value);
+            }
+          }
+          throw unsupported(name, type, value);
+        };
+      case NUMERIC:
+        return value -> encodeDecimal(name, type, value, NUMERIC_SCALE);
+      case BIGNUMERIC:
+        return value -> encodeDecimal(name, type, value, BIGNUMERIC_SCALE);
+      case TIMESTAMP:
+        return value -> {
+          if (value instanceof String) {
+            try {
+              return BigQueryTemporalValues.timestampMicros((String) value);
+            } catch (DateTimeParseException | ArithmeticException e) {
+              throw unsupported(name, type, value);
+            }
+          }
+          // Integral timestamps are interpreted differently by the various BigQuery APIs
+          throw unsupported(name, type, value);
+        };
+      case DATE:
+        return value -> {
+          if (value instanceof String) {
+            try {
+              return BigQueryTemporalValues.epochDay((String) value);
+            } catch (DateTimeParseException | ArithmeticException e) {
+              throw unsupported(name, type, value);
+            }
+          }
+          throw unsupported(name, type, value);
+        };
+      case TIME:
+        return value -> {
+          if (value instanceof String) {
+            try {
+              return BigQueryTemporalValues.timeMicros((String) value);
+            } catch (DateTimeParseException e) {
+              throw unsupported(name, type, value);
+            }
+          }
+          throw unsupported(name, type, value);
+        };
+      default:
+        throw new IllegalArgumentException(
+            "Column " + name + " of type " + column.getType() + " cannot be written as Avro");
+    }
+  }
+
+  private static ByteBuffer encodeDecimal(String name, StandardSQLTypeName type, Object value, int scale)
+      throws UnsupportedValueException {
+    BigDecimal decimal;
+    if (value instanceof BigDecimal) {
+      decimal = (BigDecimal) value;
+    } else if (isIntegral(value)) {
+      decimal = BigDecimal.valueOf(((Number) value).longValue());
+    } else {
+      throw unsupported(name, type, value);
+    }
+    try {
+      return ByteBuffer.wrap(decimal.setScale(scale).unscaledValue().toByteArray());
+    } catch (ArithmeticException e) {
+      // Too precise for the column; let the regular JSON path report the error for the row
+      throw unsupported(name, type, value);
+    }
+  }
+
+  private static boolean isIntegral(Object value) {
+    return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+  }
+
+  private static UnsupportedValueException unsupported(String name, StandardSQLTypeName type, Object value) {
+    return new UnsupportedValueException(
+        "Cannot write value of " + value.getClass() + " for " + type + " field " + name + " as Avro");
+  }
+
+  /**
+   * Thrown when a row cannot be written as Avro.
+   */
+  public static class UnsupportedValueException extends Exception {
+
+    public UnsupportedValueException(String message) {
+      super(message);
+    }
+  }
+}
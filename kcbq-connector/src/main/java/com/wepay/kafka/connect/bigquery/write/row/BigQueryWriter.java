@@ -27,9 +27,12 @@ import com.google.cloud.bigquery.BigQueryError;
 import com.google.cloud.bigquery.BigQueryException;
 import com.google.cloud.bigquery.InsertAllRequest;
 import com.wepay.kafka.connect.bigquery.ErrantRecordHandler;
+import com.wepay.kafka.connect.bigquery.WriteMetrics;
+import com.wepay.kafka.connect.bigquery.WriteMetrics.TableWriteMetrics;
 import com.wepay.kafka.connect.bigquery.exception.BigQueryConnectException;
 import com.wepay.kafka.connect.bigquery.exception.BigQueryErrorResponses;
 import com.wepay.kafka.connect.bigquery.utils.PartitionedTableId;
+import com.wepay.kafka.connect.bigquery.utils.RowSizeEstimator;
 import com.wepay.kafka.connect.bigquery.utils.Time;
 import java.util.Collection;
 import java.util.List;
@@ -56,6 +59,7 @@ public abstract class BigQueryWriter {
   private final long retryWaitMs;
   private final Random random;
   private final ErrantRecordHandler errantRecordHandler;
+  private WriteMetrics writeMetrics;
 
   /**
    * @param retries             the number of times to retry a request if BQ returns an internal service error
@@ -74,6 +78,13 @@ public abstract class BigQueryWriter {
     this.time = time;
   }
 
+  /**
+   * @param writeMetrics the metrics to record the requests made by this writer in; may be null
+   */
+  public void setWriteMetrics(WriteMetrics writeMetrics) {
+    this.writeMetrics = writeMetrics;
+  }
+
   /**
    * Handle the actual transmission of the write request to BigQuery, including any exceptions or
    * errors that happen as a result.
@@ -110,26 +121,67 @@ public abstract class BigQueryWriter {
   public void writeRows(PartitionedTableId table,
                         SortedMap<SinkRecord, InsertAllRequest.RowToInsert> rows)
       throws BigQueryConnectException, BigQueryException, InterruptedException {
+    writeRows(table, rows, -1);
+  }
+
+  /**
+   * @param table          The BigQuery table to write the rows to.
+   * @param rows           The rows to write.
+   * @param estimatedBytes The estimated size of the rows, or a negative number if they have not
+   *                       been estimated; only used to record the size of the rows written
+   * @throws InterruptedException if interrupted.
+   */
+  public void writeRows(PartitionedTableId table,
+                        SortedMap<SinkRecord, InsertAllRequest.RowToInsert> rows,
+                        long estimatedBytes)
+      throws BigQueryConnectException, BigQueryException, InterruptedException {
     logger.debug("writing {} row{} to table {}", rows.size(), rows.size() != 1 ? "s" : "", table);
 
     Exception mostRecentException = null;
     Map<Long, List<BigQueryError>> failedRowsMap = null;
+    TableWriteMetrics tableMetrics = writeMetrics != null
+        ? writeMetrics.table(table.getBaseTableId(), WriteMetrics.WritePath.INSERT_ALL)
+        : null;
 
     int retryCount = 0;
     do {
       if (retryCount > 0) {
         waitRandomTime();
+        if (tableMetrics != null) {
+          tableMetrics.retry();
+        }
       }
       try {
-        failedRowsMap = performWriteRequest(table, rows);
+        long requestStartMs = time.milliseconds();
+        try {
+          failedRowsMap = performWriteRequest(table, rows);
+        } finally {
+          if (tableMetrics != null) {
+            tableMetrics.request(time.milliseconds() - requestStartMs);
+          }
+        }
         if (failedRowsMap.isEmpty()) {
           // table insertion completed with no reported errors
+          if (tableMetrics != null) {
+            tableMetrics.rowsWritten(rows.size(), estimatedBytes >= 0 ? estimatedBytes : estimatedSize(rows));
+          }
           return;
         } else if (isPartialFailure(rows, failedRowsMap)) {
           logger.info("{} rows succeeded, {} rows failed",
               rows.size() - failedRowsMap.size(), failedRowsMap.size());
           // update insert rows and retry in case of partial failure
-          rows = getFailedRows(rows, failedRowsMap.keySet(), table);
+          SortedMap<SinkRecord, InsertAllRequest.RowToInsert> failedRows =
+              getFailedRows(rows, failedRowsMap.keySet(), table);
+          if (tableMetrics != null) {
+            if (estimatedBytes < 0) {
+              estimatedBytes = estimatedSize(rows);
+            }
+            // Attribute the size of the rows to the ones written in proportion, instead of estimating both
+            long writtenBytes = estimatedBytes * (rows.size() - failedRows.size()) / rows.size();
+            tableMetrics.rowsWritten(rows.size() - failedRows.size(), writtenBytes);
+            estimatedBytes -= writtenBytes;
+          }
+          rows = failedRows;
           mostRecentException = new BigQueryConnectException(table.toString(), failedRowsMap);
           retryCount++;
         } else {
@@ -141,6 +193,7 @@ public abstract class BigQueryWriter {
             }
             if (hasStoppedErrorRecords(failedRowsMap)) {
               rows = getFailedRows(rows, failedRowsMap.keySet(), table);
+              estimatedBytes = -1;
               mostRecentException = new BigQueryConnectException(table.toString(), failedRowsMap);
               retryCount++;
             } else {
@@ -215,6 +268,14 @@ public abstract class BigQueryWriter {
     return failRows;
   }
 
+  private static long estimatedSize(SortedMap<SinkRecord, InsertAllRequest.RowToInsert> rows) {
+    long size = 0;
+    for (InsertAllRequest.RowToInsert row : rows.values()) {
+      size += RowSizeEstimator.estimate(row.getContent());
+    }
+    return size;
+  }
+
   /**
    * Wait at least {@link #retryWaitMs}, with up to an additional 1 second of random jitter.
    *
@@ -259,6 +320,9 @@ public abstract class BigQueryWriter {
           recordsToDlq,
           new BigQueryConnectException(table.toString(), recordsToDlqFailureMap)
       );
+      if (writeMetrics != null) {
+        writeMetrics.table(table.getBaseTableId(), WriteMetrics.WritePath.INSERT_ALL).sentToDlq(recordsToDlq.size());
+      }
     }
 
     return updatedFailedRowMap;
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.row;
+
+import com.google.cloud.bigquery.FormatOptions;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The file formats in which rows can be written to GCS blobs for batch loading. The format of each
+ * blob is recorded in its metadata so that the load job for the blob can be configured to match.
+ */
+public enum GcsBlobFormat {
+  JSON("text/json") {
+    @Override
+    public FormatOptions formatOptions() {
+      return FormatOptions.json();
+    }
+  },
+  AVRO("avro/binary") {
+    @Override
+    public FormatOptions formatOptions() {
+      return FormatOptions.avro();
+    }
+  };
+
+  public static final String GCS_METADATA_FORMAT_KEY = "blobFormat";
+
+  private final String contentType;
+
+  GcsBlobFormat(String contentType) {
+    this.contentType = contentType;
+  }
+
+  /**
+   * @return the content type to use for blobs of this format
+   */
+  public String contentType() {
+    return contentType;
+  }
+
+  /**
+   * @return the format options to use when loading blobs of this format into BigQuery
+   */
+  public abstract FormatOptions formatOptions();
+
+  /**
+   * @param name The name of a format, as used in the connector's configuration; case-insensitive
+   * @return the format with the given name
+   */
+  public static GcsBlobFormat forName(String name) {
+    return valueOf(name.toUpperCase(Locale.ROOT));
+  }
+
+  /**
+   * @param metadata The metadata of a blob written by the connector
+   * @return the format of the blob, or null if the blob's metadata names an unknown format. Blobs
+   *     without a recorded format predate support for other formats and are always JSON.
+   */
+  public static GcsBlobFormat fromMetadata(Map<String, String> metadata) {
+    String format = metadata != null ? metadata.get(GCS_METADATA_FORMAT_KEY) : null;
+    if (format == null) {
+      return JSON;
+    }
+    try {
+      return forName(format);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+}
@@ -23,28 +23,48 @@
 
 package com.wepay.kafka.connect.bigquery.write.row;
 
+import com.google.cloud.WriteChannel;
 import com.google.cloud.bigquery.BigQuery;
 import com.google.cloud.bigquery.BigQueryException;
 import com.google.cloud.bigquery.InsertAllRequest.RowToInsert;
+import com.google.cloud.bigquery.Table;
 import com.google.cloud.bigquery.TableId;
 import com.google.cloud.storage.Blob;
 import com.google.cloud.storage.BlobId;
 import com.google.cloud.storage.BlobInfo;
 import com.google.cloud.storage.Storage;
 import com.google.cloud.storage.StorageException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.CountingOutputStream;
 import com.google.gson.Gson;
+import com.wepay.kafka.connect.bigquery.GcsBlobIndex;
 import com.wepay.kafka.connect.bigquery.SchemaManager;
+import com.wepay.kafka.connect.bigquery.TableMetadataCache;
+import com.wepay.kafka.connect.bigquery.WriteMetrics;
+import com.wepay.kafka.connect.bigquery.WriteMetrics.TableWriteMetrics;
 import com.wepay.kafka.connect.bigquery.exception.BigQueryConnectException;
-import com.wepay.kafka.connect.bigquery.exception.GcsConnectException;
 import com.wepay.kafka.connect.bigquery.utils.Time;
-import java.io.UnsupportedEncodingException;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Random;
 import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPOutputStream;
 import org.apache.kafka.connect.errors.ConnectException;
 import org.apache.kafka.connect.sink.SinkRecord;
 import org.slf4j.Logger;
@@ -55,8 +75,12 @@ import org.slf4j.LoggerFactory;
  */
 public class GcsToBqWriter {
   public static final String GCS_METADATA_TABLE_KEY = "sinkTable";
+  // the newest timestamp of the records in a blob, so that it is known once the blob is loaded
+  public static final String GCS_METADATA_MAX_TIMESTAMP_KEY = "maxRecordTimestamp";
   private static final Logger logger = LoggerFactory.getLogger(GcsToBqWriter.class);
   private static final int WAIT_MAX_JITTER = 1000;
+  private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+  private static final String GZIP_COMPRESSION = "gzip";
   private static final Random random = new Random();
   private static Gson gson = new Gson();
   private final Storage storage;
@@ -66,15 +90,33 @@ public class GcsToBqWriter {
   private int retries;
   private long retryWaitMs;
   private boolean autoCreateTables;
+  private final boolean streamingUpload;
+  private final GcsBlobFormat blobFormat;
+  private final String compression;
+  private final boolean gzipCompression;
+  // Only the encoder for the latest schema of each table is kept, as tables rarely go back to an
+  // earlier schema
+  private final ConcurrentMap<TableId, TableEncoder> avroEncoders;
+  private final TableMetadataCache tableCache;
+  private WriteMetrics writeMetrics;
+  private GcsBlobIndex blobIndex;
 
   /**
    * Initializes a batch GCS writer with a full list of rows to write.
    *
-   * @param storage     GCS Storage
-   * @param bigQuery    {@link BigQuery} Object used to perform upload
-   * @param retries     Maximum number of retries
-   * @param retryWaitMs Minimum number of milliseconds to wait before retrying
-   * @param time        used to wait during backoff periods
+   * @param storage         GCS Storage
+   * @param bigQuery        {@link BigQuery} Object used to perform upload
+   * @param retries         Maximum number of retries
+   * @param retryWaitMs     Minimum number of milliseconds to wait before retrying
+   * @param time            used to wait during backoff periods
+   * @param streamingUpload Whether to stream rows into a resumable upload instead of serializing
+   *                        the whole blob in memory before uploading it
+   * @param blobFormat      The file format to write blobs in
+   * @param compression     The compression to apply to blobs, as named in the connector's
+   *                        configuration; gzip only applies to JSON blobs, and deflate and snappy
+   *                        only to Avro blobs
+   * @param tableCache      The cache to read table metadata from; may be null, in which case it is
+   *                        read from BigQuery for every batch
    */
   public GcsToBqWriter(Storage storage,
                        BigQuery bigQuery,
@@ -82,7 +124,11 @@ public class GcsToBqWriter {
                        int retries,
                        long retryWaitMs,
                        boolean autoCreateTables,
-                       Time time) {
+                       Time time,
+                       boolean streamingUpload,
+                       GcsBlobFormat blobFormat,
+                       String compression,
+                       TableMetadataCache tableCache) {
     this.storage = storage;
     this.bigQuery = bigQuery;
     this.schemaManager = schemaManager;
@@ -91,17 +137,41 @@ public class GcsToBqWriter {
     this.retries = retries;
     this.retryWaitMs = retryWaitMs;
     this.autoCreateTables = autoCreateTables;
+    this.streamingUpload = streamingUpload;
+    this.blobFormat = blobFormat;
+    this.compression = compression;
+    this.gzipCompression = GZIP_COMPRESSION.equalsIgnoreCase(compression);
+    this.avroEncoders = new ConcurrentHashMap<>();
+    this.tableCache = tableCache;
   }
 
-  private static Map<String, String> getMetadata(TableId tableId) {
+  /**
+   * @param writeMetrics the metrics to record the uploads made by this writer in; may be null
+   */
+  public void setWriteMetrics(WriteMetrics writeMetrics) {
+    this.writeMetrics = writeMetrics;
+  }
+
+  /**
+   * @param blobIndex the index to notify of the blobs uploaded by this writer; may be null
+   */
+  public void setBlobIndex(GcsBlobIndex blobIndex) {
+    this.blobIndex = blobIndex;
+  }
+
+  private static Map<String, String> getMetadata(TableId tableId, GcsBlobFormat format, long maxTimestamp) {
     StringBuilder sb = new StringBuilder();
     if (tableId.getProject() != null) {
       sb.append(tableId.getProject()).append(":");
     }
     String serializedTableId =
         sb.append(tableId.getDataset()).append(".").append(tableId.getTable()).toString();
-    Map<String, String> metadata =
-        Collections.singletonMap(GCS_METADATA_TABLE_KEY, serializedTableId);
+    Map<String, String> metadata = new HashMap<>();
+    metadata.put(GCS_METADATA_TABLE_KEY, serializedTableId);
+    metadata.put(GcsBlobFormat.GCS_METADATA_FORMAT_KEY, format.name().toLowerCase(Locale.ROOT));
+    if (maxTimestamp >= 0) {
+      metadata.put(GCS_METADATA_MAX_TIMESTAMP_KEY, Long.toString(maxTimestamp));
+    }
     return metadata;
   }
 
@@ -122,28 +192,44 @@ public class GcsToBqWriter {
     // Get Source URI
     BlobId blobId = BlobId.of(bucketName, blobName);
 
-    Map<String, String> metadata = getMetadata(tableId);
-    BlobInfo blobInfo =
-        BlobInfo.newBuilder(blobId).setContentType("text/json").setMetadata(metadata).build();
-
     // Check if the table specified exists
     // This error shouldn't be thrown. All tables should be created by the connector at startup
-    if (autoCreateTables && bigQuery.getTable(tableId) == null) {
+    boolean writeAvro = blobFormat == GcsBlobFormat.AVRO;
+    Table table = autoCreateTables || writeAvro ? getTable(tableId) : null;
+    if (autoCreateTables && table == null) {
       attemptTableCreate(tableId, new ArrayList<>(rows.keySet()));
+      if (writeAvro) {
+        table = getTable(tableId);
+      }
     }
+    AvroBlobEncoder avroEncoder = writeAvro ? avroEncoder(tableId, table) : null;
+    TableWriteMetrics tableMetrics = writeMetrics != null
+        ? writeMetrics.table(tableId, WriteMetrics.WritePath.GCS_LOAD)
+        : null;
 
     int attemptCount = 0;
     boolean success = false;
     while (!success && (attemptCount <= retries)) {
       if (attemptCount > 0) {
         waitRandomTime();
+        if (tableMetrics != null) {
+          tableMetrics.retry();
+        }
       }
       // Perform GCS Upload
+      long requestStartMs = time.milliseconds();
       try {
-        uploadRowsToGcs(rows, blobInfo);
+        long blobBytes = uploadRowsToGcs(rows, tableId, blobId, avroEncoder);
         success = true;
-      } catch (StorageException se) {
+        if (tableMetrics != null) {
+          tableMetrics.rowsWritten(rows.size(), blobBytes);
+        }
+      } catch (StorageException | IOException e) {
         logger.warn("Exceptions occurred for table {}, attempting retry", tableId.getTable());
+      } finally {
+        if (tableMetrics != null) {
+          tableMetrics.request(time.milliseconds() - requestStartMs);
+        }
       }
       attemptCount++;
     }
@@ -157,21 +243,125 @@ public class GcsToBqWriter {
   }
 
   /**
-   * Creates a JSON string containing all records and uploads it as a blob to GCS.
+   * @return an encoder for the table's current schema, or null if its rows cannot be written as Avro
+   */
+  private AvroBlobEncoder avroEncoder(TableId tableId, Table table) {
+    com.google.cloud.bigquery.Schema tableSchema = table != null && table.getDefinition() != null
+        ? table.getDefinition().getSchema()
+        : null;
+    if (tableSchema == null) {
+      logger.debug("Schema for table {} is unknown; writing rows as JSON", tableId);
+      return null;
+    }
+    return avroEncoders.compute(tableId, (id, current) -> {
+      if (current != null && current.schema.equals(tableSchema)) {
+        return current;
+      }
+      try {
+        return new TableEncoder(tableSchema, new AvroBlobEncoder(tableSchema));
+      } catch (RuntimeException e) {
+        logger.warn("Rows for table {} cannot be written as Avro and will be written as JSON instead: {}",
+            tableId, e.getMessage());
+        return new TableEncoder(tableSchema, null);
+      }
+    }).encoder;
+  }
+
+  /**
+   * Serializes all records in the configured format and uploads them as a blob to GCS. Batches that
+   * cannot be written as Avro are written as newline delimited JSON instead.
    *
-   * @return The blob uploaded to GCS
+   * @return the size of the uploaded blob, in bytes
    */
-  private Blob uploadRowsToGcs(SortedMap<SinkRecord, RowToInsert> rows, BlobInfo blobInfo) {
-    try {
-      Blob resultBlob = uploadBlobToGcs(toJson(rows.values()).getBytes("UTF-8"), blobInfo);
-      return resultBlob;
-    } catch (UnsupportedEncodingException uee) {
-      throw new GcsConnectException("Failed to upload blob to GCS", uee);
+  private long uploadRowsToGcs(SortedMap<SinkRecord, RowToInsert> rows,
+                               TableId tableId,
+                               BlobId blobId,
+                               AvroBlobEncoder avroEncoder) throws IOException {
+    long maxTimestamp = rows.keySet().stream()
+        .map(SinkRecord::timestamp)
+        .filter(Objects::nonNull)
+        .mapToLong(Long::longValue)
+        .max()
+        .orElse(-1);
+    if (avroEncoder != null) {
+      try {
+        return upload(
+            blobInfo(blobId, tableId, GcsBlobFormat.AVRO, maxTimestamp),
+            out -> avroEncoder.write(rows.values(), out, AvroBlobEncoder.codec(compression))
+        );
+      } catch (AvroBlobEncoder.UnsupportedValueException e) {
+        logger.debug("Writing rows for table {} as JSON: {}", tableId, e.getMessage());
+      }
     }
+    return upload(blobInfo(blobId, tableId, GcsBlobFormat.JSON, maxTimestamp), out -> {
+      Writer writer = jsonWriter(out);
+      writeJson(rows.values(), writer);
+      writer.close();
+    });
   }
 
-  private Blob uploadBlobToGcs(byte[] blobContent, BlobInfo blobInfo) {
-    return storage.create(blobInfo, blobContent); // todo options: like a retention policy maybe?
+  private BlobInfo blobInfo(BlobId blobId, TableId tableId, GcsBlobFormat format, long maxTimestamp) {
+    BlobInfo.Builder blobInfoBuilder = BlobInfo.newBuilder(blobId)
+        .setContentType(format.contentType())
+        .setMetadata(getMetadata(tableId, format, maxTimestamp));
+    if (format == GcsBlobFormat.JSON && gzipCompression) {
+      blobInfoBuilder.setContentEncoding("gzip");
+    }
+    return blobInfoBuilder.build();
+  }
+
+  /**
+   * Uploads a blob whose content is produced by the given writer. The writer must close the stream
+   * it is given once, and only once, the complete content has been written; if the content cannot be
+   * written in full, the stream is abandoned without closing it, so that a streaming upload is never
+   * finalized with a truncated blob. Once uploaded, the blob is handed to the writer's
+   * {@link GcsBlobIndex}, if any, so that it can be loaded without waiting for the next listing of
+   * the bucket.
+   *
+   * @return the size of the uploaded blob, in bytes
+   */
+  private <E extends Exception> long upload(BlobInfo blobInfo, BlobContent<E> content) throws IOException, E {
+    if (streamingUpload) {
+      WriteChannel channel = storage.writer(blobInfo);
+      CountingOutputStream blobContent = new CountingOutputStream(Channels.newOutputStream(channel));
+      content.writeTo(blobContent);
+      if (blobIndex != null) {
+        blobIndex.blobUploaded(blobInfo, blobContent.getCount());
+      }
+      return blobContent.getCount();
+    } else {
+      ByteArrayOutputStream blobContent = new ByteArrayOutputStream();
+      content.writeTo(blobContent);
+      Blob blob = storage.create(blobInfo, blobContent.toByteArray()); // todo options: like a retention policy maybe?
+      if (blobIndex != null) {
+        blobIndex.blobUploaded(blob != null ? blob : blobInfo, blobContent.size());
+      }
+      return blobContent.size();
+    }
+  }
+
+  private interface BlobContent<E extends Exception> {
+    void writeTo(OutputStream out) throws IOException, E;
+  }
+
+  private Writer jsonWriter(OutputStream out) throws IOException {
+    OutputStream blobStream = gzipCompression ? new GZIPOutputStream(out, WRITE_BUFFER_SIZE) : out;
+    return new BufferedWriter(new OutputStreamWriter(blobStream, StandardCharsets.UTF_8), WRITE_BUFFER_SIZE);
+  }
+
+  /**
+   * Serializes rows as newline delimited JSON to the given writer, one row at a time.
+   *
+   * @param rows   rows to be serialized
+   * @param writer the writer to serialize the rows to
+   */
+  @VisibleForTesting
+  static void writeJson(Collection<RowToInsert> rows, Writer writer) throws IOException {
+    for (RowToInsert row : rows) {
+      Map<String, Object> record = row.getContent();
+      gson.toJson(record, writer);
+      writer.write('\n');
+    }
   }
 
   /**
@@ -181,14 +371,16 @@ public class GcsToBqWriter {
    * @return The resulting newline delimited JSON string containing all records in the original
    * list
    */
-  private String toJson(Collection<RowToInsert> rows) {
-    StringBuilder jsonRecordsBuilder = new StringBuilder("");
-    for (RowToInsert row : rows) {
-      Map<String, Object> record = row.getContent();
-      jsonRecordsBuilder.append(gson.toJson(record));
-      jsonRecordsBuilder.append("\n");
+  @VisibleForTesting
+  static String toJson(Collection<RowToInsert> rows) {
+    StringWriter jsonRecords = new StringWriter();
+    try {
+      writeJson(rows, jsonRecords);
+    } catch (IOException e) {
+      // Never thrown by a StringWriter
+      throw new IllegalStateException(e);
     }
-    return jsonRecordsBuilder.toString();
+    return jsonRecords.toString();
   }
 
   /**
@@ -200,6 +392,10 @@ public class GcsToBqWriter {
     time.sleep(retryWaitMs + random.nextInt(WAIT_MAX_JITTER));
   }
 
+  private Table getTable(TableId tableId) {
+    return tableCache != null ? tableCache.get(tableId) : bigQuery.getTable(tableId);
+  }
+
   private void attemptTableCreate(TableId tableId, List<SinkRecord> records) {
     try {
       logger.info("Table {} does not exist, auto-creating table ", tableId);
@@ -209,4 +405,18 @@ public class GcsToBqWriter {
           "Failed to create table " + tableId, exception);
     }
   }
+
+  /**
+   * The Avro encoder for the latest schema of a table; the encoder is null if rows of that schema
+   * cannot be written as Avro.
+   */
+  private static final class TableEncoder {
+    private final com.google.cloud.bigquery.Schema schema;
+    private final AvroBlobEncoder encoder;
+
+    private TableEncoder(com.google.cloud.bigquery.Schema schema, AvroBlobEncoder encoder) {
+      this.schema = schema;
+      this.encoder = encoder;
+    }
+  }
 }
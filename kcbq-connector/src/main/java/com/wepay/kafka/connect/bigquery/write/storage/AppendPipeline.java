@@ -0,0 +1,171 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.storage;
+
+import com.wepay.kafka.connect.bigquery.exception.BigQueryStorageWriteApiConnectException;
+import com.wepay.kafka.connect.bigquery.utils.MdcContextThreadFactory;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Bookkeeping for pipelined appends to the Storage Write API. Bounds the number of outstanding
+ * AppendRows requests per table, tracks appends which have not completed yet so that they can be
+ * awaited before offsets are committed, and records the first unrecoverable error encountered
+ * while completing an append.
+ *
+ * <p>A permit is held from the time an append is issued until it has been fully handled, including
+ * any synchronous retries of a failed append, so that retries count against the same budget.
+ */
+class AppendPipeline {
+
+  private static final String COMPLETION_THREAD_NAME_PREFIX = "kcbq-append-completion-";
+  private static final long COMPLETION_THREAD_KEEP_ALIVE_SEC = 60;
+
+  private final int maxInFlightAppends;
+  private final ConcurrentMap<String, Semaphore> permits;
+  private final Set<CompletableFuture<Void>> pendingAppends;
+  private final AtomicReference<Throwable> encounteredError;
+  private final ExecutorService completionExecutor;
+
+  /**
+   * @param maxInFlightAppends The maximum number of outstanding append requests per table
+   */
+  AppendPipeline(int maxInFlightAppends) {
+    this(maxInFlightAppends, newCompletionExecutor(
+        Math.max(maxInFlightAppends, Runtime.getRuntime().availableProcessors())));
+  }
+
+  AppendPipeline(int maxInFlightAppends, ExecutorService completionExecutor) {
+    this.maxInFlightAppends = maxInFlightAppends;
+    this.permits = new ConcurrentHashMap<>();
+    this.pendingAppends = ConcurrentHashMap.newKeySet();
+    this.encounteredError = new AtomicReference<>();
+    this.completionExecutor = completionExecutor;
+  }
+
+  /**
+   * Blocks until an append request to the given table may be issued.
+   */
+  void acquire(String table) throws InterruptedException {
+    permits(table).acquire();
+  }
+
+  void release(String table) {
+    permits(table).release();
+  }
+
+  /**
+   * @param threads the maximum number of appends to handle the responses of at once
+   * @return a bounded executor with named threads that inherit the MDC context of the caller
+   */
+  static ExecutorService newCompletionExecutor(int threads) {
+    AtomicInteger threadCount = new AtomicInteger();
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(
+        threads,
+        threads,
+        COMPLETION_THREAD_KEEP_ALIVE_SEC,
+        TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(),
+        new MdcContextThreadFactory(runnable -> {
+          Thread thread = new Thread(runnable, COMPLETION_THREAD_NAME_PREFIX + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        })
+    );
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * The executor on which append responses are handled. Completion work (retries, stream commits)
+   * can block, so it must not run on the client library's callback threads.
+   */
+  Executor completionExecutor() {
+    return completionExecutor;
+  }
+
+  /**
+   * @return A future which the caller must complete once its append has been fully handled
+   */
+  CompletableFuture<Void> track() {
+    CompletableFuture<Void> completion = new CompletableFuture<>();
+    pendingAppends.add(completion);
+    completion.whenComplete((result, error) -> pendingAppends.remove(completion));
+    return completion;
+  }
+
+  void onError(Throwable error) {
+    encounteredError.compareAndSet(null, error);
+  }
+
+  void maybeThrowEncounteredError() {
+    Throwable error = encounteredError.get();
+    if (error != null) {
+      throw new BigQueryStorageWriteApiConnectException(
+          "A pipelined append to the Storage Write API failed", error);
+    }
+  }
+
+  /**
+   * Waits for every append tracked so far to be handled, and rethrows the first error encountered.
+   */
+  void awaitPendingAppends() throws InterruptedException {
+    for (CompletableFuture<Void> pendingAppend : new ArrayList<>(pendingAppends)) {
+      try {
+        pendingAppend.get();
+      } catch (ExecutionException e) {
+        // Already recorded via onError
+      }
+    }
+    maybeThrowEncounteredError();
+  }
+
+  void shutdown() {
+    completionExecutor.shutdownNow();
+    // Responses that arrive from now on are not handled, so nothing should wait for them
+    if (pendingAppends.isEmpty()) {
+      return;
+    }
+    BigQueryStorageWriteApiConnectException error = new BigQueryStorageWriteApiConnectException(
+        "The Storage Write API writer was shut down with appends in flight");
+    onError(error);
+    new ArrayList<>(pendingAppends).forEach(pendingAppend -> pendingAppend.completeExceptionally(error));
+  }
+
+  private Semaphore permits(String table) {
+    return permits.computeIfAbsent(table, t -> new Semaphore(maxInFlightAppends));
+  }
+}
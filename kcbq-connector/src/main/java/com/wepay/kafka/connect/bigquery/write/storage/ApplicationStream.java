@@ -68,6 +68,10 @@ public class ApplicationStream {
    */
   private final AtomicInteger maxCalls;
   private final AtomicLong totalRowsSent;
+  /**
+   * The newest timestamp of the records assigned to this stream, or -1 if none of them have one.
+   */
+  private final AtomicLong maxRecordTimestamp;
   private StreamState currentState = null;
   private WriteStream stream = null;
   private JsonStreamWriter jsonWriter = null;
@@ -81,6 +85,7 @@ public class ApplicationStream {
     this.maxCalls = new AtomicInteger();
     this.completedCalls = new AtomicInteger();
     this.totalRowsSent = new AtomicLong();
+    this.maxRecordTimestamp = new AtomicLong(-1);
     this.committableStreams = new ArrayList<>();
     generateStream();
     currentState = StreamState.CREATED;
@@ -160,6 +165,20 @@ public class ApplicationStream {
     increaseMaxCalls();
   }
 
+  /**
+   * @param timestamp the newest timestamp of a batch of records assigned to this stream
+   */
+  public void updateMaxRecordTimestamp(long timestamp) {
+    maxRecordTimestamp.accumulateAndGet(timestamp, Math::max);
+  }
+
+  /**
+   * @return the newest timestamp of the records assigned to this stream, or -1 if it is not known
+   */
+  public long getMaxRecordTimestamp() {
+    return maxRecordTimestamp.get();
+  }
+
   public JsonStreamWriter writer() {
     if (this.jsonWriter.isClosed()) {
       logger.warn("JSON Stream Writer is closed. Attempting to recreate stream and writer");
@@ -23,25 +23,83 @@
 
 package com.wepay.kafka.connect.bigquery.write.storage;
 
+import com.wepay.kafka.connect.bigquery.utils.RowSizeEstimator;
+import java.util.List;
+import java.util.Map;
 import org.apache.kafka.connect.sink.SinkRecord;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 public class ConvertedRecord {
 
   private final SinkRecord original;
-  private final JSONObject converted;
+  private final Map<String, Object> row;
+  private JSONObject converted;
+  private long estimatedSize = -1;
 
   public ConvertedRecord(SinkRecord original, JSONObject converted) {
     this.original = original;
+    this.row = null;
     this.converted = converted;
   }
 
+  /**
+   * @param original The record as read from Kafka
+   * @param row      The BigQuery row for the record; only converted to JSON if and when required
+   */
+  public ConvertedRecord(SinkRecord original, Map<String, Object> row) {
+    this.original = original;
+    this.row = row;
+  }
+
   public SinkRecord original() {
     return original;
   }
 
+  /**
+   * @return the BigQuery row for the record, or null if it was only ever provided in JSON form
+   */
+  public Map<String, Object> row() {
+    return row;
+  }
+
   public JSONObject converted() {
+    if (converted == null) {
+      converted = getJsonFromMap(row);
+    }
     return converted;
   }
 
+  /**
+   * @return the estimated size of the row, in bytes
+   */
+  public long estimatedSize() {
+    if (estimatedSize < 0) {
+      estimatedSize = RowSizeEstimator.estimate(row != null ? row : converted);
+    }
+    return estimatedSize;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static JSONObject getJsonFromMap(Map<String, Object> map) {
+    JSONObject jsonObject = new JSONObject();
+    map.forEach((key, value) -> {
+      if (value instanceof Map<?, ?>) {
+        value = getJsonFromMap((Map<String, Object>) value);
+      } else if (value instanceof List<?>) {
+        JSONArray items = new JSONArray();
+        ((List<?>) value).forEach(v -> {
+          if (v instanceof Map<?, ?>) {
+            items.put(getJsonFromMap((Map<String, Object>) v));
+          } else {
+            items.put(v);
+          }
+        });
+        value = items;
+      }
+      jsonObject.put(key, value);
+    });
+    return jsonObject;
+  }
+
 }
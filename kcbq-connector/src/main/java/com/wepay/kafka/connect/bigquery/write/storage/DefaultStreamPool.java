@@ -0,0 +1,164 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.storage;
+
+import com.google.cloud.bigquery.storage.v1.JsonStreamWriter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * A fixed-size pool of default stream writers for a single table. Writers are handed out in
+ * round-robin order so that concurrent appends to the same table are spread over several
+ * connections, and are created lazily. Replacing a writer that has been closed on the server side
+ * only affects its own slot; no lock is held while writers are created or closed, so a stream
+ * reset does not block appends through the other writers of the table, or to any other table.
+ *
+ * <p>Every writer handed out is held for the append it is used for until it is
+ * {@link #release(JsonStreamWriter) released}. When the schema of the table changes, the writers
+ * are {@link #retireAll() retired}: new appends get new writers, and the old ones are closed once
+ * the appends still using them have completed.
+ */
+class DefaultStreamPool {
+
+  private final AtomicReferenceArray<SharedWriter<JsonStreamWriter>> writers;
+  private final Map<JsonStreamWriter, SharedWriter<JsonStreamWriter>> sharedWriters;
+  private final AtomicInteger nextSlot;
+
+  /**
+   * @param size The number of writers to keep for the table; must be at least 1
+   */
+  DefaultStreamPool(int size) {
+    this.writers = new AtomicReferenceArray<>(size);
+    this.sharedWriters = new ConcurrentHashMap<>();
+    this.nextSlot = new AtomicInteger();
+  }
+
+  /**
+   * Returns the writer in the next slot of the pool, creating it first if the slot is empty. The
+   * writer should be {@link #release(JsonStreamWriter) released} once the append it is used for has
+   * completed.
+   *
+   * <p>If two threads race to fill the same slot, the writer created by the losing thread is closed
+   * and the winning thread's writer is returned to both.
+   *
+   * @param factory Used to create a new writer when the selected slot is empty
+   * @return a writer for the table
+   */
+  JsonStreamWriter writer(Supplier<JsonStreamWriter> factory) {
+    int slot = Math.floorMod(nextSlot.getAndIncrement(), writers.length());
+    while (true) {
+      SharedWriter<JsonStreamWriter> current = writers.get(slot);
+      if (current != null) {
+        if (current.acquire()) {
+          return current.writer();
+        }
+        // Retired or closed since it was read; the slot is already being emptied
+        writers.compareAndSet(slot, current, null);
+        continue;
+      }
+      SharedWriter<JsonStreamWriter> created = new SharedWriter<>(factory.get());
+      created.acquire();
+      sharedWriters.put(created.writer(), created);
+      if (writers.compareAndSet(slot, null, created)) {
+        return created.writer();
+      }
+      // Another thread filled the slot first; use whichever writer is now current
+      sharedWriters.remove(created.writer());
+      created.close();
+    }
+  }
+
+  /**
+   * Releases a writer handed out by {@link #writer(Supplier)} once the append it was used for has
+   * completed. Writers that are not part of the pool are ignored.
+   *
+   * @param writer The writer to release
+   */
+  void release(JsonStreamWriter writer) {
+    SharedWriter<JsonStreamWriter> shared = writer != null ? sharedWriters.get(writer) : null;
+    if (shared != null) {
+      shared.release();
+      forgetIfClosed(shared);
+    }
+  }
+
+  /**
+   * Removes the given writer from the pool and closes it, if it is still part of the pool. Writers
+   * that have already been replaced are left alone, so that concurrent failures on the same writer
+   * only lead to a single replacement.
+   *
+   * @param writer The writer to remove
+   * @return whether the writer was part of the pool
+   */
+  boolean invalidate(JsonStreamWriter writer) {
+    if (writer == null) {
+      return false;
+    }
+    for (int slot = 0; slot < writers.length(); slot++) {
+      SharedWriter<JsonStreamWriter> current = writers.get(slot);
+      if (current != null && current.writer() == writer && writers.compareAndSet(slot, current, null)) {
+        sharedWriters.remove(writer);
+        current.close();
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Removes every writer from the pool, closing each of them once the appends still using it have
+   * released it. Later calls to {@link #writer(Supplier)} create new writers.
+   */
+  void retireAll() {
+    for (int slot = 0; slot < writers.length(); slot++) {
+      SharedWriter<JsonStreamWriter> writer = writers.getAndSet(slot, null);
+      if (writer != null) {
+        writer.retire();
+        forgetIfClosed(writer);
+      }
+    }
+  }
+
+  private void forgetIfClosed(SharedWriter<JsonStreamWriter> writer) {
+    if (writer.isClosed()) {
+      sharedWriters.remove(writer.writer(), writer);
+    }
+  }
+
+  /**
+   * Closes and removes every writer in the pool.
+   */
+  void closeAll() {
+    for (int slot = 0; slot < writers.length(); slot++) {
+      SharedWriter<JsonStreamWriter> writer = writers.getAndSet(slot, null);
+      if (writer != null) {
+        sharedWriters.remove(writer.writer());
+        writer.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.storage;
+
+import com.google.cloud.bigquery.storage.v1.BigDecimalByteStringEncoder;
+import com.google.cloud.bigquery.storage.v1.ProtoRows;
+import com.google.cloud.bigquery.storage.v1.TableFieldSchema;
+import com.google.cloud.bigquery.storage.v1.TableSchema;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors;
+import com.wepay.kafka.connect.bigquery.utils.BigQueryTemporalValues;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Encodes BigQuery rows (as produced by the record converter) directly into the protocol buffer
+ * wire format expected by the Storage Write API. An encoder is compiled once from a table's schema
+ * and its proto descriptor, and can then be reused for every row written to that table.
+ *
+ * <p>Only values whose encoding is unambiguous are handled here; anything else (for example, fields
+ * which are not part of the table schema, or TIME and DATETIME values) causes an
+ * {@link UnsupportedRowException}, in which case the row should be written as JSON instead.
+ */
+public class ProtoRowEncoder {
+
+  private final Map<String, FieldEncoder> fields;
+  private final Map<String, FieldEncoder> lowerCaseFields;
+  private final int requiredFields;
+
+  /**
+   * @param tableSchema The schema of the table that rows are written to
+   * @param descriptor  The proto descriptor derived from that schema, which rows are encoded against
+   */
+  public ProtoRowEncoder(TableSchema tableSchema, Descriptors.Descriptor descriptor) {
+    this(tableSchema.getFieldsList(), descriptor);
+  }
+
+  private ProtoRowEncoder(List<TableFieldSchema> columns, Descriptors.Descriptor descriptor) {
+    this.fields = new HashMap<>();
+    this.lowerCaseFields = new HashMap<>();
+    int required = 0;
+    for (int i = 0; i < columns.size(); i++) {
+      TableFieldSchema column = columns.get(i);
+      // Proto fields are numbered in the order of the table's columns
+      Descriptors.FieldDescriptor protoField = descriptor.findFieldByNumber(i + 1);
+      if (protoField == null) {
+        throw new IllegalArgumentException("Descriptor " + descriptor.getFullName()
+            + " has no field for column " + column.getName());
+      }
+      ProtoRowEncoder nested = column.getType() == TableFieldSchema.Type.STRUCT
+          ? new ProtoRowEncoder(column.getFieldsList(), protoField.getMessageType())
+          : null;
+      FieldEncoder field = new FieldEncoder(column, protoField.getNumber(), nested);
+      fields.put(column.getName(), field);
+      lowerCaseFields.put(column.getName().toLowerCase(Locale.ROOT), field);
+      if (field.required) {
+        required++;
+      }
+    }
+    this.requiredFields = required;
+  }
+
+  /**
+   * @param rows The rows to encode; every row must have been created from a BigQuery row map
+   * @return the encoded rows, ready to be appended to a stream using the descriptor this encoder was
+   *     compiled against
+   * @throws UnsupportedRowException if any of the rows cannot be encoded directly
+   */
+  public ProtoRows encode(List<ConvertedRecord> rows) throws UnsupportedRowException {
+    ProtoRows.Builder protoRows = ProtoRows.newBuilder();
+    for (ConvertedRecord row : rows) {
+      if (row.row() == null) {
+        throw new UnsupportedRowException("Row is only available as JSON", false);
+      }
+      protoRows.addSerializedRows(encode(row.row()));
+    }
+    return protoRows.build();
+  }
+
+  /**
+   * @param row The row to encode
+   * @return the serialized proto message for the row
+   * @throws UnsupportedRowException if the row cannot be encoded directly
+   */
+  public ByteString encode(Map<String, Object> row) throws UnsupportedRowException {
+    ByteString.Output buffer = ByteString.newOutput();
+    CodedOutputStream output = CodedOutputStream.newInstance(buffer);
+    try {
+      write(output, row);
+      output.flush();
+    } catch (IOException e) {
+      // Not expected when writing to an in-memory buffer
+      throw new UnsupportedRowException("Failed to encode row: " + e.getMessage(), false);
+    }
+    return buffer.toByteString();
+  }
+
+  private void write(CodedOutputStream output, Map<?, ?> row) throws IOException, UnsupportedRowException {
+    int requiredWritten = 0;
+    for (Map.Entry<?, ?> entry : row.entrySet()) {
+      Object value = entry.getValue();
+      if (value == null) {
+        continue;
+      }
+      String name = String.valueOf(entry.getKey());
+      FieldEncoder field = fields.get(name);
+      if (field == null) {
+        field = lowerCaseFields.get(name.toLowerCase(Locale.ROOT));
+      }
+      if (field == null) {
+        throw new UnsupportedRowException("Field " + name + " is not present in the table schema", true);
+      }
+      field.write(output, value);
+      if (field.required) {
+        requiredWritten++;
+      }
+    }
+    if (requiredWritten < requiredFields) {
+      throw new UnsupportedRowException("Row is missing one or more required fields", false);
+    }
+  }
+
+  private static final class FieldEncoder {
+
+    private final String name;
+    private final int number;
+    private final TableFieldSchema.Type type;
+    private final boolean repeated;
+    private final boolean required;
+    private final ProtoRowEncoder nested;
+
+    private FieldEncoder(TableFieldSchema column, int number, ProtoRowEncoder nested) {
+      this.name = column.getName();
+      this.number = number;
+      this.type = column.getType();
+      this.repeated = column.getMode() == TableFieldSchema.Mode.REPEATED;
+      this.required = column.getMode() == TableFieldSchema.Mode.REQUIRED;
+      this.nested = nested;
+    }
+
+    private void write(CodedOutputStream output, Object value) throws IOException, UnsupportedRowException {
+      if (!repeated) {
+        writeValue(output, value);
+        return;
+      }
+      if (!(value instanceof List)) {
+        throw unsupported(value);
+      }
+      for (Object element : (List<?>) value) {
+        if (element == null) {
+          throw new UnsupportedRowException("Repeated field " + name + " contains a null element", false);
+        }
+        writeValue(output, element);
+      }
+    }
+
+    private void writeValue(CodedOutputStream output, Object value) throws IOException, UnsupportedRowException {
+      switch (type) {
+        case STRING:
+        case JSON:
+        case GEOGRAPHY:
+          if (value instanceof String) {
+            output.writeString(number, (String) value);
+            return;
+          }
+          break;
+        case BOOL:
+          if (value instanceof Boolean) {
+            output.writeBool(number, (Boolean) value);
+            return;
+          }
+          break;
+        case INT64:
+          if (isIntegral(value)) {
+            output.writeInt64(number, ((Number) value).longValue());
+            return;
+          }
+          break;
+        case DOUBLE:
+          if (value instanceof Number && !(value instanceof BigDecimal)) {
+            output.writeDouble(number, ((Number) value).doubleValue());
+            return;
+          }
+          break;
+        case BYTES:
+          if (value instanceof ByteString) {
+            output.writeBytes(number, (ByteString) value);
+            return;
+          } else if (value instanceof byte[]) {
+            output.writeBytes(number, ByteString.copyFrom((byte[]) value));
+            return;
+          }
+          break;
+        case NUMERIC:
+        case BIGNUMERIC:
+          BigDecimal decimal = toBigDecimal(value);
+          if (decimal != null) {
+            output.writeBytes(number, encodeDecimal(decimal));
+            return;
+          }
+          break;
+        case TIMESTAMP:
+          if (isIntegral(value)) {
+            output.writeInt64(number, ((Number) value).longValue());
+            return;
+          } else if (value instanceof String) {
+            output.writeInt64(number, parseTimestampMicros((String) value));
+            return;
+          }
+          break;
+        case DATE:
+          if (value instanceof Integer) {
+            output.writeInt32(number, (Integer) value);
+            return;
+          } else if (value instanceof String) {
+            output.writeInt32(number, parseEpochDay((String) value));
+            return;
+          }
+          break;
+        case STRUCT:
+          if (value instanceof Map) {
+            ByteString.Output buffer = ByteString.newOutput();
+            CodedOutputStream nestedOutput = CodedOutputStream.newInstance(buffer);
+            nested.write(nestedOutput, (Map<?, ?>) value);
+            nestedOutput.flush();
+            output.writeBytes(number, buffer.toByteString());
+            return;
+          }
+          break;
+        default:
+          break;
+      }
+      throw unsupported(value);
+    }
+
+    private UnsupportedRowException unsupported(Object value) {
+      return new UnsupportedRowException(
+          "Cannot encode value of " + value.getClass() + " for " + type + " field " + name, false);
+    }
+
+    private ByteString encodeDecimal(BigDecimal decimal) throws UnsupportedRowException {
+      try {
+        return type == TableFieldSchema.Type.NUMERIC
+            ? BigDecimalByteStringEncoder.encodeToNumericByteString(decimal)
+            : BigDecimalByteStringEncoder.encodeToBigNumericByteString(decimal);
+      } catch (IllegalArgumentException e) {
+        // Out of range or too precise; let the regular JSON path report the error for the row
+        throw new UnsupportedRowException("Cannot encode decimal for field " + name + ": " + e.getMessage(), false);
+      }
+    }
+
+    private long parseTimestampMicros(String value) throws UnsupportedRowException {
+      try {
+        return BigQueryTemporalValues.timestampMicros(value);
+      } catch (DateTimeParseException | ArithmeticException e) {
+        throw new UnsupportedRowException("Cannot parse timestamp for field " + name + ": " + e.getMessage(), false);
+      }
+    }
+
+    private int parseEpochDay(String value) throws UnsupportedRowException {
+      try {
+        return BigQueryTemporalValues.epochDay(value);
+      } catch (DateTimeParseException | ArithmeticException e) {
+        throw new UnsupportedRowException("Cannot parse date for field " + name + ": " + e.getMessage(), false);
+      }
+    }
+
+    private static boolean isIntegral(Object value) {
+      return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+    }
+
+    private static BigDecimal toBigDecimal(Object value) {
+      if (value instanceof BigDecimal) {
+        return (BigDecimal) value;
+      } else if (isIntegral(value)) {
+        return BigDecimal.valueOf(((Number) value).longValue());
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Thrown when a row cannot be encoded directly into a proto message.
+   */
+  public static class UnsupportedRowException extends Exception {
+
+    private final boolean schemaMismatch;
+
+    public UnsupportedRowException(String message, boolean schemaMismatch) {
+      super(message);
+      this.schemaMismatch = schemaMismatch;
+    }
+
+    /**
+     * @return whether the row did not match the schema the encoder was compiled from, which may mean
+     *     that the table's schema has changed since
+     */
+    public boolean isSchemaMismatch() {
+      return schemaMismatch;
+    }
+  }
+}
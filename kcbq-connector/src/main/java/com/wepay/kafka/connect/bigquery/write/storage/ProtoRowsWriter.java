@@ -0,0 +1,89 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.storage;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.bigquery.storage.v1.AppendRowsResponse;
+import com.google.cloud.bigquery.storage.v1.BQTableSchemaToProtoDescriptor;
+import com.google.cloud.bigquery.storage.v1.BigQueryWriteClient;
+import com.google.cloud.bigquery.storage.v1.GetWriteStreamRequest;
+import com.google.cloud.bigquery.storage.v1.ProtoRows;
+import com.google.cloud.bigquery.storage.v1.ProtoSchemaConverter;
+import com.google.cloud.bigquery.storage.v1.TableSchema;
+import com.google.cloud.bigquery.storage.v1.WriteStream;
+import com.google.cloud.bigquery.storage.v1.WriteStreamView;
+import com.google.protobuf.Descriptors;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes pre-encoded proto rows to the default stream of a table. The table schema is read once,
+ * when the writer is created; a new writer should be created if that schema changes.
+ */
+class ProtoRowsWriter implements AutoCloseable {
+
+  private final com.google.cloud.bigquery.storage.v1.StreamWriter streamWriter;
+  private final ProtoRowEncoder encoder;
+
+  private ProtoRowsWriter(com.google.cloud.bigquery.storage.v1.StreamWriter streamWriter, ProtoRowEncoder encoder) {
+    this.streamWriter = streamWriter;
+    this.encoder = encoder;
+  }
+
+  /**
+   * @param client    The client to use for the write stream
+   * @param tableName The table to write to, in the form projects/{p}/datasets/{d}/tables/{t}
+   * @return a writer for the table's default stream
+   */
+  static ProtoRowsWriter forDefaultStream(BigQueryWriteClient client, String tableName)
+      throws IOException, Descriptors.DescriptorValidationException {
+    String streamName = tableName + "/streams/_default";
+    WriteStream writeStream = client.getWriteStream(
+        GetWriteStreamRequest.newBuilder()
+            .setName(streamName)
+            .setView(WriteStreamView.FULL)
+            .build()
+    );
+    TableSchema tableSchema = writeStream.getTableSchema();
+    Descriptors.Descriptor descriptor = BQTableSchemaToProtoDescriptor.convertBQTableSchemaToProtoDescriptor(tableSchema);
+    com.google.cloud.bigquery.storage.v1.StreamWriter streamWriter =
+        com.google.cloud.bigquery.storage.v1.StreamWriter.newBuilder(streamName, client)
+            .setWriterSchema(ProtoSchemaConverter.convert(descriptor))
+            .build();
+    return new ProtoRowsWriter(streamWriter, new ProtoRowEncoder(tableSchema, descriptor));
+  }
+
+  ProtoRows encode(List<ConvertedRecord> rows) throws ProtoRowEncoder.UnsupportedRowException {
+    return encoder.encode(rows);
+  }
+
+  ApiFuture<AppendRowsResponse> append(ProtoRows rows) {
+    return streamWriter.append(rows);
+  }
+
+  @Override
+  public void close() {
+    streamWriter.close();
+  }
+}
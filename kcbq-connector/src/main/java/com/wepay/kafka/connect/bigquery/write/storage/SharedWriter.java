@@ -0,0 +1,120 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.storage;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A writer shared by concurrent appends. Each append acquires the writer before using it and
+ * releases it once the append has completed. A writer that should no longer be used, for example
+ * because the schema of its table has changed, is retired rather than closed: it is closed once
+ * every append that acquired it has released it, so that appends still in flight are not cut off.
+ *
+ * @param <W> The type of the underlying writer
+ */
+class SharedWriter<W extends AutoCloseable> {
+
+  private static final Logger logger = LoggerFactory.getLogger(SharedWriter.class);
+
+  private final W writer;
+  // One reference is held by the owner of the writer until it is retired, and one by each append
+  private final AtomicInteger references = new AtomicInteger(1);
+  private final AtomicBoolean retired = new AtomicBoolean();
+
+  SharedWriter(W writer) {
+    this.writer = writer;
+  }
+
+  W writer() {
+    return writer;
+  }
+
+  /**
+   * Acquires the writer for an append, which must then {@link #release() release} it.
+   *
+   * @return whether the writer was acquired; if it has already been closed, will return false
+   */
+  boolean acquire() {
+    while (true) {
+      int current = references.get();
+      if (current <= 0) {
+        return false;
+      }
+      if (references.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Releases the writer after an append, closing it if it has been retired and this was the last
+   * append using it.
+   */
+  void release() {
+    if (references.decrementAndGet() == 0) {
+      doClose();
+    }
+  }
+
+  /**
+   * Retires the writer, closing it once every append that acquired it has released it.
+   *
+   * @return whether the writer was retired by this call
+   */
+  boolean retire() {
+    if (!retired.compareAndSet(false, true)) {
+      return false;
+    }
+    release();
+    return true;
+  }
+
+  /**
+   * @return whether the writer has been closed
+   */
+  boolean isClosed() {
+    return references.get() <= 0;
+  }
+
+  /**
+   * Closes the writer immediately, regardless of any appends still using it.
+   */
+  void close() {
+    retired.set(true);
+    if (references.getAndSet(0) > 0) {
+      doClose();
+    }
+  }
+
+  private void doClose() {
+    try {
+      writer.close();
+    } catch (Exception e) {
+      logger.warn("Failed to close stream writer", e);
+    }
+  }
+}
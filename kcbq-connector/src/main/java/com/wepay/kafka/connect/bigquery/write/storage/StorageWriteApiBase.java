@@ -24,6 +24,10 @@
 package com.wepay.kafka.connect.bigquery.write.storage;
 
 import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.TableId;
 import com.google.cloud.bigquery.storage.v1.AppendRowsResponse;
 import com.google.cloud.bigquery.storage.v1.BigQueryWriteClient;
 import com.google.cloud.bigquery.storage.v1.BigQueryWriteSettings;
@@ -34,9 +38,14 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.rpc.Status;
 import com.wepay.kafka.connect.bigquery.ErrantRecordHandler;
 import com.wepay.kafka.connect.bigquery.SchemaManager;
+import com.wepay.kafka.connect.bigquery.WriteMetrics;
+import com.wepay.kafka.connect.bigquery.WriteMetrics.TableWriteMetrics;
 import com.wepay.kafka.connect.bigquery.exception.BigQueryStorageWriteApiConnectException;
 import com.wepay.kafka.connect.bigquery.exception.BigQueryStorageWriteApiErrorResponses;
+import com.wepay.kafka.connect.bigquery.exception.ExpectedInterruptException;
+import com.wepay.kafka.connect.bigquery.utils.TableNameUtils;
 import com.wepay.kafka.connect.bigquery.utils.Time;
+import com.wepay.kafka.connect.bigquery.write.AdaptiveBatchSizer;
 import com.wepay.kafka.connect.bigquery.write.RecordBatches;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -45,9 +54,11 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
+import org.apache.kafka.connect.errors.ConnectException;
 import org.apache.kafka.connect.sink.SinkRecord;
-import org.json.JSONArray;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -66,6 +77,9 @@ public abstract class StorageWriteApiBase {
   @VisibleForTesting
   protected Time time;
   ErrantRecordHandler errantRecordHandler;
+  AppendPipeline appendPipeline;
+  AdaptiveBatchSizer<String> batchSizer;
+  WriteMetrics writeMetrics;
   private BigQueryWriteClient writeClient;
 
   /**
@@ -74,6 +88,8 @@ public abstract class StorageWriteApiBase {
    * @param writeSettings       Write Settings for stream which carry authentication and other header information
    * @param autoCreateTables    boolean flag set if table should be created automatically
    * @param errantRecordHandler Used to handle errant records
+   * @param maxInFlightAppends  Maximum number of outstanding append requests per table; values greater
+   *                            than one enable pipelined appends
    */
   protected StorageWriteApiBase(int retry,
                                 long retryWait,
@@ -81,7 +97,8 @@ public abstract class StorageWriteApiBase {
                                 boolean autoCreateTables,
                                 ErrantRecordHandler errantRecordHandler,
                                 SchemaManager schemaManager,
-                                boolean attemptSchemaUpdate) {
+                                boolean attemptSchemaUpdate,
+                                int maxInFlightAppends) {
     this.retry = retry;
     this.retryWait = retryWait;
     this.autoCreateTables = autoCreateTables;
@@ -89,6 +106,8 @@ public abstract class StorageWriteApiBase {
     this.errantRecordHandler = errantRecordHandler;
     this.schemaManager = schemaManager;
     this.attemptSchemaUpdate = attemptSchemaUpdate;
+    this.appendPipeline = maxInFlightAppends > 1 ? new AppendPipeline(maxInFlightAppends) : null;
+    this.batchSizer = new AdaptiveBatchSizer<>();
     try {
       this.writeClient = getWriteClient();
     } catch (IOException e) {
@@ -100,6 +119,18 @@ public abstract class StorageWriteApiBase {
 
   public abstract void preShutdown();
 
+  /**
+   * @return the write path to record the requests made by this writer under
+   */
+  protected abstract WriteMetrics.WritePath writePath();
+
+  /**
+   * @param writeMetrics the metrics to record the requests made by this writer in; may be null
+   */
+  public void setWriteMetrics(WriteMetrics writeMetrics) {
+    this.writeMetrics = writeMetrics;
+  }
+
   protected abstract StreamWriter streamWriter(
       TableName tableName,
       String streamName,
@@ -111,6 +142,9 @@ public abstract class StorageWriteApiBase {
    */
   public void shutdown() {
     preShutdown();
+    if (appendPipeline != null) {
+      appendPipeline.shutdown();
+    }
     this.writeClient.close();
   }
 
@@ -122,21 +156,247 @@ public abstract class StorageWriteApiBase {
    *                   Converted JSONObjects would be sent to api.
    *                   Pre-conversion sink records are required for DLQ routing
    * @param streamName The stream to use to write table to table.
+   * @return a future that completes once the rows have been written, which may be after this
+   * method returns if the append request was pipelined
    */
-  public void initializeAndWriteRecords(TableName tableName, List<ConvertedRecord> rows, String streamName) {
-    StorageWriteApiRetryHandler retryHandler = new StorageWriteApiRetryHandler(tableName, getSinkRecords(rows), retry, retryWait, time);
+  public CompletableFuture<Void> initializeAndWriteRecords(
+      TableName tableName,
+      List<ConvertedRecord> rows,
+      String streamName
+  ) {
     logger.debug("Sending {} records to write Api Application stream {}", rows.size(), streamName);
-    RecordBatches<ConvertedRecord> batches = new RecordBatches<>(rows);
+    maybeUpdateSchemaBeforeWrite(tableName, rows);
     StreamWriter writer = streamWriter(tableName, streamName, rows);
+    if (appendPipeline != null) {
+      // Rows are estimated as they are converted, so this only adds up their sizes
+      long estimatedBytes = estimatedSize(rows);
+      if (fitsInSingleAppend(tableName, rows.size(), estimatedBytes)) {
+        return appendRecordsAsync(tableName, rows, estimatedBytes, writer);
+      }
+    }
+    writeRecords(tableName, rows, writer);
+    return CompletableFuture.completedFuture(null);
+  }
+
+  /**
+   * Update the schema of the table ahead of a write if its rows are known not to fit it, so that
+   * the write does not have to fail first. Failures are left for the write and its retries to deal
+   * with.
+   */
+  private void maybeUpdateSchemaBeforeWrite(TableName tableName, List<ConvertedRecord> rows) {
+    if (!canAttemptSchemaUpdate() || schemaManager == null) {
+      return;
+    }
+    TableId tableId = TableNameUtils.tableId(tableName);
+    try {
+      List<SinkRecord> records = getSinkRecords(rows);
+      if (schemaManager.needsSchemaUpdate(tableId, records)) {
+        logger.debug("Updating schema of {} before writing to it", tableName);
+        if (schemaManager.updateSchema(tableId, records)) {
+          onSchemaUpdated(tableName);
+        }
+      }
+    } catch (ConnectException | BigQueryException e) {
+      logger.warn("Failed to update schema of {} before writing to it; will attempt the write anyway", tableName, e);
+    }
+  }
+
+  /**
+   * Invoked after the schema of a table has been changed ahead of a write to it. Writers that cache
+   * the table's schema should respond by discarding it. Appends to the table may still be in flight
+   * when this is invoked.
+   *
+   * @param tableName The table whose schema was updated
+   */
+  protected void onSchemaUpdated(TableName tableName) {
+    // no-op by default
+  }
+
+  /**
+   * Blocks until every pipelined append issued so far has been written (or routed to the DLQ).
+   * This is a no-op when appends are not pipelined, since those are written synchronously.
+   *
+   * @throws BigQueryStorageWriteApiConnectException if any pipelined append failed irrecoverably
+   */
+  public void awaitPendingAppends() throws InterruptedException {
+    if (appendPipeline != null) {
+      appendPipeline.awaitPendingAppends();
+    }
+  }
+
+  /**
+   * @throws BigQueryStorageWriteApiConnectException if any pipelined append has failed irrecoverably
+   */
+  public void maybeThrowEncounteredError() {
+    if (appendPipeline != null) {
+      appendPipeline.maybeThrowEncounteredError();
+    }
+  }
+
+  /**
+   * Issues a single append request for all rows without waiting for its response. Once the
+   * response arrives, a clean success completes the write; anything else (row errors, schema
+   * updates, closed streams, oversized requests) falls back to the synchronous write path so that
+   * the usual retry and DLQ handling applies. The table's append permit is held until the rows have
+   * been written, including by that fallback.
+   */
+  private CompletableFuture<Void> appendRecordsAsync(
+      TableName tableName,
+      List<ConvertedRecord> rows,
+      long estimatedBytes,
+      StreamWriter writer
+  ) {
+    appendPipeline.maybeThrowEncounteredError();
+    String table = tableName.toString();
+    try {
+      appendPipeline.acquire(table);
+    } catch (InterruptedException e) {
+      throw new ExpectedInterruptException("Interrupted while waiting to append rows to table " + table);
+    }
+    CompletableFuture<Void> completion = appendPipeline.track();
+    TableWriteMetrics tableMetrics = tableMetrics(tableName);
+    long requestStartMs = tableMetrics != null ? time.milliseconds() : 0;
+
+    ApiFuture<AppendRowsResponse> response;
+    try {
+      response = writer.append(rows);
+    } catch (Exception e) {
+      logger.debug("Failed to issue pipelined append to table {}; retrying synchronously", tableName, e);
+      try {
+        appendPipeline.completionExecutor().execute(() -> completeAppend(completion, tableName, rows, estimatedBytes, writer, false));
+      } catch (RejectedExecutionException rejected) {
+        appendPipeline.release(table);
+        completion.completeExceptionally(rejected);
+        throw new BigQueryStorageWriteApiConnectException("Failed to write rows to table " + table, e);
+      }
+      return completion;
+    }
+
+    ApiFutures.addCallback(response, new ApiFutureCallback<AppendRowsResponse>() {
+      @Override
+      public void onSuccess(AppendRowsResponse writeResult) {
+        if (tableMetrics != null) {
+          tableMetrics.request(time.milliseconds() - requestStartMs);
+        }
+        boolean succeeded = !writeResult.hasUpdatedSchema() && !writeResult.hasError();
+        if (!succeeded) {
+          logger.debug("Pipelined append to table {} was not successful; retrying synchronously", tableName);
+        }
+        completeAppend(completion, tableName, rows, estimatedBytes, writer, succeeded);
+      }
+
+      @Override
+      public void onFailure(Throwable error) {
+        if (tableMetrics != null) {
+          tableMetrics.request(time.milliseconds() - requestStartMs);
+        }
+        logger.debug("Pipelined append to table {} failed; retrying synchronously", tableName, error);
+        completeAppend(completion, tableName, rows, estimatedBytes, writer, false);
+      }
+    }, appendPipeline.completionExecutor());
+    return completion;
+  }
+
+  private void completeAppend(
+      CompletableFuture<Void> completion,
+      TableName tableName,
+      List<ConvertedRecord> rows,
+      long estimatedBytes,
+      StreamWriter writer,
+      boolean succeeded
+  ) {
+    Throwable failure = null;
+    try {
+      if (succeeded) {
+        logger.trace("Append call completed successfully on stream {}", writer.streamName());
+        String table = tableName.toString();
+        TableWriteMetrics tableMetrics = tableMetrics(tableName);
+        if (tableMetrics != null) {
+          tableMetrics.rowsWritten(rows.size(), estimatedBytes);
+        }
+        if (batchSizer != null) {
+          batchSizer.onSuccess(table, rows.size(), estimatedBytes);
+        }
+        writer.onSuccess();
+      } else {
+        writeRecords(tableName, rows, writer);
+      }
+    } catch (Throwable t) {
+      logger.error("Pipelined append to table {} failed", tableName, t);
+      appendPipeline.onError(t);
+      failure = t;
+    } finally {
+      appendPipeline.release(tableName.toString());
+    }
+    if (failure == null) {
+      completion.complete(null);
+    } else {
+      completion.completeExceptionally(failure);
+    }
+  }
+
+  /**
+   * @return whether the rows are within the batch limits learned for the table, and so can be
+   * written in a single append request
+   */
+  private boolean fitsInSingleAppend(TableName tableName, int rows, long estimatedBytes) {
+    AdaptiveBatchSizer.Limit limit = batchLimit(tableName.toString());
+    return rows <= limit.maxRows()
+        && (!limit.hasByteLimit() || estimatedBytes <= limit.maxBytes());
+  }
+
+  /**
+   * @return the metrics for writes to the table with this writer's path, or null if writes are not
+   * being recorded
+   */
+  TableWriteMetrics tableMetrics(TableName tableName) {
+    if (writeMetrics == null) {
+      return null;
+    }
+    return writeMetrics.table(
+        TableId.of(tableName.getProject(), tableName.getDataset(), tableName.getTable()),
+        writePath()
+    );
+  }
+
+  private AdaptiveBatchSizer.Limit batchLimit(String table) {
+    return batchSizer != null ? batchSizer.limit(table) : AdaptiveBatchSizer.Limit.UNLIMITED;
+  }
+
+  private static long estimatedSize(List<ConvertedRecord> rows) {
+    long size = 0;
+    for (ConvertedRecord row : rows) {
+      size += row.estimatedSize();
+    }
+    return size;
+  }
+
+  private void writeRecords(TableName tableName, List<ConvertedRecord> rows, StreamWriter writer) {
+    StorageWriteApiRetryHandler retryHandler = new StorageWriteApiRetryHandler(tableName, getSinkRecords(rows), retry, retryWait, time);
+    String table = tableName.toString();
+    TableWriteMetrics tableMetrics = tableMetrics(tableName);
+    // Start from the largest batches known to be accepted for the table
+    RecordBatches<ConvertedRecord> batches =
+        new RecordBatches<>(rows, batchLimit(table), ConvertedRecord::estimatedSize);
     while (!batches.completed()) {
       List<ConvertedRecord> batch = batches.currentBatch();
 
       while (!batch.isEmpty()) {
         try {
-          writeBatch(writer, batch, retryHandler, tableName);
+          writeBatch(writer, batch, retryHandler, tableName, tableMetrics);
+          long batchBytes = estimatedSize(batch);
+          if (tableMetrics != null) {
+            tableMetrics.rowsWritten(batch.size(), batchBytes);
+          }
+          if (batchSizer != null) {
+            batchSizer.onSuccess(table, batch.size(), batchBytes);
+          }
           batch = Collections.emptyList(); // Can't do batch.clear(); it'll mess with the batch tracking logic in RecordBatches
         } catch (RetryException e) {
           retryHandler.maybeRetry("write to table " + tableName);
+          if (tableMetrics != null) {
+            tableMetrics.retry();
+          }
           if (e.getMessage() != null) {
             logger.warn(e.getMessage() + " Retry attempt " + retryHandler.getAttempt());
           }
@@ -145,23 +405,35 @@ public abstract class StorageWriteApiBase {
             Map<Integer, String> rowErrorMapping = Collections.singletonMap(
                 0, e.getMessage()
             );
-            batch = maybeHandleDlqRoutingAndFilterRecords(batch, rowErrorMapping, tableName.getTable());
+            batch = handleDlqRouting(batch, rowErrorMapping, tableName, tableMetrics);
             if (!batch.isEmpty()) {
               retryHandler.maybeRetry("write to table " + tableName);
+              if (tableMetrics != null) {
+                tableMetrics.retry();
+              }
             }
           } else {
             int previousSize = batch.size();
+            if (batchSizer != null) {
+              batchSizer.onTooLarge(table, previousSize, estimatedSize(batch));
+            }
             batches.reduceBatchSize();
+            if (tableMetrics != null) {
+              tableMetrics.batchSizeReduced();
+            }
             batch = batches.currentBatch();
             logger.debug("Reducing batch size for table {} from {} to {}", tableName, previousSize, batch.size());
           }
         } catch (MalformedRowsException e) {
-          batch = maybeHandleDlqRoutingAndFilterRecords(batch, e.getRowErrorMapping(), tableName.getTable());
+          batch = handleDlqRouting(batch, e.getRowErrorMapping(), tableName, tableMetrics);
           if (!batch.isEmpty()) {
             // TODO: Does this actually make sense? Should we count this as part of our retry logic?
             //       As long as we're guaranteed that the number of rows in the batch is decreasing, it
             //       may make sense to skip the maybeRetry invocation
             retryHandler.maybeRetry("write to table " + tableName);
+            if (tableMetrics != null) {
+              tableMetrics.retry();
+            }
           }
         }
       }
@@ -172,17 +444,38 @@ public abstract class StorageWriteApiBase {
     writer.onSuccess();
   }
 
+  private List<ConvertedRecord> handleDlqRouting(
+      List<ConvertedRecord> batch,
+      Map<Integer, String> rowErrorMapping,
+      TableName tableName,
+      TableWriteMetrics tableMetrics
+  ) {
+    List<ConvertedRecord> remaining = maybeHandleDlqRoutingAndFilterRecords(batch, rowErrorMapping, tableName.getTable());
+    if (tableMetrics != null) {
+      tableMetrics.sentToDlq(batch.size() - remaining.size());
+    }
+    return remaining;
+  }
+
   private void writeBatch(
       StreamWriter writer,
       List<ConvertedRecord> batch,
       StorageWriteApiRetryHandler retryHandler,
-      TableName tableName
+      TableName tableName,
+      TableWriteMetrics tableMetrics
   ) throws BatchTooLargeException, MalformedRowsException, RetryException {
     try {
-      JSONArray jsonRecords = getJsonRecords(batch);
       logger.trace("Sending records to Storage API writer for batch load");
-      ApiFuture<AppendRowsResponse> response = writer.appendRows(jsonRecords);
-      AppendRowsResponse writeResult = response.get();
+      long requestStartMs = tableMetrics != null ? time.milliseconds() : 0;
+      AppendRowsResponse writeResult;
+      try {
+        ApiFuture<AppendRowsResponse> response = writer.append(batch);
+        writeResult = response.get();
+      } finally {
+        if (tableMetrics != null) {
+          tableMetrics.request(time.milliseconds() - requestStartMs);
+        }
+      }
       logger.trace("Received response from Storage API writer batch");
 
       if (writeResult.hasUpdatedSchema()) {
@@ -393,14 +686,6 @@ public abstract class StorageWriteApiBase {
     }
   }
 
-  private JSONArray getJsonRecords(List<ConvertedRecord> rows) {
-    JSONArray jsonRecords = new JSONArray();
-    for (ConvertedRecord item : rows) {
-      jsonRecords.put(item.converted());
-    }
-    return jsonRecords;
-  }
-
   protected boolean shouldHandleSchemaMismatch(Exception e) {
     if (!canAttemptSchemaUpdate()) {
       return false;
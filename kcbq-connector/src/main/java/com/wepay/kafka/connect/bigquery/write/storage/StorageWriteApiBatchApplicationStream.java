@@ -31,6 +31,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.protobuf.Descriptors;
 import com.wepay.kafka.connect.bigquery.ErrantRecordHandler;
 import com.wepay.kafka.connect.bigquery.SchemaManager;
+import com.wepay.kafka.connect.bigquery.WriteMetrics;
 import com.wepay.kafka.connect.bigquery.exception.BigQueryStorageWriteApiConnectException;
 import java.io.IOException;
 import java.util.HashMap;
@@ -86,7 +87,8 @@ public class StorageWriteApiBatchApplicationStream extends StorageWriteApiBase {
       boolean autoCreateTables,
       ErrantRecordHandler errantRecordHandler,
       SchemaManager schemaManager,
-      boolean attemptSchemaUpdate) {
+      boolean attemptSchemaUpdate,
+      int maxInFlightAppends) {
     super(
         retry,
         retryWait,
@@ -94,7 +96,8 @@ public class StorageWriteApiBatchApplicationStream extends StorageWriteApiBase {
         autoCreateTables,
         errantRecordHandler,
         schemaManager,
-        attemptSchemaUpdate
+        attemptSchemaUpdate,
+        maxInFlightAppends
     );
     streams = new ConcurrentHashMap<>();
     currentStreams = new ConcurrentHashMap<>();
@@ -115,6 +118,11 @@ public class StorageWriteApiBatchApplicationStream extends StorageWriteApiBase {
     logger.debug("Shutting completed for all streams on all tables!");
   }
 
+  @Override
+  protected WriteMetrics.WritePath writePath() {
+    return WriteMetrics.WritePath.STORAGE_BATCH;
+  }
+
   @Override
   protected StreamWriter streamWriter(
       TableName tableName,
@@ -220,9 +228,12 @@ public class StorageWriteApiBatchApplicationStream extends StorageWriteApiBase {
   ) {
     String streamName;
     Map<TopicPartition, OffsetAndMetadata> offsetInfo = getOffsetFromRecords(rows);
+    long maxTimestamp = getMaxTimestampFromRecords(rows);
     synchronized (lock(tableName)) {
       streamName = this.getCurrentStreamForTable(tableName, rows);
-      this.streams.get(tableName).get(streamName).updateOffsetInformation(offsetInfo, rows.size());
+      ApplicationStream stream = this.streams.get(tableName).get(streamName);
+      stream.updateOffsetInformation(offsetInfo, rows.size());
+      stream.updateMaxRecordTimestamp(maxTimestamp);
     }
     logger.trace("Assigned offsets {} to stream {} for {} rows", offsetInfo, streamName, rows.size());
     return streamName;
@@ -304,11 +315,23 @@ public class StorageWriteApiBatchApplicationStream extends StorageWriteApiBase {
   /**
    * This takes care of actually making the data available for viewing in BigQuery
    *
-   * @param stream The stream which should be committed
+   * @param tableName The name of the table the stream writes to
+   * @param stream    The stream which should be committed
    */
-  private void finaliseAndCommitStream(ApplicationStream stream) {
+  private void finaliseAndCommitStream(String tableName, ApplicationStream stream) {
+    WriteMetrics.TableWriteMetrics tableMetrics = writeMetrics != null
+        ? tableMetrics(TableName.parse(tableName))
+        : null;
+    long startMs = tableMetrics != null ? time.milliseconds() : 0;
     stream.finalise();
     stream.commit();
+    if (tableMetrics != null) {
+      tableMetrics.stage(WriteMetrics.Stage.COMMIT, time.milliseconds() - startMs);
+      // The rows of the stream only become visible in BigQuery now, rather than when they were appended
+      if (stream.getMaxRecordTimestamp() >= 0) {
+        tableMetrics.acknowledged(stream.getMaxRecordTimestamp());
+      }
+    }
   }
 
   /**
@@ -343,7 +366,7 @@ public class StorageWriteApiBatchApplicationStream extends StorageWriteApiBase {
           }
           // We are done with all expected calls for non-active streams, lets finalise and commit the stream.
           logger.trace("Stream {} has written all assigned offsets.", streamName);
-          finaliseAndCommitStream(stream);
+          finaliseAndCommitStream(tableName, stream);
           logger.trace("Stream {} is now committed.", streamName);
           return;
         }
@@ -382,6 +405,15 @@ public class StorageWriteApiBatchApplicationStream extends StorageWriteApiBase {
     return offsets;
   }
 
+  private long getMaxTimestampFromRecords(List<ConvertedRecord> records) {
+    return records.stream()
+        .map(record -> record.original().timestamp())
+        .filter(Objects::nonNull)
+        .mapToLong(Long::longValue)
+        .max()
+        .orElse(-1);
+  }
+
   class BatchStreamWriter implements StreamWriter {
 
     private final ApplicationStream applicationStream;
@@ -24,14 +24,18 @@
 package com.wepay.kafka.connect.bigquery.write.storage;
 
 import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
 import com.google.cloud.bigquery.storage.v1.AppendRowsResponse;
 import com.google.cloud.bigquery.storage.v1.BigQueryWriteSettings;
 import com.google.cloud.bigquery.storage.v1.JsonStreamWriter;
+import com.google.cloud.bigquery.storage.v1.ProtoRows;
 import com.google.cloud.bigquery.storage.v1.TableName;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.protobuf.Descriptors;
 import com.wepay.kafka.connect.bigquery.ErrantRecordHandler;
 import com.wepay.kafka.connect.bigquery.SchemaManager;
+import com.wepay.kafka.connect.bigquery.WriteMetrics;
 import com.wepay.kafka.connect.bigquery.exception.BigQueryStorageWriteApiConnectException;
 import java.io.IOException;
 import java.util.List;
@@ -46,7 +50,10 @@ import org.slf4j.LoggerFactory;
  */
 public class StorageWriteApiDefaultStream extends StorageWriteApiBase {
   private static final Logger logger = LoggerFactory.getLogger(StorageWriteApiDefaultStream.class);
-  ConcurrentMap<String, JsonStreamWriter> tableToStream = new ConcurrentHashMap<>();
+  ConcurrentMap<String, DefaultStreamPool> tableToStream = new ConcurrentHashMap<>();
+  ConcurrentMap<String, SharedWriter<ProtoRowsWriter>> tableToProtoStream = new ConcurrentHashMap<>();
+  boolean useProtoEncoding;
+  private final int writersPerTable;
 
   public StorageWriteApiDefaultStream(int retry,
                                       long retryWait,
@@ -54,7 +61,10 @@ public class StorageWriteApiDefaultStream extends StorageWriteApiBase {
                                       boolean autoCreateTables,
                                       ErrantRecordHandler errantRecordHandler,
                                       SchemaManager schemaManager,
-                                      boolean attemptSchemaUpdate) {
+                                      boolean attemptSchemaUpdate,
+                                      int maxInFlightAppends,
+                                      boolean useProtoEncoding,
+                                      int writersPerTable) {
     super(
         retry,
         retryWait,
@@ -62,36 +72,170 @@ public class StorageWriteApiDefaultStream extends StorageWriteApiBase {
         autoCreateTables,
         errantRecordHandler,
         schemaManager,
-        attemptSchemaUpdate
+        attemptSchemaUpdate,
+        maxInFlightAppends
     );
+    this.useProtoEncoding = useProtoEncoding;
+    this.writersPerTable = writersPerTable;
   }
 
   @Override
   public void preShutdown() {
     logger.info("Closing all writer for default stream on all tables");
     tableToStream.keySet().forEach(this::closeAndDelete);
+    if (useProtoEncoding) {
+      tableToProtoStream.keySet().forEach(this::closeProtoStream);
+    }
     logger.info("Closed all writer for default stream on all tables");
   }
 
+  @Override
+  protected WriteMetrics.WritePath writePath() {
+    return WriteMetrics.WritePath.STORAGE_DEFAULT;
+  }
+
+  @Override
+  protected void onSchemaUpdated(TableName tableName) {
+    // Streams are created with the schema of the table at the time; new ones will pick up the update.
+    // Appends may still be in flight on the old ones, which are only closed once they complete
+    DefaultStreamPool pool = tableToStream.get(tableName.toString());
+    if (pool != null) {
+      pool.retireAll();
+    }
+    if (useProtoEncoding) {
+      retireProtoStream(tableName.toString());
+    }
+  }
+
   /**
-   * Either gets called when shutting down the task or when we receive exception that the stream
-   * is actually closed on Google side. This will close and remove the stream from our cache.
+   * Gets called when shutting down the task. This will close all the streams of the table and
+   * remove them from our cache.
    *
-   * @param tableName The table name for which stream has to be removed.
+   * @param tableName The table name for which streams have to be removed.
    */
   private void closeAndDelete(String tableName) {
-    logger.debug("Closing stream on table {}", tableName);
-    if (tableToStream.containsKey(tableName)) {
-      synchronized (tableToStream) {
-        tableToStream.get(tableName).close();
-        tableToStream.remove(tableName);
-      }
+    DefaultStreamPool pool = tableToStream.remove(tableName);
+    if (pool != null) {
+      logger.debug("Closing streams on table {}", tableName);
+      pool.closeAll();
+      logger.debug("Closed streams on table {}", tableName);
+    }
+  }
+
+  /**
+   * Gets called when we receive exception that the stream is actually closed on Google side. This
+   * will close the given stream and remove it from our cache, without affecting any other streams
+   * for the same table.
+   *
+   * @param tableName The table name for which the stream has to be removed.
+   * @param writer    The stream to remove
+   */
+  private void closeAndDelete(String tableName, JsonStreamWriter writer) {
+    DefaultStreamPool pool = tableToStream.get(tableName);
+    if (pool != null && pool.invalidate(writer)) {
       logger.debug("Closed stream on table {}", tableName);
     }
   }
 
   /**
-   * Open a default stream on table if not already present
+   * Releases a default stream writer once an append through it has completed.
+   */
+  private void releaseDefaultStream(String tableName, JsonStreamWriter writer) {
+    DefaultStreamPool pool = tableToStream.get(tableName);
+    if (pool != null) {
+      pool.release(writer);
+    }
+  }
+
+  private void closeProtoStream(String tableName) {
+    SharedWriter<ProtoRowsWriter> writer = tableToProtoStream.remove(tableName);
+    if (writer != null) {
+      logger.debug("Closing proto stream on table {}", tableName);
+      writer.close();
+    }
+  }
+
+  /**
+   * Stops using the proto stream of a table for new appends; it is closed once the appends still
+   * using it have completed.
+   */
+  private void retireProtoStream(String tableName) {
+    SharedWriter<ProtoRowsWriter> writer = tableToProtoStream.remove(tableName);
+    if (writer != null && writer.retire()) {
+      logger.debug("Retired proto stream on table {}", tableName);
+    }
+  }
+
+  private void retireProtoStream(String tableName, SharedWriter<ProtoRowsWriter> writer) {
+    if (tableToProtoStream.remove(tableName, writer) && writer.retire()) {
+      logger.debug("Retired proto stream on table {}", tableName);
+    }
+  }
+
+  /**
+   * Attempts to write rows to the table's default stream as pre-encoded proto messages, which avoids
+   * converting them to JSON and having the client library parse that JSON back into protos.
+   *
+   * @return the response for the append, or null if the rows should be written as JSON instead
+   */
+  private ApiFuture<AppendRowsResponse> maybeAppendProtoRows(TableName table, List<ConvertedRecord> rows) {
+    String tableName = table.toString();
+    SharedWriter<ProtoRowsWriter> writer;
+    do {
+      try {
+        writer = tableToProtoStream.computeIfAbsent(tableName, t -> {
+          try {
+            return new SharedWriter<>(ProtoRowsWriter.forDefaultStream(getWriteClient(), t));
+          } catch (Exception e) {
+            // The JSON writer is responsible for retries and table creation
+            throw new BigQueryStorageWriteApiConnectException("Failed to create proto stream writer on table " + t, e);
+          }
+        });
+      } catch (BigQueryStorageWriteApiConnectException e) {
+        logger.debug("{}; writing rows as JSON instead", e.getMessage(), e.getCause());
+        return null;
+      }
+      // A writer that has just been closed is no longer in the map by now, so the next attempt
+      // gets a new one
+    } while (!writer.acquire());
+
+    ProtoRows protoRows;
+    try {
+      protoRows = writer.writer().encode(rows);
+    } catch (ProtoRowEncoder.UnsupportedRowException e) {
+      logger.debug("Writing rows to table {} as JSON: {}", tableName, e.getMessage());
+      writer.release();
+      if (e.isSchemaMismatch()) {
+        // The table schema may have changed since the writer was created
+        retireProtoStream(tableName, writer);
+      }
+      return null;
+    }
+
+    ApiFuture<AppendRowsResponse> response;
+    try {
+      response = writer.writer().append(protoRows);
+    } catch (RuntimeException e) {
+      writer.release();
+      throw e;
+    }
+    SharedWriter<ProtoRowsWriter> appendedWith = writer;
+    response.addListener(appendedWith::release, MoreExecutors.directExecutor());
+    return ApiFutures.transform(
+        response,
+        result -> {
+          if (result.hasUpdatedSchema()) {
+            retireProtoStream(tableName, appendedWith);
+          }
+          return result;
+        },
+        MoreExecutors.directExecutor()
+    );
+  }
+
+  /**
+   * Open a default stream on table if not already present. When multiple streams are configured per
+   * table, successive calls return the table's streams in round-robin order.
    *
    * @param table The table on which stream has to be opened
    * @param rows  The input rows (would be sent while table creation to identify schema)
@@ -100,11 +244,15 @@ public class StorageWriteApiDefaultStream extends StorageWriteApiBase {
   @VisibleForTesting
   JsonStreamWriter getDefaultStream(TableName table, List<ConvertedRecord> rows) {
     String tableName = table.toString();
-    return tableToStream.computeIfAbsent(tableName, t -> {
+    DefaultStreamPool pool = tableToStream.computeIfAbsent(
+        tableName,
+        t -> new DefaultStreamPool(Math.max(1, writersPerTable))
+    );
+    return pool.writer(() -> {
       StorageWriteApiRetryHandler retryHandler = new StorageWriteApiRetryHandler(table, getSinkRecords(rows), retry, retryWait, time);
       do {
         try {
-          return JsonStreamWriter.newBuilder(t, getWriteClient()).build();
+          return JsonStreamWriter.newBuilder(tableName, getWriteClient()).build();
         } catch (Exception e) {
           String baseErrorMessage = String.format(
               "Failed to create Default stream writer on table %s due to %s",
@@ -147,10 +295,35 @@ public class StorageWriteApiDefaultStream extends StorageWriteApiBase {
     public ApiFuture<AppendRowsResponse> appendRows(
         JSONArray rows
     ) throws Descriptors.DescriptorValidationException, IOException {
-      if (jsonStreamWriter == null) {
-        jsonStreamWriter = getDefaultStream(tableName, inputRows);
+      // Each append holds the writer it uses until it completes, so that a schema update does not
+      // close the writer underneath it
+      JsonStreamWriter writer = getDefaultStream(tableName, inputRows);
+      jsonStreamWriter = writer;
+      ApiFuture<AppendRowsResponse> response;
+      try {
+        response = writer.append(rows);
+      } catch (Exception e) {
+        releaseDefaultStream(tableName.toString(), writer);
+        throw e;
       }
-      return jsonStreamWriter.append(rows);
+      response.addListener(
+          () -> releaseDefaultStream(tableName.toString(), writer),
+          MoreExecutors.directExecutor()
+      );
+      return response;
+    }
+
+    @Override
+    public ApiFuture<AppendRowsResponse> append(
+        List<ConvertedRecord> rows
+    ) throws Descriptors.DescriptorValidationException, IOException {
+      if (useProtoEncoding) {
+        ApiFuture<AppendRowsResponse> response = maybeAppendProtoRows(tableName, rows);
+        if (response != null) {
+          return response;
+        }
+      }
+      return StreamWriter.super.append(rows);
     }
 
     @Override
@@ -160,7 +333,10 @@ public class StorageWriteApiDefaultStream extends StorageWriteApiBase {
 
     @Override
     public void refresh() {
-      closeAndDelete(tableName.toString());
+      closeAndDelete(tableName.toString(), jsonStreamWriter);
+      if (useProtoEncoding) {
+        retireProtoStream(tableName.toString());
+      }
       jsonStreamWriter = null;
     }
 
@@ -32,26 +32,27 @@ import com.wepay.kafka.connect.bigquery.convert.KafkaDataBuilder;
 import com.wepay.kafka.connect.bigquery.convert.RecordConverter;
 import com.wepay.kafka.connect.bigquery.utils.FieldNameSanitizer;
 import com.wepay.kafka.connect.bigquery.utils.SinkRecordConverter;
+import com.wepay.kafka.connect.bigquery.write.batch.PendingWrite;
 import com.wepay.kafka.connect.bigquery.write.batch.TableWriterBuilder;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import org.apache.kafka.connect.sink.SinkRecord;
-import org.json.JSONArray;
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Storage Write API writer that attempts to write all the rows it is given at once
+ * Storage Write API writer that attempts to write all the rows it is given at once. If appends are
+ * pipelined, the rows may still be in flight once it has run, until its completion has completed.
  */
-public class StorageWriteApiWriter implements Runnable {
+public class StorageWriteApiWriter implements PendingWrite {
 
   public static final String DEFAULT = "default";
   private final StorageWriteApiBase streamWriter;
   private final TableName tableName;
   private final List<ConvertedRecord> records;
   private final String streamName;
+  private CompletableFuture<Void> completion;
   Logger logger = LoggerFactory.getLogger(StorageWriteApiWriter.class);
 
   /**
@@ -65,6 +66,7 @@ public class StorageWriteApiWriter implements Runnable {
     this.records = records;
     this.tableName = tableName;
     this.streamName = streamName;
+    this.completion = CompletableFuture.completedFuture(null);
   }
 
   @Override
@@ -74,11 +76,18 @@ public class StorageWriteApiWriter implements Runnable {
       return;
     }
     logger.debug("Putting {} records into {} stream", records.size(), streamName);
-    streamWriter.initializeAndWriteRecords(tableName, records, streamName);
+    completion = streamWriter.initializeAndWriteRecords(tableName, records, streamName);
+  }
+
+  @Override
+  public CompletableFuture<Void> completion() {
+    return completion;
   }
 
   public static class Builder implements TableWriterBuilder {
     private final List<ConvertedRecord> records = new ArrayList<>();
+    private boolean estimateBytes;
+    private long estimatedBytes = 0;
     private final SinkRecordConverter recordConverter;
     private final TableName tableName;
     private final StorageWriteApiBase streamWriter;
@@ -95,24 +104,38 @@ public class StorageWriteApiWriter implements Runnable {
     }
 
     /**
-     * Captures actual record and corresponding JSONObject converted record
+     * Captures actual record and corresponding converted row. The row is only serialized when it is
+     * written, in whichever format the stream writer uses.
      *
      * @param sinkRecord The actual records
      */
     @Override
     public void addRow(SinkRecord sinkRecord, TableId tableId) {
-      records.add(new ConvertedRecord(sinkRecord, convertRecord(sinkRecord)));
+      ConvertedRecord record = new ConvertedRecord(sinkRecord, recordConverter.getRegularRow(sinkRecord));
+      records.add(record);
+      if (estimateBytes) {
+        estimatedBytes += record.estimatedSize();
+      }
     }
 
     /**
-     * Converts SinkRecord to JSONObject to be sent to BQ Streams
+     * Estimate the size of the rows as they are added, so that {@link #estimatedBytes()} can be
+     * used to limit the size of the batch or of the rows in flight. Otherwise rows are only
+     * estimated when they are written.
      *
-     * @param record which is to be converted
-     * @return converted record as JSONObject
+     * @return this builder
      */
-    private JSONObject convertRecord(SinkRecord record) {
-      Map<String, Object> convertedRecord = recordConverter.getRegularRow(record);
-      return getJsonFromMap(convertedRecord);
+    public Builder estimateBytes() {
+      this.estimateBytes = true;
+      return this;
+    }
+
+    /**
+     * @return the estimated size of the rows, or -1 if {@link #estimateBytes()} was not called
+     */
+    @Override
+    public long estimatedBytes() {
+      return estimateBytes ? estimatedBytes : -1;
     }
 
     /**
@@ -126,26 +149,5 @@ public class StorageWriteApiWriter implements Runnable {
       }
       return new StorageWriteApiWriter(tableName, streamWriter, records, streamName);
     }
-
-    private JSONObject getJsonFromMap(Map<String, Object> map) {
-      JSONObject jsonObject = new JSONObject();
-      map.forEach((key, value) -> {
-        if (value instanceof Map<?, ?>) {
-          value = getJsonFromMap((Map<String, Object>) value);
-        } else if (value instanceof List<?>) {
-          JSONArray items = new JSONArray();
-          ((List<?>) value).forEach(v -> {
-            if (v instanceof Map<?, ?>) {
-              items.put(getJsonFromMap((Map<String, Object>) v));
-            } else {
-              items.put(v);
-            }
-          });
-          value = items;
-        }
-        jsonObject.put(key, value);
-      });
-      return jsonObject;
-    }
   }
 }
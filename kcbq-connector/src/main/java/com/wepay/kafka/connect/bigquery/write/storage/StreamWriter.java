@@ -27,6 +27,7 @@ import com.google.api.core.ApiFuture;
 import com.google.cloud.bigquery.storage.v1.AppendRowsResponse;
 import com.google.protobuf.Descriptors;
 import java.io.IOException;
+import java.util.List;
 import org.json.JSONArray;
 
 public interface StreamWriter {
@@ -41,6 +42,23 @@ public interface StreamWriter {
       JSONArray rows
   ) throws Descriptors.DescriptorValidationException, IOException;
 
+  /**
+   * Write the provided rows in whichever format the writer supports best. By default the rows are
+   * converted to JSON and written with {@link #appendRows(JSONArray)}.
+   *
+   * @param rows the rows to write; may not be null
+   * @return the response from BigQuery for the write attempt
+   */
+  default ApiFuture<AppendRowsResponse> append(
+      List<ConvertedRecord> rows
+  ) throws Descriptors.DescriptorValidationException, IOException {
+    JSONArray jsonRecords = new JSONArray();
+    for (ConvertedRecord item : rows) {
+      jsonRecords.put(item.converted());
+    }
+    return appendRows(jsonRecords);
+  }
+
   /**
    * Invoked if the underlying stream appears to be closed. Implementing classes
    * should respond by re-initialize the underlying stream.
@@ -30,6 +30,7 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -67,6 +68,8 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.record.TimestampType;
 import org.apache.kafka.connect.data.Schema;
 import org.apache.kafka.connect.data.SchemaBuilder;
@@ -256,6 +259,108 @@ public class BigQuerySinkTaskTest {
     verify(bigQuery, times(1)).insertAll(any(InsertAllRequest.class));
   }
 
+  @Test
+  public void testLingeringBatchesWrittenOnPreCommit() {
+    final String topic = "test-topic";
+    final TopicPartition partition = new TopicPartition(topic, 0);
+
+    Map<String, String> properties = propertiesFactory.getProperties();
+    properties.put(BigQuerySinkConfig.TOPICS_CONFIG, topic);
+    properties.put(BigQuerySinkConfig.DEFAULT_DATASET_CONFIG, "scratch");
+    properties.put(BigQuerySinkConfig.LINGER_MS_CONFIG, "60000");
+
+    BigQuery bigQuery = mock(BigQuery.class);
+    Table mockTable = mock(Table.class);
+    when(bigQuery.getTable(any())).thenReturn(mockTable);
+
+    Storage storage = mock(Storage.class);
+
+    SinkTaskContext sinkTaskContext = mock(SinkTaskContext.class);
+    InsertAllResponse insertAllResponse = mock(InsertAllResponse.class);
+
+    when(bigQuery.insertAll(anyObject())).thenReturn(insertAllResponse);
+    when(insertAllResponse.hasErrors()).thenReturn(false);
+
+    SchemaRetriever schemaRetriever = mock(SchemaRetriever.class);
+    SchemaManager schemaManager = mock(SchemaManager.class);
+    Map<TableId, Table> cache = new HashMap<>();
+
+    BigQuerySinkTask testTask = new BigQuerySinkTask(
+        bigQuery,
+        schemaRetriever,
+        storage,
+        schemaManager,
+        cache,
+        mockedStorageWriteApiDefaultStream,
+        mockedBatchHandler,
+        time
+    );
+
+    testTask.initialize(sinkTaskContext);
+    testTask.start(properties);
+
+    testTask.put(Arrays.asList(spoofSinkRecord(topic), spoofSinkRecord(topic)));
+    verify(bigQuery, never()).insertAll(any(InsertAllRequest.class));
+
+    Map<TopicPartition, OffsetAndMetadata> consumed =
+        Collections.singletonMap(partition, new OffsetAndMetadata(2));
+    testTask.preCommit(consumed);
+    testTask.flush(Collections.emptyMap());
+    verify(bigQuery, times(1)).insertAll(any(InsertAllRequest.class));
+
+    assertEquals(consumed, testTask.preCommit(consumed));
+  }
+
+  @Test
+  public void testLingeringBatchesWrittenOnceExpired() {
+    final String topic = "test-topic";
+    final MockTime mockTime = new MockTime();
+
+    Map<String, String> properties = propertiesFactory.getProperties();
+    properties.put(BigQuerySinkConfig.TOPICS_CONFIG, topic);
+    properties.put(BigQuerySinkConfig.DEFAULT_DATASET_CONFIG, "scratch");
+    properties.put(BigQuerySinkConfig.LINGER_MS_CONFIG, "60000");
+
+    BigQuery bigQuery = mock(BigQuery.class);
+    Table mockTable = mock(Table.class);
+    when(bigQuery.getTable(any())).thenReturn(mockTable);
+
+    Storage storage = mock(Storage.class);
+
+    SinkTaskContext sinkTaskContext = mock(SinkTaskContext.class);
+    InsertAllResponse insertAllResponse = mock(InsertAllResponse.class);
+
+    when(bigQuery.insertAll(anyObject())).thenReturn(insertAllResponse);
+    when(insertAllResponse.hasErrors()).thenReturn(false);
+
+    SchemaRetriever schemaRetriever = mock(SchemaRetriever.class);
+    SchemaManager schemaManager = mock(SchemaManager.class);
+    Map<TableId, Table> cache = new HashMap<>();
+
+    BigQuerySinkTask testTask = new BigQuerySinkTask(
+        bigQuery,
+        schemaRetriever,
+        storage,
+        schemaManager,
+        cache,
+        mockedStorageWriteApiDefaultStream,
+        mockedBatchHandler,
+        mockTime
+    );
+
+    testTask.initialize(sinkTaskContext);
+    testTask.start(properties);
+
+    testTask.put(Collections.singletonList(spoofSinkRecord(topic)));
+    testTask.put(Collections.emptyList());
+    verify(bigQuery, never()).insertAll(any(InsertAllRequest.class));
+
+    mockTime.sleep(60000);
+    testTask.put(Collections.emptyList());
+    testTask.flush(Collections.emptyMap());
+    verify(bigQuery, times(1)).insertAll(any(InsertAllRequest.class));
+  }
+
   @Test
   public void testPutForGCSToBQ() {
     final String topic = "test-topic";
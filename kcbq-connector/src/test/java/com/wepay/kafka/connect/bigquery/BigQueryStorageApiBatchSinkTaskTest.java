@@ -30,6 +30,7 @@ import static org.mockito.Mockito.CALLS_REAL_METHODS;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
@@ -53,6 +54,7 @@ import com.wepay.kafka.connect.bigquery.write.storage.StorageWriteApiBatchApplic
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -102,7 +104,7 @@ public class BigQueryStorageApiBatchSinkTaskTest {
     spoofedRecordOffset.set(0);
     mockedOffset.put(new TopicPartition(topic, 0), new OffsetAndMetadata(0));
 
-    doNothing().when(mockedStorageWriteApiBatchStream).initializeAndWriteRecords(any(), any(), eq("dummyStream"));
+    doReturn(CompletableFuture.completedFuture(null)).when(mockedStorageWriteApiBatchStream).initializeAndWriteRecords(any(), any(), eq("dummyStream"));
     doNothing().when(mockedStorageWriteApiBatchStream).shutdown();
     doNothing().when(mockedBatchHandler).refreshStreams();
     when(mockedBatchHandler.updateOffsetsOnStream(any(), any())).thenReturn("dummyStream");
@@ -120,7 +122,7 @@ public class BigQueryStorageApiBatchSinkTaskTest {
     CountDownLatch writeThreadStarted = new CountDownLatch(1);
     doAnswer(invocationOnMock -> {
       writeThreadStarted.countDown();
-      return null;
+      return CompletableFuture.completedFuture(null);
     }).when(mockedStorageWriteApiBatchStream).initializeAndWriteRecords(any(), any(), any());
 
     testTask.start(properties);
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.api.gax.paging.Page;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Bucket;
+import com.google.cloud.storage.Storage;
+import com.wepay.kafka.connect.bigquery.GcsBlobIndex.IndexedBlob;
+import com.wepay.kafka.connect.bigquery.utils.MockTime;
+import com.wepay.kafka.connect.bigquery.write.row.GcsBlobFormat;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class GcsBlobIndexTest {
+
+  private static final String BUCKET = "bucket";
+  private static final String FOLDER = "folder";
+  private static final Map<String, String> METADATA = Collections.singletonMap("sinkTable", "dataset.table");
+
+  private Bucket bucket;
+  private MockTime time;
+
+  @BeforeEach
+  public void setUp() {
+    bucket = mock(Bucket.class);
+    when(bucket.getName()).thenReturn(BUCKET);
+    time = new MockTime();
+  }
+
+  @Test
+  public void testListsOnlyUnderFolder() {
+    Blob blob = blob("folder/a", 1L, 10L);
+    listing(Storage.BlobListOption.prefix("folder/"), blob);
+
+    GcsBlobIndex index = new GcsBlobIndex(bucket, FOLDER, 0, time);
+    Collection<IndexedBlob> blobs = index.refresh();
+
+    assertEquals(Collections.singletonList("folder/a"), names(blobs));
+    IndexedBlob indexed = blobs.iterator().next();
+    assertEquals(TableId.of("dataset", "table"), indexed.table());
+    assertEquals(GcsBlobFormat.JSON, indexed.format());
+    assertEquals(10L, indexed.size());
+    verify(bucket, never()).list();
+  }
+
+  @Test
+  public void testKeepsIndexedBlobsAndDropsDeletedOnes() {
+    Blob first = blob("a", 1L, 10L);
+    Blob second = blob("b", 1L, 10L);
+    Page<Blob> page = listing(first, second);
+
+    GcsBlobIndex index = new GcsBlobIndex(bucket, null, 0, time);
+    List<IndexedBlob> initial = Arrays.asList(index.refresh().toArray(new IndexedBlob[0]));
+    assertEquals(Arrays.asList("a", "b"), names(initial));
+
+    when(page.iterateAll()).thenReturn(Collections.singletonList(second));
+    Collection<IndexedBlob> refreshed = index.refresh();
+    assertEquals(Collections.singletonList("b"), names(refreshed));
+    // The blob that was already indexed is not re-read
+    assertEquals(initial.get(1), refreshed.iterator().next());
+  }
+
+  @Test
+  public void testReindexesNewGeneration() {
+    Page<Blob> page = listing(blob("a", 1L, 10L));
+
+    GcsBlobIndex index = new GcsBlobIndex(bucket, null, 0, time);
+    index.refresh();
+
+    when(page.iterateAll()).thenReturn(Collections.singletonList(blob("a", 2L, 20L)));
+    IndexedBlob reindexed = index.refresh().iterator().next();
+    assertEquals(BlobId.of(BUCKET, "a", 2L), reindexed.blobId());
+    assertEquals(20L, reindexed.size());
+  }
+
+  @Test
+  public void testUsesNotificationsBetweenListings() {
+    listing(Storage.BlobListOption.prefix("folder/"));
+
+    GcsBlobIndex index = new GcsBlobIndex(bucket, FOLDER, 60_000, time);
+    index.refresh();
+
+    index.blobUploaded(blobInfo(BUCKET, "folder/a"), 10L);
+    index.blobUploaded(blobInfo(BUCKET, "other/b"), 10L);
+    index.blobUploaded(blobInfo("other", "folder/c"), 10L);
+
+    Collection<IndexedBlob> blobs = index.refresh();
+    assertEquals(Collections.singletonList("folder/a"), names(blobs));
+    assertEquals(10L, blobs.iterator().next().size());
+    verify(bucket, times(1)).list(Storage.BlobListOption.prefix("folder/"));
+
+    time.sleep(60_000);
+    index.refresh();
+    verify(bucket, times(2)).list(Storage.BlobListOption.prefix("folder/"));
+  }
+
+  @Test
+  public void testIndexesAreIndependent() {
+    listing();
+
+    GcsBlobIndex index = new GcsBlobIndex(bucket, null, 60_000, time);
+    GcsBlobIndex otherIndex = new GcsBlobIndex(bucket, null, 60_000, time);
+    index.refresh();
+    otherIndex.refresh();
+
+    // Only the index a blob is handed to learns of it before the next listing
+    otherIndex.blobUploaded(blobInfo(BUCKET, "a"), 10L);
+    assertEquals(Collections.emptyList(), names(index.refresh()));
+    assertEquals(Collections.singletonList("a"), names(otherIndex.refresh()));
+  }
+
+  @Test
+  public void testRemove() {
+    listing(blob("a", 1L, 10L), blob("b", 1L, 10L));
+
+    GcsBlobIndex index = new GcsBlobIndex(bucket, null, 60_000, time);
+    index.refresh();
+    index.remove(Arrays.asList(BlobId.of(BUCKET, "a", 1L), BlobId.of(BUCKET, "b", 2L)));
+
+    assertEquals(Collections.singletonList("b"), names(index.refresh()));
+  }
+
+  @Test
+  public void testUnknownFormatIsNotLoadable() {
+    Blob blob = blob("a", 1L, 10L);
+    Map<String, String> metadata = new HashMap<>(METADATA);
+    metadata.put(GcsBlobFormat.GCS_METADATA_FORMAT_KEY, "csv");
+    when(blob.getMetadata()).thenReturn(metadata);
+    listing(blob);
+
+    GcsBlobIndex index = new GcsBlobIndex(bucket, null, 0, time);
+    assertNull(index.refresh().iterator().next().table());
+  }
+
+  @SuppressWarnings("unchecked")
+  private Page<Blob> listing(Storage.BlobListOption option, Blob... blobs) {
+    Page<Blob> page = mock(Page.class);
+    when(page.iterateAll()).thenReturn(Arrays.asList(blobs));
+    when(bucket.list(option)).thenReturn(page);
+    return page;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Page<Blob> listing(Blob... blobs) {
+    Page<Blob> page = mock(Page.class);
+    when(page.iterateAll()).thenReturn(Arrays.asList(blobs));
+    when(bucket.list()).thenReturn(page);
+    return page;
+  }
+
+  private static Blob blob(String name, long generation, long size) {
+    Blob blob = mock(Blob.class);
+    when(blob.getName()).thenReturn(name);
+    when(blob.getBucket()).thenReturn(BUCKET);
+    when(blob.getGeneration()).thenReturn(generation);
+    when(blob.getSize()).thenReturn(size);
+    when(blob.getBlobId()).thenReturn(BlobId.of(BUCKET, name, generation));
+    when(blob.getMetadata()).thenReturn(METADATA);
+    return blob;
+  }
+
+  private static BlobInfo blobInfo(String bucket, String name) {
+    return BlobInfo.newBuilder(BlobId.of(bucket, name)).setMetadata(METADATA).build();
+  }
+
+  private static List<String> names(Collection<IndexedBlob> blobs) {
+    return blobs.stream().map(blob -> blob.blobId().getName()).collect(Collectors.toList());
+  }
+}
@@ -24,13 +24,40 @@
 package com.wepay.kafka.connect.bigquery;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
+import com.google.api.gax.paging.Page;
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobInfo;
+import com.google.cloud.bigquery.LoadJobConfiguration;
 import com.google.cloud.bigquery.TableId;
 import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Bucket;
+import com.google.cloud.storage.Storage;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.wepay.kafka.connect.bigquery.utils.MockTime;
+import com.wepay.kafka.connect.bigquery.write.row.GcsToBqWriter;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.common.metrics.Metrics;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 
@@ -78,6 +105,191 @@ public class GcsToBqLoadRunnableTest {
     assertNull(tableId);
   }
 
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testJobChecksBackOffWhileJobsAreRunning() {
+    Blob firstBlob = createMockBlob("first", TableId.of("dataset", "first"));
+    Blob secondBlob = createMockBlob("second", TableId.of("dataset", "second"));
+    Page<Blob> page = mock(Page.class);
+    when(page.iterateAll()).thenReturn(Arrays.asList(firstBlob, secondBlob));
+    Storage storage = mock(Storage.class);
+    when(storage.delete(anyIterable())).thenReturn(Collections.singletonList(true));
+    Bucket bucket = mock(Bucket.class);
+    when(bucket.getName()).thenReturn("bucket");
+    when(bucket.getStorage()).thenReturn(storage);
+    when(bucket.list()).thenReturn(page);
+
+    Job firstJob = mock(Job.class);
+    when(firstJob.isDone()).thenReturn(true);
+    Job secondJob = mock(Job.class);
+    when(secondJob.isDone()).thenReturn(false);
+    BigQuery bigQuery = mock(BigQuery.class);
+    when(bigQuery.create(any(JobInfo.class))).thenAnswer(invocation -> {
+      LoadJobConfiguration configuration = invocation.<JobInfo>getArgument(0).getConfiguration();
+      return "first".equals(configuration.getDestinationTable().getTable()) ? firstJob : secondJob;
+    });
+
+    MockTime time = new MockTime();
+    Metrics metrics = new Metrics();
+    ExecutorService jobCheckExecutor = Executors.newFixedThreadPool(2);
+    try {
+      GcsToBqLoadRunnable runnable = new GcsToBqLoadRunnable(
+          bigQuery,
+          bucket,
+          new GcsBlobIndex(bucket, null, 0, time),
+          jobCheckExecutor,
+          new GcsToBqLoadMetrics(metrics, Collections.emptyMap()),
+          time
+      );
+
+      // Start a load job for each table
+      runnable.run();
+      verify(bigQuery, times(2)).create(any(JobInfo.class));
+      assertEquals(2, metricValue(metrics, "active-load-jobs"));
+
+      // The first job completes, and its blob is deleted
+      when(page.iterateAll()).thenReturn(Collections.singletonList(secondBlob));
+      runnable.run();
+      verify(storage).delete(Collections.singletonList(BlobId.of("bucket", "first", 1L)));
+      assertEquals(1, metricValue(metrics, "active-load-jobs"));
+      assertEquals(1, metricValue(metrics, "load-job-success-total"));
+
+      // The second job is not checked again until its backoff has elapsed
+      runnable.run();
+      verify(secondJob, times(1)).isDone();
+      time.sleep(1000);
+      runnable.run();
+      verify(secondJob, times(2)).isDone();
+      verify(firstJob, times(1)).isDone();
+      verify(bigQuery, times(2)).create(any(JobInfo.class));
+    } finally {
+      jobCheckExecutor.shutdownNow();
+      metrics.close();
+    }
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testJobChecksCancelledOnInterrupt() throws Exception {
+    Blob blob = createMockBlob("blob", TableId.of("dataset", "table"));
+    Page<Blob> page = mock(Page.class);
+    when(page.iterateAll()).thenReturn(Collections.singletonList(blob));
+    Bucket bucket = mock(Bucket.class);
+    when(bucket.getName()).thenReturn("bucket");
+    when(bucket.list()).thenReturn(page);
+
+    CountDownLatch checkStarted = new CountDownLatch(1);
+    CountDownLatch checkInterrupted = new CountDownLatch(1);
+    Job job = mock(Job.class);
+    when(job.isDone()).thenAnswer(invocation -> {
+      checkStarted.countDown();
+      try {
+        new CountDownLatch(1).await();
+      } catch (InterruptedException e) {
+        checkInterrupted.countDown();
+      }
+      return false;
+    });
+    BigQuery bigQuery = mock(BigQuery.class);
+    when(bigQuery.create(any(JobInfo.class))).thenReturn(job);
+
+    ExecutorService jobCheckExecutor = Executors.newFixedThreadPool(1);
+    try {
+      GcsToBqLoadRunnable runnable = new GcsToBqLoadRunnable(
+          bigQuery,
+          bucket,
+          new GcsBlobIndex(bucket, null, 0, new MockTime()),
+          jobCheckExecutor,
+          GcsToBqLoadMetrics.NONE,
+          new MockTime()
+      );
+      // Start the load job
+      runnable.run();
+
+      // Check on it from another thread, and interrupt that thread while it waits for the check
+      Thread loader = new Thread(runnable);
+      loader.start();
+      assertTrue(checkStarted.await(10, TimeUnit.SECONDS));
+      loader.interrupt();
+      loader.join(TimeUnit.SECONDS.toMillis(10));
+      assertFalse(loader.isAlive());
+
+      // The check that was still outstanding is cancelled
+      assertTrue(checkInterrupted.await(10, TimeUnit.SECONDS));
+    } finally {
+      jobCheckExecutor.shutdownNow();
+    }
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testFreshnessRecordedOnceLoadJobCompletes() {
+    TableId table = TableId.of("dataset", "table");
+    Blob olderBlob = createMockBlob("older", table,
+        Collections.singletonMap(GcsToBqWriter.GCS_METADATA_MAX_TIMESTAMP_KEY, "1000"));
+    Blob newerBlob = createMockBlob("newer", table,
+        Collections.singletonMap(GcsToBqWriter.GCS_METADATA_MAX_TIMESTAMP_KEY, "3000"));
+    Page<Blob> page = mock(Page.class);
+    when(page.iterateAll()).thenReturn(Arrays.asList(olderBlob, newerBlob));
+    Storage storage = mock(Storage.class);
+    when(storage.delete(anyIterable())).thenReturn(Arrays.asList(true, true));
+    Bucket bucket = mock(Bucket.class);
+    when(bucket.getName()).thenReturn("bucket");
+    when(bucket.getStorage()).thenReturn(storage);
+    when(bucket.list()).thenReturn(page);
+
+    Job job = mock(Job.class);
+    when(job.isDone()).thenReturn(false);
+    BigQuery bigQuery = mock(BigQuery.class);
+    when(bigQuery.create(any(JobInfo.class))).thenReturn(job);
+
+    WriteMetrics writeMetrics = mock(WriteMetrics.class);
+    WriteMetrics.TableWriteMetrics tableMetrics = mock(WriteMetrics.TableWriteMetrics.class);
+    when(writeMetrics.table(table, WriteMetrics.WritePath.GCS_LOAD)).thenReturn(tableMetrics);
+
+    MockTime time = new MockTime();
+    GcsToBqLoadRunnable runnable = new GcsToBqLoadRunnable(
+        bigQuery,
+        bucket,
+        new GcsBlobIndex(bucket, null, 0, time),
+        MoreExecutors.newDirectExecutorService(),
+        GcsToBqLoadMetrics.NONE,
+        time
+    );
+    runnable.setWriteMetrics(writeMetrics);
+
+    // The blobs are loaded in a single job, whose rows are not visible until it completes
+    runnable.run();
+    runnable.run();
+    verify(tableMetrics, never()).acknowledged(anyLong());
+
+    when(job.isDone()).thenReturn(true);
+    time.sleep(1000);
+    runnable.run();
+    verify(tableMetrics).acknowledged(3000L);
+  }
+
+  private static double metricValue(Metrics metrics, String name) {
+    return ((Number) metrics.metric(metrics.metricName(name, GcsToBqLoadMetrics.GROUP)).metricValue())
+        .doubleValue();
+  }
+
+  private Blob createMockBlob(String name, TableId tableId) {
+    return createMockBlob(name, tableId, Collections.emptyMap());
+  }
+
+  private Blob createMockBlob(String name, TableId tableId, Map<String, String> extraMetadata) {
+    Map<String, String> metadata = new HashMap<>(extraMetadata);
+    metadata.put("sinkTable", serializeTableId(tableId));
+    Blob mockBlob = createMockBlobWithTableMetadata(metadata);
+    when(mockBlob.getName()).thenReturn(name);
+    when(mockBlob.getBucket()).thenReturn("bucket");
+    when(mockBlob.getGeneration()).thenReturn(1L);
+    when(mockBlob.getSize()).thenReturn(10L);
+    when(mockBlob.getBlobId()).thenReturn(BlobId.of("bucket", name, 1L));
+    return mockBlob;
+  }
+
   private String serializeTableId(TableId tableId) {
     final String project = tableId.getProject();
     final String dataset = tableId.getDataset();
@@ -24,10 +24,15 @@
 package com.wepay.kafka.connect.bigquery;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -53,6 +58,8 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import org.apache.kafka.connect.data.Schema;
 import org.apache.kafka.connect.data.SchemaBuilder;
@@ -803,6 +810,226 @@ public class SchemaManagerTest {
         Collections.singletonList(expandedSchema), expandedSchema, incomingSinkRecords);
   }
 
+  @Test
+  public void testUnionizedUpdateConvertsEachDistinctSchemaOnce() {
+    com.google.cloud.bigquery.Schema existingSchema = com.google.cloud.bigquery.Schema.of(
+        Field.newBuilder("f1", LegacySQLTypeName.BOOLEAN).setMode(Field.Mode.REQUIRED).build()
+    );
+    com.google.cloud.bigquery.Schema expandedSchema = com.google.cloud.bigquery.Schema.of(
+        Field.newBuilder("f1", LegacySQLTypeName.BOOLEAN).setMode(Field.Mode.REQUIRED).build(),
+        Field.newBuilder("f2", LegacySQLTypeName.INTEGER).setMode(Field.Mode.NULLABLE).build()
+    );
+
+    SchemaManager schemaManager = createSchemaManager(true, true, true);
+    List<SinkRecord> incomingSinkRecords = new ArrayList<>(
+        Collections.nCopies(10_000, recordWithValueSchema(mockKafkaSchema)));
+    incomingSinkRecords.add(recordWithValueSchema(null));
+
+    testGetAndValidateProposedSchema(schemaManager, existingSchema,
+        Collections.singletonList(expandedSchema), expandedSchema, incomingSinkRecords);
+    // The same table schema and batch schemas reuse the memoized union
+    testGetAndValidateProposedSchema(schemaManager, existingSchema,
+        null, expandedSchema, incomingSinkRecords);
+
+    verify(mockSchemaConverter, times(1)).convertSchema(mockKafkaSchema);
+  }
+
+  @Test
+  public void testConcurrentSchemaUpdatesAreCoalesced() throws Exception {
+    com.google.cloud.bigquery.Schema existingSchema = com.google.cloud.bigquery.Schema.of(
+        Field.newBuilder("f1", LegacySQLTypeName.BOOLEAN).setMode(Field.Mode.REQUIRED).build()
+    );
+    when(mockBigQuery.getTable(tableId)).thenReturn(tableWithSchema(existingSchema));
+
+    SchemaManager schemaManager = createSchemaManager(true, true, true);
+    List<SinkRecord> firstRecords = recordsAddingField("f2");
+    List<SinkRecord> secondRecords = recordsAddingField("f3");
+    List<SinkRecord> thirdRecords = recordsAddingField("f4");
+
+    CountDownLatch updateStarted = new CountDownLatch(1);
+    CountDownLatch releaseUpdate = new CountDownLatch(1);
+    when(mockBigQuery.update(any(TableInfo.class))).thenAnswer(invocation -> {
+      updateStarted.countDown();
+      releaseUpdate.await();
+      return null;
+    }).thenReturn(null);
+
+    Thread first = new Thread(() -> schemaManager.updateSchema(tableId, firstRecords));
+    first.start();
+    assertTrue(updateStarted.await(10, TimeUnit.SECONDS));
+
+    // Both of these queue up behind the first update and should be applied together
+    Thread second = new Thread(() -> schemaManager.updateSchema(tableId, secondRecords));
+    Thread third = new Thread(() -> schemaManager.updateSchema(tableId, thirdRecords));
+    second.start();
+    third.start();
+    while (second.getState() != Thread.State.BLOCKED || third.getState() != Thread.State.BLOCKED) {
+      Thread.sleep(10);
+    }
+
+    releaseUpdate.countDown();
+    first.join();
+    second.join();
+    third.join();
+
+    ArgumentCaptor<TableInfo> tableInfoCaptor = ArgumentCaptor.forClass(TableInfo.class);
+    verify(mockBigQuery, times(2)).update(tableInfoCaptor.capture());
+    com.google.cloud.bigquery.Schema coalescedSchema =
+        tableInfoCaptor.getAllValues().get(1).getDefinition().getSchema();
+    assertNotNull(coalescedSchema.getFields().get("f3"));
+    assertNotNull(coalescedSchema.getFields().get("f4"));
+  }
+
+  @Test
+  public void testConcurrentSchemaUpdatesWithDifferentSchemasAreNotCoalescedWithoutUnionization()
+      throws Exception {
+    com.google.cloud.bigquery.Schema existingSchema = com.google.cloud.bigquery.Schema.of(
+        Field.newBuilder("f1", LegacySQLTypeName.BOOLEAN).setMode(Field.Mode.REQUIRED).build()
+    );
+    when(mockBigQuery.getTable(tableId)).thenReturn(tableWithSchema(existingSchema));
+
+    SchemaManager schemaManager = createSchemaManager(true, true, false);
+    List<TableInfo> updates = updateSchemaConcurrently(schemaManager,
+        recordsAddingField("f2"), recordsAddingField("f3"), recordsAddingField("f4"));
+
+    // Without unionization only one record's schema is used, so each change is applied on its own
+    assertEquals(3, updates.size());
+    assertTrue(updates.stream().anyMatch(update -> hasField(update, "f3")));
+    assertTrue(updates.stream().anyMatch(update -> hasField(update, "f4")));
+  }
+
+  @Test
+  public void testConcurrentSchemaUpdatesWithSameSchemaAreCoalescedWithoutUnionization()
+      throws Exception {
+    com.google.cloud.bigquery.Schema existingSchema = com.google.cloud.bigquery.Schema.of(
+        Field.newBuilder("f1", LegacySQLTypeName.BOOLEAN).setMode(Field.Mode.REQUIRED).build()
+    );
+    when(mockBigQuery.getTable(tableId)).thenReturn(tableWithSchema(existingSchema));
+
+    SchemaManager schemaManager = createSchemaManager(true, true, false);
+    List<SinkRecord> queuedRecords = recordsAddingField("f3");
+    List<TableInfo> updates = updateSchemaConcurrently(schemaManager,
+        recordsAddingField("f2"), queuedRecords, new ArrayList<>(queuedRecords));
+
+    assertEquals(2, updates.size());
+    assertTrue(hasField(updates.get(1), "f3"));
+  }
+
+  /**
+   * Starts an update with the first batch of records and blocks it in BigQuery until updates with
+   * the second and third batches are waiting behind it, then returns every update request issued.
+   */
+  private List<TableInfo> updateSchemaConcurrently(
+      SchemaManager schemaManager,
+      List<SinkRecord> firstRecords,
+      List<SinkRecord> secondRecords,
+      List<SinkRecord> thirdRecords) throws Exception {
+    CountDownLatch updateStarted = new CountDownLatch(1);
+    CountDownLatch releaseUpdate = new CountDownLatch(1);
+    when(mockBigQuery.update(any(TableInfo.class))).thenAnswer(invocation -> {
+      updateStarted.countDown();
+      releaseUpdate.await();
+      return null;
+    }).thenReturn(null);
+
+    Thread first = new Thread(() -> schemaManager.updateSchema(tableId, firstRecords));
+    first.start();
+    assertTrue(updateStarted.await(10, TimeUnit.SECONDS));
+
+    Thread second = new Thread(() -> schemaManager.updateSchema(tableId, secondRecords));
+    Thread third = new Thread(() -> schemaManager.updateSchema(tableId, thirdRecords));
+    second.start();
+    third.start();
+    while (second.getState() != Thread.State.BLOCKED || third.getState() != Thread.State.BLOCKED) {
+      Thread.sleep(10);
+    }
+
+    releaseUpdate.countDown();
+    first.join();
+    second.join();
+    third.join();
+
+    ArgumentCaptor<TableInfo> tableInfoCaptor = ArgumentCaptor.forClass(TableInfo.class);
+    verify(mockBigQuery, atLeastOnce()).update(tableInfoCaptor.capture());
+    return tableInfoCaptor.getAllValues();
+  }
+
+  private static boolean hasField(TableInfo tableInfo, String fieldName) {
+    return tableInfo.getDefinition().getSchema().getFields().stream()
+        .anyMatch(field -> field.getName().equals(fieldName));
+  }
+
+  private List<SinkRecord> recordsAddingField(String fieldName) {
+    Schema kafkaSchema = mock(Schema.class);
+    when(mockSchemaConverter.convertSchema(kafkaSchema)).thenReturn(com.google.cloud.bigquery.Schema.of(
+        Field.newBuilder("f1", LegacySQLTypeName.BOOLEAN).setMode(Field.Mode.REQUIRED).build(),
+        Field.newBuilder(fieldName, LegacySQLTypeName.INTEGER).setMode(Field.Mode.NULLABLE).build()
+    ));
+    return Collections.singletonList(recordWithValueSchema(kafkaSchema));
+  }
+
+  @Test
+  public void testNeedsSchemaUpdateWithUnknownTableSchema() {
+    SchemaManager schemaManager = createSchemaManager(true, true, true);
+    assertFalse(schemaManager.needsSchemaUpdate(tableId, recordsAddingField("f2")));
+  }
+
+  @Test
+  public void testNeedsSchemaUpdate() {
+    com.google.cloud.bigquery.Schema tableSchema = com.google.cloud.bigquery.Schema.of(
+        Field.newBuilder("f1", LegacySQLTypeName.BOOLEAN).setMode(Field.Mode.REQUIRED).build(),
+        Field.newBuilder("F2", LegacySQLTypeName.INTEGER).setMode(Field.Mode.NULLABLE).build(),
+        Field.newBuilder("f3", LegacySQLTypeName.STRING).setMode(Field.Mode.NULLABLE).build()
+    );
+    TableMetadataCache tableCache = mock(TableMetadataCache.class);
+    when(tableCache.get(tableId)).thenReturn(tableWithSchema(tableSchema));
+
+    SchemaManager schemaManager = createSchemaManager(true, true, true);
+    schemaManager.setTableCache(tableCache);
+
+    // Field names are matched case-insensitively, and optional fields may be left out
+    List<SinkRecord> fittingRecords = recordsAddingField("f2");
+    Schema fittingSchema = fittingRecords.get(0).valueSchema();
+    assertFalse(schemaManager.needsSchemaUpdate(tableId, fittingRecords));
+    assertFalse(schemaManager.needsSchemaUpdate(tableId, fittingRecords));
+    verify(mockSchemaConverter, times(1)).convertSchema(fittingSchema);
+
+    // Each mismatch is only reported once for the same table schema
+    List<SinkRecord> newFieldRecords = recordsAddingField("f4");
+    assertTrue(schemaManager.needsSchemaUpdate(tableId, newFieldRecords));
+    assertFalse(schemaManager.needsSchemaUpdate(tableId, newFieldRecords));
+
+    Schema missingRequiredFieldSchema = mock(Schema.class);
+    when(mockSchemaConverter.convertSchema(missingRequiredFieldSchema)).thenReturn(
+        com.google.cloud.bigquery.Schema.of(
+            Field.newBuilder("f3", LegacySQLTypeName.STRING).setMode(Field.Mode.NULLABLE).build()));
+    assertTrue(schemaManager.needsSchemaUpdate(tableId,
+        Collections.singletonList(recordWithValueSchema(missingRequiredFieldSchema))));
+  }
+
+  @Test
+  public void testNeedsSchemaUpdateIgnoresCompatibleTypes() {
+    // A pre-created table, with columns of other types than the converted ones
+    com.google.cloud.bigquery.Schema tableSchema = com.google.cloud.bigquery.Schema.of(
+        Field.newBuilder("f1", LegacySQLTypeName.BOOLEAN).setMode(Field.Mode.REQUIRED).build(),
+        Field.newBuilder("f2", LegacySQLTypeName.NUMERIC).setMode(Field.Mode.NULLABLE).build()
+    );
+    TableMetadataCache tableCache = mock(TableMetadataCache.class);
+    when(tableCache.get(tableId)).thenReturn(tableWithSchema(tableSchema));
+
+    SchemaManager schemaManager = createSchemaManager(true, true, true);
+    schemaManager.setTableCache(tableCache);
+
+    List<SinkRecord> records = recordsAddingField("f2");
+    assertFalse(schemaManager.needsSchemaUpdate(tableId, records));
+
+    // Refreshing the table metadata doesn't make the same schema be checked again
+    when(tableCache.get(tableId)).thenReturn(tableWithSchema(com.google.cloud.bigquery.Schema.of(
+        tableSchema.getFields().get(0), tableSchema.getFields().get(1))));
+    assertFalse(schemaManager.needsSchemaUpdate(tableId, records));
+    verify(mockSchemaConverter, times(1)).convertSchema(records.get(0).valueSchema());
+  }
+
   @Test
   public void testGetUnionizedTableDescriptionFromTombstoneRecord() {
     SchemaManager schemaManager = createSchemaManager(false, true, true);
@@ -850,8 +1077,15 @@ public class SchemaManagerTest {
       com.google.cloud.bigquery.Schema existingSchema,
       List<com.google.cloud.bigquery.Schema> newSchemas,
       com.google.cloud.bigquery.Schema expectedSchema) {
-    testGetAndValidateProposedSchema(schemaManager, existingSchema, newSchemas, expectedSchema,
-        Collections.nCopies(newSchemas.size(), recordWithValueSchema(mockKafkaSchema)));
+    // Conversions are memoized per Kafka Connect schema, so give each record its own schema
+    List<SinkRecord> incomingSinkRecords = new ArrayList<>();
+    for (com.google.cloud.bigquery.Schema newSchema : newSchemas) {
+      Schema kafkaSchema = mock(Schema.class);
+      when(mockSchemaConverter.convertSchema(kafkaSchema)).thenReturn(newSchema);
+      incomingSinkRecords.add(recordWithValueSchema(kafkaSchema));
+    }
+    testGetAndValidateProposedSchema(
+        schemaManager, existingSchema, null, expectedSchema, incomingSinkRecords);
   }
 
   private void testGetAndValidateProposedSchema(
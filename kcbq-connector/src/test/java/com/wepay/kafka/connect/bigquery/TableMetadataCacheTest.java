@@ -0,0 +1,162 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.bigquery.Table;
+import com.google.cloud.bigquery.TableId;
+import com.wepay.kafka.connect.bigquery.utils.MockTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class TableMetadataCacheTest {
+
+  private static final long TTL_MS = 60_000L;
+  private static final TableId TABLE = TableId.of("dataset", "table");
+
+  private Function<TableId, Table> loader;
+  private List<Runnable> refreshes;
+  private MockTime time;
+  private TableMetadataCache cache;
+
+  @BeforeEach
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    loader = mock(Function.class);
+    refreshes = new ArrayList<>();
+    time = new MockTime();
+    cache = new TableMetadataCache(loader, TTL_MS, refreshes::add, time);
+  }
+
+  @Test
+  public void testLoadsOnce() {
+    Table table = mock(Table.class);
+    when(loader.apply(TABLE)).thenReturn(table);
+
+    assertSame(table, cache.get(TABLE));
+    assertSame(table, cache.get(TABLE));
+    assertTrue(cache.exists(TABLE));
+
+    verify(loader, times(1)).apply(TABLE);
+    assertTrue(refreshes.isEmpty());
+  }
+
+  @Test
+  public void testCachesMissingTables() {
+    when(loader.apply(TABLE)).thenReturn(null);
+
+    assertNull(cache.get(TABLE));
+    assertFalse(cache.exists(TABLE));
+
+    verify(loader, times(1)).apply(TABLE);
+  }
+
+  @Test
+  public void testReturnsStaleMetadataWhileRefreshing() {
+    Table stale = mock(Table.class);
+    Table fresh = mock(Table.class);
+    when(loader.apply(TABLE)).thenReturn(stale, fresh);
+
+    assertSame(stale, cache.get(TABLE));
+    time.sleep(TTL_MS);
+
+    // Only one refresh is scheduled, however many times the stale entry is read
+    assertSame(stale, cache.get(TABLE));
+    assertSame(stale, cache.get(TABLE));
+    assertEquals(1, refreshes.size());
+
+    refreshes.remove(0).run();
+    assertSame(fresh, cache.get(TABLE));
+    assertTrue(refreshes.isEmpty());
+    verify(loader, times(2)).apply(TABLE);
+  }
+
+  @Test
+  public void testRetriesFailedRefresh() {
+    Table table = mock(Table.class);
+    when(loader.apply(TABLE)).thenReturn(table).thenThrow(new RuntimeException("boom")).thenReturn(table);
+
+    cache.get(TABLE);
+    time.sleep(TTL_MS);
+    cache.get(TABLE);
+    refreshes.remove(0).run();
+
+    assertSame(table, cache.get(TABLE));
+    assertEquals(1, refreshes.size());
+  }
+
+  @Test
+  public void testInvalidate() {
+    Table before = mock(Table.class);
+    Table after = mock(Table.class);
+    when(loader.apply(TABLE)).thenReturn(before, after);
+
+    assertSame(before, cache.get(TABLE));
+    cache.invalidate(TABLE);
+    assertSame(after, cache.get(TABLE));
+    assertTrue(refreshes.isEmpty());
+  }
+
+  @Test
+  public void testRefreshDoesNotOverwriteInvalidatedEntry() {
+    Table stale = mock(Table.class);
+    Table refreshed = mock(Table.class);
+    Table reloaded = mock(Table.class);
+    when(loader.apply(TABLE)).thenReturn(stale, reloaded, refreshed);
+
+    cache.get(TABLE);
+    time.sleep(TTL_MS);
+    cache.get(TABLE);
+
+    cache.invalidate(TABLE);
+    assertSame(reloaded, cache.get(TABLE));
+
+    refreshes.remove(0).run();
+    assertSame(reloaded, cache.get(TABLE));
+  }
+
+  @Test
+  public void testPutAll() {
+    Table table = mock(Table.class);
+
+    cache.putAll(Collections.singletonMap(TABLE, table));
+
+    assertSame(table, cache.get(TABLE));
+    verify(loader, never()).apply(any());
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.google.cloud.bigquery.TableId;
+import com.wepay.kafka.connect.bigquery.WriteMetrics.TableWriteMetrics;
+import com.wepay.kafka.connect.bigquery.WriteMetrics.WritePath;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.metrics.KafkaMetric;
+import org.apache.kafka.common.metrics.Metrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class WriteMetricsTest {
+
+  private static final TableId TABLE = TableId.of("dataset", "table");
+
+  private Metrics metrics;
+  private WriteMetrics writeMetrics;
+
+  @BeforeEach
+  public void setUp() {
+    metrics = new Metrics();
+    writeMetrics = new WriteMetrics(metrics, Collections.singletonMap("task", "0"), "project");
+  }
+
+  @AfterEach
+  public void tearDown() {
+    metrics.close();
+  }
+
+  @Test
+  public void testMetricsAreSharedPerTableAndPath() {
+    TableWriteMetrics insertAll = writeMetrics.table(TABLE, WritePath.INSERT_ALL);
+
+    assertSame(insertAll, writeMetrics.table(TableId.of("dataset", "table"), WritePath.INSERT_ALL));
+    assertNotSame(insertAll, writeMetrics.table(TABLE, WritePath.STORAGE_DEFAULT));
+    assertNotSame(insertAll, writeMetrics.table(TableId.of("dataset", "other"), WritePath.INSERT_ALL));
+  }
+
+  @Test
+  public void testTablesAreIdentifiedByProject() {
+    TableWriteMetrics defaultProject = writeMetrics.table(TABLE, WritePath.INSERT_ALL);
+
+    assertSame(defaultProject, writeMetrics.table(TableId.of("project", "dataset", "table"), WritePath.INSERT_ALL));
+    assertNotSame(defaultProject, writeMetrics.table(TableId.of("other", "dataset", "table"), WritePath.INSERT_ALL));
+  }
+
+  @Test
+  public void testRecordWrites() {
+    TableWriteMetrics tableMetrics = writeMetrics.table(TABLE, WritePath.INSERT_ALL);
+
+    tableMetrics.request(10);
+    tableMetrics.request(30);
+    tableMetrics.rowsWritten(5, 500);
+    tableMetrics.rowsWritten(3, 300);
+    tableMetrics.retry();
+    tableMetrics.batchSizeReduced();
+    tableMetrics.sentToDlq(2);
+
+    assertEquals(8.0, value("rows-written-total", WritePath.INSERT_ALL));
+    assertEquals(800.0, value("bytes-written-total", WritePath.INSERT_ALL));
+    assertEquals(2.0, value("request-total", WritePath.INSERT_ALL));
+    assertEquals(20.0, value("request-latency-avg", WritePath.INSERT_ALL));
+    assertEquals(30.0, value("request-latency-max", WritePath.INSERT_ALL));
+    assertEquals(1.0, value("retry-total", WritePath.INSERT_ALL));
+    assertEquals(1.0, value("batch-size-reduction-total", WritePath.INSERT_ALL));
+    assertEquals(2.0, value("dlq-record-total", WritePath.INSERT_ALL));
+
+    // Only the paths that have been written to are registered
+    assertNull(metric("rows-written-total", WritePath.GCS_LOAD));
+  }
+
+  private Object value(String name, WritePath path) {
+    return metric(name, path).metricValue();
+  }
+
+  private KafkaMetric metric(String name, WritePath path) {
+    Map<String, String> tags = new LinkedHashMap<>();
+    tags.put("task", "0");
+    tags.put("table", "project.dataset.table");
+    tags.put("path", path.tag());
+    return metrics.metric(new MetricName(name, WriteMetrics.GROUP, "", tags));
+  }
+}
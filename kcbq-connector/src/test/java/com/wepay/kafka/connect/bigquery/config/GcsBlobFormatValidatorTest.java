@@ -0,0 +1,60 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.config;
+
+import static com.wepay.kafka.connect.bigquery.config.BigQuerySinkConfig.GCS_BLOB_COMPRESSION_CONFIG;
+import static com.wepay.kafka.connect.bigquery.config.BigQuerySinkConfig.GCS_BLOB_FORMAT_CONFIG;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+
+public class GcsBlobFormatValidatorTest {
+
+  @Test
+  public void testJsonCompressions() {
+    assertEquals(Optional.empty(), validate("json", "none"));
+    assertEquals(Optional.empty(), validate("json", "gzip"));
+    assertTrue(validate("json", "snappy").isPresent());
+    assertTrue(validate("json", "deflate").isPresent());
+  }
+
+  @Test
+  public void testAvroCompressions() {
+    assertEquals(Optional.empty(), validate("avro", "none"));
+    assertEquals(Optional.empty(), validate("avro", "deflate"));
+    assertEquals(Optional.empty(), validate("avro", "snappy"));
+    assertTrue(validate("avro", "gzip").isPresent());
+  }
+
+  private Optional<String> validate(String format, String compression) {
+    BigQuerySinkConfig config = mock(BigQuerySinkConfig.class);
+    when(config.getString(GCS_BLOB_FORMAT_CONFIG)).thenReturn(format);
+    when(config.getString(GCS_BLOB_COMPRESSION_CONFIG)).thenReturn(compression);
+    return new GcsBlobFormatValidator().doValidate(config);
+  }
+}
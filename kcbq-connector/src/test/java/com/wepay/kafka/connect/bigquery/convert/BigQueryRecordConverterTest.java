@@ -24,15 +24,19 @@
 package com.wepay.kafka.connect.bigquery.convert;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.google.protobuf.ByteString;
 import com.wepay.kafka.connect.bigquery.api.KafkaSchemaRecordType;
 import com.wepay.kafka.connect.bigquery.exception.ConversionConnectException;
+import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -88,6 +92,44 @@ public class BigQueryRecordConverterTest {
     assertEquals(bigQueryExpectedRecord, bigQueryTestRecord);
   }
 
+  @Test
+  public void testConverterReusedAcrossRecords() {
+    Schema kafkaConnectSchema = SchemaBuilder
+        .struct()
+        .field("first", Schema.STRING_SCHEMA)
+        .field("second", Schema.OPTIONAL_INT64_SCHEMA)
+        .build();
+    // Equivalent to the record's schema, but with the fields in a different order
+    Schema reorderedSchema = SchemaBuilder
+        .struct()
+        .field("second", Schema.OPTIONAL_INT64_SCHEMA)
+        .field("first", Schema.STRING_SCHEMA)
+        .build();
+    BigQueryRecordConverter converter = new BigQueryRecordConverter(SHOULD_CONVERT_DOUBLE, SHOULD_CONVERT_DEBEZIUM_TIMESTAMP_TO_INTEGER, USE_STORAGE_WRITE_API_CONFIG);
+
+    for (long i = 0; i < 3; i++) {
+      Struct kafkaConnectStruct = new Struct(kafkaConnectSchema)
+          .put("first", "value" + i)
+          .put("second", i);
+      Map<String, Object> bigQueryExpectedRecord = new HashMap<>();
+      bigQueryExpectedRecord.put("first", "value" + i);
+      bigQueryExpectedRecord.put("second", i);
+      assertEquals(
+          bigQueryExpectedRecord,
+          converter.convertRecord(spoofSinkRecord(kafkaConnectSchema, kafkaConnectStruct, false), KafkaSchemaRecordType.VALUE)
+      );
+    }
+
+    Struct reorderedStruct = new Struct(reorderedSchema)
+        .put("first", "reordered");
+    Map<String, Object> bigQueryExpectedRecord = new HashMap<>();
+    bigQueryExpectedRecord.put("first", "reordered");
+    assertEquals(
+        bigQueryExpectedRecord,
+        converter.convertRecord(spoofSinkRecord(kafkaConnectSchema, reorderedStruct, false), KafkaSchemaRecordType.VALUE)
+    );
+  }
+
   @Test
   public void testInteger() {
     final String fieldName = "Integer";
@@ -823,4 +865,84 @@ public class BigQueryRecordConverterTest {
     assertEquals(convertedMap.get("f1"), Base64.getEncoder().encodeToString(helloWorld));
     assertEquals(((Map<Object, Object>) (convertedMap.get("f3"))).get("f4"), Base64.getEncoder().encodeToString(helloWorld));
   }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testSanitizedFieldNames() {
+    Schema nestedSchema = SchemaBuilder.struct()
+        .field("inner.field", Schema.INT32_SCHEMA)
+        .build();
+    Schema kafkaConnectSchema = SchemaBuilder.struct()
+        .field("top-level", Schema.STRING_SCHEMA)
+        .field("1st", SchemaBuilder.array(nestedSchema).build())
+        .field("a/map", SchemaBuilder.map(Schema.STRING_SCHEMA, nestedSchema).build())
+        .build();
+
+    Struct kafkaConnectStruct = new Struct(kafkaConnectSchema)
+        .put("top-level", "value")
+        .put("1st", Arrays.asList(new Struct(nestedSchema).put("inner.field", 1)))
+        .put("a/map", Collections.singletonMap("k", new Struct(nestedSchema).put("inner.field", 2)));
+
+    BigQueryRecordConverter converter = new BigQueryRecordConverter(SHOULD_CONVERT_DOUBLE,
+        SHOULD_CONVERT_DEBEZIUM_TIMESTAMP_TO_INTEGER, USE_STORAGE_WRITE_API_CONFIG, true);
+    assertTrue(converter.sanitizesFieldNames());
+
+    // Convert twice to exercise the cached conversion plan
+    for (int i = 0; i < 2; i++) {
+      Map<String, Object> bigQueryRecord = converter.convertRecord(
+          spoofSinkRecord(kafkaConnectSchema, kafkaConnectStruct, false), KafkaSchemaRecordType.VALUE);
+
+      Map<String, Object> expectedMapEntry = new HashMap<>();
+      expectedMapEntry.put(BigQuerySchemaConverter.MAP_KEY_FIELD_NAME, "k");
+      expectedMapEntry.put(BigQuerySchemaConverter.MAP_VALUE_FIELD_NAME,
+          Collections.singletonMap("inner_field", 2));
+      Map<String, Object> expected = new HashMap<>();
+      expected.put("top_level", "value");
+      expected.put("_1st", Collections.singletonList(Collections.singletonMap("inner_field", 1)));
+      expected.put("a_map", Collections.singletonList(expectedMapEntry));
+      assertEquals(expected, bigQueryRecord);
+    }
+  }
+
+  @Test
+  public void testConversionPlanDoesNotKeepSchemaAlive() throws InterruptedException {
+    BigQueryRecordConverter converter = new BigQueryRecordConverter(SHOULD_CONVERT_DOUBLE,
+        SHOULD_CONVERT_DEBEZIUM_TIMESTAMP_TO_INTEGER, USE_STORAGE_WRITE_API_CONFIG);
+    WeakReference<Schema> schema = convertWithNewSchema(converter);
+
+    // Once nothing else refers to the schema, neither the cache nor its plan may keep it reachable
+    for (int i = 0; i < 100 && schema.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertNull(schema.get());
+  }
+
+  private static WeakReference<Schema> convertWithNewSchema(BigQueryRecordConverter converter) {
+    Schema kafkaConnectSchema = SchemaBuilder.struct()
+        .field("field", Schema.STRING_SCHEMA)
+        .build();
+    Struct kafkaConnectStruct = new Struct(kafkaConnectSchema).put("field", "value");
+    Map<String, Object> bigQueryRecord = converter.convertRecord(
+        spoofSinkRecord(kafkaConnectSchema, kafkaConnectStruct, false), KafkaSchemaRecordType.VALUE);
+    assertEquals(Collections.singletonMap("field", "value"), bigQueryRecord);
+    return new WeakReference<>(kafkaConnectSchema);
+  }
+
+  @Test
+  public void testSanitizedFieldNamesSchemaless() {
+    Map<Object, Object> kafkaConnectMap = new HashMap<>();
+    kafkaConnectMap.put("top-level", "value");
+    kafkaConnectMap.put("a.list", Arrays.asList(Collections.singletonMap("inner.field", 1)));
+
+    BigQueryRecordConverter converter = new BigQueryRecordConverter(SHOULD_CONVERT_DOUBLE,
+        SHOULD_CONVERT_DEBEZIUM_TIMESTAMP_TO_INTEGER, USE_STORAGE_WRITE_API_CONFIG, true);
+    Map<String, Object> bigQueryRecord = converter.convertRecord(
+        spoofSinkRecord(null, kafkaConnectMap, false), KafkaSchemaRecordType.VALUE);
+
+    Map<String, Object> expected = new HashMap<>();
+    expected.put("top_level", "value");
+    expected.put("a_list", Collections.singletonList(Collections.singletonMap("inner_field", 1)));
+    assertEquals(expected, bigQueryRecord);
+  }
 }
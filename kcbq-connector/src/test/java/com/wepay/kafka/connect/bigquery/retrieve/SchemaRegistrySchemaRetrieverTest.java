@@ -0,0 +1,351 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.retrieve;
+
+import static com.wepay.kafka.connect.bigquery.config.SchemaRegistrySchemaRetrieverConfig.SCHEMA_REGISTRY_REFRESH_INTERVAL_SEC_CONFIG;
+import static com.wepay.kafka.connect.bigquery.config.SchemaRegistrySchemaRetrieverConfig.SCHEMA_REGISTRY_URL_CONFIG;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.wepay.kafka.connect.bigquery.utils.MockTime;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Timestamp;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class SchemaRegistrySchemaRetrieverTest {
+
+  private static final String TOPIC = "test-topic";
+  private static final String VALUE_SUBJECT = TOPIC + "-value";
+  private static final Schema RECORD_SCHEMA = SchemaBuilder.struct()
+      .name("com.example.Value")
+      .field("id", Schema.INT64_SCHEMA)
+      .build();
+  private static final String LATEST_SCHEMA = "{\"type\": \"record\", \"name\": \"Value\", "
+      + "\"namespace\": \"com.example\", \"doc\": \"test doc\", \"fields\": ["
+      + "{\"name\": \"id\", \"type\": \"long\"}, "
+      + "{\"name\": \"name\", \"type\": [\"null\", \"string\"], \"default\": null}, "
+      + "{\"name\": \"created\", \"type\": {\"type\": \"long\", \"logicalType\": \"timestamp-millis\"}}]}";
+  private static final String NEWER_SCHEMA = "{\"type\": \"record\", \"name\": \"Value\", "
+      + "\"namespace\": \"com.example\", \"fields\": [{\"name\": \"id\", \"type\": \"long\"}, "
+      + "{\"name\": \"tags\", \"type\": {\"type\": \"array\", \"items\": \"string\"}}]}";
+
+  private final Map<String, String> registeredSchemas = new ConcurrentHashMap<>();
+  private final Map<String, Integer> requests = new ConcurrentHashMap<>();
+  private final AtomicReference<CountDownLatch> responseLatch = new AtomicReference<>();
+  private final List<Runnable> refreshes = new ArrayList<>();
+  private final MockTime time = new MockTime();
+
+  private Server registry;
+  private Map<String, String> properties;
+  private SchemaRegistrySchemaRetriever retriever;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    registry = new Server(0);
+    ServletContextHandler context = new ServletContextHandler();
+    context.addServlet(new ServletHolder(new MockRegistryServlet()), "/subjects/*");
+    registry.setHandler(context);
+    registry.start();
+    int port = ((ServerConnector) registry.getConnectors()[0]).getLocalPort();
+
+    properties = new HashMap<>();
+    properties.put(SCHEMA_REGISTRY_URL_CONFIG, "http://localhost:" + port + "/");
+    properties.put(SCHEMA_REGISTRY_REFRESH_INTERVAL_SEC_CONFIG, "60");
+    retriever = new SchemaRegistrySchemaRetriever(refreshes::add, time);
+    retriever.configure(properties);
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    registry.stop();
+  }
+
+  @Test
+  public void testRetrievesLatestRegisteredSchema() {
+    registeredSchemas.put(VALUE_SUBJECT, LATEST_SCHEMA);
+
+    Schema schema = retriever.retrieveValueSchema(record(RECORD_SCHEMA));
+
+    assertEquals(Schema.Type.STRUCT, schema.type());
+    assertEquals("com.example.Value", schema.name());
+    assertEquals("test doc", schema.doc());
+    assertEquals(Schema.INT64_SCHEMA, schema.field("id").schema());
+    assertEquals(Schema.OPTIONAL_STRING_SCHEMA, schema.field("name").schema());
+    assertEquals(Timestamp.SCHEMA, schema.field("created").schema());
+  }
+
+  @Test
+  public void testRetrievesConnectPropertiesOfDebeziumSchema() {
+    // As the Avro converter registers a Debezium change event value
+    registeredSchemas.put(VALUE_SUBJECT, "{\"type\": \"record\", \"name\": \"Value\", "
+        + "\"namespace\": \"server.inventory.orders\", \"connect.name\": \"server.inventory.orders.Value\", "
+        + "\"connect.version\": 2, \"fields\": ["
+        + "{\"name\": \"order_date\", \"type\": {\"type\": \"int\", \"connect.version\": 1, "
+        + "\"connect.name\": \"io.debezium.time.Date\"}}, "
+        + "{\"name\": \"created\", \"type\": [\"null\", {\"type\": \"long\", \"connect.version\": 1, "
+        + "\"connect.name\": \"io.debezium.time.MicroTimestamp\"}], \"default\": null}, "
+        + "{\"name\": \"updated\", \"type\": {\"type\": \"string\", \"connect.version\": 1, "
+        + "\"connect.name\": \"io.debezium.time.ZonedTimestamp\"}}, "
+        + "{\"name\": \"quantity\", \"type\": {\"type\": \"int\", \"connect.type\": \"int16\"}}, "
+        + "{\"name\": \"status\", \"type\": {\"type\": \"string\", "
+        + "\"connect.parameters\": {\"allowed\": \"NEW,SHIPPED\"}, \"connect.doc\": \"order status\"}}, "
+        + "{\"name\": \"source\", \"type\": {\"type\": \"record\", \"name\": \"ConnectDefault\", "
+        + "\"namespace\": \"io.confluent.connect.avro\", \"fields\": [{\"name\": \"db\", \"type\": \"string\"}]}}]}");
+
+    Schema schema = retriever.retrieveValueSchema(record(RECORD_SCHEMA));
+
+    assertEquals("server.inventory.orders.Value", schema.name());
+    assertEquals(Integer.valueOf(2), schema.version());
+    Schema orderDate = schema.field("order_date").schema();
+    assertEquals(Schema.Type.INT32, orderDate.type());
+    assertEquals("io.debezium.time.Date", orderDate.name());
+    assertEquals(Integer.valueOf(1), orderDate.version());
+    Schema created = schema.field("created").schema();
+    assertEquals(Schema.Type.INT64, created.type());
+    assertEquals("io.debezium.time.MicroTimestamp", created.name());
+    assertTrue(created.isOptional());
+    assertEquals("io.debezium.time.ZonedTimestamp", schema.field("updated").schema().name());
+    assertEquals(Schema.INT16_SCHEMA, schema.field("quantity").schema());
+    Schema status = schema.field("status").schema();
+    assertEquals(Collections.singletonMap("allowed", "NEW,SHIPPED"), status.parameters());
+    assertEquals("order status", status.doc());
+    assertNull(schema.field("source").schema().name());
+  }
+
+  @Test
+  public void testFallsBackToRecordSchemaForUnregisteredSubject() {
+    assertSame(RECORD_SCHEMA, retriever.retrieveValueSchema(record(RECORD_SCHEMA)));
+    assertSame(RECORD_SCHEMA, retriever.retrieveValueSchema(record(RECORD_SCHEMA)));
+    assertEquals(1, requests.get(VALUE_SUBJECT));
+  }
+
+  @Test
+  public void testFallsBackToRecordSchemaForUnsupportedSchema() {
+    registeredSchemas.put(VALUE_SUBJECT, "[\"string\", \"long\"]");
+    assertSame(RECORD_SCHEMA, retriever.retrieveValueSchema(record(RECORD_SCHEMA)));
+  }
+
+  @Test
+  public void testTombstonesAreNotLookedUp() {
+    registeredSchemas.put(VALUE_SUBJECT, LATEST_SCHEMA);
+    assertNull(retriever.retrieveValueSchema(record(null)));
+    assertNull(requests.get(VALUE_SUBJECT));
+  }
+
+  @Test
+  public void testBatchRetrievalLooksUpEachSubjectOnce() {
+    registeredSchemas.put(VALUE_SUBJECT, LATEST_SCHEMA);
+    List<SinkRecord> records = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      records.add(record(RECORD_SCHEMA));
+    }
+    records.add(record(null));
+
+    List<Schema> schemas = retriever.retrieveValueSchemas(records);
+
+    assertEquals(records.size(), schemas.size());
+    assertEquals(3, schemas.get(0).fields().size());
+    assertSame(schemas.get(0), schemas.get(99));
+    assertNull(schemas.get(100));
+    assertEquals(1, requests.get(VALUE_SUBJECT));
+  }
+
+  @Test
+  public void testStaleSchemaUsedWhileRefreshing() {
+    registeredSchemas.put(VALUE_SUBJECT, LATEST_SCHEMA);
+    assertEquals(3, retriever.retrieveValueSchema(record(RECORD_SCHEMA)).fields().size());
+
+    registeredSchemas.put(VALUE_SUBJECT, NEWER_SCHEMA);
+    time.sleep(TimeUnit.SECONDS.toMillis(60));
+    assertEquals(3, retriever.retrieveValueSchema(record(RECORD_SCHEMA)).fields().size());
+    assertEquals(3, retriever.retrieveValueSchema(record(RECORD_SCHEMA)).fields().size());
+    assertEquals(1, refreshes.size());
+
+    refreshes.remove(0).run();
+    Schema refreshed = retriever.retrieveValueSchema(record(RECORD_SCHEMA));
+    assertEquals(SchemaBuilder.array(Schema.STRING_SCHEMA).build(), refreshed.field("tags").schema());
+    assertEquals(2, requests.get(VALUE_SUBJECT));
+  }
+
+  @Test
+  public void testFailedRefreshKeepsStaleSchema() {
+    registeredSchemas.put(VALUE_SUBJECT, LATEST_SCHEMA);
+    Schema schema = retriever.retrieveValueSchema(record(RECORD_SCHEMA));
+
+    registeredSchemas.put(VALUE_SUBJECT, "not a schema");
+    time.sleep(TimeUnit.SECONDS.toMillis(60));
+    retriever.retrieveValueSchema(record(RECORD_SCHEMA));
+    refreshes.remove(0).run();
+
+    assertSame(schema, retriever.retrieveValueSchema(record(RECORD_SCHEMA)));
+  }
+
+  @Test
+  public void testConcurrentLookupsAreCoalesced() throws Exception {
+    registeredSchemas.put(VALUE_SUBJECT, LATEST_SCHEMA);
+    CountDownLatch latch = new CountDownLatch(1);
+    responseLatch.set(latch);
+
+    List<Schema> results = new CopyOnWriteArrayList<>();
+    Thread first = new Thread(() -> results.add(retriever.retrieveValueSchema(record(RECORD_SCHEMA))));
+    Thread second = new Thread(() -> results.add(retriever.retrieveValueSchema(record(RECORD_SCHEMA))));
+    first.start();
+    while (requests.get(VALUE_SUBJECT) == null) {
+      Thread.sleep(10);
+    }
+    second.start();
+    while (second.getState() != Thread.State.WAITING) {
+      Thread.sleep(10);
+    }
+
+    latch.countDown();
+    first.join();
+    second.join();
+
+    assertEquals(1, requests.get(VALUE_SUBJECT));
+    assertEquals(2, results.size());
+    assertSame(results.get(0), results.get(1));
+  }
+
+  @Test
+  public void testSubjectsNamedAfterOriginalTopic() {
+    registeredSchemas.put(VALUE_SUBJECT, LATEST_SCHEMA);
+    SinkRecord routed = record(RECORD_SCHEMA).newRecord("routed-topic", 0, null, null, RECORD_SCHEMA, null, 0L);
+
+    assertEquals(3, retriever.retrieveValueSchema(routed).fields().size());
+    assertNull(requests.get("routed-topic-value"));
+  }
+
+  @Test
+  public void testCoalescedLookupsCompleteWhenLookupThrowsError() throws Exception {
+    registeredSchemas.put(VALUE_SUBJECT, LATEST_SCHEMA);
+    AtomicBoolean failing = new AtomicBoolean();
+    MockTime failingTime = new MockTime() {
+      @Override
+      public long milliseconds() {
+        if (failing.get()) {
+          throw new AssertionError("test error");
+        }
+        return super.milliseconds();
+      }
+    };
+    retriever = new SchemaRegistrySchemaRetriever(refreshes::add, failingTime);
+    retriever.configure(properties);
+    CountDownLatch latch = new CountDownLatch(1);
+    responseLatch.set(latch);
+
+    List<Throwable> errors = new CopyOnWriteArrayList<>();
+    Runnable lookUp = () -> {
+      try {
+        retriever.retrieveValueSchema(record(RECORD_SCHEMA));
+      } catch (Throwable t) {
+        errors.add(t);
+      }
+    };
+    Thread first = new Thread(lookUp);
+    Thread second = new Thread(lookUp);
+    first.start();
+    while (requests.get(VALUE_SUBJECT) == null) {
+      Thread.sleep(10);
+    }
+    second.start();
+    while (second.getState() != Thread.State.WAITING) {
+      Thread.sleep(10);
+    }
+
+    failing.set(true);
+    latch.countDown();
+    first.join(TimeUnit.SECONDS.toMillis(10));
+    second.join(TimeUnit.SECONDS.toMillis(10));
+
+    assertFalse(first.isAlive());
+    assertFalse(second.isAlive());
+    assertEquals(2, errors.size());
+  }
+
+  private static SinkRecord record(Schema valueSchema) {
+    return new SinkRecord(TOPIC, 0, null, null, valueSchema, null, 0);
+  }
+
+  /**
+   * Serves the latest version of registered subjects, as a Schema Registry would.
+   */
+  private class MockRegistryServlet extends HttpServlet {
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+      // The path info is /<subject>/versions/latest
+      String subject = request.getPathInfo().split("/")[1];
+      requests.merge(subject, 1, Integer::sum);
+      CountDownLatch latch = responseLatch.get();
+      if (latch != null) {
+        try {
+          latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+
+      String schema = registeredSchemas.get(subject);
+      response.setContentType("application/vnd.schemaregistry.v1+json");
+      if (schema == null) {
+        response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        response.getWriter().write("{\"error_code\": 40401, \"message\": \"Subject not found.\"}");
+        return;
+      }
+      response.getWriter().write(new JSONObject()
+          .put("subject", subject)
+          .put("version", 1)
+          .put("id", 1)
+          .put("schema", schema)
+          .toString());
+    }
+  }
+}
@@ -26,6 +26,7 @@ package com.wepay.kafka.connect.bigquery.utils;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -120,4 +121,28 @@ public class FieldNameSanitizerTest {
         FieldNameSanitizer.replaceInvalidKeys(testMap)
     );
   }
+
+  @Test
+  public void testMapsInListsAreSanitized() {
+    testMap = new HashMap<>();
+    testMap.put("a-list", Arrays.asList(
+        Collections.singletonMap("b.1", 1),
+        Collections.singletonMap("b.2", Collections.singletonList(Collections.singletonMap("c/3", 3))),
+        "plain value"
+    ));
+    Map<String, Object> expected = Collections.singletonMap("a_list", Arrays.asList(
+        Collections.singletonMap("b_1", 1),
+        Collections.singletonMap("b_2", Collections.singletonList(Collections.singletonMap("c_3", 3))),
+        "plain value"
+    ));
+    assertEquals(expected, FieldNameSanitizer.replaceInvalidKeys(testMap));
+  }
+
+  @Test
+  public void testRepeatedSanitizationIsConsistent() {
+    for (int i = 0; i < 3; i++) {
+      assertEquals("_1a_b", FieldNameSanitizer.sanitizeName("1a.b"));
+      assertEquals("valid_name", FieldNameSanitizer.sanitizeName("valid_name"));
+    }
+  }
 }
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.cloud.bigquery.TableId;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class TopicRouterTest {
+
+  // 2024-01-02T03:04:05Z
+  private static final long TIMESTAMP = 1704164645000L;
+  private static final long MILLIS_IN_DAY = 86400000L;
+
+  @Test
+  public void testResolvesEachTopicOnce() {
+    AtomicInteger resolved = new AtomicInteger();
+    TopicRouter router = new TopicRouter(topic -> {
+      resolved.incrementAndGet();
+      return TableId.of("dataset", topic + "_table");
+    }, "batch"::equals);
+
+    TopicRouter.Route route = router.route("topic");
+    assertSame(route, router.route("topic"));
+    assertEquals(1, resolved.get());
+    assertEquals(TableId.of("dataset", "topic_table"), route.baseTableId());
+    assertEquals(route.baseTableId(), route.unpartitioned().getFullTableId());
+    assertFalse(route.isBatchLoad());
+    assertTrue(router.route("batch").isBatchLoad());
+  }
+
+  @Test
+  public void testCachesDayPartitions() {
+    TopicRouter.Route route = new TopicRouter(topic -> TableId.of("dataset", "table"), topic -> false)
+        .route("topic");
+
+    PartitionedTableId partition = route.dayPartition(TIMESTAMP);
+    assertEquals("table$20240102", partition.getFullTableName());
+    assertEquals(new PartitionedTableId.Builder(TableId.of("dataset", "table")).setDayPartition(TIMESTAMP).build(),
+        partition);
+    assertSame(partition, route.dayPartition(TIMESTAMP + 1000));
+
+    PartitionedTableId nextDay = route.dayPartition(TIMESTAMP + MILLIS_IN_DAY);
+    assertNotSame(partition, nextDay);
+    assertEquals("table$20240103", nextDay.getFullTableName());
+  }
+
+  @Test
+  public void testCachesIntermediateTable() {
+    AtomicInteger resolved = new AtomicInteger();
+    TopicRouter.Route route = new TopicRouter(topic -> TableId.of("dataset", "table"), topic -> false)
+        .route("topic");
+
+    PartitionedTableId intermediate = route.intermediate(table -> {
+      resolved.incrementAndGet();
+      return TableId.of(table.getDataset(), table.getTable() + "_tmp");
+    });
+    assertSame(intermediate, route.intermediate(table -> {
+      throw new AssertionError("Intermediate table resolved twice");
+    }));
+    assertEquals(1, resolved.get());
+    assertEquals(TableId.of("dataset", "table_tmp"), intermediate.getFullTableId());
+  }
+}
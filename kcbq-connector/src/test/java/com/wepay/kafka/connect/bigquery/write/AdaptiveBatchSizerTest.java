@@ -0,0 +1,101 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class AdaptiveBatchSizerTest {
+
+  private final AdaptiveBatchSizer<String> sizer = new AdaptiveBatchSizer<>();
+
+  @Test
+  public void testUnlimitedUntilTooLarge() {
+    assertEquals(AdaptiveBatchSizer.Limit.UNLIMITED, sizer.limit("table"));
+
+    sizer.onSuccess("table", 1000, -1);
+    assertEquals(AdaptiveBatchSizer.Limit.UNLIMITED, sizer.limit("table"));
+  }
+
+  @Test
+  public void testRemembersReducedLimitPerTable() {
+    sizer.onTooLarge("table", 1000, -1);
+
+    AdaptiveBatchSizer.Limit limit = sizer.limit("table");
+    assertEquals(500, limit.maxRows());
+    assertFalse(limit.hasByteLimit());
+    assertEquals(AdaptiveBatchSizer.Limit.UNLIMITED, sizer.limit("other"));
+
+    sizer.onTooLarge("table", 500, 8000);
+    limit = sizer.limit("table");
+    assertEquals(250, limit.maxRows());
+    assertTrue(limit.hasByteLimit());
+    assertEquals(4000, limit.maxBytes());
+  }
+
+  @Test
+  public void testStaleFailuresDoNotRaiseLimit() {
+    sizer.onTooLarge("table", 100, 1000);
+    sizer.onTooLarge("table", 1000, 10000);
+
+    assertEquals(50, sizer.limit("table").maxRows());
+    assertEquals(500, sizer.limit("table").maxBytes());
+  }
+
+  @Test
+  public void testGrowsSlowlyOnSuccessAtLimit() {
+    sizer.onTooLarge("table", 320, 3200);
+
+    // A batch smaller than the limit says nothing about the limit
+    sizer.onSuccess("table", 10, 100);
+    assertEquals(160, sizer.limit("table").maxRows());
+    assertEquals(1600, sizer.limit("table").maxBytes());
+
+    sizer.onSuccess("table", 160, 1600);
+    assertEquals(171, sizer.limit("table").maxRows());
+    assertEquals(1701, sizer.limit("table").maxBytes());
+  }
+
+  @Test
+  public void testGrowsOnSuccessWithinASixteenthOfByteLimit() {
+    sizer.onTooLarge("table", 10, 3200);
+
+    sizer.onSuccess("table", 1, 1499);
+    assertEquals(1600, sizer.limit("table").maxBytes());
+
+    sizer.onSuccess("table", 1, 1500);
+    assertEquals(1701, sizer.limit("table").maxBytes());
+  }
+
+  @Test
+  public void testNeverReducesBelowOneRow() {
+    sizer.onTooLarge("table", 1, 1);
+
+    assertEquals(1, sizer.limit("table").maxRows());
+    assertEquals(1, sizer.limit("table").maxBytes());
+  }
+}
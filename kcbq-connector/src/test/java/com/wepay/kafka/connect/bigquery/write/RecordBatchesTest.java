@@ -0,0 +1,93 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class RecordBatchesTest {
+
+  private static final List<Integer> RECORDS = Arrays.asList(1, 2, 3, 4, 5, 6, 7);
+
+  @Test
+  public void testSingleBatchByDefault() {
+    RecordBatches<Integer> batches = new RecordBatches<>(RECORDS);
+
+    assertEquals(RECORDS, batches.currentBatch());
+    batches.advanceToNextBatch();
+    assertTrue(batches.completed());
+  }
+
+  @Test
+  public void testReduceBatchSize() {
+    RecordBatches<Integer> batches = new RecordBatches<>(RECORDS);
+
+    batches.reduceBatchSize();
+    assertEquals(Arrays.asList(1, 2, 3, 4), batches.currentBatch());
+    batches.advanceToNextBatch();
+    assertEquals(Arrays.asList(5, 6, 7), batches.currentBatch());
+    batches.reduceBatchSize();
+    assertEquals(Arrays.asList(5, 6), batches.currentBatch());
+    batches.reduceBatchSize();
+    assertEquals(Collections.singletonList(5), batches.currentBatch());
+    assertThrows(IllegalStateException.class, batches::reduceBatchSize);
+  }
+
+  @Test
+  public void testStartsFromRowLimit() {
+    RecordBatches<Integer> batches =
+        new RecordBatches<>(RECORDS, new AdaptiveBatchSizer.Limit(3, Long.MAX_VALUE), null);
+
+    assertEquals(Arrays.asList(1, 2, 3), batches.currentBatch());
+    assertEquals(-1, batches.currentBatchBytes());
+    batches.advanceToNextBatch();
+    assertEquals(Arrays.asList(4, 5, 6), batches.currentBatch());
+    batches.advanceToNextBatch();
+    assertEquals(Collections.singletonList(7), batches.currentBatch());
+  }
+
+  @Test
+  public void testStartsFromByteLimit() {
+    RecordBatches<Integer> batches =
+        new RecordBatches<>(RECORDS, new AdaptiveBatchSizer.Limit(Integer.MAX_VALUE, 10), Integer::longValue);
+
+    assertEquals(Arrays.asList(1, 2, 3, 4), batches.currentBatch());
+    assertEquals(10, batches.currentBatchBytes());
+    batches.advanceToNextBatch();
+    assertEquals(Collections.singletonList(5), batches.currentBatch());
+    batches.advanceToNextBatch();
+    // Records larger than the limit are still written on their own
+    assertEquals(Collections.singletonList(6), batches.currentBatch());
+    batches.advanceToNextBatch();
+    assertEquals(Collections.singletonList(7), batches.currentBatch());
+    batches.advanceToNextBatch();
+    assertTrue(batches.completed());
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery.write.batch;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.bigquery.TableId;
+import com.wepay.kafka.connect.bigquery.WriteMetrics.Stage;
+import com.wepay.kafka.connect.bigquery.WriteMetrics.TableWriteMetrics;
+import com.wepay.kafka.connect.bigquery.utils.MockTime;
+import java.util.concurrent.CompletableFuture;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class BatchTraceTest {
+
+  private static final TableId TABLE = TableId.of("dataset", "table");
+
+  private TableWriteMetrics metrics;
+  private MockTime time;
+
+  @BeforeEach
+  public void setUp() {
+    metrics = mock(TableWriteMetrics.class);
+    time = new MockTime();
+  }
+
+  @Test
+  public void testRecordsStagesAndNewestTimestamp() {
+    BatchTrace trace = new BatchTrace(metrics, time);
+    TableWriterBuilder converting = mockBuilder(() -> time.sleep(20));
+    TableWriterBuilder builder = trace.write(trace.conversion(converting));
+
+    builder.addRow(record(1, 1_000L), TABLE);
+    builder.addRow(record(2, 3_000L), TABLE);
+    builder.addRow(record(3, 2_000L), TABLE);
+    Runnable writer = builder.build();
+    time.sleep(50);
+    writer.run();
+
+    verify(converting).addRow(record(1, 1_000L), TABLE);
+    verify(metrics).stage(Stage.QUEUE, 50);
+    verify(metrics).stage(Stage.WRITE, 20);
+    verify(metrics).stage(eq(Stage.CONVERSION), anyDouble());
+    verify(metrics).acknowledged(3_000L);
+  }
+
+  @Test
+  public void testRecordsWithoutTimestamps() {
+    BatchTrace trace = new BatchTrace(metrics, time);
+    TableWriterBuilder builder = trace.write(trace.conversion(mockBuilder(() -> { })));
+
+    builder.addRow(record(1, null), TABLE);
+    builder.build().run();
+
+    verify(metrics, never()).acknowledged(anyLong());
+  }
+
+  @Test
+  public void testWriteIsNotAcknowledgedIfNotVisibleOnWrite() {
+    BatchTrace trace = new BatchTrace(metrics, time, false);
+    TableWriterBuilder builder = trace.write(trace.conversion(mockBuilder(() -> { })));
+
+    builder.addRow(record(1, 1_000L), TABLE);
+    builder.build().run();
+
+    verify(metrics).stage(eq(Stage.WRITE), anyDouble());
+    verify(metrics, never()).acknowledged(anyLong());
+  }
+
+  @Test
+  public void testFailedWriteIsNotAcknowledged() {
+    BatchTrace trace = new BatchTrace(metrics, time);
+    TableWriterBuilder builder = trace.write(trace.conversion(mockBuilder(() -> {
+      throw new RuntimeException("boom");
+    })));
+
+    builder.addRow(record(1, 1_000L), TABLE);
+    Runnable writer = builder.build();
+    assertThrows(RuntimeException.class, writer::run);
+
+    verify(metrics, never()).acknowledged(anyLong());
+    verify(metrics, never()).stage(eq(Stage.WRITE), anyDouble());
+    verify(metrics).stage(eq(Stage.QUEUE), anyDouble());
+    verify(metrics).stage(eq(Stage.CONVERSION), anyDouble());
+  }
+
+  @Test
+  public void testPipelinedWriteIsAcknowledgedOnCompletion() {
+    BatchTrace trace = new BatchTrace(metrics, time);
+    CompletableFuture<Void> append = new CompletableFuture<>();
+    TableWriterBuilder builder = trace.write(trace.conversion(mockBuilder(new PendingWrite() {
+      @Override
+      public void run() {
+        time.sleep(20);
+      }
+
+      @Override
+      public CompletableFuture<Void> completion() {
+        return append;
+      }
+    })));
+
+    builder.addRow(record(1, 1_000L), TABLE);
+    builder.build().run();
+    verify(metrics).stage(eq(Stage.CONVERSION), anyDouble());
+    verify(metrics, never()).stage(eq(Stage.WRITE), anyDouble());
+    verify(metrics, never()).acknowledged(anyLong());
+
+    time.sleep(30);
+    append.complete(null);
+    verify(metrics).stage(Stage.WRITE, 50);
+    verify(metrics).acknowledged(1_000L);
+  }
+
+  @Test
+  public void testFailedPipelinedWriteIsNotAcknowledged() {
+    BatchTrace trace = new BatchTrace(metrics, time);
+    CompletableFuture<Void> append = new CompletableFuture<>();
+    TableWriterBuilder builder = trace.write(trace.conversion(mockBuilder(new PendingWrite() {
+      @Override
+      public void run() {
+      }
+
+      @Override
+      public CompletableFuture<Void> completion() {
+        return append;
+      }
+    })));
+
+    builder.addRow(record(1, 1_000L), TABLE);
+    builder.build().run();
+    append.completeExceptionally(new RuntimeException("boom"));
+
+    verify(metrics, never()).acknowledged(anyLong());
+    verify(metrics, never()).stage(eq(Stage.WRITE), anyDouble());
+    verify(metrics).stage(eq(Stage.QUEUE), anyDouble());
+  }
+
+  private static TableWriterBuilder mockBuilder(Runnable writer) {
+    TableWriterBuilder builder = mock(TableWriterBuilder.class);
+    when(builder.build()).thenReturn(writer);
+    return builder;
+  }
+
+  private static SinkRecord record(long offset, Long timestamp) {
+    return new SinkRecord("topic", 0, null, null, null, "value", offset, timestamp,
+        timestamp != null ? TimestampType.CREATE_TIME : TimestampType.NO_TIMESTAMP_TYPE);
+  }
+}
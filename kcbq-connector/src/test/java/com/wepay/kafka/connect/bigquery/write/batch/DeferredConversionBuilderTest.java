@@ -0,0 +1,126 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.batch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.bigquery.TableId;
+import com.wepay.kafka.connect.bigquery.ErrantRecordHandler;
+import com.wepay.kafka.connect.bigquery.exception.ConversionConnectException;
+import java.util.Collections;
+import org.apache.kafka.connect.sink.ErrantRecordReporter;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+public class DeferredConversionBuilderTest {
+
+  private static final TableId TABLE = TableId.of("dataset", "table");
+
+  @Test
+  public void testConvertsRecordsInWriter() {
+    TableWriterBuilder delegate = mock(TableWriterBuilder.class);
+    Runnable writer = mock(Runnable.class);
+    when(delegate.build()).thenReturn(writer);
+    DeferredConversionBuilder builder =
+        new DeferredConversionBuilder(delegate, new ErrantRecordHandler(null));
+    SinkRecord first = record(0);
+    SinkRecord second = record(1);
+
+    builder.addRow(first, TABLE);
+    builder.addRow(second, TABLE);
+    Runnable deferred = builder.build();
+    verifyNoInteractions(delegate);
+
+    deferred.run();
+    InOrder inOrder = inOrder(delegate, writer);
+    inOrder.verify(delegate).addRow(first, TABLE);
+    inOrder.verify(delegate).addRow(second, TABLE);
+    inOrder.verify(delegate).build();
+    inOrder.verify(writer).run();
+  }
+
+  @Test
+  public void testReportsRecordsThatFailToConvert() {
+    TableWriterBuilder delegate = mock(TableWriterBuilder.class);
+    when(delegate.build()).thenReturn(() -> { });
+    ErrantRecordHandler errantRecordHandler = mock(ErrantRecordHandler.class);
+    when(errantRecordHandler.getErrantRecordReporter()).thenReturn(mock(ErrantRecordReporter.class));
+    SinkRecord invalid = record(0);
+    ConversionConnectException error = new ConversionConnectException("invalid");
+    doThrow(error).when(delegate).addRow(invalid, TABLE);
+    DeferredConversionBuilder builder = new DeferredConversionBuilder(delegate, errantRecordHandler);
+
+    builder.addRow(invalid, TABLE);
+    builder.addRow(record(1), TABLE);
+    builder.build().run();
+
+    verify(errantRecordHandler).reportErrantRecords(Collections.singleton(invalid), error);
+    verify(delegate).build();
+  }
+
+  @Test
+  public void testFailsWriterWithoutErrantRecordReporter() {
+    TableWriterBuilder delegate = mock(TableWriterBuilder.class);
+    doThrow(new ConversionConnectException("invalid")).when(delegate).addRow(any(), eq(TABLE));
+    DeferredConversionBuilder builder =
+        new DeferredConversionBuilder(delegate, new ErrantRecordHandler(null));
+
+    builder.addRow(record(0), TABLE);
+    Runnable writer = builder.build();
+
+    assertThrows(ConversionConnectException.class, writer::run);
+    verify(delegate, never()).build();
+  }
+
+  @Test
+  public void testEstimatesRecordsOnlyWhenAsked() {
+    TableWriterBuilder delegate = mock(TableWriterBuilder.class);
+    DeferredConversionBuilder builder =
+        new DeferredConversionBuilder(delegate, new ErrantRecordHandler(null));
+    DeferredConversionBuilder estimating =
+        new DeferredConversionBuilder(delegate, new ErrantRecordHandler(null)).estimateBytes();
+
+    builder.addRow(record(0), TABLE);
+    estimating.addRow(record(0), TABLE);
+
+    assertEquals(-1, builder.estimatedBytes());
+    assertTrue(estimating.estimatedBytes() > 0);
+  }
+
+  private static SinkRecord record(long offset) {
+    return new SinkRecord("topic", 0, null, null, null, "value", offset);
+  }
+}
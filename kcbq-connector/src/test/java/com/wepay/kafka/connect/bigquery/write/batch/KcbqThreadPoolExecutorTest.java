@@ -0,0 +1,239 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.batch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.wepay.kafka.connect.bigquery.SinkTaskPropertiesFactory;
+import com.wepay.kafka.connect.bigquery.config.BigQuerySinkConfig;
+import com.wepay.kafka.connect.bigquery.config.BigQuerySinkTaskConfig;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class KcbqThreadPoolExecutorTest {
+
+  private KcbqThreadPoolExecutor executor;
+
+  @BeforeEach
+  public void setUp() {
+    createExecutor(2);
+  }
+
+  private void createExecutor(int threadPoolSize) {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+    executor = new KcbqThreadPoolExecutor(
+        config(threadPoolSize),
+        new LinkedBlockingQueue<>(),
+        Executors.defaultThreadFactory()
+    );
+  }
+
+  private void createThreadPerTaskExecutor(int threadPoolSize) {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+    executor = KcbqThreadPoolExecutor.threadPerTask(config(threadPoolSize), Executors.defaultThreadFactory());
+  }
+
+  private static BigQuerySinkTaskConfig config(int threadPoolSize) {
+    Map<String, String> properties = new SinkTaskPropertiesFactory().getProperties();
+    properties.put(BigQuerySinkConfig.THREAD_POOL_SIZE_CONFIG, Integer.toString(threadPoolSize));
+    return new BigQuerySinkTaskConfig(properties);
+  }
+
+  @AfterEach
+  public void tearDown() throws InterruptedException {
+    executor.shutdownNow();
+    executor.awaitTermination(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testRunsTasksForTheSameKeyInOrder() throws InterruptedException {
+    List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+    for (int i = 0; i < 100; i++) {
+      int task = i;
+      executor.executeInOrder("table", () -> order.add(task));
+    }
+    executor.awaitCurrentTasks();
+
+    assertEquals(100, order.size());
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, order.get(i));
+    }
+  }
+
+  @Test
+  public void testDoesNotBlockOtherKeys() throws InterruptedException {
+    CountDownLatch blocked = new CountDownLatch(1);
+    CountDownLatch otherDone = new CountDownLatch(1);
+    executor.executeInOrder("hot", () -> {
+      try {
+        blocked.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    for (int i = 0; i < 10; i++) {
+      executor.executeInOrder("hot", () -> { });
+    }
+    executor.executeInOrder("other", otherDone::countDown);
+
+    // the second thread should not be taken up by the backlog for the hot table
+    assertTrue(otherDone.await(10, TimeUnit.SECONDS));
+    assertEquals(10, executor.queuedTaskCount());
+    blocked.countDown();
+    executor.awaitCurrentTasks();
+    assertEquals(0, executor.queuedTaskCount());
+  }
+
+  @Test
+  public void testLimitsConcurrentTasksPerKey() throws InterruptedException {
+    createExecutor(4);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    for (int i = 0; i < 20; i++) {
+      executor.executeLimited("table", () -> {
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        try {
+          Thread.sleep(5);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        running.decrementAndGet();
+      }, 2);
+    }
+    executor.awaitCurrentTasks();
+
+    assertEquals(2, maxRunning.get());
+    assertEquals(0, executor.queuedTaskCount());
+  }
+
+  @Test
+  public void testAwaitsTasksInLanes() throws InterruptedException {
+    List<String> done = Collections.synchronizedList(new ArrayList<>());
+    for (String key : Arrays.asList("a", "b", "c")) {
+      executor.executeInOrder(key, () -> {
+        try {
+          Thread.sleep(10);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        done.add(key);
+      });
+    }
+    executor.awaitCurrentTasks();
+
+    assertEquals(3, done.size());
+  }
+
+  @Test
+  public void testThreadPerTaskLimitsRunningTasks() throws InterruptedException {
+    createThreadPerTaskExecutor(2);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    for (int i = 0; i < 20; i++) {
+      executor.execute(() -> {
+        threads.add(Thread.currentThread());
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        try {
+          Thread.sleep(5);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        running.decrementAndGet();
+      });
+    }
+    executor.awaitCurrentTasks();
+
+    assertEquals(2, maxRunning.get());
+    assertEquals(0, executor.queuedTaskCount());
+    // Threads are not pooled, so most tasks get a thread of their own
+    assertTrue(threads.size() > 2);
+  }
+
+  @Test
+  public void testThreadPerTaskLimitsConcurrentTasksPerKey() throws InterruptedException {
+    createThreadPerTaskExecutor(100);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    for (int i = 0; i < 20; i++) {
+      executor.executeLimited("table", () -> {
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        try {
+          Thread.sleep(5);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        running.decrementAndGet();
+      }, 3);
+    }
+    executor.awaitCurrentTasks();
+
+    assertEquals(3, maxRunning.get());
+  }
+
+  @Test
+  public void testThreadPerTaskShutdownRunsWaitingTasks() throws InterruptedException {
+    createThreadPerTaskExecutor(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger completed = new AtomicInteger();
+    executor.execute(() -> {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      completed.incrementAndGet();
+    });
+    executor.execute(completed::incrementAndGet);
+    executor.execute(completed::incrementAndGet);
+
+    executor.shutdown();
+    assertTrue(executor.isShutdown());
+    assertThrows(RejectedExecutionException.class, () -> executor.execute(completed::incrementAndGet));
+
+    release.countDown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(3, completed.get());
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.batch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.bigquery.TableId;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.jupiter.api.Test;
+
+public class OffsetTrackerTest {
+
+  private static final TableId TABLE = TableId.of("dataset", "table");
+  private static final TopicPartition PARTITION = new TopicPartition("topic", 0);
+  private static final Map<TopicPartition, OffsetAndMetadata> CONSUMED =
+      Collections.singletonMap(PARTITION, new OffsetAndMetadata(100));
+
+  @Test
+  public void testCommitsConsumedOffsetsWithoutPendingBatches() {
+    OffsetTracker tracker = new OffsetTracker();
+    assertEquals(CONSUMED, tracker.committableOffsets(CONSUMED));
+  }
+
+  @Test
+  public void testHoldsBackOffsetsUntilEarlierBatchesFinish() {
+    OffsetTracker tracker = new OffsetTracker();
+    TableWriterBuilder first = tracker.track(mockBuilder(() -> { }));
+    TableWriterBuilder second = tracker.track(mockBuilder(() -> { }));
+    first.addRow(record(10), TABLE);
+    first.addRow(record(11), TABLE);
+    second.addRow(record(12), TABLE);
+    Runnable firstWriter = first.build();
+    Runnable secondWriter = second.build();
+
+    assertEquals(offsets(10), tracker.committableOffsets(CONSUMED));
+    secondWriter.run();
+    assertEquals(offsets(10), tracker.committableOffsets(CONSUMED));
+    firstWriter.run();
+    assertEquals(CONSUMED, tracker.committableOffsets(CONSUMED));
+  }
+
+  @Test
+  public void testHoldsBackOffsetsOfFailedBatches() {
+    OffsetTracker tracker = new OffsetTracker();
+    TableWriterBuilder builder = tracker.track(mockBuilder(() -> {
+      throw new IllegalStateException("failed");
+    }));
+    builder.addRow(record(42), TABLE);
+    Runnable writer = builder.build();
+
+    assertThrows(IllegalStateException.class, writer::run);
+    assertEquals(offsets(42), tracker.committableOffsets(CONSUMED));
+
+    tracker.forget(Collections.singleton(PARTITION));
+    assertEquals(CONSUMED, tracker.committableOffsets(CONSUMED));
+  }
+
+  @Test
+  public void testHoldsBackOffsetsUntilPipelinedAppendsComplete() {
+    OffsetTracker tracker = new OffsetTracker();
+    CompletableFuture<Void> append = new CompletableFuture<>();
+    TableWriterBuilder builder = tracker.track(mockBuilder(new PendingWrite() {
+      @Override
+      public void run() {
+      }
+
+      @Override
+      public CompletableFuture<Void> completion() {
+        return append;
+      }
+    }));
+    builder.addRow(record(42), TABLE);
+    Runnable writer = builder.build();
+
+    writer.run();
+    assertEquals(offsets(42), tracker.committableOffsets(CONSUMED));
+    append.complete(null);
+    assertEquals(CONSUMED, tracker.committableOffsets(CONSUMED));
+  }
+
+  @Test
+  public void testHoldsBackOffsetsOfOriginalPartition() {
+    OffsetTracker tracker = new OffsetTracker();
+    TableWriterBuilder builder = tracker.track(mockBuilder(() -> { }));
+    // As routed by a transformation that renames the topic and changes the partition
+    SinkRecord renamed = new SinkRecord(
+        "renamed", 7, null, null, null, "value", 3, null, TimestampType.NO_TIMESTAMP_TYPE, null,
+        PARTITION.topic(), PARTITION.partition(), 42
+    );
+    builder.addRow(renamed, TABLE);
+    Runnable writer = builder.build();
+
+    Map<TopicPartition, OffsetAndMetadata> consumed = new HashMap<>(CONSUMED);
+    consumed.put(new TopicPartition("renamed", 7), new OffsetAndMetadata(100));
+    Map<TopicPartition, OffsetAndMetadata> expected = new HashMap<>(consumed);
+    expected.put(PARTITION, new OffsetAndMetadata(42));
+    assertEquals(expected, tracker.committableOffsets(consumed));
+
+    writer.run();
+    assertEquals(consumed, tracker.committableOffsets(consumed));
+  }
+
+  private static TableWriterBuilder mockBuilder(Runnable writer) {
+    TableWriterBuilder builder = mock(TableWriterBuilder.class);
+    when(builder.build()).thenReturn(writer);
+    return builder;
+  }
+
+  private static SinkRecord record(long offset) {
+    return new SinkRecord(PARTITION.topic(), PARTITION.partition(), null, null, null, "value", offset);
+  }
+
+  private static Map<TopicPartition, OffsetAndMetadata> offsets(long offset) {
+    Map<TopicPartition, OffsetAndMetadata> result = new HashMap<>();
+    result.put(PARTITION, new OffsetAndMetadata(offset));
+    return result;
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.batch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.wepay.kafka.connect.bigquery.utils.MockTime;
+import java.util.Collections;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+
+public class TableWriterBufferTest {
+
+  @Test
+  public void testWritesEveryBatchWithoutLinger() {
+    TableWriterBuffer<String> buffer = new TableWriterBuffer<>(0, -1, -1, new MockTime());
+    TableWriterBuilder builder = mock(TableWriterBuilder.class);
+
+    assertSame(builder, buffer.builder("table", () -> builder));
+    assertFalse(buffer.recordAdded("table").isPresent());
+    assertEquals(Collections.singletonMap("table", builder), buffer.drainExpired());
+    assertTrue(buffer.drainAll().isEmpty());
+  }
+
+  @Test
+  public void testLingersUntilExpired() {
+    MockTime time = new MockTime();
+    TableWriterBuffer<String> buffer = new TableWriterBuffer<>(100, -1, -1, time);
+    TableWriterBuilder first = mock(TableWriterBuilder.class);
+    TableWriterBuilder second = mock(TableWriterBuilder.class);
+
+    buffer.builder("first", () -> first);
+    buffer.recordAdded("first");
+    time.sleep(50);
+    buffer.builder("second", () -> second);
+    buffer.recordAdded("second");
+    // records for a table that is already buffered are added to the same builder
+    assertSame(first, buffer.builder("first", () -> mock(TableWriterBuilder.class)));
+    buffer.recordAdded("first");
+    assertTrue(buffer.drainExpired().isEmpty());
+
+    time.sleep(50);
+    assertEquals(Collections.singletonMap("first", first), buffer.drainExpired());
+    assertEquals(Collections.singletonMap("second", second), buffer.drainAll());
+    assertTrue(buffer.drainAll().isEmpty());
+  }
+
+  @Test
+  public void testWritesFullBatches() {
+    TableWriterBuffer<String> buffer = new TableWriterBuffer<>(1000, 2, -1, new MockTime());
+    TableWriterBuilder builder = mock(TableWriterBuilder.class);
+
+    buffer.builder("table", () -> builder);
+    assertFalse(buffer.recordAdded("table").isPresent());
+    assertEquals(Optional.of(builder), buffer.recordAdded("table"));
+    assertTrue(buffer.drainAll().isEmpty());
+  }
+
+  @Test
+  public void testWritesBatchesOverByteLimit() {
+    TableWriterBuffer<String> buffer = new TableWriterBuffer<>(1000, -1, 8, new MockTime());
+    TableWriterBuilder builder = mock(TableWriterBuilder.class);
+    when(builder.estimatedBytes()).thenReturn(5L, 10L);
+
+    buffer.builder("table", () -> builder);
+    assertFalse(buffer.recordAdded("table").isPresent());
+    assertEquals(Optional.of(builder), buffer.recordAdded("table"));
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.batch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.InsertAllRequest.RowToInsert;
+import com.google.cloud.bigquery.TableId;
+import com.wepay.kafka.connect.bigquery.utils.PartitionedTableId;
+import com.wepay.kafka.connect.bigquery.write.AdaptiveBatchSizer;
+import com.wepay.kafka.connect.bigquery.write.row.BigQueryWriter;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.jupiter.api.Test;
+
+public class TableWriterTest {
+
+  private static final TableId TABLE = TableId.of("dataset", "table");
+  private static final PartitionedTableId PARTITIONED_TABLE = new PartitionedTableId.Builder(TABLE).build();
+
+  private final BigQueryWriter writer = mock(BigQueryWriter.class);
+  private final AdaptiveBatchSizer<TableId> batchSizer = new AdaptiveBatchSizer<>();
+
+  @Test
+  public void testBatchLimitGrowsOnSuccessAtLimit() throws Exception {
+    batchSizer.onTooLarge(TABLE, 4, -1);
+    doNothing().when(writer).writeRows(any(), any(), anyLong());
+
+    newTableWriter(rows(2)).run();
+
+    verify(writer, times(1)).writeRows(eq(PARTITIONED_TABLE), any(), anyLong());
+    assertEquals(3, batchSizer.limit(TABLE).maxRows());
+  }
+
+  @Test
+  public void testBatchLimitReducedWhenTooLarge() throws Exception {
+    doThrow(new BigQueryException(400, "Request too large"))
+        .doNothing()
+        .when(writer).writeRows(any(), any(), anyLong());
+
+    newTableWriter(rows(4)).run();
+
+    // The rows are written in two batches of two, the first of which raises the halved limit again
+    verify(writer, times(3)).writeRows(eq(PARTITIONED_TABLE), any(), anyLong());
+    assertEquals(3, batchSizer.limit(TABLE).maxRows());
+    assertTrue(batchSizer.limit(TABLE).hasByteLimit());
+  }
+
+  @Test
+  public void testPassesEstimatedBytesOfUnsplitBatches() throws Exception {
+    doThrow(new BigQueryException(400, "Request too large"))
+        .doNothing()
+        .when(writer).writeRows(any(), any(), anyLong());
+
+    new TableWriter(writer, PARTITIONED_TABLE, rows(4), r -> { }, batchSizer, null, 1234).run();
+
+    verify(writer, times(1)).writeRows(eq(PARTITIONED_TABLE), any(), eq(1234L));
+    // Once split, the size of each batch is not known up front
+    verify(writer, times(2)).writeRows(eq(PARTITIONED_TABLE), any(), eq(-1L));
+  }
+
+  private TableWriter newTableWriter(SortedMap<SinkRecord, RowToInsert> rows) {
+    return new TableWriter(writer, PARTITIONED_TABLE, rows, r -> { }, batchSizer, null);
+  }
+
+  private static SortedMap<SinkRecord, RowToInsert> rows(int count) {
+    SortedMap<SinkRecord, RowToInsert> rows = new TreeMap<>(Comparator.comparing(SinkRecord::kafkaPartition)
+        .thenComparing(SinkRecord::kafkaOffset));
+    for (int i = 0; i < count; i++) {
+      SinkRecord record = new SinkRecord("topic", 0, null, null, null, "value", i);
+      rows.put(record, RowToInsert.of(Collections.singletonMap("f", "value" + i)));
+    }
+    return rows;
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.batch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.storage.v1.TableName;
+import com.wepay.kafka.connect.bigquery.write.storage.ConvertedRecord;
+import com.wepay.kafka.connect.bigquery.write.storage.StorageWriteApiBase;
+import com.wepay.kafka.connect.bigquery.write.storage.StorageWriteApiWriter;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+public class WriteMemoryAccountantTest {
+
+  private static final TableId TABLE = TableId.of("dataset", "table");
+
+  @Test
+  public void testTracksRowsFromBufferingUntilWritten() {
+    WriteMemoryAccountant accountant = new WriteMemoryAccountant(100);
+
+    TableWriterBuilder first = accountant.track(mockBuilder(() -> { }, 30, 60));
+    TableWriterBuilder second = accountant.track(mockBuilder(() -> { }, 50));
+    first.addRow(record(0), TABLE);
+    assertEquals(30, accountant.usedBytes());
+    first.addRow(record(1), TABLE);
+    second.addRow(record(2), TABLE);
+    assertEquals(110, accountant.usedBytes());
+    assertTrue(accountant.isOverBudget());
+    assertFalse(accountant.canResume());
+
+    Runnable firstWriter = first.build();
+    Runnable secondWriter = second.build();
+    assertEquals(110, accountant.usedBytes());
+
+    firstWriter.run();
+    assertEquals(50, accountant.usedBytes());
+    assertFalse(accountant.isOverBudget());
+    assertTrue(accountant.canResume());
+
+    secondWriter.run();
+    assertEquals(0, accountant.usedBytes());
+  }
+
+  @Test
+  public void testReleasesFailedWriters() {
+    WriteMemoryAccountant accountant = new WriteMemoryAccountant(100);
+
+    TableWriterBuilder builder = accountant.track(mockBuilder(() -> {
+      throw new IllegalStateException("failed");
+    }, 60));
+    builder.addRow(record(0), TABLE);
+    Runnable writer = builder.build();
+    assertThrows(IllegalStateException.class, writer::run);
+    assertEquals(0, accountant.usedBytes());
+  }
+
+  @Test
+  public void testTracksPipelinedAppendsUntilComplete() {
+    WriteMemoryAccountant accountant = new WriteMemoryAccountant(100);
+    TableName tableName = TableName.of("project", "dataset", "table");
+    StorageWriteApiBase streamWriter = mock(StorageWriteApiBase.class);
+    CompletableFuture<Void> append = new CompletableFuture<>();
+    when(streamWriter.initializeAndWriteRecords(any(), any(), any())).thenReturn(append);
+    StorageWriteApiWriter appendWriter = new StorageWriteApiWriter(
+        tableName,
+        streamWriter,
+        Collections.singletonList(new ConvertedRecord(record(0), new JSONObject())),
+        StorageWriteApiWriter.DEFAULT
+    );
+
+    TableWriterBuilder builder = accountant.track(mockBuilder(appendWriter, 80));
+    builder.addRow(record(0), TABLE);
+    Runnable writer = builder.build();
+
+    writer.run();
+    // The rows are still held by the append request until its response arrives
+    assertEquals(80, accountant.usedBytes());
+    assertFalse(PendingWrite.completionOf(writer).isDone());
+
+    append.complete(null);
+    assertEquals(0, accountant.usedBytes());
+    assertTrue(PendingWrite.completionOf(writer).isDone());
+  }
+
+  @Test
+  public void testReleasesFailedPipelinedAppends() {
+    WriteMemoryAccountant accountant = new WriteMemoryAccountant(100);
+    CompletableFuture<Void> append = new CompletableFuture<>();
+
+    TableWriterBuilder builder = accountant.track(mockBuilder(pendingWrite(append), 80));
+    builder.addRow(record(0), TABLE);
+    Runnable writer = builder.build();
+
+    writer.run();
+    assertEquals(80, accountant.usedBytes());
+    append.completeExceptionally(new IllegalStateException("failed"));
+    assertEquals(0, accountant.usedBytes());
+    assertTrue(PendingWrite.completionOf(writer).isCompletedExceptionally());
+  }
+
+  /**
+   * @param writer         the writer built by the builder
+   * @param estimatedBytes the estimated size of the builder's rows after each row is added
+   */
+  private static TableWriterBuilder mockBuilder(Runnable writer, long... estimatedBytes) {
+    TableWriterBuilder builder = mock(TableWriterBuilder.class);
+    when(builder.build()).thenReturn(writer);
+    Long[] rest = new Long[estimatedBytes.length - 1];
+    for (int i = 1; i < estimatedBytes.length; i++) {
+      rest[i - 1] = estimatedBytes[i];
+    }
+    when(builder.estimatedBytes()).thenReturn(estimatedBytes[0], rest);
+    return builder;
+  }
+
+  private static PendingWrite pendingWrite(CompletableFuture<Void> completion) {
+    return new PendingWrite() {
+      @Override
+      public void run() {
+      }
+
+      @Override
+      public CompletableFuture<Void> completion() {
+        return completion;
+      }
+    };
+  }
+
+  private static SinkRecord record(long offset) {
+    return new SinkRecord("topic", 0, null, null, null, "value", offset);
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.row;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.InsertAllRequest.RowToInsert;
+import com.google.cloud.bigquery.LegacySQLTypeName;
+import com.google.cloud.bigquery.Schema;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.jupiter.api.Test;
+
+public class AvroBlobEncoderTest {
+
+  private static final Schema TABLE_SCHEMA = Schema.of(
+      Field.newBuilder("id", LegacySQLTypeName.INTEGER).setMode(Field.Mode.REQUIRED).build(),
+      Field.of("name", LegacySQLTypeName.STRING),
+      Field.of("amount", LegacySQLTypeName.NUMERIC),
+      Field.of("created", LegacySQLTypeName.TIMESTAMP),
+      Field.of("day", LegacySQLTypeName.DATE),
+      Field.of("payload", LegacySQLTypeName.BYTES),
+      Field.newBuilder("tags", LegacySQLTypeName.STRING).setMode(Field.Mode.REPEATED).build(),
+      Field.of("address", LegacySQLTypeName.RECORD, Field.of("city", LegacySQLTypeName.STRING))
+  );
+
+  @Test
+  public void testWriteRows() throws Exception {
+    Map<String, Object> row = new HashMap<>();
+    row.put("id", 42L);
+    row.put("name", "kcbq");
+    row.put("amount", new BigDecimal("12.5"));
+    row.put("created", "1970-01-01 00:00:01.500");
+    row.put("day", "1970-01-11");
+    row.put("payload", "AQI=");
+    row.put("tags", Arrays.asList("a", "b"));
+    row.put("address", Collections.singletonMap("city", "Helsinki"));
+
+    List<GenericRecord> records = writeAndRead(row);
+
+    assertEquals(1, records.size());
+    GenericRecord record = records.get(0);
+    assertEquals(42L, record.get("id"));
+    assertEquals("kcbq", record.get("name").toString());
+    assertEquals(
+        new BigDecimal("12.500000000").unscaledValue(),
+        new BigInteger(toArray((ByteBuffer) record.get("amount"))));
+    assertEquals(1_500_000L, record.get("created"));
+    assertEquals(10, record.get("day"));
+    assertEquals(ByteBuffer.wrap(new byte[] {1, 2}), record.get("payload"));
+    assertEquals(2, ((List<?>) record.get("tags")).size());
+    assertEquals("Helsinki", ((GenericRecord) record.get("address")).get("city").toString());
+  }
+
+  @Test
+  public void testMissingOptionalFields() throws Exception {
+    List<GenericRecord> records = writeAndRead(Collections.singletonMap("id", 1L));
+
+    GenericRecord record = records.get(0);
+    assertNull(record.get("name"));
+    assertEquals(Collections.emptyList(), record.get("tags"));
+  }
+
+  @Test
+  public void testUnknownFieldIsUnsupported() {
+    Map<String, Object> row = new HashMap<>();
+    row.put("id", 1L);
+    row.put("unknown", "value");
+
+    assertThrows(AvroBlobEncoder.UnsupportedValueException.class, () -> writeAndRead(row));
+  }
+
+  @Test
+  public void testMissingRequiredFieldIsUnsupported() {
+    assertThrows(
+        AvroBlobEncoder.UnsupportedValueException.class,
+        () -> writeAndRead(Collections.singletonMap("name", "kcbq"))
+    );
+  }
+
+  @Test
+  public void testIntegralTimestampIsUnsupported() {
+    Map<String, Object> row = new HashMap<>();
+    row.put("id", 1L);
+    row.put("created", 1000L);
+
+    assertThrows(AvroBlobEncoder.UnsupportedValueException.class, () -> writeAndRead(row));
+  }
+
+  private List<GenericRecord> writeAndRead(Map<String, Object> row) throws Exception {
+    AvroBlobEncoder encoder = new AvroBlobEncoder(TABLE_SCHEMA);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    encoder.write(
+        Collections.singletonList(RowToInsert.of(row)),
+        out,
+        AvroBlobEncoder.codec("deflate")
+    );
+
+    List<GenericRecord> result = new ArrayList<>();
+    try (DataFileStream<GenericRecord> stream = new DataFileStream<>(
+        new ByteArrayInputStream(out.toByteArray()), new GenericDatumReader<>())) {
+      stream.forEach(result::add);
+    }
+    return result;
+  }
+
+  private static byte[] toArray(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+}
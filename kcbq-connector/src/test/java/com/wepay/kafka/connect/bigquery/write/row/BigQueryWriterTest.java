@@ -170,6 +170,50 @@ public class BigQueryWriterTest {
     verify(bigQuery, times(2)).insertAll(anyObject());
   }
 
+  @Test
+  public void testSchemaUpdatedBeforeWrite() {
+    final String topic = "test_topic";
+    final String dataset = "scratch";
+    final Map<String, String> properties = makeProperties("3", "2000", topic, dataset);
+    properties.put(BigQuerySinkConfig.ALLOW_NEW_BIGQUERY_FIELDS_CONFIG, "true");
+
+    BigQuery bigQuery = mock(BigQuery.class);
+    Table mockTable = mock(Table.class);
+    when(bigQuery.getTable(any())).thenReturn(mockTable);
+
+    InsertAllResponse insertAllResponse = mock(InsertAllResponse.class);
+    when(insertAllResponse.hasErrors()).thenReturn(false);
+    when(insertAllResponse.getInsertErrors()).thenReturn(Collections.emptyMap());
+    when(bigQuery.insertAll(anyObject())).thenReturn(insertAllResponse);
+
+    SinkTaskContext sinkTaskContext = mock(SinkTaskContext.class);
+
+    Storage storage = mock(Storage.class);
+    SchemaRetriever schemaRetriever = mock(SchemaRetriever.class);
+    SchemaManager schemaManager = mock(SchemaManager.class);
+    when(schemaManager.needsSchemaUpdate(any(), any())).thenReturn(true);
+    Map<TableId, Table> cache = new HashMap<>();
+
+    BigQuerySinkTask testTask = new BigQuerySinkTask(
+        bigQuery,
+        schemaRetriever,
+        storage,
+        schemaManager,
+        cache,
+        mockedStorageWriteApiDefaultStream,
+        mockedBatchHandler,
+        time
+    );
+    testTask.initialize(sinkTaskContext);
+    testTask.start(properties);
+    testTask.put(
+        Collections.singletonList(spoofSinkRecord(topic, 0, 0, "some_field", "some_value")));
+    testTask.flush(Collections.emptyMap());
+
+    verify(schemaManager, times(1)).updateSchema(anyObject(), anyObject());
+    verify(bigQuery, times(1)).insertAll(anyObject());
+  }
+
   @Test
   public void testNonAutoCreateTables() {
     final String topic = "test_topic";
@@ -23,13 +23,17 @@
 
 package com.wepay.kafka.connect.bigquery.write.row;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.google.cloud.WriteChannel;
 import com.google.cloud.bigquery.BigQuery;
 import com.google.cloud.bigquery.Table;
 import com.google.cloud.bigquery.TableId;
@@ -46,9 +50,17 @@ import com.wepay.kafka.connect.bigquery.utils.MockTime;
 import com.wepay.kafka.connect.bigquery.utils.Time;
 import com.wepay.kafka.connect.bigquery.write.storage.StorageApiBatchModeHandler;
 import com.wepay.kafka.connect.bigquery.write.storage.StorageWriteApiDefaultStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
 import org.apache.kafka.connect.data.Schema;
 import org.apache.kafka.connect.data.SchemaBuilder;
 import org.apache.kafka.connect.data.Struct;
@@ -57,6 +69,7 @@ import org.apache.kafka.connect.sink.SinkRecord;
 import org.apache.kafka.connect.sink.SinkTaskContext;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 
 public class GcsToBqWriterTest {
 
@@ -186,6 +199,67 @@ public class GcsToBqWriterTest {
     verify(storage, times(4)).create((BlobInfo) anyObject(), (byte[]) anyObject());
   }
 
+  @Test
+  public void testGCSStreamingUploadWithGzip() throws Exception {
+    final String topic = "test_topic";
+    final String dataset = "scratch";
+    final Map<String, String> properties = makeProperties("3", "2000", topic, dataset);
+    properties.put(BigQuerySinkConfig.ENABLE_GCS_STREAMING_UPLOAD_CONFIG, "true");
+    properties.put(BigQuerySinkConfig.GCS_BLOB_COMPRESSION_CONFIG, BigQuerySinkConfig.GCS_BLOB_COMPRESSION_GZIP);
+
+    BigQuery bigQuery = mock(BigQuery.class);
+    expectTable(bigQuery);
+    Storage storage = mock(Storage.class);
+    SinkTaskContext sinkTaskContext = mock(SinkTaskContext.class);
+
+    SchemaRetriever schemaRetriever = mock(SchemaRetriever.class);
+    SchemaManager schemaManager = mock(SchemaManager.class);
+    Map<TableId, Table> cache = new HashMap<>();
+
+    ByteArrayOutputStream uploaded = new ByteArrayOutputStream();
+    WriteChannel channel = mock(WriteChannel.class);
+    when(channel.write(any(ByteBuffer.class))).thenAnswer(invocation -> {
+      ByteBuffer buffer = invocation.getArgument(0);
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.get(bytes);
+      uploaded.write(bytes);
+      return bytes.length;
+    });
+    when(storage.writer(any(BlobInfo.class))).thenReturn(channel);
+
+    BigQuerySinkTask testTask = new BigQuerySinkTask(
+        bigQuery,
+        schemaRetriever,
+        storage,
+        schemaManager,
+        cache,
+        mockedStorageWriteApiDefaultStream,
+        mockedBatchHandler,
+        time
+    );
+    testTask.initialize(sinkTaskContext);
+    testTask.start(properties);
+    testTask.put(
+        Collections.singletonList(spoofSinkRecord(topic, 0, 0, "some_field", "some_value")));
+    testTask.flush(Collections.emptyMap());
+
+    ArgumentCaptor<BlobInfo> blobInfo = ArgumentCaptor.forClass(BlobInfo.class);
+    verify(storage, times(1)).writer(blobInfo.capture());
+    verify(storage, never()).create((BlobInfo) anyObject(), (byte[]) anyObject());
+    verify(channel, times(1)).close();
+    assertEquals("gzip", blobInfo.getValue().getContentEncoding());
+
+    StringWriter content = new StringWriter();
+    try (Reader reader = new InputStreamReader(
+        new GZIPInputStream(new ByteArrayInputStream(uploaded.toByteArray())), StandardCharsets.UTF_8)) {
+      char[] buffer = new char[1024];
+      for (int read = reader.read(buffer); read != -1; read = reader.read(buffer)) {
+        content.write(buffer, 0, read);
+      }
+    }
+    assertEquals("{\"some_field\":\"some_value\"}\n", content.toString());
+  }
+
   private void expectTable(BigQuery mockBigQuery) {
     Table mockTable = mock(Table.class);
     when(mockBigQuery.getTable(anyObject())).thenReturn(mockTable);
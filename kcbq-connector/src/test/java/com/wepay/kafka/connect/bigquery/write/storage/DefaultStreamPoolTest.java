@@ -0,0 +1,131 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.storage;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.google.cloud.bigquery.storage.v1.JsonStreamWriter;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Test;
+
+public class DefaultStreamPoolTest {
+
+  @Test
+  public void testWritersHandedOutRoundRobin() {
+    JsonStreamWriter first = mock(JsonStreamWriter.class);
+    JsonStreamWriter second = mock(JsonStreamWriter.class);
+    DefaultStreamPool pool = new DefaultStreamPool(2);
+    Supplier<JsonStreamWriter> factory = factory(first, second);
+
+    assertSame(first, pool.writer(factory));
+    assertSame(second, pool.writer(factory));
+    assertSame(first, pool.writer(factory));
+    assertSame(second, pool.writer(factory));
+  }
+
+  @Test
+  public void testInvalidateReplacesOnlyClosedWriter() {
+    JsonStreamWriter first = mock(JsonStreamWriter.class);
+    JsonStreamWriter second = mock(JsonStreamWriter.class);
+    JsonStreamWriter replacement = mock(JsonStreamWriter.class);
+    DefaultStreamPool pool = new DefaultStreamPool(2);
+    Supplier<JsonStreamWriter> factory = factory(first, second, replacement);
+
+    pool.writer(factory);
+    pool.writer(factory);
+
+    assertTrue(pool.invalidate(first));
+    // A second failure on the same writer must not close its replacement
+    assertFalse(pool.invalidate(first));
+    verify(first, times(1)).close();
+    verify(second, never()).close();
+
+    JsonStreamWriter replaced = pool.writer(factory);
+    assertSame(replacement, replaced);
+    assertNotSame(first, replaced);
+    assertSame(second, pool.writer(factory));
+  }
+
+  @Test
+  public void testCloseAll() {
+    JsonStreamWriter first = mock(JsonStreamWriter.class);
+    JsonStreamWriter second = mock(JsonStreamWriter.class);
+    DefaultStreamPool pool = new DefaultStreamPool(3);
+    Supplier<JsonStreamWriter> factory = factory(first, second);
+
+    pool.writer(factory);
+    pool.writer(factory);
+    pool.closeAll();
+
+    verify(first, times(1)).close();
+    verify(second, times(1)).close();
+  }
+
+  @Test
+  public void testRetireAllClosesWritersOnceReleased() {
+    JsonStreamWriter first = mock(JsonStreamWriter.class);
+    JsonStreamWriter second = mock(JsonStreamWriter.class);
+    DefaultStreamPool pool = new DefaultStreamPool(1);
+    Supplier<JsonStreamWriter> factory = factory(first, second);
+
+    assertSame(first, pool.writer(factory));
+    pool.retireAll();
+
+    // The append using the retired writer has not completed yet
+    verify(first, never()).close();
+    assertSame(second, pool.writer(factory));
+
+    pool.release(first);
+    verify(first, times(1)).close();
+    // Releasing it again must not close it a second time
+    pool.release(first);
+    verify(first, times(1)).close();
+    verify(second, never()).close();
+  }
+
+  @Test
+  public void testRetireAllClosesIdleWriters() {
+    JsonStreamWriter first = mock(JsonStreamWriter.class);
+    DefaultStreamPool pool = new DefaultStreamPool(2);
+
+    pool.release(pool.writer(factory(first)));
+    pool.retireAll();
+
+    verify(first, times(1)).close();
+  }
+
+  private static Supplier<JsonStreamWriter> factory(JsonStreamWriter... writers) {
+    Iterator<JsonStreamWriter> iterator = Arrays.asList(writers).iterator();
+    return iterator::next;
+  }
+}
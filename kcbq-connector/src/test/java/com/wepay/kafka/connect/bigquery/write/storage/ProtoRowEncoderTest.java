@@ -0,0 +1,169 @@
+/*
+ * Copyright 2024 Copyright 2022 Aiven Oy and
+ * bigquery-connector-for-apache-kafka project contributors
+ *
+ * This software contains code derived from the Confluent BigQuery
+ * Kafka Connector, Copyright Confluent, Inc, which in turn
+ * contains code derived from the WePay BigQuery Kafka Connector,
+ * Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.cloud.bigquery.storage.v1.BQTableSchemaToProtoDescriptor;
+import com.google.cloud.bigquery.storage.v1.BigDecimalByteStringEncoder;
+import com.google.cloud.bigquery.storage.v1.TableFieldSchema;
+import com.google.cloud.bigquery.storage.v1.TableSchema;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ProtoRowEncoderTest {
+
+  private final TableSchema tableSchema = TableSchema.newBuilder()
+      .addFields(field("id", TableFieldSchema.Type.INT64, TableFieldSchema.Mode.REQUIRED))
+      .addFields(field("name", TableFieldSchema.Type.STRING, TableFieldSchema.Mode.NULLABLE))
+      .addFields(field("score", TableFieldSchema.Type.DOUBLE, TableFieldSchema.Mode.NULLABLE))
+      .addFields(field("amount", TableFieldSchema.Type.NUMERIC, TableFieldSchema.Mode.NULLABLE))
+      .addFields(field("created", TableFieldSchema.Type.TIMESTAMP, TableFieldSchema.Mode.NULLABLE))
+      .addFields(field("day", TableFieldSchema.Type.DATE, TableFieldSchema.Mode.NULLABLE))
+      .addFields(field("tags", TableFieldSchema.Type.STRING, TableFieldSchema.Mode.REPEATED))
+      .addFields(field("payload", TableFieldSchema.Type.BYTES, TableFieldSchema.Mode.NULLABLE))
+      .addFields(field("at", TableFieldSchema.Type.TIME, TableFieldSchema.Mode.NULLABLE))
+      .addFields(
+          field("nested", TableFieldSchema.Type.STRUCT, TableFieldSchema.Mode.NULLABLE).toBuilder()
+              .addFields(field("flag", TableFieldSchema.Type.BOOL, TableFieldSchema.Mode.NULLABLE))
+      ).build();
+
+  private Descriptors.Descriptor descriptor;
+  private ProtoRowEncoder encoder;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    descriptor = BQTableSchemaToProtoDescriptor.convertBQTableSchemaToProtoDescriptor(tableSchema);
+    encoder = new ProtoRowEncoder(tableSchema, descriptor);
+  }
+
+  @Test
+  public void testEncodeRow() throws Exception {
+    Map<String, Object> nested = new HashMap<>();
+    nested.put("flag", true);
+    Map<String, Object> row = new HashMap<>();
+    row.put("id", 42L);
+    row.put("name", "kcbq");
+    row.put("score", 1.5);
+    row.put("amount", new BigDecimal("12.340"));
+    row.put("created", "2024-01-02 03:04:05.678");
+    row.put("day", "2024-01-02");
+    row.put("tags", Arrays.asList("a", "b"));
+    row.put("payload", ByteString.copyFromUtf8("bytes"));
+    row.put("nested", nested);
+
+    DynamicMessage message = DynamicMessage.parseFrom(descriptor, encoder.encode(row));
+
+    assertEquals(42L, message.getField(descriptor.findFieldByName("id")));
+    assertEquals("kcbq", message.getField(descriptor.findFieldByName("name")));
+    assertEquals(1.5, message.getField(descriptor.findFieldByName("score")));
+    BigDecimal amount = BigDecimalByteStringEncoder.decodeNumericByteString(
+        (ByteString) message.getField(descriptor.findFieldByName("amount")));
+    assertEquals(0, new BigDecimal("12.340").compareTo(amount));
+    assertEquals(1704164645678000L, message.getField(descriptor.findFieldByName("created")));
+    assertEquals(19724, message.getField(descriptor.findFieldByName("day")));
+    assertEquals(Arrays.asList("a", "b"), message.getField(descriptor.findFieldByName("tags")));
+    assertEquals(ByteString.copyFromUtf8("bytes"), message.getField(descriptor.findFieldByName("payload")));
+
+    Descriptors.FieldDescriptor nestedField = descriptor.findFieldByName("nested");
+    DynamicMessage nestedMessage = (DynamicMessage) message.getField(nestedField);
+    assertEquals(true, nestedMessage.getField(nestedField.getMessageType().findFieldByName("flag")));
+  }
+
+  @Test
+  public void testEncodeTimestampWithOffset() throws Exception {
+    Map<String, Object> row = new HashMap<>();
+    row.put("id", 1L);
+    row.put("created", "2024-01-02 04:04:05.678+01:00");
+
+    DynamicMessage message = DynamicMessage.parseFrom(descriptor, encoder.encode(row));
+
+    assertEquals(1704164645678000L, message.getField(descriptor.findFieldByName("created")));
+  }
+
+  @Test
+  public void testEncodeRows() throws Exception {
+    List<ConvertedRecord> rows = Arrays.asList(
+        new ConvertedRecord(null, Collections.singletonMap("id", (Object) 1L)),
+        new ConvertedRecord(null, Collections.singletonMap("id", (Object) 2L))
+    );
+
+    assertEquals(2, encoder.encode(rows).getSerializedRowsCount());
+  }
+
+  @Test
+  public void testUnknownField() {
+    Map<String, Object> row = new HashMap<>();
+    row.put("id", 1L);
+    row.put("unknown", "value");
+
+    ProtoRowEncoder.UnsupportedRowException e = assertThrows(
+        ProtoRowEncoder.UnsupportedRowException.class,
+        () -> encoder.encode(row)
+    );
+    assertTrue(e.isSchemaMismatch());
+  }
+
+  @Test
+  public void testMissingRequiredField() {
+    ProtoRowEncoder.UnsupportedRowException e = assertThrows(
+        ProtoRowEncoder.UnsupportedRowException.class,
+        () -> encoder.encode(Collections.<String, Object>singletonMap("name", "kcbq"))
+    );
+    assertFalse(e.isSchemaMismatch());
+  }
+
+  @Test
+  public void testUnsupportedValue() {
+    Map<String, Object> row = new HashMap<>();
+    row.put("id", 1L);
+    row.put("at", "03:04:05.678");
+
+    ProtoRowEncoder.UnsupportedRowException e = assertThrows(
+        ProtoRowEncoder.UnsupportedRowException.class,
+        () -> encoder.encode(row)
+    );
+    assertFalse(e.isSchemaMismatch());
+  }
+
+  private static TableFieldSchema field(String name, TableFieldSchema.Type type, TableFieldSchema.Mode mode) {
+    return TableFieldSchema.newBuilder()
+        .setName(name)
+        .setType(type)
+        .setMode(mode)
+        .build();
+  }
+}
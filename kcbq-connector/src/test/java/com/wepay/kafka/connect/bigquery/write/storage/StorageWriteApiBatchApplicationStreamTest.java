@@ -46,6 +46,7 @@ import com.google.cloud.bigquery.storage.v1.TableSchema;
 import com.google.protobuf.Descriptors;
 import com.wepay.kafka.connect.bigquery.ErrantRecordHandler;
 import com.wepay.kafka.connect.bigquery.SchemaManager;
+import com.wepay.kafka.connect.bigquery.WriteMetrics;
 import com.wepay.kafka.connect.bigquery.exception.BigQueryStorageWriteApiConnectException;
 import com.wepay.kafka.connect.bigquery.utils.MockTime;
 import io.grpc.StatusRuntimeException;
@@ -60,6 +61,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.record.TimestampType;
 import org.apache.kafka.connect.data.Schema;
 import org.apache.kafka.connect.sink.ErrantRecordReporter;
 import org.apache.kafka.connect.sink.SinkRecord;
@@ -140,7 +142,7 @@ public class StorageWriteApiBatchApplicationStreamTest {
     doNothing().when(mockedApplicationStream2).markInactive();
     doNothing().when(mockedApplicationStream1).finalise();
     doNothing().when(mockedApplicationStream1).commit();
-    doNothing().when(mockedSchemaManager).updateSchema(any(), any());
+    doReturn(true).when(mockedSchemaManager).updateSchema(any(), any());
     doReturn(true).when(mockedSchemaManager).createTable(any(), any());
 
     when(mockedJsonWriter.append(any())).thenReturn(mockedResponse);
@@ -273,6 +275,40 @@ public class StorageWriteApiBatchApplicationStreamTest {
     });
   }
 
+  @Test
+  public void testUpdateOffsetsOnStreamTracksNewestRecordTimestamp() {
+    initialiseStreams();
+    List<ConvertedRecord> timestampedRows = new ArrayList<>();
+    for (long timestamp : new long[] {1_000L, 3_000L, 2_000L}) {
+      SinkRecord record = new SinkRecord("t1", 0, null, null, Schema.BOOLEAN_SCHEMA, true, 100, timestamp,
+          TimestampType.CREATE_TIME);
+      timestampedRows.add(new ConvertedRecord(record, new JSONObject()));
+    }
+
+    mockedStream.updateOffsetsOnStream(mockedTable1.toString(), timestampedRows);
+
+    verify(mockedApplicationStream1, times(1)).updateMaxRecordTimestamp(3_000L);
+  }
+
+  @Test
+  public void testCommitAcknowledgesNewestRecordTimestamp() throws Exception {
+    initialiseStreams();
+    WriteMetrics writeMetrics = mock(WriteMetrics.class);
+    WriteMetrics.TableWriteMetrics tableMetrics = mock(WriteMetrics.TableWriteMetrics.class);
+    when(writeMetrics.table(any(), any())).thenReturn(tableMetrics);
+    mockedStream.writeMetrics = writeMetrics;
+    mockedStream.currentStreams.put(mockedTable1.toString(), "newStream");
+    when(mockedApplicationStream1.canBeCommitted()).thenReturn(true);
+    when(mockedApplicationStream1.getMaxRecordTimestamp()).thenReturn(3_000L);
+    when(mockedResponse.get()).thenReturn(successResponse);
+
+    mockedStream.initializeAndWriteRecords(mockedTable1, mockedRows, mockedStreamName1);
+
+    // The rows only become visible in BigQuery once the stream is committed
+    verifyAllStreamCalls();
+    verify(tableMetrics, times(1)).acknowledged(3_000L);
+  }
+
   @Test
   public void testAppendSuccess() throws Exception {
     initialiseStreams();
@@ -24,22 +24,30 @@
 package com.wepay.kafka.connect.bigquery.write.storage;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.CALLS_REAL_METHODS;
-import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.after;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.api.core.SettableApiFuture;
 import com.google.cloud.bigquery.storage.v1.AppendRowsResponse;
 import com.google.cloud.bigquery.storage.v1.Exceptions;
 import com.google.cloud.bigquery.storage.v1.JsonStreamWriter;
+import com.google.cloud.bigquery.storage.v1.ProtoRows;
 import com.google.cloud.bigquery.storage.v1.RowError;
 import com.google.cloud.bigquery.storage.v1.TableName;
 import com.google.cloud.bigquery.storage.v1.TableSchema;
@@ -48,17 +56,23 @@ import com.wepay.kafka.connect.bigquery.ErrantRecordHandler;
 import com.wepay.kafka.connect.bigquery.SchemaManager;
 import com.wepay.kafka.connect.bigquery.exception.BigQueryStorageWriteApiConnectException;
 import com.wepay.kafka.connect.bigquery.utils.MockTime;
+import com.wepay.kafka.connect.bigquery.write.AdaptiveBatchSizer;
 import io.grpc.StatusRuntimeException;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import org.apache.kafka.connect.data.Schema;
 import org.apache.kafka.connect.sink.ErrantRecordReporter;
 import org.apache.kafka.connect.sink.SinkRecord;
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -127,14 +141,14 @@ public class StorageWriteApiDefaultStreamTest {
   public void setUp() throws Exception {
     errorMapping.put(0, "f0 field is unknown");
     defaultStream.tableToStream = new ConcurrentHashMap<>();
-    defaultStream.tableToStream.put("testTable", mockedStreamWriter);
+    defaultStream.tableToStream.put("testTable", streamPool(mockedStreamWriter));
     defaultStream.schemaManager = mockedSchemaManager;
     defaultStream.time = time;
     defaultStream.errantRecordHandler = mockedErrantRecordHandler;
     doReturn(mockedStreamWriter).when(defaultStream).getDefaultStream(any(), any());
     when(mockedStreamWriter.append(ArgumentMatchers.any())).thenReturn(mockedResponse);
     doReturn(true).when(mockedSchemaManager).createTable(any(), any());
-    doNothing().when(mockedSchemaManager).updateSchema(any(), any());
+    doReturn(true).when(mockedSchemaManager).updateSchema(any(), any());
     when(mockedErrantRecordHandler.getErrantRecordReporter()).thenReturn(mockedErrantReporter);
     when(defaultStream.getAutoCreateTables()).thenReturn(true);
     when(defaultStream.canAttemptSchemaUpdate()).thenReturn(true);
@@ -282,11 +296,144 @@ public class StorageWriteApiDefaultStreamTest {
   @Test
   public void testShutdown() {
     defaultStream.tableToStream = new ConcurrentHashMap<>();
-    defaultStream.tableToStream.put("testTable", mockedStreamWriter);
+    defaultStream.tableToStream.put("testTable", streamPool(mockedStreamWriter));
     defaultStream.preShutdown();
     verify(mockedStreamWriter, times(1)).close();
   }
 
+  @Test
+  public void testPipelinedAppendSuccess() throws Exception {
+    defaultStream.appendPipeline = new AppendPipeline(2);
+    when(mockedStreamWriter.append(ArgumentMatchers.any())).thenReturn(ApiFutures.immediateFuture(successResponse));
+
+    defaultStream.initializeAndWriteRecords(mockedTableName, testRows, null);
+    defaultStream.initializeAndWriteRecords(mockedTableName, testRows, null);
+    defaultStream.awaitPendingAppends();
+
+    verify(mockedStreamWriter, times(2)).append(any());
+  }
+
+  @Test
+  public void testPipelinedAppendFailureSurfacedOnAwait() throws Exception {
+    AppendRowsResponse nonRetriableError = AppendRowsResponse.newBuilder()
+        .setError(
+            Status.newBuilder()
+                .setCode(0)
+                .setMessage("I am non-retriable error")
+                .build()
+        ).build();
+    defaultStream.appendPipeline = new AppendPipeline(2);
+    when(mockedStreamWriter.append(ArgumentMatchers.any())).thenReturn(ApiFutures.immediateFuture(nonRetriableError));
+
+    defaultStream.initializeAndWriteRecords(mockedTableName, testRows, null);
+
+    BigQueryStorageWriteApiConnectException e = assertThrows(
+        BigQueryStorageWriteApiConnectException.class,
+        defaultStream::awaitPendingAppends
+    );
+    assertEquals(nonRetriableExpectedException, e.getCause().getMessage());
+    assertThrows(
+        BigQueryStorageWriteApiConnectException.class,
+        () -> defaultStream.initializeAndWriteRecords(mockedTableName, testRows, null)
+    );
+  }
+
+  @Test
+  public void testPipelinedAppendFallbackAfterFailedResponse() throws Exception {
+    defaultStream.appendPipeline = new AppendPipeline(2);
+    when(mockedStreamWriter.append(ArgumentMatchers.any()))
+        .thenReturn(ApiFutures.immediateFuture(schemaError))
+        .thenReturn(mockedResponse);
+    when(mockedResponse.get()).thenReturn(successResponse);
+
+    defaultStream.initializeAndWriteRecords(mockedTableName, testRows, null);
+    defaultStream.awaitPendingAppends();
+
+    verify(mockedStreamWriter, times(2)).append(any());
+    verify(mockedSchemaManager, times(1)).updateSchema(any(), any());
+  }
+
+  @Test
+  public void testPipelinedAppendFallbackAfterAppendException() throws Exception {
+    defaultStream.appendPipeline = new AppendPipeline(2);
+    when(mockedStreamWriter.append(ArgumentMatchers.any()))
+        .thenThrow(new RuntimeException("I am a failed append"))
+        .thenReturn(mockedResponse);
+    when(mockedResponse.get()).thenReturn(successResponse);
+
+    defaultStream.initializeAndWriteRecords(mockedTableName, testRows, null);
+    defaultStream.awaitPendingAppends();
+
+    verify(mockedStreamWriter, times(2)).append(any());
+  }
+
+  @Test
+  public void testPipelinedAppendFallbackHoldsPermit() throws Exception {
+    defaultStream.appendPipeline = new AppendPipeline(1);
+    CountDownLatch fallbackBlocked = new CountDownLatch(1);
+    AtomicReference<String> fallbackThread = new AtomicReference<>();
+    when(mockedStreamWriter.append(ArgumentMatchers.any()))
+        .thenReturn(ApiFutures.immediateFuture(schemaError))
+        .thenReturn(mockedResponse)
+        .thenReturn(ApiFutures.immediateFuture(successResponse));
+    when(mockedResponse.get()).thenAnswer(invocation -> {
+      fallbackThread.set(Thread.currentThread().getName());
+      fallbackBlocked.await();
+      return successResponse;
+    });
+
+    defaultStream.initializeAndWriteRecords(mockedTableName, testRows, null);
+    Thread secondWrite = new Thread(() -> defaultStream.initializeAndWriteRecords(mockedTableName, testRows, null));
+    secondWrite.start();
+
+    // The second write must wait for the fallback of the first to finish
+    verify(mockedStreamWriter, after(200).times(2)).append(any());
+    assertTrue(fallbackThread.get().startsWith("kcbq-append-completion-"));
+
+    fallbackBlocked.countDown();
+    verify(mockedStreamWriter, timeout(1000).times(3)).append(any());
+    secondWrite.join(TimeUnit.SECONDS.toMillis(1));
+    defaultStream.awaitPendingAppends();
+  }
+
+  @Test
+  public void testPipelinedAppendShutdownCompletesPendingAppends() throws Exception {
+    defaultStream.appendPipeline = new AppendPipeline(2);
+    when(mockedStreamWriter.append(ArgumentMatchers.any())).thenReturn(SettableApiFuture.create());
+
+    defaultStream.initializeAndWriteRecords(mockedTableName, testRows, null);
+    defaultStream.appendPipeline.shutdown();
+
+    assertThrows(
+        BigQueryStorageWriteApiConnectException.class,
+        defaultStream::awaitPendingAppends
+    );
+  }
+
+  @Test
+  public void testBatchLimitGrowsOnSuccessAtLimit() throws Exception {
+    defaultStream.batchSizer = new AdaptiveBatchSizer<>();
+    defaultStream.batchSizer.onTooLarge(mockedTableName.toString(), 2, -1);
+    when(mockedResponse.get()).thenReturn(successResponse);
+
+    defaultStream.initializeAndWriteRecords(mockedTableName, testRows, null);
+
+    assertEquals(2, defaultStream.batchSizer.limit(mockedTableName.toString()).maxRows());
+  }
+
+  @Test
+  public void testBatchLimitGrowsOnPipelinedSuccessAtLimit() throws Exception {
+    defaultStream.appendPipeline = new AppendPipeline(2);
+    defaultStream.batchSizer = new AdaptiveBatchSizer<>();
+    defaultStream.batchSizer.onTooLarge(mockedTableName.toString(), 2, -1);
+    when(mockedStreamWriter.append(ArgumentMatchers.any())).thenReturn(ApiFutures.immediateFuture(successResponse));
+
+    defaultStream.initializeAndWriteRecords(mockedTableName, testRows, null).get();
+
+    verify(mockedStreamWriter, times(1)).append(any());
+    assertEquals(2, defaultStream.batchSizer.limit(mockedTableName.toString()).maxRows());
+  }
+
   private void verifyException(String expectedException) {
     BigQueryStorageWriteApiConnectException e = assertThrows(
         BigQueryStorageWriteApiConnectException.class,
@@ -306,4 +453,121 @@ public class StorageWriteApiDefaultStreamTest {
     assertEquals("f0 field is unknown", captorRecord.getValue().get(mockedSinkRecord).getMessage());
     assertEquals(1, captorRecord.getValue().size());
   }
+
+  @Test
+  public void testSchemaUpdateBeforeWriteRetiresWritersOnceAppendsComplete() throws Exception {
+    JsonStreamWriter inFlightWriter = mock(JsonStreamWriter.class);
+    // The pool hands out the writer once, which stands for an append still in flight on it
+    DefaultStreamPool pool = streamPool(inFlightWriter);
+    defaultStream.tableToStream.put(mockedTableName.toString(), pool);
+    when(mockedSchemaManager.needsSchemaUpdate(any(), any())).thenReturn(true);
+    when(mockedResponse.get()).thenReturn(successResponse);
+
+    defaultStream.initializeAndWriteRecords(mockedTableName, testRows, null);
+
+    verify(mockedSchemaManager, times(1)).updateSchema(any(), any());
+    verify(inFlightWriter, never()).close();
+    JsonStreamWriter newWriter = mock(JsonStreamWriter.class);
+    assertSame(newWriter, pool.writer(() -> newWriter));
+
+    pool.release(inFlightWriter);
+    verify(inFlightWriter, times(1)).close();
+    verify(newWriter, never()).close();
+  }
+
+  @Test
+  public void testSchemaUpdateBeforeWriteNotAppliedKeepsWriters() throws Exception {
+    JsonStreamWriter writer = mock(JsonStreamWriter.class);
+    DefaultStreamPool pool = streamPool(writer);
+    defaultStream.tableToStream.put(mockedTableName.toString(), pool);
+    when(mockedSchemaManager.needsSchemaUpdate(any(), any())).thenReturn(true);
+    // Another task may already have applied the change, in which case the table is left alone
+    doReturn(false).when(mockedSchemaManager).updateSchema(any(), any());
+    when(mockedResponse.get()).thenReturn(successResponse);
+
+    defaultStream.initializeAndWriteRecords(mockedTableName, testRows, null);
+
+    verify(mockedSchemaManager, times(1)).updateSchema(any(), any());
+    verify(defaultStream, never()).onSchemaUpdated(any());
+    assertSame(writer, pool.writer(() -> mock(JsonStreamWriter.class)));
+    verify(writer, never()).close();
+  }
+
+  @Test
+  public void testProtoAppend() throws Exception {
+    ProtoRowsWriter protoWriter = protoStream();
+    ProtoRows protoRows = ProtoRows.getDefaultInstance();
+    when(protoWriter.encode(any())).thenReturn(protoRows);
+    when(protoWriter.append(protoRows)).thenReturn(ApiFutures.immediateFuture(successResponse));
+
+    defaultStream.initializeAndWriteRecords(mockedTableName, testRows, null);
+
+    verify(protoWriter, times(1)).append(protoRows);
+    verify(mockedStreamWriter, never()).append(any(JSONArray.class));
+    verify(protoWriter, never()).close();
+  }
+
+  @Test
+  public void testProtoAppendFallsBackToJsonForUnsupportedRows() throws Exception {
+    ProtoRowsWriter protoWriter = protoStream();
+    SharedWriter<ProtoRowsWriter> sharedWriter = defaultStream.tableToProtoStream.get(mockedTableName.toString());
+    when(protoWriter.encode(any())).thenThrow(new ProtoRowEncoder.UnsupportedRowException("unsupported", false));
+    when(mockedResponse.get()).thenReturn(successResponse);
+
+    defaultStream.initializeAndWriteRecords(mockedTableName, testRows, null);
+
+    verify(protoWriter, never()).append(any());
+    verify(mockedStreamWriter, times(1)).append(any(JSONArray.class));
+    // Rows the encoder does not support say nothing about the table schema, so the writer is kept
+    assertSame(sharedWriter, defaultStream.tableToProtoStream.get(mockedTableName.toString()));
+    verify(protoWriter, never()).close();
+  }
+
+  @Test
+  public void testProtoWriterRetiredOnSchemaMismatch() throws Exception {
+    ProtoRowsWriter protoWriter = protoStream();
+    when(protoWriter.encode(any())).thenThrow(new ProtoRowEncoder.UnsupportedRowException("mismatch", true));
+    when(mockedResponse.get()).thenReturn(successResponse);
+
+    defaultStream.initializeAndWriteRecords(mockedTableName, testRows, null);
+
+    verify(mockedStreamWriter, times(1)).append(any(JSONArray.class));
+    assertNull(defaultStream.tableToProtoStream.get(mockedTableName.toString()));
+    verify(protoWriter, times(1)).close();
+  }
+
+  @Test
+  public void testProtoWriterRetiredOnUpdatedSchema() throws Exception {
+    ProtoRowsWriter protoWriter = protoStream();
+    ProtoRows protoRows = ProtoRows.getDefaultInstance();
+    when(protoWriter.encode(any())).thenReturn(protoRows);
+    when(protoWriter.append(protoRows)).thenReturn(ApiFutures.immediateFuture(schemaError));
+    // The retry cannot open a new proto writer, and writes the rows as JSON instead
+    doThrow(new IOException("no client")).when(defaultStream).getWriteClient();
+    when(mockedResponse.get()).thenReturn(successResponse);
+
+    defaultStream.initializeAndWriteRecords(mockedTableName, testRows, null);
+
+    verify(mockedSchemaManager, times(1)).updateSchema(any(), any());
+    verify(protoWriter, times(1)).append(protoRows);
+    verify(protoWriter, times(1)).close();
+    verify(mockedStreamWriter, times(1)).append(any(JSONArray.class));
+  }
+
+  /**
+   * Enables proto encoding and caches a mocked proto writer for the test table.
+   */
+  private ProtoRowsWriter protoStream() {
+    ProtoRowsWriter protoWriter = mock(ProtoRowsWriter.class);
+    defaultStream.useProtoEncoding = true;
+    defaultStream.tableToProtoStream = new ConcurrentHashMap<>();
+    defaultStream.tableToProtoStream.put(mockedTableName.toString(), new SharedWriter<>(protoWriter));
+    return protoWriter;
+  }
+
+  private static DefaultStreamPool streamPool(JsonStreamWriter writer) {
+    DefaultStreamPool pool = new DefaultStreamPool(1);
+    pool.writer(() -> writer);
+    return pool;
+  }
 }